@@ -0,0 +1,29 @@
+#!/bin/sh
+# Usage: LIB_DIR=<dir with netty jars> ./run-cluster.sh [shards] [router port]
+# Starts the shards on the ports after the router's and the router in the foreground; Ctrl+C stops all.
+# Add a node later from a client connected to the router: add_shard -a=localhost:<port>
+# The router logs in to the shards with PROXY_SECRET; a random one is made up when it is not set, so a node
+# added later has to be started with the secret printed at startup.
+set -e
+cd "$(dirname "$0")"
+SHARDS=${1:-3}
+PORT=${2:-8080}
+CP=$(ls "${LIB_DIR:?LIB_DIR is not set}"/*.jar | tr '\n' ':')
+SECRET=${PROXY_SECRET:-$(od -An -N16 -tx1 /dev/urandom | tr -d ' \n')}
+echo "Секрет маршрутизатора: $SECRET"
+
+rm -rf out && mkdir -p out cluster
+javac -encoding UTF-8 -d out -cp "$CP" $(ls src/*.java | grep -v 'Test\.java$')
+
+NODES=""
+i=1
+while [ "$i" -le "$SHARDS" ]; do
+    port=$((PORT + i))
+    java -Dfile.encoding=UTF-8 -cp "out:$CP" Main server --port="$port" --data-dir="cluster/node-$port" \
+        --proxy-secret="$SECRET" --log-file="cluster/node-$port.log" &
+    NODES="$NODES${NODES:+,}localhost:$port"
+    i=$((i + 1))
+done
+trap 'kill $(jobs -p) 2>/dev/null' EXIT INT TERM
+sleep 2
+java -Dfile.encoding=UTF-8 -cp "out:$CP" Main router --port="$PORT" --shards="$NODES" --proxy-secret="$SECRET"
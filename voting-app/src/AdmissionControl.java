@@ -0,0 +1,135 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits shared by all connections: one token bucket per logged-in user and one per command type. The
+ * per-connection bucket lives in each connection's {@link AdmissionHandler}. A request is admitted only if
+ * every bucket that applies to it has a token; otherwise it is answered at once without reaching the state.
+ */
+public class AdmissionControl {
+    public enum Scope {
+        CONNECTION,
+        USER,
+        COMMAND
+    }
+
+    static final int MAX_IDLE_USERS = 100_000;
+    /** Buckets a new user looks at for idle ones once {@link #MAX_IDLE_USERS} are tracked. */
+    static final int SWEEP_STEP = 64;
+
+    private final int connectionRate;
+    private final int connectionBurst;
+    private final int userRate;
+    private final int userBurst;
+    private final Map<String, TokenBucket> commands = new HashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    /** Where the sweep for idle users stopped; used only by the thread holding {@link #sweeping}. */
+    private Iterator<TokenBucket> sweep;
+    final LongAdder admitted = new LongAdder();
+    final LongAdder readPauses = new LongAdder();
+    private final LongAdder[] rejected = new LongAdder[Scope.values().length];
+
+    public AdmissionControl(ServerConfig config) {
+        this.connectionRate = config.connectionRate;
+        this.connectionBurst = burstOf(config.connectionRate, config.connectionBurst);
+        this.userRate = config.userRate;
+        this.userBurst = burstOf(config.userRate, config.userBurst);
+        config.commandRates.forEach((command, rate) -> commands.put(command, new TokenBucket(rate, rate)));
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    private static int burstOf(int rate, int burst) {
+        return burst > 0 ? burst : rate;
+    }
+
+    public boolean isEnabled() {
+        return connectionRate > 0 || userRate > 0 || !commands.isEmpty();
+    }
+
+    /**
+     * A bucket for one connection, or null if connections are not limited.
+     */
+    public TokenBucket newConnectionBucket() {
+        return connectionRate > 0 ? new TokenBucket(connectionRate, connectionBurst) : null;
+    }
+
+    /**
+     * Takes the user and command tokens of a request, or returns the scope that turned it away. A command
+     * token taken before the user bucket refused is not returned: the request did reach the server.
+     */
+    public Scope admit(String username, String command, int tokens, long nowNanos) {
+        TokenBucket commandBucket = commands.get(command);
+        if (commandBucket != null && !commandBucket.tryAcquire(tokens, nowNanos)) {
+            return reject(Scope.COMMAND);
+        }
+        if (userRate > 0 && username != null && !userBucket(username, nowNanos).tryAcquire(tokens, nowNanos)) {
+            return reject(Scope.USER);
+        }
+        admitted.increment();
+        return null;
+    }
+
+    Scope reject(Scope scope) {
+        rejected[scope.ordinal()].increment();
+        return scope;
+    }
+
+    private TokenBucket userBucket(String username, long nowNanos) {
+        TokenBucket bucket = users.get(username);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (users.size() >= MAX_IDLE_USERS) {
+            sweepIdleUsers(nowNanos);
+        }
+        return users.computeIfAbsent(username, name -> new TokenBucket(userRate, userBurst));
+    }
+
+    /**
+     * Drops idle users among the next {@link #SWEEP_STEP} buckets, going round the table over successive
+     * calls, so a new user costs the event loop a bounded amount of work; skipped while another thread sweeps.
+     */
+    private void sweepIdleUsers(long nowNanos) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_STEP; i++) {
+                if (sweep == null || !sweep.hasNext()) {
+                    sweep = users.values().iterator();
+                    if (!sweep.hasNext()) {
+                        return;
+                    }
+                }
+                if (sweep.next().isFull(nowNanos)) {
+                    sweep.remove();
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    public long rejected(Scope scope) {
+        return rejected[scope.ordinal()].sum();
+    }
+
+    public int trackedUsers() {
+        return users.size();
+    }
+
+    public static String rejection(Scope scope) {
+        return switch (scope) {
+            case CONNECTION -> "Ошибка: слишком много запросов с этого соединения, повторите позже";
+            case USER -> "Ошибка: слишком много запросов от пользователя, повторите позже";
+            case COMMAND -> "Ошибка: сервер перегружен, повторите позже";
+        };
+    }
+}
@@ -0,0 +1,91 @@
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    void testBucketRefillsAtItsRate() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = 0;
+        assertTrue(bucket.tryAcquire(1, now));
+        assertTrue(bucket.tryAcquire(2, now));
+        assertFalse(bucket.tryAcquire(1, now));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.nanosUntil(1, now));
+        assertTrue(bucket.tryAcquire(1, now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(bucket.isFull(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertTrue(bucket.isFull(now + TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    void testBatchLargerThanTheBurstIsChargedInFull() {
+        TokenBucket bucket = new TokenBucket(1_000, 100);
+        long now = 0;
+        assertTrue(bucket.tryAcquire(1, now));
+        assertFalse(bucket.tryAcquire(10_000, now));
+        long full = now + TimeUnit.MILLISECONDS.toNanos(1);
+        assertTrue(bucket.tryAcquire(10_000, full));
+        // ten seconds of refills are owed before even one more token
+        long owed = TimeUnit.SECONDS.toNanos(10) - TimeUnit.MILLISECONDS.toNanos(100);
+        assertEquals(owed + TimeUnit.MILLISECONDS.toNanos(1), bucket.nanosUntil(1, full));
+        assertFalse(bucket.tryAcquire(1, full + owed));
+        assertTrue(bucket.tryAcquire(1, full + owed + TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+
+    @Test
+    void testUsersAndCommandsHaveSeparateBuckets() {
+        ServerConfig config = ServerConfig.parse(Map.of("rate-per-user", "2", "rate-per-command", "view:3"));
+        AdmissionControl control = new AdmissionControl(config);
+        long now = System.nanoTime();
+        assertNull(control.admit("anna", "vote", 1, now));
+        assertNull(control.admit("anna", "vote", 1, now));
+        assertEquals(AdmissionControl.Scope.USER, control.admit("anna", "vote", 1, now));
+        assertNull(control.admit("boris", "view", 1, now));
+        assertNull(control.admit("vera", "view", 1, now));
+        assertNull(control.admit("gleb", "view", 1, now));
+        assertEquals(AdmissionControl.Scope.COMMAND, control.admit("dina", "view", 1, now));
+        assertEquals(1, control.rejected(AdmissionControl.Scope.USER));
+        assertEquals(1, control.rejected(AdmissionControl.Scope.COMMAND));
+    }
+
+    @Test
+    void testIdleUsersAreSweptAFewAtATime() {
+        ServerConfig config = ServerConfig.parse(Map.of("rate-per-user", "2"));
+        AdmissionControl control = new AdmissionControl(config);
+        long now = System.nanoTime();
+        for (int i = 0; i < AdmissionControl.MAX_IDLE_USERS; i++) {
+            assertNull(control.admit("user" + i, "vote", 1, now));
+        }
+        long later = now + TimeUnit.SECONDS.toNanos(5);
+        assertNull(control.admit("newcomer", "vote", 1, later));
+        assertEquals(AdmissionControl.MAX_IDLE_USERS + 1 - AdmissionControl.SWEEP_STEP, control.trackedUsers());
+        assertNull(control.admit("another", "vote", 1, later));
+        assertEquals(AdmissionControl.MAX_IDLE_USERS + 2 - AdmissionControl.SWEEP_STEP, control.trackedUsers());
+    }
+
+    @Test
+    void testFloodingConnectionIsRefusedAndPaused() {
+        ServerConfig config = ServerConfig.parse(Map.of("rate-per-connection", "1", "burst-per-connection", "2"));
+        EmbeddedChannel channel = new EmbeddedChannel(
+                WritabilityGate.INSTANCE, new AdmissionHandler(new AdmissionControl(config), new ServerMetrics()));
+        for (int i = 1; i <= 3; i++) {
+            channel.writeInbound(new Message("view", Map.of(), null, i));
+        }
+        assertNotNull(channel.readInbound());
+        assertNotNull(channel.readInbound());
+        assertNull(channel.readInbound());
+        Reply reply = channel.readOutbound();
+        assertTrue(reply.isError());
+        assertEquals(3, reply.requestId);
+        assertFalse(channel.config().isAutoRead());
+        assertTrue(AdmissionHandler.isReadPaused(channel));
+
+        channel.pipeline().fireChannelWritabilityChanged();
+        assertFalse(channel.config().isAutoRead());
+        channel.close();
+    }
+}
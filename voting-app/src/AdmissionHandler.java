@@ -0,0 +1,93 @@
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admission stage in front of {@link VotingServerHandler}. Requests over the limits of {@link AdmissionControl}
+ * get an error reply here and never reach the state. A connection that runs out of its own tokens also stops
+ * being read until it has one again, so its requests wait in the socket instead of being decoded and refused.
+ * Reading resumes only if {@link WritabilityGate} has not paused it for a full outbound buffer meanwhile.
+ */
+public class AdmissionHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerUtil.getLogger(AdmissionHandler.class.getName());
+    static final AttributeKey<Boolean> READ_PAUSED = AttributeKey.valueOf("voting.readPaused");
+    private static final long MIN_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AdmissionControl control;
+    private final ServerMetrics metrics;
+    private final TokenBucket connection;
+
+    public AdmissionHandler(AdmissionControl control, ServerMetrics metrics) {
+        this.control = control;
+        this.metrics = metrics;
+        this.connection = control.newConnectionBucket();
+    }
+
+    public static boolean isReadPaused(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(READ_PAUSED).get());
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof Message message)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        Session session = SessionRegistry.sessionOf(ctx.channel());
+        boolean proxy = session != null && session.proxy;
+        int tokens = message.payload instanceof BallotBatch batch ? Math.max(1, batch.size()) : 1;
+        long now = System.nanoTime();
+        AdmissionControl.Scope refused;
+        if (connection != null && !proxy && !connection.tryAcquire(tokens, now)) {
+            refused = control.reject(AdmissionControl.Scope.CONNECTION);
+            pauseReading(ctx, connection.nanosUntil(tokens, now));
+        } else {
+            refused = control.admit(usernameOf(session, message), message.type, tokens, now);
+        }
+        if (refused == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ServerMetrics.CommandStats stats = metrics.command(message.type);
+        stats.requests.increment();
+        stats.errors.increment();
+        String text = AdmissionControl.rejection(refused);
+        ctx.writeAndFlush(message.requestId == 0 ? text : Reply.of(text, message.requestId));
+    }
+
+    /**
+     * The user a request is charged to: the session's, or for a router connection the user it acts for. A
+     * proxy session exists only after the router presented the shared secret, which is why its requests may
+     * name the user and skip the connection bucket that would otherwise throttle every user behind it.
+     * Batches carry ballots of many users and are charged to the connection and command only.
+     */
+    private static String usernameOf(Session session, Message message) {
+        if (session == null || message.payload instanceof BallotBatch) {
+            return null;
+        }
+        return session.proxy ? message.params.getOrDefault("username", session.username) : session.username;
+    }
+
+    private void pauseReading(ChannelHandlerContext ctx, long nanos) {
+        Channel channel = ctx.channel();
+        if (isReadPaused(channel)) {
+            return;
+        }
+        channel.attr(READ_PAUSED).set(Boolean.TRUE);
+        channel.config().setAutoRead(false);
+        control.readPauses.increment();
+        logger.log(Level.FINE, "Чтение из {0} приостановлено на {1} мкс",
+                new Object[]{channel.remoteAddress(), nanos / 1000});
+        ctx.executor().schedule(() -> {
+            channel.attr(READ_PAUSED).set(null);
+            if (channel.isActive()) {
+                channel.config().setAutoRead(channel.isWritable());
+            }
+        }, Math.max(nanos, MIN_PAUSE_NANOS), TimeUnit.NANOSECONDS);
+    }
+}
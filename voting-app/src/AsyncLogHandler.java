@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that keeps I/O off the calling thread. {@link #publish} only puts the record into a bounded
+ * {@link LogRing}; a daemon thread formats records, including their parameters, and writes them in
+ * batches with one flush per batch. When the ring is full the record is either dropped or the caller
+ * waits for room, depending on the {@link Overflow} policy; both cases are counted.
+ */
+public class AsyncLogHandler extends Handler {
+    public enum Overflow {
+        DROP,
+        BLOCK
+    }
+
+    private static final int BATCH_RECORDS = 256;
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+    private static final long BLOCKED_PARK_NANOS = 50_000;
+
+    private final LogRing<LogRecord> ring;
+    private final Overflow overflow;
+    private final Writer out;
+    private final Thread writerThread;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private volatile boolean writing;
+    private volatile boolean closed;
+
+    public AsyncLogHandler(Writer out, int capacity, Overflow overflow) {
+        this.ring = new LogRing<>(capacity);
+        this.overflow = overflow;
+        this.out = out;
+        setFormatter(new LineFormatter());
+        writerThread = new Thread(this::drainLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        if (ring.offer(record)) {
+            return;
+        }
+        if (overflow == Overflow.DROP || closed) {
+            dropped.increment();
+            return;
+        }
+        blocked.increment();
+        while (!ring.offer(record)) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(8192);
+        Formatter formatter = getFormatter();
+        while (!closed || !ring.isDrained()) {
+            writing = true;
+            int count = 0;
+            for (LogRecord record = ring.poll(); record != null; record = count < BATCH_RECORDS ? ring.poll() : null) {
+                try {
+                    batch.append(formatter.format(record));
+                } catch (RuntimeException e) {
+                    reportError("Не удалось отформатировать запись журнала", e, ErrorManager.FORMAT_FAILURE);
+                }
+                count++;
+            }
+            if (count > 0) {
+                try {
+                    out.append(batch);
+                    out.flush();
+                } catch (IOException e) {
+                    reportError("Не удалось записать журнал", e, ErrorManager.WRITE_FAILURE);
+                }
+                batch.setLength(0);
+                written.add(count);
+            }
+            writing = false;
+            if (count == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Waits until every record published before the call has been written.
+     */
+    @Override
+    public void flush() {
+        while (writerThread.isAlive() && (!ring.isDrained() || writing)) {
+            LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long written() {
+        return written.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long blocked() {
+        return blocked.sum();
+    }
+
+    public int capacity() {
+        return ring.capacity();
+    }
+
+    public Overflow overflow() {
+        return overflow;
+    }
+
+    /**
+     * One line per record with the logger name instead of the source method: inferring the caller would
+     * walk the stack of whichever thread formats the record, and that is not the thread that logged it.
+     */
+    private static final class LineFormatter extends Formatter {
+        private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+                .withZone(ZoneId.systemDefault());
+
+        @Override
+        public String format(LogRecord record) {
+            StringBuilder sb = new StringBuilder(128);
+            TIME.formatTo(record.getInstant(), sb);
+            sb.append(' ').append(record.getLevel().getLocalizedName())
+                    .append(" [").append(record.getLoggerName()).append("] ")
+                    .append(formatMessage(record)).append(System.lineSeparator());
+            if (record.getThrown() != null) {
+                StringWriter trace = new StringWriter();
+                record.getThrown().printStackTrace(new PrintWriter(trace));
+                sb.append(trace);
+            }
+            return sb.toString();
+        }
+    }
+}
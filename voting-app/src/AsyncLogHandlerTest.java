@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncLogHandlerTest {
+
+    private static LogRecord record(String pattern, Object... params) {
+        LogRecord record = new LogRecord(Level.INFO, pattern);
+        record.setLoggerName("test");
+        record.setParameters(params);
+        return record;
+    }
+
+    @Test
+    void testRecordsAreFormattedInOrderOnFlush() {
+        StringWriter out = new StringWriter();
+        AsyncLogHandler handler = new AsyncLogHandler(out, 16, AsyncLogHandler.Overflow.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            handler.publish(record("Запись {0,number,#} из {1}", i, "теста"));
+        }
+        handler.flush();
+
+        String[] lines = out.toString().split(System.lineSeparator());
+        assertEquals(100, lines.length);
+        assertTrue(lines[0].endsWith("[test] Запись 0 из теста"));
+        assertTrue(lines[99].endsWith("[test] Запись 99 из теста"));
+        assertEquals(100, handler.written());
+        assertEquals(0, handler.dropped());
+        handler.close();
+    }
+
+    @Test
+    void testDropPolicyCountsRecordsThatDidNotFit() throws Exception {
+        CountDownLatch stalledInFlush = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Writer stalled = new StringWriter() {
+            @Override
+            public void flush() {
+                stalledInFlush.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        AsyncLogHandler handler = new AsyncLogHandler(stalled, 4, AsyncLogHandler.Overflow.DROP);
+        handler.publish(record("Первая запись"));
+        stalledInFlush.await();
+        for (int i = 0; i < 50; i++) {
+            handler.publish(record("Запись {0,number,#}", i));
+        }
+        assertEquals(46, handler.dropped());
+        release.countDown();
+        handler.flush();
+        assertEquals(5, handler.written());
+        handler.close();
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+public class BallotBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> users;
+    private final List<String> topics;
+    private final List<String> votes;
+    private final List<String> options;
+
+    public BallotBatch() {
+        this(16);
+    }
+
+    public BallotBatch(int capacity) {
+        users = new ArrayList<>(capacity);
+        topics = new ArrayList<>(capacity);
+        votes = new ArrayList<>(capacity);
+        options = new ArrayList<>(capacity);
+    }
+
+    public BallotBatch add(String username, String topic, String voteName, String option) {
+        users.add(Objects.requireNonNull(username, "username"));
+        topics.add(Objects.requireNonNull(topic, "topic"));
+        votes.add(Objects.requireNonNull(voteName, "voteName"));
+        options.add(option);
+        return this;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public boolean isEmpty() {
+        return users.isEmpty();
+    }
+
+    public String username(int i) {
+        return users.get(i);
+    }
+
+    public String topic(int i) {
+        return topics.get(i);
+    }
+
+    public String voteName(int i) {
+        return votes.get(i);
+    }
+
+    public String option(int i) {
+        return options.get(i);
+    }
+
+    /**
+     * The same ballots, all cast by {@code username}: what a batch from a session that may only vote for
+     * itself amounts to.
+     */
+    public BallotBatch asUser(String username) {
+        BallotBatch own = new BallotBatch(size());
+        for (int i = 0; i < size(); i++) {
+            own.add(username, topics.get(i), votes.get(i), options.get(i));
+        }
+        return own;
+    }
+}
@@ -0,0 +1,74 @@
+import io.netty.channel.EventLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BallotBatcher implements AutoCloseable {
+    private final VotingClient client;
+    private final EventLoop timer;
+    private final int maxBallots;
+    private final long maxDelayMillis;
+
+    private BallotBatch batch;
+    private List<CompletableFuture<MutationResult>> ballots;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public BallotBatcher(VotingClient client, EventLoop timer, int maxBallots, long maxDelayMillis) {
+        if (maxBallots <= 0) {
+            throw new IllegalArgumentException("Размер пакета должен быть положительным");
+        }
+        this.client = client;
+        this.timer = timer;
+        this.maxBallots = maxBallots;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public synchronized CompletableFuture<MutationResult> add(String username, String topic, String voteName,
+                                                             String option) {
+        if (batch == null) {
+            batch = new BallotBatch(maxBallots);
+            ballots = new ArrayList<>(maxBallots);
+            if (maxDelayMillis > 0) {
+                scheduledFlush = timer.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        CompletableFuture<MutationResult> ballot = new CompletableFuture<>();
+        batch.add(username, topic, voteName, option);
+        ballots.add(ballot);
+        if (batch.size() >= maxBallots) {
+            flush();
+        }
+        return ballot;
+    }
+
+    public synchronized CompletableFuture<BatchResult> flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (batch == null) {
+            return CompletableFuture.completedFuture(new BatchResult(new byte[0]));
+        }
+        List<CompletableFuture<MutationResult>> pending = ballots;
+        CompletableFuture<BatchResult> sent = client.voteBatch(batch);
+        batch = null;
+        ballots = null;
+        return sent.whenComplete((result, error) -> {
+            for (int i = 0; i < pending.size(); i++) {
+                if (error != null) {
+                    pending.get(i).completeExceptionally(error);
+                } else {
+                    pending.get(i).complete(result.status(i));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
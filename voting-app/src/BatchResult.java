@@ -0,0 +1,58 @@
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class BatchResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final MutationResult[] RESULTS = MutationResult.values();
+
+    private final byte[] statuses;
+    public final int requestId;
+
+    public BatchResult(byte[] statuses) {
+        this(statuses, 0);
+    }
+
+    public BatchResult(byte[] statuses, int requestId) {
+        this.statuses = statuses;
+        this.requestId = requestId;
+    }
+
+    public int size() {
+        return statuses.length;
+    }
+
+    public MutationResult status(int i) {
+        return RESULTS[statuses[i]];
+    }
+
+    public byte[] statuses() {
+        return statuses;
+    }
+
+    public int accepted() {
+        int accepted = 0;
+        for (byte status : statuses) {
+            if (status == MutationResult.OK.ordinal()) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public String toString() {
+        Map<MutationResult, Integer> rejected = new EnumMap<>(MutationResult.class);
+        for (byte status : statuses) {
+            if (status != MutationResult.OK.ordinal()) {
+                rejected.merge(RESULTS[status], 1, Integer::sum);
+            }
+        }
+        StringBuilder sb = new StringBuilder("Принято бюллетеней: ")
+                .append(accepted()).append(" из ").append(statuses.length);
+        if (!rejected.isEmpty()) {
+            sb.append(", отклонено: ").append(rejected);
+        }
+        return sb.toString();
+    }
+}
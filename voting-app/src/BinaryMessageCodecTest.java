@@ -0,0 +1,194 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.serialization.ObjectDecoder;
+import io.netty.handler.codec.serialization.ObjectEncoder;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryMessageCodecTest {
+
+    private static ByteBuf encode(Object msg) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new BinaryMessageEncoder());
+        encoder.writeOutbound(msg);
+        return encoder.readOutbound();
+    }
+
+    @Test
+    void testMessageRoundTrip() {
+        Message original = new Message("create_vote",
+                Map.of("topic", "topic1", "vote_name", "vote1", "description", "описание", "custom", "x"),
+                List.of("Option1", "Вариант 2"));
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+        decoder.writeInbound(encode(original));
+
+        Message decoded = decoder.readInbound();
+        assertEquals("create_vote", decoded.type);
+        assertEquals(original.params, decoded.params);
+        assertEquals(original.payload, decoded.payload);
+    }
+
+    @Test
+    void testCustomCommandRoundTrip() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+        decoder.writeInbound(encode(new Message("unknown_cmd", Map.of(), "text")));
+
+        Message decoded = decoder.readInbound();
+        assertEquals("unknown_cmd", decoded.type);
+        assertEquals("text", decoded.payload);
+    }
+
+    @Test
+    void testOpcodesMatchCommands() {
+        assertEquals(WireProtocol.OP_DROP_TOPIC, WireProtocol.opcodeOf("drop_topic"));
+        assertEquals(WireProtocol.OP_TRENDING, WireProtocol.opcodeOf("trending"));
+        assertEquals(WireProtocol.OP_IMPORT, WireProtocol.opcodeOf("import"));
+        assertEquals(WireProtocol.OP_EXPORT, WireProtocol.opcodeOf("export"));
+        assertEquals("export", WireProtocol.commandOf(WireProtocol.OP_EXPORT));
+        assertThrows(CorruptedFrameException.class, () -> WireProtocol.commandOf((byte) (WireProtocol.OP_EXPORT + 1)));
+    }
+
+    @Test
+    void testNullInStringListIsCorrupt() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(WireProtocol.PAYLOAD_STRING_LIST);
+        WireProtocol.writeVarint(buf, 2);
+        WireProtocol.writeString(buf, "Option1");
+        WireProtocol.writeString(buf, null);
+        assertThrows(CorruptedFrameException.class, () -> WireProtocol.readPayload(buf));
+        buf.release();
+    }
+
+    @Test
+    void testReplyStatus() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+        decoder.writeInbound(encode("Ваш голос принят: Option1"));
+        decoder.writeInbound(encode("Ошибка: неверный вариант ответа"));
+
+        Reply ok = decoder.readInbound();
+        Reply error = decoder.readInbound();
+        assertFalse(ok.isError());
+        assertEquals("Ваш голос принят: Option1", ok.text);
+        assertTrue(error.isError());
+        assertEquals("Ошибка: неверный вариант ответа", error.text);
+    }
+
+    @Test
+    void testFrameSplitAcrossReads() {
+        ByteBuf frame = encode(new Message("login", Map.of("username", "user1"), null));
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+
+        decoder.writeInbound(frame.readRetainedSlice(2));
+        assertNull(decoder.readInbound());
+        decoder.writeInbound(frame);
+
+        Message decoded = decoder.readInbound();
+        assertEquals("login", decoded.type);
+        assertEquals("user1", decoded.params.get("username"));
+    }
+
+    @Test
+    void testSelectorAcceptsHandshake() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtocolSelector(WireFormat.AUTO));
+        ByteBuf frame = encode(new Message("login", Map.of("username", "user1"), null));
+        channel.writeInbound(Unpooled.wrappedBuffer(WireProtocol.handshake(), frame));
+
+        Message decoded = channel.readInbound();
+        assertEquals("login", decoded.type);
+        assertNotNull(channel.pipeline().get(BinaryMessageEncoder.class));
+    }
+
+    @Test
+    void testSelectorFallsBackToSerialization() {
+        EmbeddedChannel legacyClient = new EmbeddedChannel(new ObjectEncoder());
+        legacyClient.writeOutbound(new Message("login", Map.of("username", "user1"), null));
+
+        ByteBuf serialized = legacyClient.readOutbound();
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtocolSelector(WireFormat.AUTO));
+        channel.writeInbound(serialized);
+
+        Message decoded = channel.readInbound();
+        assertEquals("user1", decoded.params.get("username"));
+        assertNotNull(channel.pipeline().get(ObjectDecoder.class));
+    }
+
+    @Test
+    void testBinaryOnlyServerRejectsLegacyClient() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ProtocolSelector(WireFormat.BINARY));
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0, 0, 0, 10}));
+
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    void testBallotBatchRoundTrip() {
+        BallotBatch batch = new BallotBatch()
+                .add("user1", "topic1", "vote1", "Option1")
+                .add("user2", "topic1", "vote1", "Вариант 2")
+                .add("user3", "topic2", "vote1", null);
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+        decoder.writeInbound(encode(new Message("vote_batch", Map.of(), batch)));
+        decoder.writeInbound(encode(new BatchResult(new byte[]{0, 5, 6})));
+
+        Message decoded = decoder.readInbound();
+        BallotBatch ballots = (BallotBatch) decoded.payload;
+        assertEquals(3, ballots.size());
+        assertEquals("user2", ballots.username(1));
+        assertEquals("topic1", ballots.topic(1));
+        assertEquals("Вариант 2", ballots.option(1));
+        assertEquals("topic2", ballots.topic(2));
+        assertEquals("vote1", ballots.voteName(2));
+        assertNull(ballots.option(2));
+
+        BatchResult result = decoder.readInbound();
+        assertEquals(MutationResult.OK, result.status(0));
+        assertEquals(MutationResult.ALREADY_VOTED, result.status(1));
+        assertEquals(MutationResult.INVALID_OPTION, result.status(2));
+    }
+
+    @Test
+    void testTallyUpdateRoundTrip() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+        decoder.writeInbound(encode(new TallyUpdate("topic1", "vote1", 3,
+                new String[]{"Да", "Нет"}, new int[]{0, 1}, new long[]{5_000_000_000L, 7})));
+        decoder.writeInbound(encode(new TallyUpdate("topic1", "vote1", 4, null, new int[]{1}, new long[]{8})));
+
+        LiveTally tally = new LiveTally("topic1", "vote1");
+        TallyUpdate full = decoder.readInbound();
+        TallyUpdate delta = decoder.readInbound();
+        assertTrue(full.isFull());
+        assertFalse(delta.isFull());
+        assertTrue(tally.apply(full));
+        assertTrue(tally.apply(delta));
+        assertEquals(5_000_000_000L, tally.count("Да"));
+        assertEquals(8, tally.count("Нет"));
+        assertEquals(4, tally.sequence());
+    }
+
+    @Test
+    void testCachedReplySharesEncodedBody() {
+        ResultCache cache = new ResultCache(4);
+        ResultCache.Entry entry = cache.get("key", null, 1, () -> "Список разделов:\n- topic1 (2 голосований)\n");
+        EmbeddedChannel encoder = new EmbeddedChannel(new BinaryMessageEncoder());
+        encoder.writeOutbound(new CachedReply(entry, 7), new CachedReply(entry, 300));
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new BinaryMessageDecoder());
+        for (ByteBuf buf = encoder.readOutbound(); buf != null; buf = encoder.readOutbound()) {
+            decoder.writeInbound(buf);
+        }
+        Reply first = decoder.readInbound();
+        Reply second = decoder.readInbound();
+        assertEquals(entry.text, first.text);
+        assertEquals(7, first.requestId);
+        assertEquals(entry.text, second.text);
+        assertEquals(300, second.requestId);
+        assertEquals(1, entry.encoded().refCnt());
+    }
+}
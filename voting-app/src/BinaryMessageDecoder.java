@@ -0,0 +1,65 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryMessageDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            int start = in.readerIndex();
+            int length = WireProtocol.peekVarint(in);
+            if (length < 0) {
+                return;
+            }
+            if (length == 0 || length > WireProtocol.MAX_FRAME_LENGTH) {
+                throw new TooLongFrameException("Недопустимая длина кадра: " + length);
+            }
+            int headerSize = WireProtocol.varintSize(length);
+            if (in.readableBytes() < headerSize + length) {
+                return;
+            }
+            ByteBuf frame = in.slice(start + headerSize, length);
+            in.readerIndex(start + headerSize + length);
+            out.add(decodeFrame(frame));
+        }
+    }
+
+    private static Object decodeFrame(ByteBuf frame) {
+        int header = frame.readUnsignedByte();
+        byte opcode = (byte) (header & ~WireProtocol.FLAG_CORRELATED);
+        int requestId = (header & WireProtocol.FLAG_CORRELATED) != 0 ? WireProtocol.readVarint(frame) : 0;
+        Object result;
+        if (opcode == WireProtocol.OP_REPLY) {
+            int status = frame.readUnsignedByte();
+            result = new Reply(status, WireProtocol.readString(frame), requestId);
+        } else if (opcode == WireProtocol.OP_BATCH_REPLY) {
+            int count = WireProtocol.readVarint(frame);
+            if (count > frame.readableBytes()) {
+                throw new CorruptedFrameException("Размер результата выходит за пределы кадра");
+            }
+            byte[] statuses = new byte[count];
+            frame.readBytes(statuses);
+            result = new BatchResult(statuses, requestId);
+        } else if (opcode == WireProtocol.OP_TALLY_UPDATE) {
+            result = WireProtocol.readTallyUpdate(frame);
+        } else {
+            String type = opcode == WireProtocol.OP_CUSTOM
+                    ? WireProtocol.readString(frame)
+                    : WireProtocol.commandOf(opcode);
+            Map<String, String> params = new HashMap<>();
+            WireProtocol.readParams(frame, params);
+            result = new Message(type, params, WireProtocol.readPayload(frame), requestId);
+        }
+        if (frame.isReadable()) {
+            throw new CorruptedFrameException("Лишние байты в конце кадра: " + frame.readableBytes());
+        }
+        return result;
+    }
+}
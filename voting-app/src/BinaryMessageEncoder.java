@@ -0,0 +1,95 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+public class BinaryMessageEncoder extends MessageToByteEncoder<Object> {
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) {
+        return msg instanceof Message || msg instanceof Reply || msg instanceof BatchResult
+                || msg instanceof TallyUpdate || msg instanceof String;
+    }
+
+    /**
+     * Cached replies are written as a small header buffer followed by a duplicate of the shared encoded body,
+     * so the text is encoded once per cache entry rather than once per reply.
+     */
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof CachedReply reply)) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+        ByteBuf body = reply.entry.encoded();
+        int bodySize = WireProtocol.headerSize(reply.requestId) + body.readableBytes();
+        if (bodySize > WireProtocol.MAX_FRAME_LENGTH) {
+            promise.setFailure(new EncoderException("Размер кадра превышает " + WireProtocol.MAX_FRAME_LENGTH + " байт"));
+            return;
+        }
+        ByteBuf header = ctx.alloc().ioBuffer(WireProtocol.varintSize(bodySize) + WireProtocol.headerSize(reply.requestId));
+        WireProtocol.writeVarint(header, bodySize);
+        WireProtocol.writeHeader(header, WireProtocol.OP_REPLY, reply.requestId);
+        ctx.write(header, ctx.voidPromise());
+        ctx.write(body.retainedDuplicate(), promise);
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Object msg, boolean preferDirect) {
+        int bodySize = bodySize(msg);
+        return ctx.alloc().ioBuffer(WireProtocol.varintSize(bodySize) + bodySize);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) {
+        int bodySize = bodySize(msg);
+        if (bodySize > WireProtocol.MAX_FRAME_LENGTH) {
+            throw new EncoderException("Размер кадра превышает " + WireProtocol.MAX_FRAME_LENGTH + " байт");
+        }
+        WireProtocol.writeVarint(out, bodySize);
+        if (msg instanceof Message message) {
+            byte opcode = WireProtocol.opcodeOf(message.type);
+            WireProtocol.writeHeader(out, opcode, message.requestId);
+            if (opcode == WireProtocol.OP_CUSTOM) {
+                WireProtocol.writeString(out, message.type);
+            }
+            WireProtocol.writeParams(out, message.params);
+            WireProtocol.writePayload(out, message.payload);
+        } else if (msg instanceof BatchResult result) {
+            WireProtocol.writeHeader(out, WireProtocol.OP_BATCH_REPLY, result.requestId);
+            WireProtocol.writeVarint(out, result.size());
+            out.writeBytes(result.statuses());
+        } else if (msg instanceof TallyUpdate update) {
+            WireProtocol.writeHeader(out, WireProtocol.OP_TALLY_UPDATE, 0);
+            WireProtocol.writeTallyUpdate(out, update);
+        } else {
+            Reply reply = toReply(msg);
+            WireProtocol.writeHeader(out, WireProtocol.OP_REPLY, reply.requestId);
+            out.writeByte(reply.status);
+            WireProtocol.writeString(out, reply.text);
+        }
+    }
+
+    private static int bodySize(Object msg) {
+        if (msg instanceof Message message) {
+            byte opcode = WireProtocol.opcodeOf(message.type);
+            return WireProtocol.headerSize(message.requestId)
+                    + (opcode == WireProtocol.OP_CUSTOM ? WireProtocol.stringSize(message.type) : 0)
+                    + WireProtocol.paramsSize(message.params)
+                    + WireProtocol.payloadSize(message.payload);
+        }
+        if (msg instanceof BatchResult result) {
+            return WireProtocol.headerSize(result.requestId) + WireProtocol.varintSize(result.size()) + result.size();
+        }
+        if (msg instanceof TallyUpdate update) {
+            return WireProtocol.headerSize(0) + WireProtocol.tallyUpdateSize(update);
+        }
+        Reply reply = toReply(msg);
+        return WireProtocol.headerSize(reply.requestId) + 1 + WireProtocol.stringSize(reply.text);
+    }
+
+    private static Reply toReply(Object msg) {
+        return msg instanceof Reply reply ? reply : Reply.of((String) msg);
+    }
+}
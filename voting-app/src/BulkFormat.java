@@ -0,0 +1,486 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * File formats of bulk import and export. Both are read and written one record at a time, so memory does
+ * not depend on the size of the file.
+ * <ul>
+ *     <li>NDJSON: one flat JSON object per line, e.g.
+ *     {@code {"type":"ballot","topic":"t","poll":"p","user":"u","option":"o"}}; a poll lists its options in
+ *     {@code "options"}.</li>
+ *     <li>CSV: a header naming the columns {@code type,topic,poll,option,count,user,opens,closes,poll_type} in
+ *     any order, then one row per record; a poll takes one row per option, on consecutive rows.</li>
+ * </ul>
+ * A poll without {@code poll_type} is a plurality poll.
+ */
+public enum BulkFormat {
+    NDJSON,
+    CSV;
+
+    private static final String[] CSV_COLUMNS = {"type", "topic", "poll", "option", "count", "user", "opens", "closes",
+            "poll_type"};
+
+    public interface RecordReader {
+        /**
+         * The next record, or null at the end of the file. Throws IllegalArgumentException naming the line of
+         * a malformed record.
+         */
+        BulkRecord next() throws IOException;
+    }
+
+    public interface RecordWriter {
+        void write(BulkRecord record) throws IOException;
+    }
+
+    /**
+     * The format named by {@code name}, or else the one the file name ends with; NDJSON if neither says.
+     */
+    public static BulkFormat of(String name, Path file) {
+        String label = name != null ? name : file.getFileName().toString();
+        if (name == null) {
+            int dot = label.lastIndexOf('.');
+            label = dot < 0 ? "ndjson" : label.substring(dot + 1);
+        }
+        return switch (label.toLowerCase(Locale.ROOT)) {
+            case "csv" -> CSV;
+            case "ndjson", "jsonl", "json" -> NDJSON;
+            default -> {
+                if (name != null) {
+                    throw new IllegalArgumentException("Ошибка: неизвестный формат \"" + name + "\", ожидается ndjson или csv");
+                }
+                yield NDJSON;
+            }
+        };
+    }
+
+    public RecordReader reader(Reader in) {
+        return this == CSV ? new CsvReader(in) : new JsonReader(in);
+    }
+
+    public RecordWriter writer(Writer out) throws IOException {
+        if (this == NDJSON) {
+            return record -> writeJson(out, record);
+        }
+        out.write(String.join(",", CSV_COLUMNS));
+        out.write('\n');
+        return record -> writeCsv(out, record);
+    }
+
+    private static void writeJson(Writer out, BulkRecord record) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"type\":\"").append(record.kind().label()).append('"');
+        appendJson(sb, "topic", record.topic());
+        appendJson(sb, "poll", record.poll());
+        if (!record.options().isEmpty()) {
+            sb.append(",\"options\":[");
+            for (int i = 0; i < record.options().size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                quoteJson(sb, record.options().get(i));
+            }
+            sb.append(']');
+        }
+        appendJson(sb, "option", record.option());
+        if (record.kind() == BulkRecord.Kind.TALLY) {
+            sb.append(",\"count\":").append(record.count());
+        }
+        appendJson(sb, "user", record.user());
+        if (record.opensAt() != 0) {
+            sb.append(",\"opens\":").append(record.opensAt());
+        }
+        if (record.closesAt() != 0) {
+            sb.append(",\"closes\":").append(record.closesAt());
+        }
+        if (!record.pollType().isPlurality()) {
+            appendJson(sb, "poll_type", record.pollType().label());
+        }
+        out.append(sb).append("}\n");
+    }
+
+    private static void appendJson(StringBuilder sb, String key, String value) {
+        if (value != null) {
+            sb.append(",\"").append(key).append("\":");
+            quoteJson(sb, value);
+        }
+    }
+
+    private static void quoteJson(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void writeCsv(Writer out, BulkRecord record) throws IOException {
+        if (record.kind() == BulkRecord.Kind.POLL) {
+            for (String option : record.options()) {
+                writeCsvRow(out, record, option);
+            }
+        } else {
+            writeCsvRow(out, record, record.option());
+        }
+    }
+
+    private static void writeCsvRow(Writer out, BulkRecord record, String option) throws IOException {
+        StringBuilder sb = new StringBuilder(record.kind().label());
+        for (String field : new String[]{record.topic(), record.poll(), option,
+                record.kind() == BulkRecord.Kind.TALLY ? Long.toString(record.count()) : null, record.user(),
+                record.opensAt() != 0 ? Long.toString(record.opensAt()) : null,
+                record.closesAt() != 0 ? Long.toString(record.closesAt()) : null,
+                record.pollType().isPlurality() ? null : record.pollType().label()}) {
+            sb.append(',');
+            if (field != null) {
+                quoteCsv(sb, field);
+            }
+        }
+        out.append(sb).append('\n');
+    }
+
+    private static void quoteCsv(StringBuilder sb, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static BulkRecord record(Map<String, String> fields, List<String> options) {
+        BulkRecord.Kind kind = BulkRecord.Kind.of(fields.getOrDefault("type", ""));
+        return new BulkRecord(kind, fields.get("topic"), fields.get("poll"), options, fields.get("option"),
+                number(fields, "count"), fields.get("user"), number(fields, "opens"), number(fields, "closes"),
+                PollType.parse(fields.get("poll_type"))).validate();
+    }
+
+    private static long number(Map<String, String> fields, String key) {
+        String value = fields.get(key);
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("поле " + key + " должно быть числом: " + value);
+        }
+    }
+
+    private static IllegalArgumentException atLine(long line, String problem) {
+        return new IllegalArgumentException("строка " + line + ": " + problem);
+    }
+
+    /**
+     * Reads flat JSON objects whose values are strings, integers, null or arrays of strings.
+     */
+    private static final class JsonReader implements RecordReader {
+        private final Reader in;
+        private long line;
+        private int c;
+
+        JsonReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public BulkRecord next() throws IOException {
+            while (true) {
+                line++;
+                c = in.read();
+                while (c == ' ' || c == '\t' || c == '\r') {
+                    c = in.read();
+                }
+                if (c < 0) {
+                    return null;
+                }
+                if (c == '\n') {
+                    continue;
+                }
+                try {
+                    return object();
+                } catch (IllegalArgumentException e) {
+                    skipLine();
+                    throw atLine(line, e.getMessage());
+                }
+            }
+        }
+
+        private BulkRecord object() throws IOException {
+            expect('{');
+            Map<String, String> fields = new HashMap<>();
+            List<String> options = List.of();
+            skipSpaces();
+            if (c == '}') {
+                c = in.read();
+            } else {
+                while (true) {
+                    String key = string();
+                    skipSpaces();
+                    expect(':');
+                    skipSpaces();
+                    if (c == '[') {
+                        options = array();
+                    } else if (c == '"') {
+                        fields.put(key, string());
+                    } else {
+                        String literal = literal();
+                        if (!literal.equals("null")) {
+                            fields.put(key, literal);
+                        }
+                    }
+                    skipSpaces();
+                    if (c == '}') {
+                        c = in.read();
+                        break;
+                    }
+                    expect(',');
+                    skipSpaces();
+                }
+            }
+            skipSpaces();
+            if (c >= 0 && c != '\n') {
+                throw new IllegalArgumentException("лишние символы после объекта");
+            }
+            return record(fields, options);
+        }
+
+        private List<String> array() throws IOException {
+            expect('[');
+            List<String> items = new ArrayList<>();
+            skipSpaces();
+            if (c == ']') {
+                c = in.read();
+                return items;
+            }
+            while (true) {
+                items.add(string());
+                skipSpaces();
+                if (c == ']') {
+                    c = in.read();
+                    return items;
+                }
+                expect(',');
+                skipSpaces();
+            }
+        }
+
+        private String string() throws IOException {
+            if (c != '"') {
+                throw new IllegalArgumentException("ожидается строка");
+            }
+            StringBuilder sb = new StringBuilder();
+            for (c = in.read(); c != '"'; c = in.read()) {
+                if (c < 0 || c == '\n') {
+                    throw new IllegalArgumentException("незакрытая строка");
+                }
+                if (c == '\\') {
+                    c = in.read();
+                    switch (c) {
+                        case '"', '\\', '/' -> sb.append((char) c);
+                        case 'b' -> sb.append('\b');
+                        case 'f' -> sb.append('\f');
+                        case 'n' -> sb.append('\n');
+                        case 'r' -> sb.append('\r');
+                        case 't' -> sb.append('\t');
+                        case 'u' -> {
+                            char[] hex = new char[4];
+                            for (int i = 0; i < 4; i++) {
+                                hex[i] = (char) in.read();
+                            }
+                            try {
+                                sb.append((char) Integer.parseInt(new String(hex), 16));
+                            } catch (NumberFormatException e) {
+                                throw new IllegalArgumentException("неверная escape-последовательность");
+                            }
+                        }
+                        default -> throw new IllegalArgumentException("неверная escape-последовательность");
+                    }
+                } else {
+                    sb.append((char) c);
+                }
+            }
+            c = in.read();
+            return sb.toString();
+        }
+
+        private String literal() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (c == '-' || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')) {
+                sb.append((char) c);
+                c = in.read();
+            }
+            if (sb.isEmpty()) {
+                throw new IllegalArgumentException("ожидается значение");
+            }
+            return sb.toString();
+        }
+
+        private void expect(char expected) throws IOException {
+            if (c != expected) {
+                throw new IllegalArgumentException("ожидается '" + expected + "'");
+            }
+            c = in.read();
+        }
+
+        private void skipSpaces() throws IOException {
+            while (c == ' ' || c == '\t' || c == '\r') {
+                c = in.read();
+            }
+        }
+
+        private void skipLine() throws IOException {
+            while (c >= 0 && c != '\n') {
+                c = in.read();
+            }
+        }
+    }
+
+    /**
+     * Reads RFC 4180 rows, quoted fields included, and joins consecutive rows of one poll into one record.
+     */
+    private static final class CsvReader implements RecordReader {
+        private final Reader in;
+        private String[] columns;
+        private long line;
+        private BulkRecord pendingPoll;
+        private List<String> pendingOptions;
+        private BulkRecord queued;
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public BulkRecord next() throws IOException {
+            if (columns == null) {
+                List<String> header = readRow();
+                if (header == null) {
+                    return null;
+                }
+                columns = header.stream().map(String::trim).toArray(String[]::new);
+                if (!List.of(columns).contains("type")) {
+                    throw atLine(line, "в заголовке нет столбца type");
+                }
+            }
+            while (true) {
+                BulkRecord record = queued != null ? queued : readRecord();
+                queued = null;
+                if (record == null) {
+                    return flushPoll();
+                }
+                if (record.kind() != BulkRecord.Kind.POLL) {
+                    BulkRecord ready = flushPoll();
+                    if (ready == null) {
+                        return record;
+                    }
+                    queued = record;
+                    return ready;
+                }
+                if (pendingPoll != null && pendingPoll.topic().equals(record.topic())
+                        && pendingPoll.poll().equals(record.poll())) {
+                    pendingOptions.add(record.options().get(0));
+                    continue;
+                }
+                BulkRecord ready = flushPoll();
+                pendingPoll = record;
+                pendingOptions = new ArrayList<>(record.options());
+                if (ready != null) {
+                    return ready;
+                }
+            }
+        }
+
+        private BulkRecord readRecord() throws IOException {
+            while (true) {
+                List<String> row = readRow();
+                if (row == null) {
+                    return null;
+                }
+                if (row.size() == 1 && row.get(0).isEmpty()) {
+                    continue;
+                }
+                Map<String, String> fields = new HashMap<>();
+                for (int i = 0; i < columns.length && i < row.size(); i++) {
+                    if (!row.get(i).isEmpty()) {
+                        fields.put(columns[i], row.get(i));
+                    }
+                }
+                String option = fields.get("option");
+                try {
+                    return record(fields, "poll".equals(fields.get("type")) && option != null ? List.of(option) : List.of());
+                } catch (IllegalArgumentException e) {
+                    throw atLine(line, e.getMessage());
+                }
+            }
+        }
+
+        private BulkRecord flushPoll() {
+            BulkRecord poll = pendingPoll;
+            if (poll == null) {
+                return null;
+            }
+            pendingPoll = null;
+            return BulkRecord.poll(poll.topic(), poll.poll(), pendingOptions, poll.opensAt(), poll.closesAt(),
+                    poll.pollType());
+        }
+
+        private List<String> readRow() throws IOException {
+            int c = in.read();
+            if (c < 0) {
+                return null;
+            }
+            line++;
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c < 0) {
+                        throw atLine(line, "незакрытые кавычки");
+                    }
+                    if (c == '"') {
+                        c = in.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.isEmpty()) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c < 0) {
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = in.read();
+            }
+        }
+    }
+}
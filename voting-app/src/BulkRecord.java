@@ -0,0 +1,78 @@
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One record of a bulk import or export file. The kind says which fields are set:
+ * <ul>
+ *     <li>topic: topic;</li>
+ *     <li>poll: topic, poll, options, the schedule, 0 for an open end, and the poll type;</li>
+ *     <li>tally: topic, poll, option and its count;</li>
+ *     <li>ballot: topic, poll, user and option, one vote to cast, written as the poll type expects;</li>
+ *     <li>voter: topic, poll and user, someone who has voted; the option of a cast vote is not kept.</li>
+ * </ul>
+ */
+public record BulkRecord(Kind kind, String topic, String poll, List<String> options, String option, long count,
+                         String user, long opensAt, long closesAt, PollType pollType) {
+    public enum Kind {
+        TOPIC,
+        POLL,
+        TALLY,
+        BALLOT,
+        VOTER;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Kind of(String label) {
+            for (Kind kind : values()) {
+                if (kind.label().equals(label)) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("неизвестный тип записи \"" + label + "\"");
+        }
+    }
+
+    public static BulkRecord topic(String topic) {
+        return new BulkRecord(Kind.TOPIC, topic, null, List.of(), null, 0, null, 0, 0, PollType.PLURALITY);
+    }
+
+    public static BulkRecord poll(String topic, String poll, List<String> options, long opensAt, long closesAt) {
+        return poll(topic, poll, options, opensAt, closesAt, PollType.PLURALITY);
+    }
+
+    public static BulkRecord poll(String topic, String poll, List<String> options, long opensAt, long closesAt,
+                                  PollType pollType) {
+        return new BulkRecord(Kind.POLL, topic, poll, options, null, 0, null, opensAt, closesAt, pollType);
+    }
+
+    public static BulkRecord tally(String topic, String poll, String option, long count) {
+        return new BulkRecord(Kind.TALLY, topic, poll, List.of(), option, count, null, 0, 0, PollType.PLURALITY);
+    }
+
+    public static BulkRecord ballot(String topic, String poll, String user, String option) {
+        return new BulkRecord(Kind.BALLOT, topic, poll, List.of(), option, 0, user, 0, 0, PollType.PLURALITY);
+    }
+
+    public static BulkRecord voter(String topic, String poll, String user) {
+        return new BulkRecord(Kind.VOTER, topic, poll, List.of(), null, 0, user, 0, 0, PollType.PLURALITY);
+    }
+
+    /**
+     * Checks that the fields the kind needs are present.
+     */
+    public BulkRecord validate() {
+        boolean complete = switch (kind) {
+            case TOPIC -> topic != null;
+            case POLL -> topic != null && poll != null && !options.isEmpty();
+            case TALLY -> topic != null && poll != null && option != null;
+            case BALLOT -> topic != null && poll != null && user != null && option != null;
+            case VOTER -> topic != null && poll != null && user != null;
+        };
+        if (!complete) {
+            throw new IllegalArgumentException("в записи " + kind.label() + " не хватает полей");
+        }
+        return this;
+    }
+}
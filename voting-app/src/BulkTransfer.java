@@ -0,0 +1,209 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A streaming import or export, run on the bulk transfer thread so the event loops never wait for it.
+ * Imports create topics and polls as they come and cast ballots through {@link VotingState#voteBatch} in
+ * batches of {@link #BATCH_SIZE}, waiting for each batch to be durable before reading on, so at most one
+ * batch is held in memory. Exports walk the catalog one poll at a time. Running transfers are listed in the
+ * server stats with their progress.
+ */
+public class BulkTransfer {
+    private static final Logger logger = LoggerUtil.getLogger(BulkTransfer.class.getName());
+    static final int BATCH_SIZE = 10_000;
+    static final long PROGRESS_RECORDS = 100_000;
+    static final Set<BulkTransfer> ACTIVE = ConcurrentHashMap.newKeySet();
+
+    private final String name;
+    private final long startedNanos = System.nanoTime();
+    private volatile long records;
+
+    private BulkTransfer(String name) {
+        this.name = name;
+    }
+
+    public static CompletableFuture<String> importFrom(VotingState state, Path file, BulkFormat format) {
+        return IoExecutor.submitBulk(() -> new BulkTransfer("импорт " + file).runImport(state, file, format));
+    }
+
+    /**
+     * Writes topics, polls and per-option counts, and with {@code voters} also who voted in each poll. The
+     * export is not a point-in-time copy of a live server: each poll is read as it is when its turn comes.
+     */
+    public static CompletableFuture<String> exportTo(VotingState state, Path file, BulkFormat format, boolean voters) {
+        return IoExecutor.submitBulk(() -> new BulkTransfer("экспорт " + file).runExport(state, file, format, voters));
+    }
+
+    private static final class ImportCounts {
+        long topics;
+        long polls;
+        long existing;
+        long accepted;
+        long skipped;
+        final Map<MutationResult, Long> rejected = new EnumMap<>(MutationResult.class);
+
+        void count(MutationResult result) {
+            if (result == MutationResult.OK) {
+                accepted++;
+            } else {
+                rejected.merge(result, 1L, Long::sum);
+            }
+        }
+    }
+
+    private String runImport(VotingState state, Path file, BulkFormat format) throws IOException {
+        ACTIVE.add(this);
+        ImportCounts counts = new ImportCounts();
+        BallotBatch batch = new BallotBatch(BATCH_SIZE);
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            BulkFormat.RecordReader reader = format.reader(in);
+            for (BulkRecord record = reader.next(); record != null; record = reader.next()) {
+                switch (record.kind()) {
+                    case TOPIC -> {
+                        batch = flush(state, batch, counts);
+                        MutationResult result = state.createTopic(record.topic()).join();
+                        if (result == MutationResult.OK) {
+                            counts.topics++;
+                        } else {
+                            counts.existing++;
+                        }
+                    }
+                    case POLL -> {
+                        batch = flush(state, batch, counts);
+                        MutationResult result = state.createVote(record.topic(), record.poll(), record.options(),
+                                record.pollType(), record.opensAt(), record.closesAt()).join();
+                        switch (result) {
+                            case OK -> counts.polls++;
+                            case VOTE_EXISTS -> counts.existing++;
+                            default -> counts.rejected.merge(result, 1L, Long::sum);
+                        }
+                    }
+                    case BALLOT -> {
+                        batch.add(record.user(), record.topic(), record.poll(), record.option());
+                        if (batch.size() == BATCH_SIZE) {
+                            batch = flush(state, batch, counts);
+                        }
+                    }
+                    case TALLY, VOTER -> counts.skipped++;
+                }
+                progress();
+            }
+            flush(state, batch, counts);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage() + " (до ошибки обработано записей: " + records + ")", e);
+        } finally {
+            ACTIVE.remove(this);
+        }
+        StringBuilder sb = new StringBuilder("Импорт из ").append(file).append(" завершён: ").append(throughput())
+                .append("; разделов создано ").append(counts.topics).append(", голосований создано ").append(counts.polls)
+                .append(", уже существовало ").append(counts.existing).append(", бюллетеней принято ").append(counts.accepted);
+        if (!counts.rejected.isEmpty()) {
+            sb.append(", отклонено ").append(counts.rejected);
+        }
+        if (counts.skipped > 0) {
+            sb.append(", пропущено итогов и участников без бюллетеней: ").append(counts.skipped);
+        }
+        logger.info(sb.toString());
+        return sb.toString();
+    }
+
+    private static BallotBatch flush(VotingState state, BallotBatch batch, ImportCounts counts) {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+        BatchResult result = state.voteBatch(batch).join();
+        for (int i = 0; i < batch.size(); i++) {
+            counts.count(result.status(i));
+        }
+        return new BallotBatch(BATCH_SIZE);
+    }
+
+    private String runExport(VotingState state, Path file, BulkFormat format, boolean voters) throws IOException {
+        ACTIVE.add(this);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long topics = 0;
+        long polls = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            BulkFormat.RecordWriter writer = format.writer(out);
+            TopicCatalog catalog = state.catalog();
+            for (String topic : catalog.names()) {
+                TopicCatalog.Topic entry = catalog.get(topic);
+                if (entry == null) {
+                    continue;
+                }
+                write(writer, BulkRecord.topic(topic));
+                topics++;
+                for (String poll : entry.polls()) {
+                    VoteTally tally = state.tally(topic, poll);
+                    if (tally == null) {
+                        continue;
+                    }
+                    write(writer, BulkRecord.poll(topic, poll, tally.options(), tally.opensAt(), tally.closesAt(),
+                            tally.type()));
+                    polls++;
+                    long[] counts = tally.snapshot();
+                    for (int i = 0; i < counts.length; i++) {
+                        write(writer, BulkRecord.tally(topic, poll, tally.option(i), counts[i]));
+                    }
+                    if (voters) {
+                        tally.voters().forEach(userId -> {
+                            try {
+                                write(writer, BulkRecord.voter(topic, poll, state.userName(userId)));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(tmp);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            ACTIVE.remove(this);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        String summary = "Экспорт в " + file + " завершён: " + throughput() + "; разделов " + topics
+                + ", голосований " + polls;
+        logger.info(summary);
+        return summary;
+    }
+
+    private void write(BulkFormat.RecordWriter writer, BulkRecord record) throws IOException {
+        writer.write(record);
+        progress();
+    }
+
+    private void progress() {
+        long done = ++records;
+        if (done % PROGRESS_RECORDS == 0) {
+            logger.log(Level.INFO, "{0}", progressLine());
+        }
+    }
+
+    private String throughput() {
+        double seconds = Math.max(System.nanoTime() - startedNanos, 1) / 1e9;
+        return String.format(Locale.ROOT, "записей %d за %.1f с (%.0f записей/с)", records, seconds, records / seconds);
+    }
+
+    public String progressLine() {
+        return name + ": " + throughput();
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkTransferTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testImportCastsBallotsAndExportWritesTallies() throws Exception {
+        for (BulkFormat format : BulkFormat.values()) {
+            Path ballots = dir.resolve("ballots." + format.name().toLowerCase());
+            try (var out = Files.newBufferedWriter(ballots, StandardCharsets.UTF_8)) {
+                BulkFormat.RecordWriter writer = format.writer(out);
+                writer.write(BulkRecord.topic("topic1"));
+                writer.write(BulkRecord.poll("topic1", "vote1", List.of("A", "B, \"C\""), 0, 0));
+                for (int i = 0; i < 25_000; i++) {
+                    writer.write(BulkRecord.ballot("topic1", "vote1", "user" + i, i % 5 == 0 ? "B, \"C\"" : "A"));
+                }
+                writer.write(BulkRecord.ballot("topic1", "vote1", "user0", "A"));
+            }
+
+            VotingState state = new VotingState();
+            String summary = BulkTransfer.importFrom(state, ballots, format).join();
+            assertTrue(summary.contains("бюллетеней принято 25000"), summary);
+            assertTrue(summary.contains("ALREADY_VOTED=1"), summary);
+            VoteTally tally = state.tally("topic1", "vote1");
+            assertArrayEquals(new long[]{20_000, 5_000}, tally.snapshot());
+
+            Path exported = dir.resolve("results." + format.name().toLowerCase());
+            BulkTransfer.exportTo(state, exported, format, true).join();
+            List<BulkRecord> records = new ArrayList<>();
+            try (var in = Files.newBufferedReader(exported, StandardCharsets.UTF_8)) {
+                BulkFormat.RecordReader reader = format.reader(in);
+                for (BulkRecord record = reader.next(); record != null; record = reader.next()) {
+                    records.add(record);
+                }
+            }
+            assertEquals(BulkRecord.topic("topic1"), records.get(0));
+            assertEquals(List.of("A", "B, \"C\""), records.get(1).options());
+            assertEquals(BulkRecord.tally("topic1", "vote1", "A", 20_000), records.get(2));
+            assertEquals(BulkRecord.tally("topic1", "vote1", "B, \"C\"", 5_000), records.get(3));
+            assertEquals(25_000, records.stream().filter(r -> r.kind() == BulkRecord.Kind.VOTER).count());
+            assertTrue(BulkTransfer.ACTIVE.isEmpty());
+
+            // the poll definitions in an export load back into an empty state; the counts stay behind
+            VotingState copy = new VotingState();
+            String reimport = BulkTransfer.importFrom(copy, exported, format).join();
+            assertTrue(reimport.contains("голосований создано 1"), reimport);
+            assertArrayEquals(new long[]{0, 0}, copy.tally("topic1", "vote1").snapshot());
+        }
+    }
+
+    @Test
+    void testMalformedLineStopsImportWithItsNumber() throws Exception {
+        Path file = dir.resolve("broken.ndjson");
+        Files.writeString(file, """
+                {"type":"topic","topic":"topic1"}
+                {"type":"poll","topic":"topic1","poll":"vote1","options":["A"]}
+                {"type":"ballot","topic":"topic1","poll":"vote1","user":"user1"
+                """, StandardCharsets.UTF_8);
+
+        VotingState state = new VotingState();
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> BulkTransfer.importFrom(state, file, BulkFormat.NDJSON).join());
+        assertTrue(error.getCause().getMessage().startsWith("строка 3"), error.getCause().getMessage());
+        assertNotNull(state.tally("topic1", "vote1"));
+        assertTrue(BulkTransfer.ACTIVE.isEmpty());
+    }
+}
@@ -0,0 +1,27 @@
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * A reply whose text comes from the {@link ResultCache}. The binary encoder writes the cached encoded body
+ * behind a fresh header; Java serialization sees a plain {@link Reply}.
+ */
+public class CachedReply implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public final transient ResultCache.Entry entry;
+    public final int requestId;
+
+    public CachedReply(ResultCache.Entry entry, int requestId) {
+        this.entry = entry;
+        this.requestId = requestId;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return Reply.of(entry.text, requestId);
+    }
+
+    @Override
+    public String toString() {
+        return entry.text;
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * One view reply: a header and one line per topic or poll in name order, cut off after {@code limit} lines
+ * with a line that tells how to ask for the next page. Long listings are sent in chunks of about
+ * {@link #CHUNK_CHARS} characters, each one but the last marked {@link Reply#STATUS_PARTIAL}, so no single
+ * message grows with the catalog.
+ */
+public class CatalogListing {
+    public static final int CHUNK_CHARS = 32 * 1024;
+    public static final String CONTINUATION = "Продолжение: view";
+
+    final Message message;
+    private final String header;
+    private final Iterator<String> names;
+    private final Function<String, String> line;
+    private final int limit;
+    private final String topic;
+    private final String prefix;
+    private int listed;
+    private String last;
+    private boolean started;
+    private boolean done;
+
+    public CatalogListing(Message message, String header, Iterator<String> names, Function<String, String> line,
+                          int limit, String topic, String prefix) {
+        this.message = message;
+        this.header = header;
+        this.names = names;
+        this.line = line;
+        this.limit = limit;
+        this.topic = topic;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Reads the page parameters of a view request: prefix, after (the cursor, the last name already seen) and
+     * limit, where 0 means no limit. Throws IllegalArgumentException for a limit that is not a positive number.
+     */
+    public static int limitOf(Map<String, String> params) {
+        String value = params.get("limit");
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            int limit = Integer.parseInt(value.trim());
+            if (limit > 0) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+            // сообщение ниже
+        }
+        throw new IllegalArgumentException("Ошибка: размер страницы должен быть положительным числом");
+    }
+
+    public static String param(Map<String, String> params, String key) {
+        String value = params.get(key);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    public static String topicLine(TopicCatalog.Topic topic) {
+        return "- " + topic.name + " (" + topic.pollCount() + " голосований)\n";
+    }
+
+    /**
+     * The line that ends a page when more names follow {@code last}.
+     */
+    public static String continuation(String topic, String prefix, int limit, String last) {
+        StringBuilder sb = new StringBuilder(CONTINUATION);
+        if (topic != null) {
+            sb.append(" -t=").append(topic);
+        }
+        if (prefix != null) {
+            sb.append(" -p=").append(prefix);
+        }
+        return sb.append(" -l=").append(limit).append(" -c=").append(last).append('\n').toString();
+    }
+
+    /**
+     * Cuts an already rendered reply into chunks at line ends, for passing on a reply that arrived whole.
+     */
+    public static List<String> split(String text, int maxChars) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > maxChars) {
+            int end = text.lastIndexOf('\n', start + maxChars - 1);
+            end = end < start ? start + maxChars : end + 1;
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        chunks.add(text.substring(start));
+        return chunks;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * The next part of the reply; after the last one {@link #isDone()} is true.
+     */
+    public String nextChunk(int maxChars) {
+        StringBuilder sb = new StringBuilder();
+        if (!started) {
+            sb.append(header);
+            started = true;
+        }
+        while (sb.length() < maxChars) {
+            if (!names.hasNext()) {
+                done = true;
+                break;
+            }
+            if (limit > 0 && listed == limit) {
+                sb.append(continuation(topic, prefix, limit, last));
+                done = true;
+                break;
+            }
+            last = names.next();
+            String rendered = line.apply(last);
+            if (rendered != null) {
+                sb.append(rendered);
+                listed++;
+            }
+        }
+        if (!done && !names.hasNext()) {
+            done = true;
+        }
+        return sb.toString();
+    }
+
+    public String renderAll() {
+        StringBuilder sb = new StringBuilder();
+        while (!done) {
+            sb.append(nextChunk(Integer.MAX_VALUE));
+        }
+        return sb.toString();
+    }
+}
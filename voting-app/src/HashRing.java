@@ -0,0 +1,82 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Consistent-hash ring of shard nodes ("host:port"). Each node is placed at many points so load evens out,
+ * and adding a node only takes over the keys that now hash closest to it; every other key keeps its owner.
+ * Instances are immutable, so a router swaps in a new ring instead of locking the current one.
+ */
+public final class HashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<String> nodes;
+    private final int virtualNodes;
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("Кольцо должно содержать хотя бы один узел");
+        }
+        this.nodes = List.copyOf(new LinkedHashSet<>(nodes));
+        this.virtualNodes = virtualNodes;
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node + '#' + i), node);
+            }
+        }
+        points = new long[ring.size()];
+        owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> entry : ring.entrySet()) {
+            points[i] = entry.getKey();
+            owners[i++] = entry.getValue();
+        }
+    }
+
+    public HashRing with(String node) {
+        List<String> grown = new ArrayList<>(nodes);
+        grown.add(node);
+        return new HashRing(grown, virtualNodes);
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    public String ownerOf(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes followed by a murmur finalizer, which spreads the similar strings
+     * of virtual node names over the whole ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", nodes);
+    }
+}
@@ -0,0 +1,41 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingTest {
+
+    @Test
+    void testAddingNodeOnlyMovesKeysToIt() {
+        HashRing ring = new HashRing(List.of("localhost:8081", "localhost:8082", "localhost:8083"));
+        HashRing grown = ring.with("localhost:8084");
+        Map<String, Integer> owned = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String topic = "topic-" + i;
+            String before = ring.ownerOf(topic);
+            String after = grown.ownerOf(topic);
+            owned.merge(before, 1, Integer::sum);
+            if (!before.equals(after)) {
+                assertEquals("localhost:8084", after);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_500 && moved < 3_500, "перенесено " + moved);
+        for (int count : owned.values()) {
+            assertTrue(count > 2_500 && count < 4_200, "распределение " + owned);
+        }
+    }
+
+    @Test
+    void testOwnerDoesNotDependOnNodeOrder() {
+        HashRing ring = new HashRing(List.of("a:1", "b:2", "c:3"));
+        HashRing reordered = new HashRing(List.of("c:3", "a:1", "b:2"));
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(ring.ownerOf("t" + i), reordered.ownerOf("t" + i));
+        }
+    }
+}
@@ -0,0 +1,285 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ranked ballots of one poll and their instant-runoff count. Ballots are kept as one count per distinct
+ * ranking, a ranking packed into a long four bits per place with the first choice lowest, so a million
+ * ballots over a few hundred orderings take a few hundred entries.
+ * <p>
+ * The rounds of the last count are kept too. A new ballot is added straight into every round it takes part
+ * in, counted for its highest choice still in the race then. A view only has to check that each elimination
+ * still falls on the weakest option and that the last round still has a winner; if one does not, the rounds
+ * are counted again from the distinct rankings. Either way the work depends on the number of options and
+ * rankings, never on the number of ballots.
+ */
+public class InstantRunoff {
+    private static final int BITS = 4;
+    private static final long PLACE = (1L << BITS) - 1;
+    private static final long ELIMINATED = -1;
+
+    private final int optionCount;
+    private long[] rankings = new long[16];
+    private long[] counts = new long[16];
+    private int distinct;
+    private long ballots;
+    private final List<long[]> rounds = new ArrayList<>();
+    private int[] dropped = new int[0];
+    private long recounts;
+
+    public InstantRunoff(int optionCount) {
+        this.optionCount = optionCount;
+    }
+
+    /**
+     * Packs option indexes, most preferred first, into a ranking; indexes must be distinct and below 15.
+     */
+    public static long encode(int[] order) {
+        long ranking = 0;
+        for (int place = 0; place < order.length; place++) {
+            ranking |= (long) (order[place] + 1) << (BITS * place);
+        }
+        return ranking;
+    }
+
+    public static int firstChoice(long ranking) {
+        return (int) (ranking & PLACE) - 1;
+    }
+
+    public synchronized void add(long ranking, long count) {
+        put(ranking, count);
+        ballots += count;
+        boolean[] out = new boolean[optionCount];
+        for (int r = 0; r < rounds.size(); r++) {
+            int choice = continuing(ranking, out);
+            if (choice >= 0) {
+                rounds.get(r)[choice] += count;
+            }
+            if (r < dropped.length) {
+                out[dropped[r]] = true;
+            }
+        }
+    }
+
+    public synchronized long ballots() {
+        return ballots;
+    }
+
+    public synchronized int distinctRankings() {
+        return distinct;
+    }
+
+    /**
+     * How many times the rounds had to be counted again from the rankings.
+     */
+    synchronized long recounts() {
+        return recounts;
+    }
+
+    /**
+     * Every distinct ranking followed by its count, for snapshots and moves between shards.
+     */
+    public synchronized long[] toPairs() {
+        long[] pairs = new long[2 * distinct];
+        int n = 0;
+        for (int slot = 0; slot < rankings.length; slot++) {
+            if (rankings[slot] != 0) {
+                pairs[n++] = rankings[slot];
+                pairs[n++] = counts[slot];
+            }
+        }
+        return pairs;
+    }
+
+    public synchronized long footprintBytes() {
+        return 16L * rankings.length + (long) rounds.size() * (16 + 8L * optionCount) + 4L * dropped.length;
+    }
+
+    /**
+     * The rounds as they stand now: each round's count for every option still in the race, who drops out
+     * and, in the last one, who wins.
+     */
+    public synchronized String render(List<String> options) {
+        if (ballots == 0) {
+            return "Бюллетеней пока нет\n";
+        }
+        if (!stands()) {
+            recount();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < rounds.size(); r++) {
+            long[] tally = rounds.get(r);
+            sb.append("Раунд ").append(r + 1).append(':');
+            long counted = 0;
+            String separator = " ";
+            for (int i = 0; i < optionCount; i++) {
+                if (tally[i] != ELIMINATED) {
+                    sb.append(separator).append(options.get(i)).append(' ').append(tally[i]);
+                    separator = ", ";
+                    counted += tally[i];
+                }
+            }
+            if (counted < ballots) {
+                sb.append(" (исчерпано ").append(ballots - counted).append(')');
+            }
+            if (r < dropped.length) {
+                sb.append(" — выбывает ").append(options.get(dropped[r]));
+            } else {
+                int winner = winner(tally);
+                if (winner >= 0) {
+                    sb.append(" — побеждает ").append(options.get(winner));
+                }
+            }
+            sb.append('\n');
+        }
+        sb.append("Бюллетеней: ").append(ballots).append(", различных ранжирований: ").append(distinct).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Whether counting again would give the same rounds: no option had a majority before the last round,
+     * each dropped option was still the weakest one, and the last round still has a winner.
+     */
+    private boolean stands() {
+        if (rounds.isEmpty()) {
+            return false;
+        }
+        int last = rounds.size() - 1;
+        for (int r = 0; r < last; r++) {
+            long[] tally = rounds.get(r);
+            if (majority(tally) >= 0 || weakest(tally) != dropped[r]) {
+                return false;
+            }
+        }
+        return winner(rounds.get(last)) >= 0;
+    }
+
+    private void recount() {
+        rounds.clear();
+        boolean[] out = new boolean[optionCount];
+        int[] drops = new int[optionCount];
+        int remaining = optionCount;
+        int round = 0;
+        while (true) {
+            long[] tally = new long[optionCount];
+            for (int i = 0; i < optionCount; i++) {
+                if (out[i]) {
+                    tally[i] = ELIMINATED;
+                }
+            }
+            for (int slot = 0; slot < rankings.length; slot++) {
+                if (rankings[slot] != 0) {
+                    int choice = continuing(rankings[slot], out);
+                    if (choice >= 0) {
+                        tally[choice] += counts[slot];
+                    }
+                }
+            }
+            rounds.add(tally);
+            if (remaining <= 1 || majority(tally) >= 0) {
+                break;
+            }
+            int weakest = weakest(tally);
+            drops[round++] = weakest;
+            out[weakest] = true;
+            remaining--;
+        }
+        dropped = Arrays.copyOf(drops, round);
+        recounts++;
+    }
+
+    /**
+     * The option with more than half of the ballots still counting in the round, or else the only option
+     * left; -1 if there is none yet.
+     */
+    private int winner(long[] tally) {
+        int leader = majority(tally);
+        if (leader >= 0) {
+            return leader;
+        }
+        int left = -1;
+        for (int i = 0; i < optionCount; i++) {
+            if (tally[i] != ELIMINATED) {
+                if (left >= 0) {
+                    return -1;
+                }
+                left = i;
+            }
+        }
+        return left;
+    }
+
+    private int majority(long[] tally) {
+        long total = 0;
+        for (long count : tally) {
+            if (count != ELIMINATED) {
+                total += count;
+            }
+        }
+        for (int i = 0; i < optionCount; i++) {
+            if (tally[i] != ELIMINATED && 2 * tally[i] > total) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The option with the fewest ballots in the round; of equally weak ones, the one listed last.
+     */
+    private int weakest(long[] tally) {
+        int weakest = -1;
+        for (int i = 0; i < optionCount; i++) {
+            if (tally[i] != ELIMINATED && (weakest < 0 || tally[i] <= tally[weakest])) {
+                weakest = i;
+            }
+        }
+        return weakest;
+    }
+
+    private static int continuing(long ranking, boolean[] out) {
+        for (long rest = ranking; rest != 0; rest >>>= BITS) {
+            int option = (int) (rest & PLACE) - 1;
+            if (!out[option]) {
+                return option;
+            }
+        }
+        return -1;
+    }
+
+    private void put(long ranking, long count) {
+        int slot = find(rankings, ranking);
+        if (rankings[slot] == 0) {
+            if (3 * (distinct + 1) > 2 * rankings.length) {
+                grow();
+                slot = find(rankings, ranking);
+            }
+            rankings[slot] = ranking;
+            distinct++;
+        }
+        counts[slot] += count;
+    }
+
+    private void grow() {
+        long[] oldRankings = rankings;
+        long[] oldCounts = counts;
+        rankings = new long[oldRankings.length * 2];
+        counts = new long[oldCounts.length * 2];
+        for (int slot = 0; slot < oldRankings.length; slot++) {
+            if (oldRankings[slot] != 0) {
+                int to = find(rankings, oldRankings[slot]);
+                rankings[to] = oldRankings[slot];
+                counts[to] = oldCounts[slot];
+            }
+        }
+    }
+
+    private static int find(long[] table, long ranking) {
+        int mask = table.length - 1;
+        int slot = (int) ((ranking * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (table[slot] != 0 && table[slot] != ranking) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
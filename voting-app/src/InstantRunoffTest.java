@@ -0,0 +1,120 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstantRunoffTest {
+
+    @TempDir
+    Path dir;
+
+    private static void cast(VotingState state, String voteName, int ballots, String ranking, int[] next) {
+        for (int i = 0; i < ballots; i++) {
+            assertEquals(MutationResult.OK, state.vote("topic1", voteName, "user" + next[0]++, ranking).join());
+        }
+    }
+
+    @Test
+    void testRunoffIsKeptUpToDateWithoutRecounting() {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        state.createVote("topic1", "vote1", List.of("A", "B", "C"), PollType.RANKED, 0, 0).join();
+        int[] next = {0};
+        cast(state, "vote1", 40, "A", next);
+        cast(state, "vote1", 35, "B>A", next);
+        cast(state, "vote1", 25, "C > B", next);
+
+        VoteTally tally = state.tally("topic1", "vote1");
+        assertArrayEquals(new long[]{40, 35, 25}, tally.snapshot());
+        String results = tally.results("vote1");
+        assertTrue(results.contains("Раунд 1: A 40, B 35, C 25 — выбывает C"), results);
+        assertTrue(results.contains("Раунд 2: A 40, B 60 — побеждает B"), results);
+        assertTrue(results.contains("Бюллетеней: 100, различных ранжирований: 3"), results);
+        InstantRunoff runoff = tally.runoff();
+        long recounts = runoff.recounts();
+
+        // more of the same keeps every elimination, so the rounds are updated in place
+        cast(state, "vote1", 1000, "C>B", next);
+        results = tally.results("vote1");
+        assertTrue(results.contains("Раунд 1: A 40, B 35, C 1025 — побеждает C"), results);
+        assertEquals(recounts + 1, runoff.recounts());
+        cast(state, "vote1", 10, "A>C", next);
+        results = tally.results("vote1");
+        assertTrue(results.contains("A 50, B 35, C 1025 — побеждает C"), results);
+        assertEquals(recounts + 1, runoff.recounts());
+
+        assertEquals(MutationResult.INVALID_OPTION, state.vote("topic1", "vote1", "other", "A>A").join());
+        assertEquals(MutationResult.INVALID_OPTION, state.vote("topic1", "vote1", "other", "A>D").join());
+        assertEquals(MutationResult.ALREADY_VOTED, state.vote("topic1", "vote1", "user0", "B").join());
+    }
+
+    @Test
+    void testExhaustedBallotsLeaveTheCount() {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        state.createVote("topic1", "vote1", List.of("A", "B", "C"), PollType.RANKED, 0, 0).join();
+        int[] next = {0};
+        cast(state, "vote1", 4, "A", next);
+        cast(state, "vote1", 3, "B", next);
+        cast(state, "vote1", 2, "C", next);
+        String results = state.tally("topic1", "vote1").results("vote1");
+        assertTrue(results.contains("Раунд 2: A 4, B 3 (исчерпано 2) — побеждает A"), results);
+    }
+
+    @Test
+    void testWeightedBallotsSpreadPoints() {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        state.createVote("topic1", "vote1", List.of("A", "B"), PollType.weighted(5), 0, 0).join();
+        assertEquals(MutationResult.OK, state.vote("topic1", "vote1", "user1", "A=3, B=2").join());
+        assertEquals(MutationResult.OK, state.vote("topic1", "vote1", "user2", "B=5").join());
+        assertEquals(MutationResult.INVALID_OPTION, state.vote("topic1", "vote1", "user3", "A=3,B=3").join());
+        assertEquals(MutationResult.INVALID_OPTION, state.vote("topic1", "vote1", "user3", "A=0").join());
+        assertEquals(MutationResult.INVALID_OPTION, state.vote("topic1", "vote1", "user3", "A").join());
+        assertArrayEquals(new long[]{3, 7}, state.tally("topic1", "vote1").snapshot());
+        assertTrue(state.tally("topic1", "vote1").results("vote1").contains("B: 7 баллов"));
+        assertEquals(MutationResult.INVALID_OPTION,
+                state.createVote("topic1", "vote2", List.of("A,B", "C"), PollType.weighted(5), 0, 0).join());
+    }
+
+    @Test
+    void testRankingsSurviveJournalSnapshotAndMove() throws Exception {
+        String expected;
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            VotingState state = journal.state();
+            state.createTopic("topic1").join();
+            state.createVote("topic1", "vote1", List.of("A", "B", "C"), PollType.RANKED, 0, 0).join();
+            int[] next = {0};
+            cast(state, "vote1", 4, "A>C", next);
+            cast(state, "vote1", 3, "B>C", next);
+            cast(state, "vote1", 2, "C>B", next);
+            expected = state.tally("topic1", "vote1").results("vote1");
+        }
+
+        Path file = dir.resolve("state.bin");
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            VoteTally tally = journal.state().tally("topic1", "vote1");
+            assertEquals(PollType.RANKED, tally.type());
+            assertEquals(expected, tally.results("vote1"));
+            journal.state().writeTo(file);
+        }
+
+        VotingState loaded = VotingState.readFrom(file);
+        assertEquals(expected, loaded.tally("topic1", "vote1").results("vote1"));
+
+        PollExport poll = loaded.exportVote("topic1", "vote1");
+        ByteBuf buf = Unpooled.buffer();
+        WireProtocol.writePoll(buf, poll);
+        assertEquals(WireProtocol.pollSize(poll), buf.readableBytes());
+        VotingState target = new VotingState();
+        target.createTopic("topic1").join();
+        assertEquals(MutationResult.OK, target.importVote(WireProtocol.readPoll(buf)).join());
+        assertEquals(expected, target.tally("topic1", "vote1").results("vote1"));
+        buf.release();
+    }
+}
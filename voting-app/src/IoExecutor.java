@@ -0,0 +1,45 @@
+import java.util.concurrent.*;
+
+public final class IoExecutor {
+    private static final ExecutorService executor = newExecutor("storage-io");
+    /**
+     * Bulk imports and exports run for minutes, so they get their own thread and never hold up a save, a
+     * load or a snapshot for a replica.
+     */
+    private static final ExecutorService bulk = newExecutor("bulk-transfer");
+
+    private IoExecutor() {
+    }
+
+    private static ExecutorService newExecutor(String name) {
+        return Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(executor, task);
+    }
+
+    public static <T> CompletableFuture<T> submitBulk(Callable<T> task) {
+        return submit(bulk, task);
+    }
+
+    private static <T> CompletableFuture<T> submit(ExecutorService executor, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public static void execute(Runnable task) {
+        executor.execute(task);
+    }
+}
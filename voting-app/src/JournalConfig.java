@@ -0,0 +1,14 @@
+import java.nio.file.Path;
+
+public class JournalConfig {
+    public Path directory;
+    public long groupCommitMillis = 2;
+    public int maxBatchRecords = 4096;
+    public boolean fsync = true;
+    public long checkpointIntervalSeconds = 300;
+    public long maxSegmentBytes = 64L * 1024 * 1024;
+
+    public JournalConfig(Path directory) {
+        this.directory = directory;
+    }
+}
@@ -0,0 +1,154 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.List;
+
+public final class JournalRecord {
+    public static final byte CREATE_TOPIC = 1;
+    public static final byte CREATE_VOTE = 2;
+    public static final byte VOTE = 3;
+    public static final byte DELETE = 4;
+    public static final byte VOTE_BATCH = 5;
+    public static final byte IMPORT_VOTE = 6;
+    public static final byte DROP_TOPIC = 7;
+    public static final byte CREATE_SCHEDULED_VOTE = 8;
+    public static final byte CREATE_TYPED_VOTE = 9;
+
+    private JournalRecord() {
+    }
+
+    public static ByteBuf createTopic(String topic) {
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic));
+        buf.writeByte(CREATE_TOPIC);
+        WireProtocol.writeString(buf, topic);
+        return buf;
+    }
+
+    public static ByteBuf createVote(String topic, String voteName, List<String> options) {
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic) + WireProtocol.stringSize(voteName)
+                + WireProtocol.payloadSize(options));
+        buf.writeByte(CREATE_VOTE);
+        WireProtocol.writeString(buf, topic);
+        WireProtocol.writeString(buf, voteName);
+        WireProtocol.writePayload(buf, options);
+        return buf;
+    }
+
+    /**
+     * Polls without a schedule keep the plain create record, so journals stay readable by older servers.
+     */
+    public static ByteBuf createVote(String topic, String voteName, List<String> options, long opensAt, long closesAt) {
+        if (opensAt == 0 && closesAt == 0) {
+            return createVote(topic, voteName, options);
+        }
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic) + WireProtocol.stringSize(voteName)
+                + WireProtocol.payloadSize(options) + WireProtocol.varlongSize(opensAt)
+                + WireProtocol.varlongSize(closesAt));
+        buf.writeByte(CREATE_SCHEDULED_VOTE);
+        WireProtocol.writeString(buf, topic);
+        WireProtocol.writeString(buf, voteName);
+        WireProtocol.writePayload(buf, options);
+        WireProtocol.writeVarlong(buf, opensAt);
+        WireProtocol.writeVarlong(buf, closesAt);
+        return buf;
+    }
+
+    /**
+     * Plurality polls keep the records above; only ranked and weighted ones need the typed record.
+     */
+    public static ByteBuf createVote(String topic, String voteName, List<String> options, PollType type,
+                                     long opensAt, long closesAt) {
+        if (type.isPlurality()) {
+            return createVote(topic, voteName, options, opensAt, closesAt);
+        }
+        String label = type.label();
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic) + WireProtocol.stringSize(voteName)
+                + WireProtocol.payloadSize(options) + WireProtocol.varlongSize(opensAt)
+                + WireProtocol.varlongSize(closesAt) + WireProtocol.stringSize(label));
+        buf.writeByte(CREATE_TYPED_VOTE);
+        WireProtocol.writeString(buf, topic);
+        WireProtocol.writeString(buf, voteName);
+        WireProtocol.writePayload(buf, options);
+        WireProtocol.writeVarlong(buf, opensAt);
+        WireProtocol.writeVarlong(buf, closesAt);
+        WireProtocol.writeString(buf, label);
+        return buf;
+    }
+
+    public static ByteBuf vote(String topic, String voteName, String username, String option) {
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic) + WireProtocol.stringSize(voteName)
+                + WireProtocol.stringSize(username) + WireProtocol.stringSize(option));
+        buf.writeByte(VOTE);
+        WireProtocol.writeString(buf, topic);
+        WireProtocol.writeString(buf, voteName);
+        WireProtocol.writeString(buf, username);
+        WireProtocol.writeString(buf, option);
+        return buf;
+    }
+
+    public static ByteBuf voteBatch(BallotBatch batch) {
+        ByteBuf buf = allocate(1 + WireProtocol.ballotsSize(batch));
+        buf.writeByte(VOTE_BATCH);
+        WireProtocol.writeBallots(buf, batch);
+        return buf;
+    }
+
+    public static ByteBuf delete(String topic, String voteName) {
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic) + WireProtocol.stringSize(voteName));
+        buf.writeByte(DELETE);
+        WireProtocol.writeString(buf, topic);
+        WireProtocol.writeString(buf, voteName);
+        return buf;
+    }
+
+    public static ByteBuf importVote(PollExport poll) {
+        ByteBuf buf = allocate(1 + WireProtocol.pollSize(poll));
+        buf.writeByte(IMPORT_VOTE);
+        WireProtocol.writePoll(buf, poll);
+        return buf;
+    }
+
+    public static ByteBuf dropTopic(String topic) {
+        ByteBuf buf = allocate(1 + WireProtocol.stringSize(topic));
+        buf.writeByte(DROP_TOPIC);
+        WireProtocol.writeString(buf, topic);
+        return buf;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static MutationResult apply(ByteBuf record, VotingState state) {
+        byte type = record.readByte();
+        return switch (type) {
+            case CREATE_TOPIC -> state.createTopic(WireProtocol.readString(record)).join();
+            case CREATE_VOTE -> state.createVote(WireProtocol.readString(record), WireProtocol.readString(record),
+                    (List<String>) WireProtocol.readPayload(record)).join();
+            case CREATE_SCHEDULED_VOTE -> state.createVote(WireProtocol.readString(record),
+                    WireProtocol.readString(record), (List<String>) WireProtocol.readPayload(record),
+                    WireProtocol.readVarlong(record), WireProtocol.readVarlong(record)).join();
+            case CREATE_TYPED_VOTE -> {
+                String topic = WireProtocol.readString(record);
+                String voteName = WireProtocol.readString(record);
+                List<String> options = (List<String>) WireProtocol.readPayload(record);
+                long opensAt = WireProtocol.readVarlong(record);
+                long closesAt = WireProtocol.readVarlong(record);
+                yield state.createVote(topic, voteName, options, PollType.parse(WireProtocol.readString(record)),
+                        opensAt, closesAt).join();
+            }
+            case VOTE -> state.vote(WireProtocol.readString(record), WireProtocol.readString(record),
+                    WireProtocol.readString(record), WireProtocol.readString(record)).join();
+            case DELETE -> state.deleteVote(WireProtocol.readString(record), WireProtocol.readString(record)).join();
+            case VOTE_BATCH -> {
+                state.voteBatch(WireProtocol.readBallots(record)).join();
+                yield MutationResult.OK;
+            }
+            case IMPORT_VOTE -> state.importVote(WireProtocol.readPoll(record)).join();
+            case DROP_TOPIC -> state.dropTopic(WireProtocol.readString(record)).join();
+            default -> throw new CorruptedFrameException("Неизвестный тип записи журнала: " + type);
+        };
+    }
+
+    private static ByteBuf allocate(int size) {
+        return ByteBufAllocator.DEFAULT.buffer(size, size);
+    }
+}
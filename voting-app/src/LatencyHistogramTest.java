@@ -0,0 +1,37 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000, histogram.max());
+        assertEquals(50_000_000, histogram.percentile(50), 50_000_000 * 0.01);
+        assertEquals(99_000_000, histogram.percentile(99), 99_000_000 * 0.01);
+        assertEquals(99_900_000, histogram.percentile(99.9), 99_900_000 * 0.01);
+        assertEquals(100_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    void testCoordinatedOmissionCorrection() {
+        LatencyHistogram raw = new LatencyHistogram();
+        LatencyHistogram corrected = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            raw.record(1_000);
+            corrected.recordCorrected(1_000, 10_000);
+        }
+        raw.record(1_000_000);
+        corrected.recordCorrected(1_000_000, 10_000);
+
+        assertEquals(100, raw.count());
+        assertEquals(199, corrected.count());
+        assertTrue(raw.percentile(90) < 2_000);
+        assertTrue(corrected.percentile(90) > 500_000);
+    }
+}
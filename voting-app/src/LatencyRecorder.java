@@ -0,0 +1,34 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent counterpart of {@link LatencyHistogram} for always-on server metrics: recording is
+ * lock-free and allocation-free, readers take a {@link #snapshot()}.
+ */
+public class LatencyRecorder {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(LatencyHistogram.indexOf(nanos));
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public LatencyHistogram snapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                histogram.add(i, count);
+            }
+        }
+        histogram.addTotals(sum.sum(), max.get());
+        return histogram;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Client-side view of a subscribed poll, kept current by applying {@link TallyUpdate}s as they arrive.
+ */
+public class LiveTally {
+    public final String topic;
+    public final String voteName;
+    private String[] options;
+    private long[] counts;
+    private int sequence;
+
+    public LiveTally(String topic, String voteName) {
+        this.topic = topic;
+        this.voteName = voteName;
+    }
+
+    public synchronized boolean apply(TallyUpdate update) {
+        if (update.isFull()) {
+            options = update.options;
+            counts = new long[options.length];
+        } else if (options == null) {
+            return false;
+        }
+        for (int i = 0; i < update.indexes.length; i++) {
+            counts[update.indexes[i]] = update.counts[i];
+        }
+        sequence = update.sequence;
+        return true;
+    }
+
+    /**
+     * The current view as a full update, or null before the first one arrived.
+     */
+    public synchronized TallyUpdate toUpdate() {
+        if (options == null) {
+            return null;
+        }
+        int[] indexes = new int[options.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        return new TallyUpdate(topic, voteName, sequence, options, indexes, counts.clone());
+    }
+
+    public synchronized int sequence() {
+        return sequence;
+    }
+
+    public synchronized long count(String option) {
+        for (int i = 0; options != null && i < options.length; i++) {
+            if (options[i].equals(option)) {
+                return counts[i];
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Голосование \"").append(voteName).append('"');
+        if (options == null) {
+            return sb.append(": ожидание данных").toString();
+        }
+        sb.append(" #").append(sequence).append(':');
+        for (int i = 0; i < options.length; i++) {
+            sb.append(' ').append(options[i]).append('=').append(counts[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,431 @@
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGenerator {
+    enum Op {
+        VOTE("vote"), VIEW_VOTE("view_vote"), VIEW("view");
+
+        final String command;
+
+        Op(String command) {
+            this.command = command;
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String host;
+    private final int port;
+    private final WireFormat wireFormat;
+    private final int connections;
+    private final double rate;
+    private final int concurrency;
+    private final long durationSeconds;
+    private final long warmupSeconds;
+    private final int topics;
+    private final int pollsPerTopic;
+    private final int optionsPerPoll;
+    private final int[] mix = new int[OPS.length];
+    /**
+     * The interval coordinated-omission correction assumes in closed-loop mode. Unset, each connection takes
+     * the median service time of its warm-up, the pace a request slot keeps when the server does not stall.
+     */
+    private final long expectedIntervalNanos;
+    private final long requestTimeoutMillis;
+    private final Path output;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    public LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        wireFormat = WireFormat.parse(options.getOrDefault("codec", "binary"));
+        connections = Integer.parseInt(options.getOrDefault("connections", "8"));
+        rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        durationSeconds = Long.parseLong(options.getOrDefault("duration-s", "30"));
+        warmupSeconds = Long.parseLong(options.getOrDefault("warmup-s", "5"));
+        topics = Integer.parseInt(options.getOrDefault("topics", "4"));
+        pollsPerTopic = Integer.parseInt(options.getOrDefault("polls", "8"));
+        optionsPerPoll = Integer.parseInt(options.getOrDefault("options", "4"));
+        expectedIntervalNanos = TimeUnit.MICROSECONDS.toNanos(
+                Long.parseLong(options.getOrDefault("expected-interval-us", "0")));
+        requestTimeoutMillis = Long.parseLong(options.getOrDefault("timeout-ms", "10000"));
+        output = options.containsKey("output") ? Path.of(options.get("output")) : null;
+        parseMix(options.getOrDefault("mix", "vote=70,view_vote=25,view=5"));
+        if (connections <= 0 || concurrency <= 0 || topics <= 0 || pollsPerTopic <= 0 || optionsPerPoll <= 0) {
+            throw new IllegalArgumentException("Параметры нагрузки должны быть положительными");
+        }
+    }
+
+    private void parseMix(String value) {
+        for (String part : value.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            Op op = Arrays.stream(OPS).filter(o -> o.command.equals(kv[0])).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Неизвестная операция в смеси: " + kv[0]));
+            mix[op.ordinal()] = Integer.parseInt(kv[1]);
+        }
+        if (Arrays.stream(mix).sum() <= 0) {
+            throw new IllegalArgumentException("Смесь операций пуста: " + value);
+        }
+    }
+
+    private String topicName(int topic) {
+        return "load-" + runId + "-t" + topic;
+    }
+
+    private String pollName(int topic, int poll) {
+        return topicName(topic) + "-p" + poll;
+    }
+
+    private List<String> pollOptions() {
+        List<String> options = new ArrayList<>(optionsPerPoll);
+        for (int i = 0; i < optionsPerPoll; i++) {
+            options.add("opt" + i);
+        }
+        return options;
+    }
+
+    public void run() throws Exception {
+        EventLoopGroup group = new NioEventLoopGroup(Math.min(connections, Runtime.getRuntime().availableProcessors()));
+        List<Worker> workers = new ArrayList<>();
+        try {
+            setUp(group);
+            for (int i = 0; i < connections; i++) {
+                VotingClient client = new VotingClient(host, port, wireFormat,
+                        Math.max(concurrency * 2, VotingClient.DEFAULT_MAX_IN_FLIGHT), requestTimeoutMillis);
+                Channel channel = client.connect(group);
+                workers.add(new Worker(i, client, channel.eventLoop()));
+            }
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+            System.out.println("Нагрузка: " + connections + " соединений, "
+                    + (rate > 0 ? "фиксированная частота " + rate + " оп/с" : "замкнутый цикл, " + concurrency + " запросов на соединение"
+                    + ", ожидаемый интервал " + (expectedIntervalNanos > 0
+                    ? TimeUnit.NANOSECONDS.toMicros(expectedIntervalNanos) + " мкс" : "по медиане прогрева"))
+                    + ", прогрев " + warmupSeconds + " с, измерение " + durationSeconds + " с");
+            for (Worker worker : workers) {
+                worker.start(start, measureFrom, end);
+            }
+            for (Worker worker : workers) {
+                if (!worker.finished.await(end - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis) * 2,
+                        TimeUnit.NANOSECONDS)) {
+                    System.out.println("Соединение " + worker.id + " не завершило запросы вовремя");
+                }
+            }
+            report(workers);
+        } finally {
+            for (Worker worker : workers) {
+                worker.client.close();
+            }
+            group.shutdownGracefully();
+        }
+    }
+
+    private void setUp(EventLoopGroup group) throws Exception {
+        try (VotingClient admin = new VotingClient(host, port, wireFormat)) {
+            admin.connect(group);
+            List<CompletableFuture<Reply>> replies = new ArrayList<>();
+            replies.add(admin.login("load-" + runId + "-admin"));
+            for (int t = 0; t < topics; t++) {
+                replies.add(admin.createTopic(topicName(t)));
+                for (int p = 0; p < pollsPerTopic; p++) {
+                    replies.add(admin.createVote(topicName(t), pollName(t, p), "нагрузочный тест", pollOptions()));
+                }
+            }
+            for (CompletableFuture<Reply> reply : replies) {
+                Reply r = reply.join();
+                if (r.isError()) {
+                    throw new IllegalStateException("Не удалось подготовить данные: " + r.text);
+                }
+            }
+        }
+    }
+
+    private final class Worker {
+        final int id;
+        final VotingClient client;
+        final EventLoop loop;
+        final CountDownLatch finished = new CountDownLatch(1);
+        final SplittableRandom random;
+        final LatencyHistogram[] latency = new LatencyHistogram[OPS.length];
+        final LatencyHistogram[] serviceTime = new LatencyHistogram[OPS.length];
+        final long[] errors = new long[OPS.length];
+        final Map<String, Long> errorKinds = new TreeMap<>();
+        final LatencyHistogram warmup = new LatencyHistogram();
+        long correctionNanos = -1;
+        String user;
+        int userVotes;
+        int firstPoll;
+        long measureFrom;
+        long end;
+        long nextIntended;
+        long intervalNanos;
+        int outstanding;
+        int users;
+        boolean stopped;
+
+        Worker(int id, VotingClient client, EventLoop loop) {
+            this.id = id;
+            this.client = client;
+            this.loop = loop;
+            this.random = new SplittableRandom(runId.hashCode() * 31L + id);
+            for (int i = 0; i < OPS.length; i++) {
+                latency[i] = new LatencyHistogram();
+                serviceTime[i] = new LatencyHistogram();
+            }
+        }
+
+        void start(long start, long measureFrom, long end) {
+            this.measureFrom = measureFrom;
+            this.end = end;
+            loop.execute(() -> {
+                if (rate > 0) {
+                    intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) * connections / rate);
+                    nextIntended = start + intervalNanos * id / connections;
+                    tick();
+                } else {
+                    for (int i = 0; i < concurrency; i++) {
+                        issue(System.nanoTime());
+                    }
+                }
+            });
+        }
+
+        private void tick() {
+            long now = System.nanoTime();
+            while (nextIntended <= now && nextIntended < end) {
+                issue(nextIntended);
+                nextIntended += intervalNanos;
+            }
+            if (nextIntended < end) {
+                loop.schedule(this::tick, nextIntended - now, TimeUnit.NANOSECONDS);
+            } else {
+                stopped = true;
+                maybeFinish();
+            }
+        }
+
+        private Op pickOp() {
+            int total = 0;
+            for (int weight : mix) {
+                total += weight;
+            }
+            int roll = random.nextInt(total);
+            for (Op op : OPS) {
+                roll -= mix[op.ordinal()];
+                if (roll < 0) {
+                    return op;
+                }
+            }
+            return Op.VIEW;
+        }
+
+        /**
+         * Each connection votes as one user at a time, who goes through every poll once from a random one on;
+         * the next user logs in only when the last has voted everywhere.
+         */
+        private int nextPollOfUser() {
+            int polls = topics * pollsPerTopic;
+            if (user == null || userVotes == polls) {
+                user = "load-" + runId + "-c" + id + "-u" + users++;
+                userVotes = 0;
+                firstPoll = random.nextInt(polls);
+                client.login(user);
+            }
+            return (firstPoll + userVotes++) % polls;
+        }
+
+        private void issue(long intended) {
+            Op op = pickOp();
+            int topic = random.nextInt(topics);
+            int poll = random.nextInt(pollsPerTopic);
+            long sent = System.nanoTime();
+            CompletableFuture<Reply> reply = switch (op) {
+                case VOTE -> {
+                    int slot = nextPollOfUser();
+                    topic = slot / pollsPerTopic;
+                    poll = slot % pollsPerTopic;
+                    yield client.vote(topicName(topic), pollName(topic, poll), "opt" + random.nextInt(optionsPerPoll));
+                }
+                case VIEW_VOTE -> client.viewVote(topicName(topic), pollName(topic, poll));
+                case VIEW -> client.viewTopic(topicName(topic));
+            };
+            outstanding++;
+            reply.whenComplete((r, error) -> {
+                if (loop.inEventLoop()) {
+                    complete(op, intended, sent, r, error);
+                } else {
+                    loop.execute(() -> complete(op, intended, sent, r, error));
+                }
+            });
+        }
+
+        private void complete(Op op, long intended, long sent, Reply reply, Throwable error) {
+            long now = System.nanoTime();
+            outstanding--;
+            if (intended >= measureFrom && intended < end) {
+                int i = op.ordinal();
+                if (rate > 0) {
+                    latency[i].record(now - intended);
+                } else {
+                    latency[i].recordCorrected(now - sent, expectedInterval());
+                }
+                serviceTime[i].record(now - sent);
+                String kind = error != null ? errorKind(error) : reply.isError() ? reply.text.replaceAll("\"[^\"]*\"", "\"…\"") : null;
+                if (kind != null) {
+                    errors[i]++;
+                    errorKinds.merge(op.command + ": " + kind, 1L, Long::sum);
+                }
+            }
+            if (intended < measureFrom) {
+                warmup.record(now - sent);
+            }
+            if (rate <= 0) {
+                if (now < end) {
+                    issue(now);
+                } else {
+                    stopped = true;
+                }
+            }
+            maybeFinish();
+        }
+
+        long expectedInterval() {
+            if (correctionNanos < 0) {
+                correctionNanos = expectedIntervalNanos > 0 || warmup.count() == 0
+                        ? expectedIntervalNanos : warmup.percentile(50);
+            }
+            return correctionNanos;
+        }
+
+        private void maybeFinish() {
+            if (stopped && outstanding == 0) {
+                finished.countDown();
+            }
+        }
+    }
+
+    private static String errorKind(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getClass().getSimpleName();
+    }
+
+    private void report(List<Worker> workers) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"config\": {\"host\": \"").append(host).append("\", \"port\": ").append(port)
+                .append(", \"codec\": \"").append(wireFormat.name().toLowerCase()).append('"')
+                .append(", \"connections\": ").append(connections)
+                .append(", \"mode\": \"").append(rate > 0 ? "fixed-rate" : "closed-loop").append('"')
+                .append(", \"rate\": ").append(rate)
+                .append(", \"concurrency\": ").append(concurrency)
+                .append(", \"warmupSeconds\": ").append(warmupSeconds)
+                .append(", \"durationSeconds\": ").append(durationSeconds)
+                .append(", \"topics\": ").append(topics)
+                .append(", \"pollsPerTopic\": ").append(pollsPerTopic)
+                .append(", \"optionsPerPoll\": ").append(optionsPerPoll)
+                .append(", \"expectedIntervalMicros\": ").append(TimeUnit.NANOSECONDS.toMicros(rate > 0 ? 0
+                        : (long) workers.stream().mapToLong(Worker::expectedInterval).average().orElse(0)))
+                .append("},\n");
+
+        LatencyHistogram totalLatency = new LatencyHistogram();
+        long totalErrors = 0;
+        json.append("  \"operations\": {");
+        System.out.printf("%-10s %10s %10s %8s %10s %10s %10s %10s %10s%n",
+                "операция", "запросов", "оп/с", "ошибок", "p50 мкс", "p99 мкс", "p99.9 мкс", "max мкс", "p99 серв.");
+        for (Op op : OPS) {
+            LatencyHistogram latency = new LatencyHistogram();
+            LatencyHistogram serviceTime = new LatencyHistogram();
+            long errors = 0;
+            for (Worker worker : workers) {
+                latency.add(worker.latency[op.ordinal()]);
+                serviceTime.add(worker.serviceTime[op.ordinal()]);
+                errors += worker.errors[op.ordinal()];
+            }
+            totalLatency.add(latency);
+            totalErrors += errors;
+            double throughput = (double) serviceTime.count() / durationSeconds;
+            System.out.printf("%-10s %10d %10.1f %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", op.command,
+                    serviceTime.count(), throughput, errors, micros(latency.percentile(50)),
+                    micros(latency.percentile(99)), micros(latency.percentile(99.9)), micros(latency.max()),
+                    micros(serviceTime.percentile(99)));
+            json.append(op == OPS[0] ? "\n" : ",\n").append("    \"").append(op.command).append("\": {")
+                    .append("\"count\": ").append(serviceTime.count())
+                    .append(", \"throughput\": ").append(String.format(Locale.ROOT, "%.1f", throughput))
+                    .append(", \"errors\": ").append(errors)
+                    .append(", \"latencyMicros\": ");
+            appendHistogram(json, latency);
+            json.append(", \"serviceTimeMicros\": ");
+            appendHistogram(json, serviceTime);
+            json.append('}');
+        }
+        json.append("\n  },\n");
+
+        Map<String, Long> errorKinds = new TreeMap<>();
+        for (Worker worker : workers) {
+            worker.errorKinds.forEach((kind, count) -> errorKinds.merge(kind, count, Long::sum));
+        }
+        json.append("  \"errors\": {");
+        boolean first = true;
+        for (var entry : errorKinds.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    \"").append(escape(entry.getKey())).append("\": ")
+                    .append(entry.getValue());
+            first = false;
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        json.append(errorKinds.isEmpty() ? "},\n" : "\n  },\n");
+
+        double totalThroughput = (double) totalLatency.count() / durationSeconds;
+        json.append("  \"total\": {\"count\": ").append(totalLatency.count())
+                .append(", \"throughput\": ").append(String.format(Locale.ROOT, "%.1f", totalThroughput))
+                .append(", \"errors\": ").append(totalErrors)
+                .append(", \"latencyMicros\": ");
+        appendHistogram(json, totalLatency);
+        json.append("}\n}\n");
+        System.out.printf("Итого: %d запросов, %.1f оп/с, ошибок: %d, p99 = %.1f мкс%n", totalLatency.count(),
+                totalThroughput, totalErrors, micros(totalLatency.percentile(99)));
+
+        if (output != null) {
+            Files.writeString(output, json, StandardCharsets.UTF_8);
+            System.out.println("Результаты записаны в " + output);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append('{');
+        for (double p : PERCENTILES) {
+            json.append("\"p").append(String.valueOf(p).replace(".0", "").replace(".", "")).append("\": ")
+                    .append(String.format(Locale.ROOT, "%.1f", micros(histogram.percentile(p)))).append(", ");
+        }
+        json.append("\"mean\": ").append(String.format(Locale.ROOT, "%.1f", histogram.mean() / 1000))
+                .append(", \"max\": ").append(String.format(Locale.ROOT, "%.1f", micros(histogram.max())))
+                .append('}');
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
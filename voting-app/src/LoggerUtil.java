@@ -1,11 +1,61 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.logging.*;
 
 public class LoggerUtil {
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    private static String logFile;
+    private static int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private static AsyncLogHandler.Overflow overflow = AsyncLogHandler.Overflow.DROP;
+    private static AsyncLogHandler handler;
+
+    /**
+     * Reads --log-file, --log-queue and --log-overflow; takes effect only before the first logger is created.
+     */
+    public static synchronized void configure(Map<String, String> options) {
+        if (handler != null) {
+            return;
+        }
+        logFile = options.get("log-file");
+        queueCapacity = Integer.parseInt(options.getOrDefault("log-queue", String.valueOf(DEFAULT_QUEUE_CAPACITY)));
+        overflow = AsyncLogHandler.Overflow.valueOf(options.getOrDefault("log-overflow", "drop").toUpperCase());
+    }
+
+    public static synchronized AsyncLogHandler handler() {
+        if (handler == null) {
+            handler = new AsyncLogHandler(openOutput(), queueCapacity, overflow);
+            Runtime.getRuntime().addShutdownHook(new Thread(handler::close, "log-shutdown"));
+        }
+        return handler;
+    }
+
+    private static Writer openOutput() {
+        if (logFile != null) {
+            try {
+                return Files.newBufferedWriter(Path.of(logFile), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Не удалось открыть файл журнала " + logFile + ": " + e.getMessage());
+            }
+        }
+        return new BufferedWriter(new OutputStreamWriter(System.err), 64 * 1024);
+    }
+
     public static Logger getLogger(String name) {
         Logger logger = Logger.getLogger(name);
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setFormatter(new SimpleFormatter());
-        logger.addHandler(handler);
+        AsyncLogHandler handler = handler();
+        if (!Arrays.asList(logger.getHandlers()).contains(handler)) {
+            logger.addHandler(handler);
+        }
         logger.setUseParentHandlers(false);
         return logger;
     }
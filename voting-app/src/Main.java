@@ -1,9 +1,44 @@
+import java.util.HashMap;
+import java.util.Map;
+
 public class Main {
     public static void main(String[] args) throws Exception {
-        if (args.length > 0 && args[0].equals("server")) {
-            new VotingServer(8080).start();
+        boolean server = args.length > 0 && args[0].equals("server");
+        Map<String, String> options = ServerConfig.withConfigFile(parseOptions(args));
+        LoggerUtil.configure(options);
+
+        if (args.length > 0 && args[0].equals("load")) {
+            new LoadGenerator(options).run();
+            return;
+        }
+
+        if (server) {
+            new VotingServer(ServerConfig.parse(options)).start();
+        } else if (args.length > 0 && args[0].equals("router")) {
+            new ShardRouter(ServerConfig.parse(options), ShardRouter.parseNodes(options.get("shards"))).start();
         } else {
-            new VotingClient("localhost", 8080).start();
+            WireFormat wireFormat = WireFormat.parse(options.getOrDefault("codec", "binary"));
+            int maxInFlight = Integer.parseInt(
+                    options.getOrDefault("max-in-flight", String.valueOf(VotingClient.DEFAULT_MAX_IN_FLIGHT)));
+            long timeoutMillis = Long.parseLong(
+                    options.getOrDefault("timeout-ms", String.valueOf(VotingClient.DEFAULT_REQUEST_TIMEOUT_MILLIS)));
+            int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+            new VotingClient(options.getOrDefault("host", "localhost"), port, wireFormat, maxInFlight, timeoutMillis).start();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    options.put(arg.substring(2), "true");
+                } else {
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+                }
+            }
         }
+        return options;
     }
-}
\ No newline at end of file
+}
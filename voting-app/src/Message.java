@@ -2,9 +2,13 @@ import java.io.Serializable;
 import java.util.Map;
 
 public class Message implements Serializable {
+    private static final long serialVersionUID = -85287919970776028L;
+
     public String type;
     public Map<String, String> params;
     public Object payload;
+    public int requestId;
+    public transient long receivedNanos;
 
     public Message(String type, Map<String, String> params, Object payload) {
         this.type = type;
@@ -12,6 +16,11 @@ public class Message implements Serializable {
         this.payload = payload;
     }
 
+    public Message(String type, Map<String, String> params, Object payload, int requestId) {
+        this(type, params, payload);
+        this.requestId = requestId;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
@@ -0,0 +1,20 @@
+import io.netty.buffer.ByteBuf;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+public interface MutationLog {
+    MutationLog NONE = record -> {
+        record.release();
+        return null;
+    };
+
+    /**
+     * Takes ownership of {@code record}. Returns {@code null} when the record needs no durability wait.
+     */
+    CompletableFuture<Void> append(ByteBuf record);
+
+    default CompletableFuture<Void> rebase(Path snapshot) {
+        return null;
+    }
+}
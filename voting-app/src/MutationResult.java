@@ -0,0 +1,19 @@
+import java.util.concurrent.CompletableFuture;
+
+public enum MutationResult {
+    OK,
+    TOPIC_EXISTS,
+    TOPIC_NOT_FOUND,
+    VOTE_EXISTS,
+    VOTE_NOT_FOUND,
+    ALREADY_VOTED,
+    INVALID_OPTION,
+    POLL_CLOSED,
+    POLL_NOT_OPEN;
+
+    private final CompletableFuture<MutationResult> done = CompletableFuture.completedFuture(this);
+
+    public CompletableFuture<MutationResult> done() {
+        return done;
+    }
+}
@@ -0,0 +1,86 @@
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.lang.ref.WeakReference;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closes scheduled polls on time. Deadlines go into one hashed timer wheel shared by every state, so a
+ * pending close costs a small wheel entry however far away it is. When one fires, the poll's results are
+ * frozen into a rendered snapshot. The wheel only decides when to freeze; whether a vote still counts
+ * depends on the close time alone, checked when the vote arrives. Only the state being served schedules
+ * closes, and the wheel reaches it through a weak reference, so a state that is dropped is not kept alive
+ * until its polls' deadlines.
+ */
+public class PollCloser {
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("poll-closer", true), 100, TimeUnit.MILLISECONDS, 1024);
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final WeakReference<VotingState> state;
+    final LongAdder scheduled = new LongAdder();
+    final LongAdder fired = new LongAdder();
+    final LongAdder frozen = new LongAdder();
+
+    public PollCloser(VotingState state) {
+        this.state = new WeakReference<>(state);
+    }
+
+    /**
+     * Freezes the poll at {@code closesAt}. The task keeps only the name: if the poll has been deleted or
+     * recreated with another close time by then, it does nothing.
+     */
+    public void schedule(String voteName, long closesAt) {
+        scheduled.increment();
+        TIMER.newTimeout(timeout -> {
+            fired.increment();
+            VotingState live = state.get();
+            if (live != null && live.freeze(voteName, closesAt)) {
+                frozen.increment();
+            }
+        }, Math.max(0, closesAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    public long pending() {
+        return scheduled.sum() - fired.sum();
+    }
+
+    /**
+     * Reads an open or close time: {@code +30s}, {@code +15m}, {@code +2h} or {@code +1d} from now, a local
+     * date and time such as {@code 2026-10-18T20:00}, or an instant such as {@code 2026-10-18T17:00:00Z}.
+     */
+    public static long parseTime(String value, long nowMillis) {
+        String text = value.trim();
+        try {
+            if (text.startsWith("+") && text.length() > 2) {
+                long amount = Long.parseLong(text.substring(1, text.length() - 1));
+                TimeUnit unit = switch (text.charAt(text.length() - 1)) {
+                    case 's' -> TimeUnit.SECONDS;
+                    case 'm' -> TimeUnit.MINUTES;
+                    case 'h' -> TimeUnit.HOURS;
+                    case 'd' -> TimeUnit.DAYS;
+                    default -> throw new IllegalArgumentException("Ошибка: неизвестная единица времени в \"" + value + "\"");
+                };
+                return nowMillis + unit.toMillis(amount);
+            }
+            if (text.endsWith("Z")) {
+                return Instant.parse(text).toEpochMilli();
+            }
+            return LocalDateTime.parse(text).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Ошибка: не удалось разобрать время \"" + value
+                    + "\", ожидается +30s, +15m, +2h, +1d или 2026-10-18T20:00");
+        }
+    }
+
+    public static String format(long millis) {
+        return FORMAT.format(Instant.ofEpochMilli(millis).truncatedTo(ChronoUnit.SECONDS).atZone(ZoneId.systemDefault()));
+    }
+}
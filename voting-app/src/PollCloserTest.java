@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PollCloserTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testClosedPollRejectsVotesAndServesFrozenResults() throws Exception {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        long now = System.currentTimeMillis();
+        long closesAt = now + 300;
+        state.createVote("topic1", "vote1", List.of("A", "B"), 0, closesAt).join();
+        state.createVote("topic1", "later", List.of("A"), now + 60_000, now + 120_000).join();
+
+        assertEquals(MutationResult.OK, state.voteAt("topic1", "vote1", "user1", "A", now).join());
+        assertEquals(MutationResult.POLL_CLOSED, state.voteAt("topic1", "vote1", "user2", "B", closesAt).join());
+        assertEquals(MutationResult.POLL_NOT_OPEN, state.voteAt("topic1", "later", "user1", "A", now).join());
+
+        VoteTally tally = state.tally("topic1", "vote1");
+        for (int i = 0; i < 50 && !tally.isFrozen(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(tally.isFrozen());
+        String frozen = tally.finalResults("vote1");
+        assertTrue(frozen.startsWith("Итоги голосования \"vote1\""), frozen);
+        assertTrue(frozen.contains("A: 1 голосов"), frozen);
+        assertSame(frozen, tally.finalResults("vote1"));
+
+        // a replayed vote was accepted in time when it was cast, so the schedule does not apply to it
+        assertEquals(MutationResult.OK, state.vote("topic1", "vote1", "user3", "B").join());
+        assertTrue(tally.finalResults("vote1").contains("B: 1 голосов"));
+    }
+
+    @Test
+    void testScheduleSurvivesJournalAndSnapshot() throws Exception {
+        long opensAt = System.currentTimeMillis() - 1_000;
+        long closesAt = opensAt + 3_600_000;
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            journal.state().createTopic("topic1").join();
+            journal.state().createVote("topic1", "vote1", List.of("A"), opensAt, closesAt).join();
+        }
+
+        Path file = dir.resolve("state.bin");
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            assertEquals(1, journal.state().closer().pending());
+            VoteTally tally = journal.state().tally("topic1", "vote1");
+            assertEquals(opensAt, tally.opensAt());
+            assertEquals(closesAt, tally.closesAt());
+            PollExport poll = journal.state().exportVote("topic1", "vote1");
+            assertEquals(closesAt, poll.closesAt());
+            journal.state().writeTo(file);
+        }
+
+        VotingState loaded = VotingState.readFrom(file);
+        assertEquals(0, loaded.closer().pending());
+        VotingState live = new VotingState();
+        assertEquals(MutationResult.OK, live.replaceWith(loaded, file).join());
+        assertEquals(1, live.closer().pending());
+        VoteTally tally = live.tally("topic1", "vote1");
+        assertEquals(closesAt, tally.closesAt());
+        assertEquals(MutationResult.POLL_CLOSED, live.voteAt("topic1", "vote1", "user1", "A", closesAt + 1).join());
+    }
+
+    @Test
+    void testParseTime() {
+        long now = 1_000_000;
+        assertEquals(now + 90_000, PollCloser.parseTime("+90s", now));
+        assertEquals(now + 2 * 3_600_000, PollCloser.parseTime("+2h", now));
+        assertEquals(1_700_000_000_000L, PollCloser.parseTime("2023-11-14T22:13:20Z", now));
+        assertThrows(IllegalArgumentException.class, () -> PollCloser.parseTime("+5w", now));
+        assertThrows(IllegalArgumentException.class, () -> PollCloser.parseTime("завтра", now));
+    }
+}
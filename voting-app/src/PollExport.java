@@ -0,0 +1,19 @@
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One poll with its counts, the names of everyone who voted in it, its schedule and type, as moved between
+ * shards when a topic changes owner. Voters travel by name because user ids are local to each server; a
+ * ranked poll also carries its distinct rankings, each followed by its count.
+ */
+public record PollExport(String topic, String voteName, List<String> options, long[] counts, List<String> voters,
+                         long opensAt, long closesAt, PollType type, long[] rankings) implements Serializable {
+    public PollExport(String topic, String voteName, List<String> options, long[] counts, List<String> voters) {
+        this(topic, voteName, options, counts, voters, 0, 0);
+    }
+
+    public PollExport(String topic, String voteName, List<String> options, long[] counts, List<String> voters,
+                      long opensAt, long closesAt) {
+        this(topic, voteName, options, counts, voters, opensAt, closesAt, PollType.PLURALITY, new long[0]);
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.Serializable;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How a poll counts its ballots. A plurality ballot names one option. A ranked ballot orders some or all of
+ * the options, most preferred first, as {@code B>A>C}, and the poll is decided by instant runoff. A weighted
+ * ballot spreads at most {@code points} points over the options, as {@code A=3,B=2}.
+ */
+public record PollType(Kind kind, int points) implements Serializable {
+    public enum Kind {
+        PLURALITY,
+        RANKED,
+        WEIGHTED
+    }
+
+    public static final PollType PLURALITY = new PollType(Kind.PLURALITY, 0);
+    public static final PollType RANKED = new PollType(Kind.RANKED, 0);
+    /** A ranking is packed into a long, four bits per place, so a ranked poll has at most 15 options. */
+    public static final int MAX_RANKED_OPTIONS = 15;
+    /** A poll's counts and ballot stamps take consecutive slots of one {@link TallySlab} chunk. */
+    public static final int MAX_OPTIONS = TallySlab.CHUNK_SLOTS - VoteTally.RESERVED_SLOTS;
+    public static final int DEFAULT_POINTS = 10;
+
+    public static PollType weighted(int points) {
+        return new PollType(Kind.WEIGHTED, points);
+    }
+
+    public boolean isPlurality() {
+        return kind == Kind.PLURALITY;
+    }
+
+    /**
+     * {@code plurality}, {@code ranked}, {@code weighted} or {@code weighted:N} for N points per ballot.
+     */
+    public static PollType parse(String label) {
+        if (label == null || label.isBlank()) {
+            return PLURALITY;
+        }
+        String text = label.trim().toLowerCase(Locale.ROOT);
+        if (text.equals("plurality")) {
+            return PLURALITY;
+        }
+        if (text.equals("ranked")) {
+            return RANKED;
+        }
+        if (text.equals("weighted")) {
+            return weighted(DEFAULT_POINTS);
+        }
+        if (text.startsWith("weighted:")) {
+            try {
+                int points = Integer.parseInt(text.substring("weighted:".length()));
+                if (points > 0) {
+                    return weighted(points);
+                }
+            } catch (NumberFormatException ignored) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("Ошибка: неизвестный тип голосования \"" + label
+                + "\", ожидается plurality, ranked или weighted:N");
+    }
+
+    public String label() {
+        return switch (kind) {
+            case PLURALITY -> "plurality";
+            case RANKED -> "ranked";
+            case WEIGHTED -> "weighted:" + points;
+        };
+    }
+
+    /**
+     * Checks that the options can be written in a ballot of this type; null if they can, or else the error.
+     */
+    public String check(List<String> options) {
+        if (options.size() > MAX_OPTIONS) {
+            return "Ошибка: в голосовании не больше " + MAX_OPTIONS + " вариантов";
+        }
+        switch (kind) {
+            case RANKED -> {
+                if (options.size() > MAX_RANKED_OPTIONS) {
+                    return "Ошибка: в рейтинговом голосовании не больше " + MAX_RANKED_OPTIONS + " вариантов";
+                }
+                for (String option : options) {
+                    if (option.contains(">")) {
+                        return "Ошибка: варианты рейтингового голосования не могут содержать \">\"";
+                    }
+                }
+            }
+            case WEIGHTED -> {
+                for (String option : options) {
+                    if (option.contains(",") || option.contains("=")) {
+                        return "Ошибка: варианты взвешенного голосования не могут содержать \",\" и \"=\"";
+                    }
+                }
+            }
+            default -> {
+            }
+        }
+        return null;
+    }
+
+    public String describe() {
+        return switch (kind) {
+            case PLURALITY -> "один вариант";
+            case RANKED -> "рейтинговое, мгновенный второй тур";
+            case WEIGHTED -> "взвешенное, до " + points + " баллов на бюллетень";
+        };
+    }
+}
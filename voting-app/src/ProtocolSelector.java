@@ -0,0 +1,56 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ProtocolSelector extends ByteToMessageDecoder {
+    private static final Logger logger = LoggerUtil.getLogger(ProtocolSelector.class.getName());
+
+    private final WireFormat format;
+
+    public ProtocolSelector(WireFormat format) {
+        this.format = format;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (!in.isReadable()) {
+            return;
+        }
+        byte[] handshake = WireProtocol.HANDSHAKE;
+        if (in.getByte(in.readerIndex()) != handshake[0]) {
+            if (format == WireFormat.BINARY) {
+                logger.log(Level.WARNING, "Отклонено подключение без рукопожатия: {0}", ctx.channel().remoteAddress());
+                in.skipBytes(in.readableBytes());
+                ctx.close();
+                return;
+            }
+            switchTo(ctx, WireFormat.SERIALIZED);
+            return;
+        }
+        if (in.readableBytes() < handshake.length) {
+            return;
+        }
+        for (int i = 1; i < handshake.length; i++) {
+            if (in.getByte(in.readerIndex() + i) != handshake[i]) {
+                logger.log(Level.WARNING, "Неподдерживаемая версия протокола: {0}", ctx.channel().remoteAddress());
+                in.skipBytes(in.readableBytes());
+                ctx.close();
+                return;
+            }
+        }
+        in.skipBytes(handshake.length);
+        switchTo(ctx, WireFormat.BINARY);
+    }
+
+    private void switchTo(ChannelHandlerContext ctx, WireFormat selected) {
+        ChannelHandler[] codec = selected.newCodec();
+        ctx.pipeline().addAfter(ctx.name(), "decoder", codec[0]);
+        ctx.pipeline().addAfter("decoder", "encoder", codec[1]);
+        ctx.pipeline().remove(this);
+    }
+}
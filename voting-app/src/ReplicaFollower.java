@@ -0,0 +1,321 @@
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the state of a read replica in step with its primary. Records are applied in offset order on the
+ * replication connection's own thread, so client event loops never wait for them. After a dropped connection
+ * the follower asks to continue from the last offset it applied and is sent a snapshot instead when the primary
+ * restarted or no longer keeps those records.
+ */
+public class ReplicaFollower {
+    private static final Logger logger = LoggerUtil.getLogger(ReplicaFollower.class.getName());
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final long ACK_MILLIS = 100;
+
+    private final String host;
+    private final int port;
+    private final VotingState state;
+    private EventLoopGroup group;
+    private volatile Channel channel;
+    private volatile boolean stopped;
+    private volatile boolean connected;
+    private volatile long epoch;
+    private volatile long applied;
+    private volatile long primaryOffset;
+    private volatile long caughtUpMillis = System.currentTimeMillis();
+    private volatile long lastContactMillis = System.currentTimeMillis();
+    final LongAdder recordsApplied = new LongAdder();
+    final LongAdder snapshotsLoaded = new LongAdder();
+
+    public ReplicaFollower(String primary, VotingState state) {
+        int colon = primary.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Адрес основного сервера должен иметь вид host:port: " + primary);
+        }
+        this.host = primary.substring(0, colon);
+        this.port = Integer.parseInt(primary.substring(colon + 1));
+        this.state = state;
+    }
+
+    public void start() {
+        group = new NioEventLoopGroup(1, new DefaultThreadFactory("replica-follower"));
+        connect();
+    }
+
+    public void stop() {
+        stopped = true;
+        if (channel != null) {
+            channel.close();
+        }
+        if (group != null) {
+            group.shutdownGracefully();
+        }
+    }
+
+    private void connect() {
+        if (stopped) {
+            return;
+        }
+        Bootstrap b = new Bootstrap();
+        b.group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new FrameDecoder());
+                        ch.pipeline().addLast(new PrimaryHandler());
+                    }
+                });
+        b.connect(host, port).addListener((ChannelFutureListener) f -> {
+            if (!f.isSuccess()) {
+                logger.log(Level.FINE, "Основной сервер {0} недоступен: {1}", new Object[]{primary(), f.cause().getMessage()});
+                reconnectLater();
+                return;
+            }
+            channel = f.channel();
+            channel.closeFuture().addListener(closed -> {
+                connected = false;
+                logger.log(Level.WARNING, "Связь с основным сервером {0} потеряна", primary());
+                reconnectLater();
+            });
+        });
+    }
+
+    private void reconnectLater() {
+        if (!stopped) {
+            group.schedule(this::connect, RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public String primary() {
+        return host + ":" + port;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long appliedOffset() {
+        return applied;
+    }
+
+    public long lagRecords() {
+        return Math.max(0, primaryOffset - applied);
+    }
+
+    /**
+     * How old the served data may be: the time since the primary last reported an offset this replica had
+     * already applied. Both clocks are assumed to agree, as they do for processes on one host.
+     */
+    public long lagMillis() {
+        return Math.max(0, System.currentTimeMillis() - (connected ? caughtUpMillis : lastContactMillis));
+    }
+
+    public boolean isBehind() {
+        return !connected || applied < primaryOffset;
+    }
+
+    public String lagNote() {
+        return connected
+                ? "(реплика отстает от основного сервера на " + lagRecords() + " записей, ~" + lagMillis() + " мс)\n"
+                : "(нет связи с основным сервером " + primary() + " уже " + lagMillis() / 1000 + " с)\n";
+    }
+
+    private static final class SnapshotBytes extends DefaultByteBufHolder {
+        SnapshotBytes(ByteBuf data) {
+            super(data);
+        }
+    }
+
+    /**
+     * Splits the stream into frames, except for the raw snapshot bytes announced by a snapshot frame, which are
+     * passed on in whatever pieces they arrive.
+     */
+    private static final class FrameDecoder extends ByteToMessageDecoder {
+        private long snapshotRemaining;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (snapshotRemaining > 0) {
+                int length = (int) Math.min(in.readableBytes(), snapshotRemaining);
+                snapshotRemaining -= length;
+                out.add(new SnapshotBytes(in.readRetainedSlice(length)));
+                return;
+            }
+            if (in.readableBytes() < 4) {
+                return;
+            }
+            int length = in.getInt(in.readerIndex());
+            if (length <= 0 || length > ReplicationProtocol.MAX_FRAME_LENGTH) {
+                throw new TooLongFrameException("Недопустимая длина кадра репликации: " + length);
+            }
+            if (in.readableBytes() < 4 + length) {
+                return;
+            }
+            in.skipBytes(4);
+            ByteBuf frame = in.readRetainedSlice(length);
+            if (frame.getByte(frame.readerIndex()) == ReplicationProtocol.SNAPSHOT) {
+                snapshotRemaining = frame.getLong(frame.readerIndex() + ReplicationProtocol.SNAPSHOT_SIZE_POSITION);
+            }
+            out.add(frame);
+        }
+    }
+
+    private final class PrimaryHandler extends SimpleChannelInboundHandler<Object> {
+        private ScheduledFuture<?> acks;
+        private long ackedOffset = -1;
+        private Path snapshotPath;
+        private FileChannel snapshotFile;
+        private long snapshotRemaining;
+        private long snapshotEpoch;
+        private long snapshotOffset;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            connected = true;
+            lastContactMillis = System.currentTimeMillis();
+            logger.log(Level.INFO, "Подключено к основному серверу {0}, применено записей: {1,number,#}",
+                    new Object[]{primary(), applied});
+            ctx.writeAndFlush(ReplicationProtocol.offsets(ctx.alloc(), ReplicationProtocol.HELLO, epoch, applied));
+            acks = ctx.executor().scheduleAtFixedRate(() -> ack(ctx), ACK_MILLIS, ACK_MILLIS, TimeUnit.MILLISECONDS);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (acks != null) {
+                acks.cancel(false);
+            }
+            discardSnapshot();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.log(Level.SEVERE, "Ошибка применения репликации: {0}", cause.getMessage());
+            ctx.close();
+        }
+
+        private void ack(ChannelHandlerContext ctx) {
+            long offset = applied;
+            if (offset != ackedOffset) {
+                ackedOffset = offset;
+                ctx.writeAndFlush(ReplicationProtocol.offsets(ctx.alloc(), ReplicationProtocol.ACK, offset, 0),
+                        ctx.voidPromise());
+            }
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws IOException {
+            lastContactMillis = System.currentTimeMillis();
+            if (msg instanceof SnapshotBytes bytes) {
+                ByteBuf data = bytes.content();
+                snapshotRemaining -= data.readableBytes();
+                while (data.isReadable()) {
+                    data.readBytes(snapshotFile, snapshotFile.position(), data.readableBytes());
+                }
+                if (snapshotRemaining == 0) {
+                    loadSnapshot();
+                }
+                return;
+            }
+            ByteBuf frame = (ByteBuf) msg;
+            byte type = frame.readByte();
+            switch (type) {
+                case ReplicationProtocol.SNAPSHOT -> {
+                    snapshotEpoch = frame.readLong();
+                    snapshotOffset = frame.readLong();
+                    snapshotRemaining = frame.readLong();
+                    snapshotPath = Files.createTempFile("voting-replica-", ".snapshot");
+                    snapshotFile = FileChannel.open(snapshotPath, StandardOpenOption.WRITE);
+                    if (snapshotRemaining == 0) {
+                        loadSnapshot();
+                    }
+                }
+                case ReplicationProtocol.RECORDS -> applyRecords(frame);
+                case ReplicationProtocol.HEARTBEAT -> reportPrimary(frame.readLong(), frame.readLong());
+                default -> throw new CorruptedFrameException("Неизвестный кадр репликации: " + type);
+            }
+        }
+
+        private void applyRecords(ByteBuf frame) {
+            long first = frame.readLong();
+            long primaryLast = frame.readLong();
+            long sentMillis = frame.readLong();
+            int count = frame.readInt();
+            for (int i = 0; i < count; i++) {
+                ByteBuf record = frame.readSlice(frame.readInt());
+                long offset = first + i;
+                if (offset <= applied) {
+                    continue;
+                }
+                if (offset != applied + 1) {
+                    throw new CorruptedFrameException("Пропуск в журнале репликации: ожидалось смещение "
+                            + (applied + 1) + ", получено " + offset);
+                }
+                JournalRecord.apply(record, state);
+                applied = offset;
+                recordsApplied.increment();
+            }
+            reportPrimary(primaryLast, sentMillis);
+        }
+
+        private void reportPrimary(long offset, long sentMillis) {
+            primaryOffset = offset;
+            if (applied >= offset) {
+                caughtUpMillis = sentMillis;
+            }
+        }
+
+        private void loadSnapshot() throws IOException {
+            snapshotFile.force(false);
+            snapshotFile.close();
+            snapshotFile = null;
+            try {
+                VotingState loaded = VotingState.readFrom(snapshotPath);
+                state.replaceWith(loaded, snapshotPath).join();
+                IoExecutor.execute(state::materializeAll);
+            } finally {
+                Files.deleteIfExists(snapshotPath);
+                snapshotPath = null;
+            }
+            epoch = snapshotEpoch;
+            applied = snapshotOffset;
+            snapshotsLoaded.increment();
+            logger.log(Level.INFO, "Загружен снимок основного сервера на смещении {0,number,#}", snapshotOffset);
+        }
+
+        private void discardSnapshot() throws IOException {
+            if (snapshotFile != null) {
+                snapshotFile.close();
+                snapshotFile = null;
+            }
+            if (snapshotPath != null) {
+                Files.deleteIfExists(snapshotPath);
+                snapshotPath = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import io.netty.buffer.ByteBuf;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mutation log of a primary. Every record gets the next offset and stays in a bounded in-memory backlog, so a
+ * follower that reconnects continues from the offset it has applied; records are passed on unchanged to the
+ * wrapped log, the journal if there is one. Offsets restart with the process, which is what the epoch tells
+ * followers.
+ */
+public class ReplicationLog implements MutationLog {
+    public static final long DEFAULT_BACKLOG_BYTES = 64L * 1024 * 1024;
+
+    private final MutationLog delegate;
+    private final long maxBacklogBytes;
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private ByteBuf[] entries = new ByteBuf[1024];
+    private int head;
+    private int count;
+    private long firstOffset = 1;
+    private long lastOffset;
+    private long backlogBytes;
+
+    public ReplicationLog(MutationLog delegate, long maxBacklogBytes) {
+        this.delegate = delegate;
+        this.maxBacklogBytes = maxBacklogBytes;
+    }
+
+    @Override
+    public CompletableFuture<Void> append(ByteBuf record) {
+        ByteBuf kept = record.retainedDuplicate();
+        synchronized (this) {
+            if (count == entries.length) {
+                grow();
+            }
+            entries[(head + count) & (entries.length - 1)] = kept;
+            count++;
+            lastOffset++;
+            backlogBytes += kept.readableBytes();
+            while (backlogBytes > maxBacklogBytes && count > 1) {
+                evictOldest();
+            }
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return delegate.append(record);
+    }
+
+    /**
+     * State loaded from a file replaces everything the backlog describes: the backlog is dropped and one offset
+     * is skipped, so every follower that has not seen the new state is sent a snapshot.
+     */
+    @Override
+    public CompletableFuture<Void> rebase(Path snapshot) {
+        synchronized (this) {
+            while (count > 0) {
+                evictOldest();
+            }
+            lastOffset++;
+            firstOffset = lastOffset + 1;
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return delegate.rebase(snapshot);
+    }
+
+    private void grow() {
+        ByteBuf[] grown = new ByteBuf[entries.length * 2];
+        for (int i = 0; i < count; i++) {
+            grown[i] = entries[(head + i) & (entries.length - 1)];
+        }
+        entries = grown;
+        head = 0;
+    }
+
+    private void evictOldest() {
+        ByteBuf oldest = entries[head];
+        entries[head] = null;
+        head = (head + 1) & (entries.length - 1);
+        count--;
+        firstOffset++;
+        backlogBytes -= oldest.readableBytes();
+        oldest.release();
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public synchronized long lastOffset() {
+        return lastOffset;
+    }
+
+    public synchronized long backlogRecords() {
+        return count;
+    }
+
+    public synchronized long backlogBytes() {
+        return backlogBytes;
+    }
+
+    /**
+     * Whether a follower that has applied everything up to {@code offset} can continue from the backlog.
+     */
+    public synchronized boolean canContinueFrom(long offset) {
+        return offset >= firstOffset - 1 && offset <= lastOffset;
+    }
+
+    /**
+     * Adds retained copies of the records after {@code offset} to {@code out}, at least one and then up to the
+     * limits. Returns how many were added, or -1 if those records have already left the backlog.
+     */
+    public synchronized int readAfter(long offset, int maxRecords, int maxBytes, List<ByteBuf> out) {
+        if (offset < firstOffset - 1) {
+            return -1;
+        }
+        int added = 0;
+        int bytes = 0;
+        for (long next = offset + 1; next <= lastOffset && added < maxRecords && bytes < maxBytes; next++) {
+            ByteBuf record = entries[(head + (int) (next - firstOffset)) & (entries.length - 1)];
+            out.add(record.retainedDuplicate());
+            bytes += record.readableBytes();
+            added++;
+        }
+        return added;
+    }
+
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+}
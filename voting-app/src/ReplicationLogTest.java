@@ -0,0 +1,60 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationLogTest {
+
+    private static ByteBuf record(int value) {
+        return Unpooled.buffer(4).writeInt(value);
+    }
+
+    @Test
+    void testFollowerContinuesUntilRecordsLeaveBacklog() {
+        ReplicationLog log = new ReplicationLog(MutationLog.NONE, 40);
+        for (int i = 1; i <= 5; i++) {
+            log.append(record(i));
+        }
+        assertEquals(5, log.lastOffset());
+        assertTrue(log.canContinueFrom(0));
+
+        List<ByteBuf> batch = new ArrayList<>();
+        assertEquals(2, log.readAfter(2, 2, Integer.MAX_VALUE, batch));
+        assertEquals(3, batch.get(0).getInt(0));
+        assertEquals(4, batch.get(1).getInt(0));
+        batch.forEach(ByteBuf::release);
+        batch.clear();
+
+        for (int i = 6; i <= 12; i++) {
+            log.append(record(i));
+        }
+        assertEquals(10, log.backlogRecords());
+        assertFalse(log.canContinueFrom(1));
+        assertEquals(-1, log.readAfter(1, 100, Integer.MAX_VALUE, batch));
+        assertTrue(log.canContinueFrom(2));
+        assertEquals(10, log.readAfter(2, 100, Integer.MAX_VALUE, batch));
+        assertEquals(12, batch.get(9).getInt(0));
+        batch.forEach(ByteBuf::release);
+    }
+
+    @Test
+    void testLoadedStateSendsEveryFollowerASnapshot() {
+        ReplicationLog log = new ReplicationLog(MutationLog.NONE, ReplicationLog.DEFAULT_BACKLOG_BYTES);
+        log.append(record(1));
+        log.append(record(2));
+        log.rebase(null);
+        assertEquals(0, log.backlogRecords());
+        assertFalse(log.canContinueFrom(2));
+        assertTrue(log.canContinueFrom(3));
+
+        log.append(record(3));
+        List<ByteBuf> batch = new ArrayList<>();
+        assertEquals(1, log.readAfter(3, 100, Integer.MAX_VALUE, batch));
+        assertEquals(3, batch.get(0).getInt(0));
+        batch.forEach(ByteBuf::release);
+    }
+}
@@ -0,0 +1,40 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Frames between a primary and its followers: a 4-byte length, a type byte and a fixed body. A snapshot header
+ * is followed by that many raw bytes outside of any frame, so the primary can send the snapshot file as it is.
+ */
+public final class ReplicationProtocol {
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /** Follower: epoch and offset it has applied, or 0 and 0 when it has nothing yet. */
+    public static final byte HELLO = 1;
+    /** Follower: offset it has applied. */
+    public static final byte ACK = 2;
+    /** Primary: epoch, offset the snapshot includes, snapshot size; the snapshot bytes follow. */
+    public static final byte SNAPSHOT = 3;
+    /** Primary: first offset, primary's last offset, send time, record count, then length and bytes of each record. */
+    public static final byte RECORDS = 4;
+    /** Primary: last offset and send time, while there is nothing to stream. */
+    public static final byte HEARTBEAT = 5;
+
+    public static final int SNAPSHOT_SIZE_POSITION = 1 + 8 + 8;
+
+    private ReplicationProtocol() {
+    }
+
+    public static ByteBuf frame(ByteBufAllocator alloc, byte type, int bodySize) {
+        ByteBuf buf = alloc.ioBuffer(4 + 1 + bodySize);
+        buf.writeInt(1 + bodySize);
+        buf.writeByte(type);
+        return buf;
+    }
+
+    public static ByteBuf offsets(ByteBufAllocator alloc, byte type, long first, long second) {
+        ByteBuf buf = frame(alloc, type, 16);
+        buf.writeLong(first);
+        buf.writeLong(second);
+        return buf;
+    }
+}
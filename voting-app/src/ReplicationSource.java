@@ -0,0 +1,265 @@
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams a primary's {@link ReplicationLog} to its followers. Each follower has a cursor into the log that is
+ * advanced by copying a batch of records into one frame at a time while its channel stays writable, so a slow
+ * follower only falls behind; once its records have left the backlog it is brought back with a snapshot,
+ * which is written to a temporary file and sent from there without copying.
+ */
+public class ReplicationSource {
+    private static final Logger logger = LoggerUtil.getLogger(ReplicationSource.class.getName());
+    private static final AttributeKey<FollowerHandler> FOLLOWER = AttributeKey.valueOf("voting.follower");
+    private static final long HEARTBEAT_MILLIS = 100;
+    private static final int BATCH_RECORDS = 1024;
+    private static final int BATCH_BYTES = 256 * 1024;
+
+    private final VotingState state;
+    private final ReplicationLog log;
+    private final ChannelGroup followers = new DefaultChannelGroup("voting-followers", GlobalEventExecutor.INSTANCE);
+    final LongAdder recordsSent = new LongAdder();
+    final LongAdder snapshotsSent = new LongAdder();
+    private Channel acceptor;
+
+    public ReplicationSource(VotingState state, ReplicationLog log) {
+        this.state = state;
+        this.log = log;
+    }
+
+    public void bind(ServerBootstrap bootstrap, int port) throws InterruptedException {
+        bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(ReplicationProtocol.MAX_FRAME_LENGTH, 0, 4, 0, 4));
+                ch.pipeline().addLast(new FollowerHandler());
+            }
+        });
+        acceptor = bootstrap.bind(port).sync().channel();
+        logger.log(Level.INFO, "Репликация доступна на порту {0,number,#}", port);
+    }
+
+    public void close() {
+        if (acceptor != null) {
+            acceptor.close();
+        }
+        followers.close();
+    }
+
+    public ReplicationLog log() {
+        return log;
+    }
+
+    public int followerCount() {
+        return followers.size();
+    }
+
+    /**
+     * Records each follower still has to apply, as last confirmed by the follower itself.
+     */
+    public List<Long> followerLag() {
+        long last = log.lastOffset();
+        List<Long> lag = new ArrayList<>();
+        for (Channel channel : followers) {
+            FollowerHandler follower = channel.attr(FOLLOWER).get();
+            if (follower != null) {
+                lag.add(Math.max(0, last - follower.acked));
+            }
+        }
+        return lag;
+    }
+
+    private final class FollowerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        private final AtomicBoolean pumpScheduled = new AtomicBoolean();
+        private final Runnable wake = this::schedulePump;
+        private ChannelHandlerContext ctx;
+        private ScheduledFuture<?> heartbeat;
+        private long cursor = -1;
+        private boolean snapshotting;
+        volatile long acked;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            this.ctx = ctx;
+            ctx.channel().attr(FOLLOWER).set(this);
+            followers.add(ctx.channel());
+            log.addListener(wake);
+            heartbeat = ctx.executor().scheduleAtFixedRate(this::heartbeat,
+                    HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            log.removeListener(wake);
+            heartbeat.cancel(false);
+            logger.log(Level.INFO, "Последователь {0} отключен", ctx.channel().remoteAddress());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            if (type == ReplicationProtocol.ACK) {
+                acked = frame.readLong();
+            } else if (type == ReplicationProtocol.HELLO) {
+                long epoch = frame.readLong();
+                long offset = frame.readLong();
+                acked = offset;
+                if (epoch == log.epoch() && log.canContinueFrom(offset)) {
+                    logger.log(Level.INFO, "Последователь {0} продолжает со смещения {1,number,#}",
+                            new Object[]{ctx.channel().remoteAddress(), offset});
+                    cursor = offset;
+                    pump();
+                } else {
+                    sendSnapshot();
+                }
+            } else {
+                logger.log(Level.WARNING, "Неизвестный кадр репликации: {0}", type);
+                ctx.close();
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                pump();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.log(Level.WARNING, "Ошибка репликации для {0}: {1}", new Object[]{ctx.channel().remoteAddress(), cause.getMessage()});
+            ctx.close();
+        }
+
+        private void schedulePump() {
+            if (pumpScheduled.compareAndSet(false, true)) {
+                ctx.executor().execute(this::pump);
+            }
+        }
+
+        private void pump() {
+            pumpScheduled.set(false);
+            if (cursor < 0 || snapshotting) {
+                return;
+            }
+            List<ByteBuf> batch = new ArrayList<>();
+            boolean wrote = false;
+            while (ctx.channel().isWritable()) {
+                int added = log.readAfter(cursor, BATCH_RECORDS, BATCH_BYTES, batch);
+                if (added < 0) {
+                    sendSnapshot();
+                    break;
+                }
+                if (added == 0) {
+                    break;
+                }
+                ctx.write(recordsFrame(cursor + 1, batch), ctx.voidPromise());
+                cursor += added;
+                recordsSent.add(added);
+                batch.clear();
+                wrote = true;
+            }
+            if (wrote) {
+                ctx.flush();
+            }
+        }
+
+        private ByteBuf recordsFrame(long firstOffset, List<ByteBuf> records) {
+            int size = 8 + 8 + 8 + 4;
+            for (ByteBuf record : records) {
+                size += 4 + record.readableBytes();
+            }
+            ByteBuf frame = ReplicationProtocol.frame(ctx.alloc(), ReplicationProtocol.RECORDS, size);
+            frame.writeLong(firstOffset);
+            frame.writeLong(log.lastOffset());
+            frame.writeLong(System.currentTimeMillis());
+            frame.writeInt(records.size());
+            for (ByteBuf record : records) {
+                frame.writeInt(record.readableBytes());
+                frame.writeBytes(record);
+                record.release();
+            }
+            return frame;
+        }
+
+        private void heartbeat() {
+            if (cursor >= 0 && !snapshotting && ctx.channel().isWritable()) {
+                ctx.writeAndFlush(ReplicationProtocol.offsets(ctx.alloc(), ReplicationProtocol.HEARTBEAT,
+                        log.lastOffset(), System.currentTimeMillis()), ctx.voidPromise());
+            }
+        }
+
+        private void sendSnapshot() {
+            snapshotting = true;
+            long offset = state.atCatalogBoundary(log::lastOffset);
+            logger.log(Level.INFO, "Последователю {0} отправляется снимок на смещении {1,number,#}",
+                    new Object[]{ctx.channel().remoteAddress(), offset});
+            IoExecutor.submit(() -> {
+                Path file = Files.createTempFile("voting-replica-", ".snapshot");
+                state.writeTo(file);
+                return file;
+            }).whenComplete((file, error) -> ctx.executor().execute(() -> {
+                long size;
+                try {
+                    if (error != null) {
+                        throw error instanceof IOException io ? io : new IOException(error);
+                    }
+                    size = Files.size(file);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Не удалось подготовить снимок для последователя: {0}", e.getMessage());
+                    deleteQuietly(file);
+                    ctx.close();
+                    return;
+                }
+                ByteBuf header = ReplicationProtocol.frame(ctx.alloc(), ReplicationProtocol.SNAPSHOT, 24);
+                header.writeLong(log.epoch());
+                header.writeLong(offset);
+                header.writeLong(size);
+                ctx.write(header, ctx.voidPromise());
+                ctx.writeAndFlush(new DefaultFileRegion(file.toFile(), 0, size)).addListener(f -> {
+                    deleteQuietly(file);
+                    if (!f.isSuccess()) {
+                        ctx.close();
+                        return;
+                    }
+                    snapshotsSent.increment();
+                    cursor = offset;
+                    snapshotting = false;
+                    pump();
+                });
+            }));
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось удалить временный снимок {0}", file);
+        }
+    }
+}
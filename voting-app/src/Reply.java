@@ -0,0 +1,47 @@
+import java.io.Serializable;
+
+public class Reply implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+    /** A chunk of a long reply; more chunks with the same request id follow. */
+    public static final int STATUS_PARTIAL = 2;
+
+    private static final String ERROR_PREFIX = "Ошибка";
+
+    public final int status;
+    public final String text;
+    public final int requestId;
+
+    public Reply(int status, String text) {
+        this(status, text, 0);
+    }
+
+    public Reply(int status, String text, int requestId) {
+        this.status = status;
+        this.text = text;
+        this.requestId = requestId;
+    }
+
+    public static Reply of(String text) {
+        return of(text, 0);
+    }
+
+    public static Reply of(String text, int requestId) {
+        return new Reply(text.startsWith(ERROR_PREFIX) ? STATUS_ERROR : STATUS_OK, text, requestId);
+    }
+
+    public boolean isError() {
+        return status == STATUS_ERROR;
+    }
+
+    public boolean isPartial() {
+        return status == STATUS_PARTIAL;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
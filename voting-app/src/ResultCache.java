@@ -0,0 +1,115 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Rendered view and view_vote replies, keyed by what they show and stamped with the version of the data
+ * they were rendered from. An entry is served until its source object or version changes. Beyond the capacity
+ * entries are evicted by a clock: keys wait in insertion order, a hit only marks its entry as referenced, and
+ * the hand gives referenced entries a second round before it evicts one, so hits take no lock.
+ */
+public class ResultCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    /** Keys the hand may pass over in one insertion before it evicts whatever it reaches. */
+    private static final int MAX_HAND_STEPS = 64;
+
+    public static final class Entry {
+        final Object source;
+        final long version;
+        public final String text;
+        private volatile ByteBuf encoded;
+        private volatile boolean referenced;
+
+        Entry(Object source, long version, String text) {
+            this.source = source;
+            this.version = version;
+            this.text = text;
+        }
+
+        /**
+         * The reply body as the binary protocol sends it, encoded on first use. The buffer is never released,
+         * so callers write {@link ByteBuf#retainedDuplicate()}s of it.
+         */
+        public ByteBuf encoded() {
+            ByteBuf buf = encoded;
+            if (buf == null) {
+                Reply reply = Reply.of(text);
+                buf = Unpooled.buffer(1 + WireProtocol.stringSize(text));
+                buf.writeByte(reply.status);
+                WireProtocol.writeString(buf, text);
+                encoded = buf;
+            }
+            return buf;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** The clock: every key in the map once, oldest at the head where the hand is. */
+    private final Queue<String> clock = new ConcurrentLinkedQueue<>();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    public ResultCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * The caller reads {@code version} before anything {@code render} looks at, so a racing mutation can only
+     * leave behind an entry that is already out of date.
+     */
+    public Entry get(String key, Object source, long version, Supplier<String> render) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.source == source && entry.version == version) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        entry = new Entry(source, version, render.get());
+        if (capacity > 0 && entries.put(key, entry) == null) {
+            clock.add(key);
+            evictBeyondCapacity();
+        }
+        return entry;
+    }
+
+    /**
+     * Moves the hand until the cache is back within its capacity, passing over at most
+     * {@link #MAX_HAND_STEPS} referenced entries per insertion; the capacity is kept approximately when
+     * insertions race.
+     */
+    private void evictBeyondCapacity() {
+        int steps = 0;
+        while (entries.size() > capacity) {
+            String key = clock.poll();
+            if (key == null) {
+                return;
+            }
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.referenced && steps++ < MAX_HAND_STEPS) {
+                entry.referenced = false;
+                clock.add(key);
+            } else if (entries.remove(key, entry)) {
+                evictions.increment();
+            } else {
+                clock.add(key);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,125 @@
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client connection of a {@link ShardRouter}. Logins are kept here, since the shards only see the router's
+ * own connection; everything else is forwarded and the reply is passed back under the client's request id.
+ */
+public class RouterHandler extends SimpleChannelInboundHandler<Object> {
+    private static final Logger logger = LoggerUtil.getLogger(RouterHandler.class.getName());
+    private static final Set<String> LOGIN_REQUIRED = Set.of(
+            "create_topic", "view", "create_vote", "vote", "vote_batch", "view_vote", "delete", "subscribe", "add_shard");
+    private static final Set<String> OPERATOR_ONLY = Set.of("import", "export");
+
+    private final ShardRouter router;
+
+    public RouterHandler(ShardRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        router.sessions.remove(ctx.channel());
+        router.unsubscribeAll(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            logger.log(Level.FINE, "Соединение {0} закрыто по неактивности", ctx.channel().remoteAddress());
+            if (SessionRegistry.sessionOf(ctx.channel()) != null) {
+                router.sessions.expired(ctx.channel());
+            }
+            ctx.close();
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof Message message)) {
+            ctx.writeAndFlush("Ошибка: сообщение должно быть типа Message");
+            return;
+        }
+        if (message.type.equals("login")) {
+            handleLogin(ctx, message);
+            return;
+        }
+        Session session = SessionRegistry.sessionOf(ctx.channel());
+        if (session == null && LOGIN_REQUIRED.contains(message.type)) {
+            reply(ctx, message, Reply.of("Ошибка: необходимо выполнить login"), null);
+            return;
+        }
+        if (OPERATOR_ONLY.contains(message.type) && (session == null || !session.operator)) {
+            reply(ctx, message, Reply.of(session == null ? "Ошибка: необходимо выполнить login"
+                    : "Ошибка: импорт и экспорт доступны только оператору"), null);
+            return;
+        }
+
+        String topic = message.params.get("topic");
+        String voteName = message.params.get("vote");
+        CompletableFuture<?> result = switch (message.type) {
+            case "subscribe" -> topic == null || voteName == null
+                    ? CompletableFuture.completedFuture(Reply.of("Ошибка: недостаточно параметров для подписки"))
+                    : router.subscribe(ctx.channel(), topic, voteName);
+            case "unsubscribe" -> CompletableFuture.completedFuture(topic == null || voteName == null
+                    ? Reply.of("Ошибка: недостаточно параметров для отмены подписки")
+                    : router.unsubscribe(ctx.channel(), topic, voteName));
+            case "add_shard" -> {
+                String node = message.params.get("node");
+                yield node == null || node.isBlank()
+                        ? CompletableFuture.completedFuture(Reply.of("Ошибка: адрес узла не указан"))
+                        : router.addShard(node.trim());
+            }
+            default -> router.forward(message, session == null ? null : session.username);
+        };
+        result.whenComplete((value, error) -> reply(ctx, message, value, error));
+    }
+
+    private void handleLogin(ChannelHandlerContext ctx, Message message) {
+        String username = message.params.get("username");
+        if (username == null || username.isBlank()) {
+            reply(ctx, message, Reply.of("Ошибка: имя пользователя не указано"), null);
+            return;
+        }
+        String secret = message.params.get("secret");
+        if (secret != null && !router.sessions.admitsOperator(secret)) {
+            logger.log(Level.WARNING, "Отклонен вход оператора {0} с {1}: неверный секрет",
+                    new Object[]{username, ctx.channel().remoteAddress()});
+            reply(ctx, message, Reply.of("Ошибка: неверный секрет оператора"), null);
+            return;
+        }
+        router.sessions.login(ctx.channel(), new Session(username, false, secret != null));
+        logger.log(Level.INFO, "Пользователь вошел: {0}", username);
+        reply(ctx, message, Reply.of("Пользователь \"" + username + "\" вошел в систему"), null);
+    }
+
+    private static void reply(ChannelHandlerContext ctx, Message message, Object result, Throwable error) {
+        if (error != null) {
+            result = Reply.of("Ошибка: узел кластера не ответил: " + ShardRouter.describe(error));
+        }
+        if (result instanceof BatchResult batch) {
+            ctx.writeAndFlush(new BatchResult(batch.statuses(), message.requestId));
+            return;
+        }
+        Reply reply = result instanceof Reply r ? r : Reply.of(String.valueOf(result));
+        if (message.requestId == 0) {
+            ctx.writeAndFlush(reply.text);
+            return;
+        }
+        List<String> chunks = CatalogListing.split(reply.text, CatalogListing.CHUNK_CHARS);
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            ctx.write(new Reply(Reply.STATUS_PARTIAL, chunks.get(i), message.requestId));
+        }
+        ctx.writeAndFlush(new Reply(reply.status, chunks.get(chunks.size() - 1), message.requestId));
+    }
+}
@@ -0,0 +1,285 @@
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Server runtime settings. Every field can be set in a properties file named by --config and overridden on
+ * the command line with the same key, e.g. {@code worker-threads=8} in the file or {@code --worker-threads=8}.
+ */
+public class ServerConfig {
+    public enum Transport {
+        AUTO,
+        EPOLL,
+        NIO
+    }
+
+    public enum Allocator {
+        POOLED,
+        UNPOOLED;
+
+        public ByteBufAllocator instance() {
+            return this == POOLED ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+        }
+    }
+
+    public int port = 8080;
+    public WireFormat wireFormat = WireFormat.AUTO;
+    public JournalConfig journal;
+
+    public Transport transport = Transport.AUTO;
+    public int bossThreads = 1;
+    public int workerThreads;
+    public int acceptors = 1;
+    public Allocator allocator = Allocator.POOLED;
+    public int backlog = 1024;
+    public boolean tcpNoDelay = true;
+    public int receiveBufferBytes;
+    public int sendBufferBytes;
+    public int writeBufferLowBytes = 32 * 1024;
+    public int writeBufferHighBytes = 64 * 1024;
+
+    public int metricsPort = -1;
+    public long subscriptionTickMillis = SubscriptionHub.DEFAULT_TICK_MILLIS;
+    public int resultCacheSize = ResultCache.DEFAULT_CAPACITY;
+    public int sessionIdleSeconds = 300;
+
+    public int replicationPort = -1;
+    public String replicateFrom;
+    public long replicationBacklogBytes = ReplicationLog.DEFAULT_BACKLOG_BYTES;
+    /**
+     * Shared secret a shard router presents when it logs in to a server; without one a server accepts no
+     * router connections, and a router cannot start.
+     */
+    public String proxySecret;
+    /** Secret a user presents at login to become an operator, who may run imports and exports. */
+    public String operatorSecret;
+    /** The only directory imports read from and exports write to; without one both are refused. */
+    public Path bulkDir;
+
+    /** Requests per second; 0 turns the limit off. A burst of 0 means one second's worth. */
+    public int connectionRate;
+    public int connectionBurst;
+    public int userRate;
+    public int userBurst;
+    /** Requests per second for all clients together, by command type, e.g. {@code vote:20000,view:5000}. */
+    public Map<String, Integer> commandRates = new HashMap<>();
+
+    /**
+     * Returns the command-line options on top of the entries of the --config file, if one was given.
+     */
+    public static Map<String, String> withConfigFile(Map<String, String> options) throws IOException {
+        String file = options.get("config");
+        if (file == null) {
+            return options;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, String> merged = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            merged.put(key, properties.getProperty(key).trim());
+        }
+        merged.putAll(options);
+        return merged;
+    }
+
+    public static ServerConfig parse(Map<String, String> options) {
+        ServerConfig config = new ServerConfig();
+        config.port = intOption(options, "port", config.port);
+        if (options.containsKey("codec")) {
+            config.wireFormat = WireFormat.parse(options.get("codec"));
+        }
+        if (options.containsKey("data-dir")) {
+            JournalConfig journal = new JournalConfig(Path.of(options.get("data-dir")));
+            journal.groupCommitMillis = longOption(options, "group-commit-ms", journal.groupCommitMillis);
+            journal.checkpointIntervalSeconds = longOption(options, "checkpoint-interval-s", journal.checkpointIntervalSeconds);
+            journal.fsync = !Boolean.parseBoolean(options.getOrDefault("no-fsync", "false"));
+            config.journal = journal;
+        }
+
+        config.transport = enumOption(options, "transport", Transport.class, config.transport);
+        config.bossThreads = intOption(options, "boss-threads", config.bossThreads);
+        config.workerThreads = intOption(options, "worker-threads", config.workerThreads);
+        config.acceptors = intOption(options, "acceptors", config.acceptors);
+        config.allocator = enumOption(options, "allocator", Allocator.class, config.allocator);
+        config.backlog = intOption(options, "backlog", config.backlog);
+        config.tcpNoDelay = Boolean.parseBoolean(options.getOrDefault("tcp-nodelay", String.valueOf(config.tcpNoDelay)));
+        config.receiveBufferBytes = intOption(options, "so-rcvbuf", config.receiveBufferBytes);
+        config.sendBufferBytes = intOption(options, "so-sndbuf", config.sendBufferBytes);
+        config.writeBufferLowBytes = intOption(options, "write-buffer-low", config.writeBufferLowBytes);
+        config.writeBufferHighBytes = intOption(options, "write-buffer-high", config.writeBufferHighBytes);
+
+        config.metricsPort = intOption(options, "metrics-port", config.metricsPort);
+        config.subscriptionTickMillis = longOption(options, "subscription-tick-ms", config.subscriptionTickMillis);
+        config.resultCacheSize = intOption(options, "result-cache-size", config.resultCacheSize);
+        config.sessionIdleSeconds = intOption(options, "session-idle-s", config.sessionIdleSeconds);
+
+        config.replicationPort = intOption(options, "replication-port", config.replicationPort);
+        config.replicateFrom = options.get("replicate-from");
+        config.replicationBacklogBytes = longOption(options, "replication-backlog-mb",
+                config.replicationBacklogBytes >> 20) << 20;
+        config.proxySecret = options.get("proxy-secret");
+        config.operatorSecret = options.get("operator-secret");
+        if (options.containsKey("bulk-dir")) {
+            config.bulkDir = Path.of(options.get("bulk-dir")).toAbsolutePath().normalize();
+        }
+
+        config.connectionRate = intOption(options, "rate-per-connection", config.connectionRate);
+        config.connectionBurst = intOption(options, "burst-per-connection", config.connectionBurst);
+        config.userRate = intOption(options, "rate-per-user", config.userRate);
+        config.userBurst = intOption(options, "burst-per-user", config.userBurst);
+        if (options.containsKey("rate-per-command")) {
+            config.commandRates = commandRates(options.get("rate-per-command"));
+        }
+        config.validate();
+        return config;
+    }
+
+    public void validate() {
+        if (bossThreads < 1 || workerThreads < 0 || acceptors < 1) {
+            throw new IllegalArgumentException("Число потоков и акцепторов должно быть положительным");
+        }
+        if (writeBufferLowBytes <= 0 || writeBufferHighBytes < writeBufferLowBytes) {
+            throw new IllegalArgumentException("Верхняя граница буфера записи должна быть не меньше нижней");
+        }
+        if (acceptors > 1 && transport == Transport.NIO) {
+            throw new IllegalArgumentException("Несколько акцепторов требуют SO_REUSEPORT и транспорта epoll");
+        }
+        if (replicateFrom != null && replicateFrom.lastIndexOf(':') <= 0) {
+            throw new IllegalArgumentException("Адрес основного сервера должен иметь вид host:port: " + replicateFrom);
+        }
+        if (connectionRate < 0 || connectionBurst < 0 || userRate < 0 || userBurst < 0
+                || commandRates.values().stream().anyMatch(rate -> rate <= 0)) {
+            throw new IllegalArgumentException("Ограничения частоты запросов должны быть положительными");
+        }
+        if (proxySecret != null && proxySecret.isBlank()) {
+            throw new IllegalArgumentException("Секрет маршрутизатора не может быть пустым");
+        }
+        if (operatorSecret != null && operatorSecret.isBlank()) {
+            throw new IllegalArgumentException("Секрет оператора не может быть пустым");
+        }
+        if (replicationBacklogBytes <= 0) {
+            throw new IllegalArgumentException("Размер буфера репликации должен быть положительным");
+        }
+    }
+
+    public boolean useEpoll() {
+        return switch (transport) {
+            case EPOLL -> {
+                if (!Epoll.isAvailable()) {
+                    throw new IllegalStateException("Транспорт epoll недоступен: " + Epoll.unavailabilityCause());
+                }
+                yield true;
+            }
+            case NIO -> false;
+            case AUTO -> Epoll.isAvailable();
+        };
+    }
+
+    public static EventLoopGroup newEventLoopGroup(boolean epoll, int threads) {
+        return epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    /**
+     * A server bootstrap with the transport and socket settings of this config; the caller adds the child handler.
+     */
+    public ServerBootstrap newBootstrap(EventLoopGroup bossGroup, EventLoopGroup workerGroup, boolean epoll) {
+        if (acceptors > 1 && !epoll) {
+            throw new IllegalStateException("Несколько акцепторов требуют SO_REUSEPORT и транспорта epoll");
+        }
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, backlog)
+                .option(ChannelOption.ALLOCATOR, allocator.instance())
+                .childOption(ChannelOption.ALLOCATOR, allocator.instance())
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferLowBytes, writeBufferHighBytes));
+        if (receiveBufferBytes > 0) {
+            b.childOption(ChannelOption.SO_RCVBUF, receiveBufferBytes);
+        }
+        if (sendBufferBytes > 0) {
+            b.childOption(ChannelOption.SO_SNDBUF, sendBufferBytes);
+        }
+        if (epoll && acceptors > 1) {
+            b.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        return b;
+    }
+
+    public List<Channel> bind(ServerBootstrap b) throws InterruptedException {
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < acceptors; i++) {
+            channels.add(b.bind(port).sync().channel());
+        }
+        return channels;
+    }
+
+    private static Map<String, Integer> commandRates(String value) {
+        Map<String, Integer> rates = new HashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Ограничение команды должно иметь вид команда:запросов_в_секунду: " + entry);
+            }
+            rates.put(entry.substring(0, colon).trim(), Integer.parseInt(entry.substring(colon + 1).trim()));
+        }
+        return rates;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static long longOption(Map<String, String> options, String key, long defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    private static <E extends Enum<E>> E enumOption(Map<String, String> options, String key, Class<E> type, E defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Недопустимое значение " + key + ": " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "порт " + port + ", протокол " + wireFormat + ", транспорт " + transport + ", акцепторов " + acceptors
+                + ", потоков " + bossThreads + "/" + (workerThreads == 0 ? "по умолчанию" : workerThreads)
+                + ", аллокатор " + allocator + ", буфер записи " + writeBufferLowBytes + "-" + writeBufferHighBytes;
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerConfigTest {
+
+    @Test
+    void testCommandLineOverridesConfigFile(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("server.properties");
+        Files.writeString(file, """
+                # настройки сервера
+                port = 9090
+                transport = nio
+                worker-threads = 4
+                write-buffer-low = 16384
+                write-buffer-high = 131072
+                data-dir = journal
+                """);
+
+        ServerConfig config = ServerConfig.parse(ServerConfig.withConfigFile(
+                Map.of("config", file.toString(), "worker-threads", "8", "allocator", "unpooled")));
+
+        assertEquals(9090, config.port);
+        assertEquals(ServerConfig.Transport.NIO, config.transport);
+        assertEquals(8, config.workerThreads);
+        assertEquals(ServerConfig.Allocator.UNPOOLED, config.allocator);
+        assertEquals(16384, config.writeBufferLowBytes);
+        assertEquals(131072, config.writeBufferHighBytes);
+        assertEquals(Path.of("journal"), config.journal.directory);
+        assertTrue(config.journal.fsync);
+    }
+
+    @Test
+    void testInvalidCombinationsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfig.parse(Map.of("write-buffer-low", "65536", "write-buffer-high", "1024")));
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfig.parse(Map.of("transport", "nio", "acceptors", "4")));
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfig.parse(Map.of("transport", "kqueue")));
+    }
+}
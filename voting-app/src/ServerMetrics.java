@@ -0,0 +1,346 @@
+import com.sun.net.httpserver.HttpServer;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ServerMetrics {
+    private static final Logger logger = LoggerUtil.getLogger(ServerMetrics.class.getName());
+    private static final String[] COMMANDS = {
+            "login", "create_topic", "view", "create_vote", "vote", "vote_batch", "view_vote", "delete",
+            "save", "load", "subscribe", "unsubscribe", "stats", "list_topics", "export_topic", "export_vote",
+            "import_vote", "drop_topic", "trending", "import", "export", "unknown"
+    };
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public static final class CommandStats {
+        final String command;
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyRecorder handling = new LatencyRecorder();
+        final LatencyRecorder completion = new LatencyRecorder();
+
+        CommandStats(String command) {
+            this.command = command;
+        }
+    }
+
+    private final Map<String, CommandStats> commands = new HashMap<>();
+    private final ChannelGroup channels = new DefaultChannelGroup("voting-clients", GlobalEventExecutor.INSTANCE);
+    private final LongAdder connectionsAccepted = new LongAdder();
+    final TrendTracker trends = new TrendTracker();
+    private final long startedNanos = System.nanoTime();
+    private volatile EventLoopGroup workers;
+    private volatile Supplier<LatencyHistogram> catalogLockWait = LatencyHistogram::new;
+    private volatile VotingState state;
+    private volatile SubscriptionHub subscriptions;
+    private volatile ResultCache results;
+    private volatile SessionRegistry sessions;
+    private volatile ReplicationSource replication;
+    private volatile ReplicaFollower replica;
+    private volatile AdmissionControl admission;
+    private HttpServer scrapeServer;
+
+    public ServerMetrics() {
+        for (String command : COMMANDS) {
+            commands.put(command, new CommandStats(command));
+        }
+    }
+
+    public CommandStats command(String type) {
+        CommandStats stats = commands.get(type);
+        return stats != null ? stats : commands.get("unknown");
+    }
+
+    public void connectionOpened(Channel channel) {
+        connectionsAccepted.increment();
+        channels.add(channel);
+    }
+
+    public void bind(EventLoopGroup workers, VotingState state, SubscriptionHub subscriptions, ResultCache results,
+                     SessionRegistry sessions) {
+        this.workers = workers;
+        this.sessions = sessions;
+        this.catalogLockWait = state::catalogLockWait;
+        this.state = state;
+        this.subscriptions = subscriptions;
+        this.results = results;
+    }
+
+    public void bindReplication(ReplicationSource replication, ReplicaFollower replica) {
+        this.replication = replication;
+        this.replica = replica;
+    }
+
+    public void bindAdmission(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    public void startScrapeEndpoint(int port) throws IOException {
+        scrapeServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        scrapeServer.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        scrapeServer.start();
+        logger.log(Level.INFO, "Метрики доступны на http://localhost:{0,number,#}/metrics", scrapeServer.getAddress().getPort());
+    }
+
+    public void stop() {
+        trends.stop();
+        if (scrapeServer != null) {
+            scrapeServer.stop(0);
+        }
+    }
+
+    private long outboundBytes() {
+        long total = 0;
+        for (Channel channel : channels) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (buffer != null) {
+                total += buffer.totalPendingWriteBytes();
+            }
+        }
+        return total;
+    }
+
+    private List<Integer> pendingTasks() {
+        List<Integer> pending = new ArrayList<>();
+        EventLoopGroup group = workers;
+        if (group != null) {
+            for (EventExecutor executor : group) {
+                pending.add(executor instanceof SingleThreadEventExecutor loop ? loop.pendingTasks() : -1);
+            }
+        }
+        return pending;
+    }
+
+    public String render() {
+        StringBuilder sb = new StringBuilder("Статистика сервера:\n");
+        sb.append("Время работы: ").append((System.nanoTime() - startedNanos) / 1_000_000_000L).append(" с\n");
+        sb.append("Соединения: ").append(channels.size()).append(" (всего принято: ")
+                .append(connectionsAccepted.sum()).append("), исходящие буферы: ").append(outboundBytes()).append(" байт\n");
+        SessionRegistry registry = sessions;
+        if (registry != null) {
+            sb.append("Сессии: ").append(registry.size()).append(" (~").append(registry.footprintBytes())
+                    .append(" байт), входов: ").append(registry.logins.sum()).append(", закрыто: ")
+                    .append(registry.closed.sum()).append(", по неактивности: ").append(registry.expired.sum())
+                    .append(", отклонено маршрутизаторов: ").append(registry.proxyRejected.sum())
+                    .append(", операторов: ").append(registry.operatorRejected.sum()).append('\n');
+        }
+        sb.append("Очереди циклов событий: ").append(pendingTasks()).append('\n');
+        sb.append(String.format(Locale.ROOT, "%-13s %10s %8s %10s %10s %10s %10s %12s%n",
+                "команда", "запросов", "ошибок", "p50 мкс", "p99 мкс", "p99.9 мкс", "max мкс", "p99 ответа"));
+        for (String command : COMMANDS) {
+            CommandStats stats = commands.get(command);
+            if (stats.requests.sum() == 0) {
+                continue;
+            }
+            LatencyHistogram handling = stats.handling.snapshot();
+            LatencyHistogram completion = stats.completion.snapshot();
+            sb.append(String.format(Locale.ROOT, "%-13s %10d %8d %10.1f %10.1f %10.1f %10.1f %12.1f%n",
+                    command, stats.requests.sum(), stats.errors.sum(), handling.percentile(50) / 1000.0,
+                    handling.percentile(99) / 1000.0, handling.percentile(99.9) / 1000.0, handling.max() / 1000.0,
+                    completion.percentile(99) / 1000.0));
+        }
+        LatencyHistogram lockWait = catalogLockWait.get();
+        sb.append(String.format(Locale.ROOT, "Ожидание блокировки каталога: %d раз, p99 %.1f мкс, max %.1f мкс%n",
+                lockWait.count(), lockWait.percentile(99) / 1000.0, lockWait.max() / 1000.0));
+        VotingState bound = state;
+        if (bound != null) {
+            sb.append(bound.storageSummary()).append('\n');
+            PollCloser closer = bound.closer();
+            if (closer.scheduled.sum() > 0) {
+                sb.append("Закрытие по расписанию: ожидают ").append(closer.pending()).append(", закрыто ")
+                        .append(closer.frozen.sum()).append('\n');
+            }
+        }
+        for (BulkTransfer transfer : BulkTransfer.ACTIVE) {
+            sb.append("Выполняется ").append(transfer.progressLine()).append('\n');
+        }
+        AdmissionControl limits = admission;
+        if (limits != null && limits.isEnabled()) {
+            sb.append("Контроль допуска: принято ").append(limits.admitted.sum()).append(", отклонено по соединению: ")
+                    .append(limits.rejected(AdmissionControl.Scope.CONNECTION)).append(", по пользователю: ")
+                    .append(limits.rejected(AdmissionControl.Scope.USER)).append(", по команде: ")
+                    .append(limits.rejected(AdmissionControl.Scope.COMMAND)).append(", пауз чтения: ")
+                    .append(limits.readPauses.sum()).append(", пользователей: ").append(limits.trackedUsers()).append('\n');
+        }
+        SubscriptionHub hub = subscriptions;
+        if (hub != null) {
+            sb.append("Подписки: ").append(hub.subscriberCount()).append(" на ").append(hub.feedCount())
+                    .append(" голосований, доставлено обновлений: ").append(hub.delivered.sum())
+                    .append(", пропущено медленными клиентами: ").append(hub.dropped.sum()).append('\n');
+        }
+        AsyncLogHandler log = LoggerUtil.handler();
+        sb.append("Журнал: записано ").append(log.written()).append(", отброшено: ").append(log.dropped())
+                .append(", ожиданий места в очереди: ").append(log.blocked()).append('\n');
+        ResultCache cache = results;
+        if (cache != null) {
+            sb.append("Кэш результатов: ").append(cache.size()).append(" записей, попаданий: ").append(cache.hits.sum())
+                    .append(", промахов: ").append(cache.misses.sum()).append(", вытеснено: ")
+                    .append(cache.evictions.sum()).append('\n');
+        }
+        ReplicationSource source = replication;
+        if (source != null) {
+            ReplicationLog replicationLog = source.log();
+            sb.append("Репликация: смещение ").append(replicationLog.lastOffset()).append(", в буфере ").append(replicationLog.backlogRecords())
+                    .append(" записей (").append(replicationLog.backlogBytes()).append(" байт), последователей: ")
+                    .append(source.followerCount()).append(", отставание ").append(source.followerLag())
+                    .append(", отправлено записей: ").append(source.recordsSent.sum()).append(", снимков: ")
+                    .append(source.snapshotsSent.sum()).append('\n');
+        }
+        ReplicaFollower follower = replica;
+        if (follower != null) {
+            sb.append("Реплика ").append(follower.primary()).append(follower.isConnected() ? "" : " (нет связи)")
+                    .append(": применено до смещения ").append(follower.appliedOffset()).append(", отставание ")
+                    .append(follower.lagRecords()).append(" записей / ").append(follower.lagMillis())
+                    .append(" мс, загружено снимков: ").append(follower.snapshotsLoaded.sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String scrape() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE voting_requests_total counter\n");
+        for (String command : COMMANDS) {
+            sb.append("voting_requests_total{command=\"").append(command).append("\"} ")
+                    .append(commands.get(command).requests.sum()).append('\n');
+        }
+        sb.append("# TYPE voting_errors_total counter\n");
+        for (String command : COMMANDS) {
+            sb.append("voting_errors_total{command=\"").append(command).append("\"} ")
+                    .append(commands.get(command).errors.sum()).append('\n');
+        }
+        sb.append("# TYPE voting_handling_seconds summary\n");
+        for (String command : COMMANDS) {
+            appendSummary(sb, "voting_handling_seconds", "command=\"" + command + "\",",
+                    commands.get(command).handling.snapshot());
+        }
+        sb.append("# TYPE voting_reply_seconds summary\n");
+        for (String command : COMMANDS) {
+            appendSummary(sb, "voting_reply_seconds", "command=\"" + command + "\",",
+                    commands.get(command).completion.snapshot());
+        }
+        sb.append("# TYPE voting_catalog_lock_wait_seconds summary\n");
+        appendSummary(sb, "voting_catalog_lock_wait_seconds", "", catalogLockWait.get());
+        VotingState bound = state;
+        if (bound != null) {
+            sb.append("# TYPE voting_bytes_per_poll gauge\nvoting_bytes_per_poll ").append(bound.bytesPerPoll()).append('\n');
+            sb.append("# TYPE voting_poll_closes_pending gauge\nvoting_poll_closes_pending ")
+                    .append(bound.closer().pending()).append('\n');
+            sb.append("# TYPE voting_polls_frozen_total counter\nvoting_polls_frozen_total ")
+                    .append(bound.closer().frozen.sum()).append('\n');
+        }
+        sb.append("# TYPE voting_connections gauge\nvoting_connections ").append(channels.size()).append('\n');
+        sb.append("# TYPE voting_connections_accepted_total counter\nvoting_connections_accepted_total ")
+                .append(connectionsAccepted.sum()).append('\n');
+        SessionRegistry registry = sessions;
+        if (registry != null) {
+            sb.append("# TYPE voting_sessions gauge\nvoting_sessions ").append(registry.size()).append('\n');
+            sb.append("# TYPE voting_session_bytes gauge\nvoting_session_bytes ").append(registry.footprintBytes()).append('\n');
+            sb.append("# TYPE voting_session_logins_total counter\nvoting_session_logins_total ")
+                    .append(registry.logins.sum()).append('\n');
+            sb.append("# TYPE voting_sessions_expired_total counter\nvoting_sessions_expired_total ")
+                    .append(registry.expired.sum()).append('\n');
+        }
+        sb.append("# TYPE voting_outbound_bytes gauge\nvoting_outbound_bytes ").append(outboundBytes()).append('\n');
+        sb.append("# TYPE voting_event_loop_pending_tasks gauge\n");
+        List<Integer> pending = pendingTasks();
+        for (int i = 0; i < pending.size(); i++) {
+            sb.append("voting_event_loop_pending_tasks{loop=\"").append(i).append("\"} ").append(pending.get(i)).append('\n');
+        }
+        AdmissionControl limits = admission;
+        if (limits != null && limits.isEnabled()) {
+            sb.append("# TYPE voting_admitted_total counter\nvoting_admitted_total ").append(limits.admitted.sum()).append('\n');
+            sb.append("# TYPE voting_rejected_total counter\n");
+            for (AdmissionControl.Scope scope : AdmissionControl.Scope.values()) {
+                sb.append("voting_rejected_total{scope=\"").append(scope.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                        .append(limits.rejected(scope)).append('\n');
+            }
+            sb.append("# TYPE voting_read_pauses_total counter\nvoting_read_pauses_total ")
+                    .append(limits.readPauses.sum()).append('\n');
+        }
+        SubscriptionHub hub = subscriptions;
+        if (hub != null) {
+            sb.append("# TYPE voting_subscribers gauge\nvoting_subscribers ").append(hub.subscriberCount()).append('\n');
+            sb.append("# TYPE voting_tally_updates_delivered_total counter\nvoting_tally_updates_delivered_total ")
+                    .append(hub.delivered.sum()).append('\n');
+            sb.append("# TYPE voting_tally_updates_dropped_total counter\nvoting_tally_updates_dropped_total ")
+                    .append(hub.dropped.sum()).append('\n');
+        }
+        AsyncLogHandler log = LoggerUtil.handler();
+        sb.append("# TYPE voting_log_records_written_total counter\nvoting_log_records_written_total ")
+                .append(log.written()).append('\n');
+        sb.append("# TYPE voting_log_records_dropped_total counter\nvoting_log_records_dropped_total ")
+                .append(log.dropped()).append('\n');
+        sb.append("# TYPE voting_log_blocked_total counter\nvoting_log_blocked_total ").append(log.blocked()).append('\n');
+        ResultCache cache = results;
+        if (cache != null) {
+            sb.append("# TYPE voting_result_cache_entries gauge\nvoting_result_cache_entries ").append(cache.size()).append('\n');
+            sb.append("# TYPE voting_result_cache_hits_total counter\nvoting_result_cache_hits_total ")
+                    .append(cache.hits.sum()).append('\n');
+            sb.append("# TYPE voting_result_cache_misses_total counter\nvoting_result_cache_misses_total ")
+                    .append(cache.misses.sum()).append('\n');
+            sb.append("# TYPE voting_result_cache_evictions_total counter\nvoting_result_cache_evictions_total ")
+                    .append(cache.evictions.sum()).append('\n');
+        }
+        ReplicationSource source = replication;
+        if (source != null) {
+            ReplicationLog replicationLog = source.log();
+            sb.append("# TYPE voting_replication_offset gauge\nvoting_replication_offset ")
+                    .append(replicationLog.lastOffset()).append('\n');
+            sb.append("# TYPE voting_replication_backlog_bytes gauge\nvoting_replication_backlog_bytes ")
+                    .append(replicationLog.backlogBytes()).append('\n');
+            sb.append("# TYPE voting_replication_followers gauge\nvoting_replication_followers ")
+                    .append(source.followerCount()).append('\n');
+            sb.append("# TYPE voting_replication_records_sent_total counter\nvoting_replication_records_sent_total ")
+                    .append(source.recordsSent.sum()).append('\n');
+            sb.append("# TYPE voting_replication_snapshots_sent_total counter\nvoting_replication_snapshots_sent_total ")
+                    .append(source.snapshotsSent.sum()).append('\n');
+        }
+        ReplicaFollower follower = replica;
+        if (follower != null) {
+            sb.append("# TYPE voting_replica_connected gauge\nvoting_replica_connected ")
+                    .append(follower.isConnected() ? 1 : 0).append('\n');
+            sb.append("# TYPE voting_replica_applied_offset gauge\nvoting_replica_applied_offset ")
+                    .append(follower.appliedOffset()).append('\n');
+            sb.append("# TYPE voting_replica_lag_records gauge\nvoting_replica_lag_records ")
+                    .append(follower.lagRecords()).append('\n');
+            sb.append("# TYPE voting_replica_lag_seconds gauge\nvoting_replica_lag_seconds ")
+                    .append(follower.lagMillis() / 1000.0).append('\n');
+            sb.append("# TYPE voting_replica_snapshots_loaded_total counter\nvoting_replica_snapshots_loaded_total ")
+                    .append(follower.snapshotsLoaded.sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendSummary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(labels).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.percentile(quantile * 100) / 1e9).append('\n');
+        }
+        String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        sb.append(name).append("_sum").append(plain).append(' ').append(histogram.mean() * histogram.count() / 1e9).append('\n');
+        sb.append(name).append("_count").append(plain).append(' ').append(histogram.count()).append('\n');
+    }
+}
@@ -0,0 +1,38 @@
+import io.netty.util.AttributeKey;
+
+public class Session {
+    public static final AttributeKey<Session> KEY = AttributeKey.valueOf("voting.session");
+
+    public final String username;
+    public final long loginMillis;
+    /**
+     * Set for a shard router's connection, which votes on behalf of the users logged in at the router.
+     */
+    public final boolean proxy;
+    /**
+     * Set for a login that presented the operator secret, which may import and export files on the server.
+     */
+    public final boolean operator;
+
+    public Session(String username) {
+        this(username, false);
+    }
+
+    public Session(String username, boolean proxy) {
+        this(username, proxy, false);
+    }
+
+    public Session(String username, boolean proxy, boolean operator) {
+        this.username = username;
+        this.loginMillis = System.currentTimeMillis();
+        this.proxy = proxy;
+        this.operator = operator;
+    }
+
+    /**
+     * Rough retained size: the session, its string, the registry node and the channel attribute.
+     */
+    long footprintBytes() {
+        return 24 + 40 + 2L * username.length() + 32 + 32;
+    }
+}
@@ -0,0 +1,115 @@
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelId;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logged-in connections. The session itself lives in a channel attribute, which is all the request path
+ * reads; the registry only indexes sessions for counting and is kept in step on login, logout and close.
+ */
+public class SessionRegistry {
+    private final Map<ChannelId, Session> sessions = new ConcurrentHashMap<>();
+    private final byte[] proxySecret;
+    private final byte[] operatorSecret;
+    private final LongAdder footprint = new LongAdder();
+    final LongAdder logins = new LongAdder();
+    final LongAdder closed = new LongAdder();
+    final LongAdder expired = new LongAdder();
+    final LongAdder proxyRejected = new LongAdder();
+    final LongAdder operatorRejected = new LongAdder();
+
+    public SessionRegistry() {
+        this(null);
+    }
+
+    public SessionRegistry(String proxySecret) {
+        this(proxySecret, null);
+    }
+
+    /**
+     * With a {@code proxySecret}, a shard router that presents it may log in as a proxy, and with an
+     * {@code operatorSecret}, a user who presents that one logs in as an operator; without them no
+     * connection can.
+     */
+    public SessionRegistry(String proxySecret, String operatorSecret) {
+        this.proxySecret = bytes(proxySecret);
+        this.operatorSecret = bytes(operatorSecret);
+    }
+
+    private static byte[] bytes(String secret) {
+        return secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether a login asking to act for other users presented the configured secret, compared in constant
+     * time.
+     */
+    public boolean admitsProxy(String secret) {
+        boolean admitted = matches(proxySecret, secret);
+        if (!admitted) {
+            proxyRejected.increment();
+        }
+        return admitted;
+    }
+
+    public boolean admitsOperator(String secret) {
+        boolean admitted = matches(operatorSecret, secret);
+        if (!admitted) {
+            operatorRejected.increment();
+        }
+        return admitted;
+    }
+
+    private static boolean matches(byte[] expected, String secret) {
+        return expected != null && secret != null
+                && MessageDigest.isEqual(expected, secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Session sessionOf(Channel channel) {
+        return channel.attr(Session.KEY).get();
+    }
+
+    public Session login(Channel channel, String username) {
+        return login(channel, username, false);
+    }
+
+    public Session login(Channel channel, String username, boolean proxy) {
+        return login(channel, new Session(username, proxy));
+    }
+
+    public Session login(Channel channel, Session session) {
+        Session previous = channel.attr(Session.KEY).getAndSet(session);
+        if (previous != null) {
+            footprint.add(-previous.footprintBytes());
+        }
+        sessions.put(channel.id(), session);
+        footprint.add(session.footprintBytes());
+        logins.increment();
+        return session;
+    }
+
+    public void remove(Channel channel) {
+        Session session = channel.attr(Session.KEY).getAndSet(null);
+        if (session != null && sessions.remove(channel.id(), session)) {
+            footprint.add(-session.footprintBytes());
+            closed.increment();
+        }
+    }
+
+    public void expired(Channel channel) {
+        expired.increment();
+        remove(channel);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long footprintBytes() {
+        return footprint.sum();
+    }
+}
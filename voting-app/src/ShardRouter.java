@@ -0,0 +1,660 @@
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.timeout.IdleStateHandler;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Front end of a hash-partitioned cluster. Every shard is an ordinary server process; topics are spread over
+ * them by a {@link HashRing} and each request is forwarded to the owner of its topic over one shared, logged-in
+ * connection per shard. Requests without a topic are answered by asking every shard and merging the replies.
+ *
+ * <p>Per-topic ordering holds because a topic's requests always leave through the same connection. A shard can
+ * be added while serving: its topics are moved one at a time, and only requests for the topic being moved wait.
+ */
+public class ShardRouter {
+    private static final Logger logger = LoggerUtil.getLogger(ShardRouter.class.getName());
+    private static final String PROXY_USER = "router";
+    private static final int LOCK_STRIPES = 64;
+
+    private final ServerConfig config;
+    private final List<String> initialNodes;
+    private final Map<String, VotingClient> shards = new ConcurrentHashMap<>();
+    /** Topics that stay with their previous owner until they have been moved; read under the topic's lock. */
+    private final Map<String, String> overrides = new ConcurrentHashMap<>();
+    /** Requests held back while their topic is being moved, in arrival order; guarded by the topic's lock. */
+    private final Map<String, List<Runnable>> parked = new ConcurrentHashMap<>();
+    private final Object[] topicLocks = new Object[LOCK_STRIPES];
+    private final Object creationLock = new Object();
+    private List<Runnable> parkedCreates;
+    private final Map<String, Feed> feeds = new ConcurrentHashMap<>();
+    final SessionRegistry sessions;
+    final LongAdder forwarded = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    private volatile HashRing ring;
+    private EventLoopGroup clientGroup;
+
+    public ShardRouter(ServerConfig config, List<String> nodes) {
+        config.validate();
+        if (config.proxySecret == null) {
+            throw new IllegalArgumentException("Маршрутизатору нужен секрет узлов: --proxy-secret=...");
+        }
+        this.config = config;
+        this.sessions = new SessionRegistry(null, config.operatorSecret);
+        this.initialNodes = List.copyOf(nodes);
+        this.ring = new HashRing(nodes);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            topicLocks[i] = new Object();
+        }
+    }
+
+    public static List<String> parseNodes(String value) {
+        List<String> nodes = new ArrayList<>();
+        for (String node : value == null ? new String[0] : value.split(",")) {
+            if (!node.isBlank()) {
+                nodes.add(node.trim());
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Не указаны узлы кластера: --shards=host:port,host:port");
+        }
+        return nodes;
+    }
+
+    public void start() throws Exception {
+        boolean epoll = config.useEpoll();
+        EventLoopGroup bossGroup = ServerConfig.newEventLoopGroup(epoll, Math.max(config.bossThreads, config.acceptors));
+        EventLoopGroup workerGroup = ServerConfig.newEventLoopGroup(epoll, config.workerThreads);
+        clientGroup = new NioEventLoopGroup(config.workerThreads);
+        WireFormat wireFormat = config.wireFormat;
+        try {
+            for (String node : initialNodes) {
+                shards.put(node, connectShard(node));
+            }
+            ServerBootstrap b = config.newBootstrap(bossGroup, workerGroup, epoll)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        public void initChannel(SocketChannel ch) throws Exception {
+                            ChannelPipeline p = ch.pipeline();
+                            if (config.sessionIdleSeconds > 0) {
+                                p.addLast(new IdleStateHandler(0, 0, config.sessionIdleSeconds));
+                            }
+                            p.addLast(WritabilityGate.INSTANCE);
+                            if (wireFormat == WireFormat.SERIALIZED) {
+                                p.addLast(wireFormat.newCodec());
+                            } else {
+                                p.addLast("protocol", new ProtocolSelector(wireFormat));
+                            }
+                            p.addLast(new RouterHandler(ShardRouter.this));
+                        }
+                    });
+            List<Channel> acceptors = config.bind(b);
+            System.out.println("Маршрутизатор запущен на порту: " + config.port + " (узлы: " + ring + ")");
+            for (Channel acceptor : acceptors) {
+                acceptor.closeFuture().sync();
+            }
+        } finally {
+            shards.values().forEach(VotingClient::close);
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            clientGroup.shutdownGracefully();
+        }
+    }
+
+    private VotingClient connectShard(String node) throws InterruptedException {
+        int colon = node.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Адрес узла должен иметь вид host:port: " + node);
+        }
+        VotingClient client = new VotingClient(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)),
+                WireFormat.BINARY, VotingClient.DEFAULT_MAX_IN_FLIGHT, VotingClient.DEFAULT_REQUEST_TIMEOUT_MILLIS);
+        client.connect(clientGroup);
+        Reply reply = client.request("login",
+                Map.of("username", PROXY_USER, "proxy", "true", "secret", config.proxySecret), null).join();
+        if (reply.isError()) {
+            client.close();
+            throw new IllegalStateException("Узел " + node + " отклонил подключение: " + reply.text);
+        }
+        logger.log(Level.INFO, "Подключен узел кластера {0}", node);
+        return client;
+    }
+
+    private Object lockFor(String topic) {
+        return topicLocks[Math.floorMod(topic.hashCode(), LOCK_STRIPES)];
+    }
+
+    private String ownerOf(String topic) {
+        String owner = overrides.get(topic);
+        return owner != null ? owner : ring.ownerOf(topic);
+    }
+
+    /**
+     * Runs the action against the connection to the topic's owner. The action only queues a write, so it is
+     * run under the topic's lock; that is what lets a move be sure no request slips past its export.
+     */
+    private <T> CompletableFuture<T> withOwner(String topic, Function<VotingClient, CompletableFuture<T>> action) {
+        synchronized (lockFor(topic)) {
+            List<Runnable> waiting = parked.get(topic);
+            if (waiting == null) {
+                forwarded.increment();
+                return action.apply(shards.get(ownerOf(topic)));
+            }
+            CompletableFuture<T> result = new CompletableFuture<>();
+            waiting.add(() -> relay(withOwner(topic, action), result));
+            return result;
+        }
+    }
+
+    private static <T> void relay(CompletableFuture<T> source, CompletableFuture<T> target) {
+        source.whenComplete((value, error) -> {
+            if (error != null) {
+                target.completeExceptionally(error);
+            } else {
+                target.complete(value);
+            }
+        });
+    }
+
+    private CompletableFuture<Object> anyShard(Message upstream) {
+        forwarded.increment();
+        return shards.get(ring.nodes().get(0)).send(upstream);
+    }
+
+    /**
+     * Forwards a request from a logged-in user; login and subscriptions are handled by {@link RouterHandler}.
+     */
+    public CompletableFuture<Object> forward(Message message, String username) {
+        String topic = message.params.get("topic");
+        Message upstream = new Message(message.type, message.params, message.payload);
+        switch (message.type) {
+            case "create_topic" -> {
+                return topic == null ? anyShard(upstream) : createTopic(topic, upstream);
+            }
+            case "vote" -> {
+                Map<String, String> params = new HashMap<>(message.params);
+                params.put("username", username);
+                upstream.params = params;
+            }
+            case "vote_batch" -> {
+                return message.payload instanceof BallotBatch batch && !batch.isEmpty()
+                        ? voteBatch(batch.asUser(username)) : anyShard(upstream);
+            }
+            case "view" -> {
+                if (topic == null) {
+                    return listTopics(upstream);
+                }
+            }
+            case "stats" -> {
+                return stats(upstream);
+            }
+            case "trending" -> {
+                if (topic == null) {
+                    return trending(upstream);
+                }
+            }
+            case "save", "load", "import", "export" -> {
+                return broadcastFile(message);
+            }
+            default -> {
+            }
+        }
+        return topic == null ? anyShard(upstream) : withOwner(topic, client -> client.send(upstream));
+    }
+
+    /**
+     * New topics are held back for the short time a shard is being added, so none is created on a node that
+     * has already been listed for the move.
+     */
+    private CompletableFuture<Object> createTopic(String topic, Message upstream) {
+        synchronized (creationLock) {
+            if (parkedCreates != null) {
+                CompletableFuture<Object> result = new CompletableFuture<>();
+                parkedCreates.add(() -> relay(createTopic(topic, upstream), result));
+                return result;
+            }
+            return withOwner(topic, client -> client.send(upstream));
+        }
+    }
+
+    private static final class Part {
+        final BallotBatch ballots = new BallotBatch();
+        int[] positions = new int[16];
+
+        void add(BallotBatch batch, int i) {
+            if (ballots.size() == positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[ballots.size()] = i;
+            ballots.add(batch.username(i), batch.topic(i), batch.voteName(i), batch.option(i));
+        }
+    }
+
+    private CompletableFuture<Object> voteBatch(BallotBatch batch) {
+        String first = batch.topic(0);
+        boolean singleTopic = true;
+        for (int i = 1; i < batch.size() && singleTopic; i++) {
+            singleTopic = batch.topic(i).equals(first);
+        }
+        if (singleTopic) {
+            Message upstream = new Message("vote_batch", Map.of(), batch);
+            return withOwner(first, client -> client.send(upstream));
+        }
+
+        Map<String, Part> parts = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            parts.computeIfAbsent(batch.topic(i), topic -> new Part()).add(batch, i);
+        }
+        byte[] statuses = new byte[batch.size()];
+        List<CompletableFuture<?>> pending = new ArrayList<>(parts.size());
+        for (Map.Entry<String, Part> entry : parts.entrySet()) {
+            Part part = entry.getValue();
+            Message upstream = new Message("vote_batch", Map.of(), part.ballots);
+            pending.add(withOwner(entry.getKey(), client -> client.send(upstream)).thenAccept(reply -> {
+                if (!(reply instanceof BatchResult result)) {
+                    throw new IllegalStateException(String.valueOf(reply));
+                }
+                for (int k = 0; k < result.size(); k++) {
+                    statuses[part.positions[k]] = result.statuses()[k];
+                }
+            }));
+        }
+        return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).thenApply(v -> new BatchResult(statuses));
+    }
+
+    /**
+     * Sends a request to every shard and waits for all of them; a shard that fails answers with an error reply
+     * so one unreachable node does not hide the others.
+     */
+    private CompletableFuture<List<Reply>> gather(List<String> nodes, Function<String, Message> messageFor) {
+        List<CompletableFuture<Reply>> replies = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            forwarded.increment();
+            replies.add(shards.get(node).send(messageFor.apply(node)).handle((reply, error) -> error != null
+                    ? Reply.of("Ошибка: узел " + node + " не ответил: " + describe(error))
+                    : reply instanceof Reply r ? r : Reply.of(String.valueOf(reply))));
+        }
+        return CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new))
+                .thenApply(v -> replies.stream().map(CompletableFuture::join).toList());
+    }
+
+    static String describe(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Every shard lists its own page in name order, so the first {@code limit} names of their union are the
+     * page of the whole cluster.
+     */
+    private CompletableFuture<Object> listTopics(Message upstream) {
+        int limit;
+        try {
+            limit = CatalogListing.limitOf(upstream.params);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(Reply.of(e.getMessage()));
+        }
+        return gather(ring.nodes(), node -> upstream).thenApply(replies -> {
+            NavigableMap<String, String> lines = new TreeMap<>();
+            boolean more = false;
+            for (Reply reply : replies) {
+                if (reply.isError()) {
+                    return reply;
+                }
+                for (String line : reply.text.split("\n")) {
+                    int counts = line.lastIndexOf(" (");
+                    if (line.startsWith("- ")) {
+                        // во время переноса раздел на мгновение есть на двух узлах
+                        lines.putIfAbsent(counts > 0 ? line.substring(2, counts) : line.substring(2), line);
+                    } else if (line.startsWith(CatalogListing.CONTINUATION)) {
+                        more = true;
+                    }
+                }
+            }
+            StringBuilder sb = new StringBuilder("Список разделов:\n");
+            int listed = 0;
+            String last = null;
+            for (Map.Entry<String, String> entry : lines.entrySet()) {
+                if (limit > 0 && listed == limit) {
+                    more = true;
+                    break;
+                }
+                sb.append(entry.getValue()).append('\n');
+                last = entry.getKey();
+                listed++;
+            }
+            if (limit > 0 && more && last != null) {
+                sb.append(CatalogListing.continuation(null, CatalogListing.param(upstream.params, "prefix"), limit, last));
+            }
+            return Reply.of(sb.toString());
+        });
+    }
+
+    private CompletableFuture<Object> stats(Message upstream) {
+        List<String> nodes = ring.nodes();
+        return gather(nodes, node -> upstream).thenApply(replies -> {
+            StringBuilder sb = new StringBuilder("Маршрутизатор: узлов ").append(nodes.size())
+                    .append(", сессий ").append(sessions.size())
+                    .append(", подписок ").append(subscriberCount())
+                    .append(" (доставлено ").append(delivered.sum()).append(", пропущено ").append(dropped.sum())
+                    .append("), переслано запросов ").append(forwarded.sum())
+                    .append(", разделов в переносе ").append(overrides.size()).append('\n');
+            for (int i = 0; i < nodes.size(); i++) {
+                sb.append("== узел ").append(nodes.get(i)).append(" ==\n").append(replies.get(i).text);
+            }
+            return Reply.of(sb.toString());
+        });
+    }
+
+    /**
+     * Each shard only sees the votes for its own topics, so the hottest lists are shown per node.
+     */
+    private CompletableFuture<Object> trending(Message upstream) {
+        List<String> nodes = ring.nodes();
+        return gather(nodes, node -> upstream).thenApply(replies -> {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < nodes.size(); i++) {
+                sb.append("== узел ").append(nodes.get(i)).append(" ==\n").append(replies.get(i).text);
+            }
+            return Reply.of(sb.toString());
+        });
+    }
+
+    /**
+     * Every shard saves or loads its own part, in a file named after the node so that shards started from the
+     * same directory do not overwrite each other. A saved cluster has to be loaded with the same set of nodes;
+     * bulk exports and imports are split the same way.
+     */
+    private CompletableFuture<Object> broadcastFile(Message message) {
+        String filename = message.params.get("filename");
+        if (filename == null || filename.isBlank()) {
+            return anyShard(new Message(message.type, message.params, null));
+        }
+        List<String> nodes = ring.nodes();
+        return gather(nodes, node -> {
+            Map<String, String> params = new HashMap<>(message.params);
+            params.put("filename", shardFile(filename, node));
+            return new Message(message.type, params, null);
+        })
+                .thenApply(replies -> {
+                    StringBuilder sb = new StringBuilder();
+                    boolean failed = false;
+                    for (int i = 0; i < nodes.size(); i++) {
+                        failed |= replies.get(i).isError();
+                        sb.append(nodes.get(i)).append(": ").append(replies.get(i).text).append('\n');
+                    }
+                    return Reply.of((failed ? "Ошибка: команда выполнена не на всех узлах\n" : "") + sb);
+                });
+    }
+
+    static String shardFile(String filename, String node) {
+        return filename + "." + node.replace(':', '_');
+    }
+
+    /**
+     * One upstream subscription per poll, shared by every router client watching it. Updates are passed on
+     * as full updates built from the router's copy, so a client skipped while not writable simply catches up
+     * with the next one.
+     */
+    private final class Feed {
+        final String topic;
+        final String voteName;
+        final Map<Channel, Boolean> subscribers = new ConcurrentHashMap<>();
+        volatile TallyUpdate latest;
+        CompletableFuture<Reply> upstream;
+        boolean closed;
+
+        Feed(String topic, String voteName) {
+            this.topic = topic;
+            this.voteName = voteName;
+        }
+
+        void publish(LiveTally tally) {
+            TallyUpdate update = tally.toUpdate();
+            if (update == null) {
+                return;
+            }
+            latest = update;
+            for (Channel channel : subscribers.keySet()) {
+                if (!channel.isWritable()) {
+                    dropped.increment();
+                    continue;
+                }
+                channel.writeAndFlush(update, channel.voidPromise());
+                delivered.increment();
+            }
+        }
+
+        CompletableFuture<Reply> subscribeOn(VotingClient client) {
+            return client.subscribe(topic, voteName, this::publish);
+        }
+    }
+
+    private static boolean failed(CompletableFuture<Reply> upstream) {
+        return upstream.isDone() && (upstream.isCompletedExceptionally() || upstream.join().isError());
+    }
+
+    public CompletableFuture<Reply> subscribe(Channel channel, String topic, String voteName) {
+        String key = topic + '\0' + voteName;
+        while (true) {
+            Feed feed = feeds.computeIfAbsent(key, k -> new Feed(topic, voteName));
+            CompletableFuture<Reply> upstream;
+            synchronized (feed) {
+                if (feed.closed) {
+                    continue;
+                }
+                if (feed.upstream == null || failed(feed.upstream)) {
+                    feed.upstream = withOwner(topic, feed::subscribeOn);
+                }
+                feed.subscribers.put(channel, Boolean.TRUE);
+                upstream = feed.upstream;
+            }
+            return upstream.handle((reply, error) -> {
+                if (error != null || reply.isError()) {
+                    feed.subscribers.remove(channel);
+                    release(feed);
+                    return error != null ? Reply.of("Ошибка: узел кластера не ответил: " + describe(error)) : reply;
+                }
+                TallyUpdate latest = feed.latest;
+                if (latest != null) {
+                    channel.writeAndFlush(latest, channel.voidPromise());
+                }
+                return reply;
+            });
+        }
+    }
+
+    public Reply unsubscribe(Channel channel, String topic, String voteName) {
+        Feed feed = feeds.get(topic + '\0' + voteName);
+        if (feed == null || feed.subscribers.remove(channel) == null) {
+            return Reply.of("Ошибка: подписка на голосование \"" + voteName + "\" не найдена");
+        }
+        release(feed);
+        return Reply.of("Подписка на голосование \"" + voteName + "\" отменена");
+    }
+
+    public void unsubscribeAll(Channel channel) {
+        for (Feed feed : feeds.values()) {
+            if (feed.subscribers.remove(channel) != null) {
+                release(feed);
+            }
+        }
+    }
+
+    private void release(Feed feed) {
+        synchronized (feed) {
+            if (feed.closed || !feed.subscribers.isEmpty()) {
+                return;
+            }
+            feed.closed = true;
+            feeds.remove(feed.topic + '\0' + feed.voteName, feed);
+            if (feed.upstream != null && !failed(feed.upstream)) {
+                withOwner(feed.topic, client -> client.unsubscribe(feed.topic, feed.voteName));
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        int count = 0;
+        for (Feed feed : feeds.values()) {
+            count += feed.subscribers.size();
+        }
+        return count;
+    }
+
+    /**
+     * Adds a shard without stopping the cluster. The work runs on its own thread because it waits on replies
+     * from the shards, which must never happen on an event loop.
+     */
+    public CompletableFuture<String> addShard(String node) {
+        CompletableFuture<String> done = new CompletableFuture<>();
+        Thread worker = new Thread(() -> {
+            try {
+                done.complete(rebalance(node));
+            } catch (Exception | Error e) {
+                logger.log(Level.SEVERE, "Не удалось добавить узел {0}: {1}", new Object[]{node, describe(e)});
+                done.completeExceptionally(e);
+            }
+        }, "shard-rebalance");
+        worker.setDaemon(true);
+        worker.start();
+        return done;
+    }
+
+    /**
+     * Swaps in the grown ring with every topic that changes owner pinned to its current node, then moves those
+     * topics one by one. A topic that fails to move stays pinned to its old node and keeps working there.
+     */
+    private synchronized String rebalance(String node) throws InterruptedException {
+        if (shards.containsKey(node)) {
+            throw new IllegalArgumentException("Узел " + node + " уже входит в кластер");
+        }
+        VotingClient client = connectShard(node);
+        HashRing current = ring;
+        HashRing next = current.with(node);
+        Map<String, String> moving = new LinkedHashMap<>();
+        boolean joined = false;
+        synchronized (creationLock) {
+            parkedCreates = new ArrayList<>();
+        }
+        try {
+            for (String shard : current.nodes()) {
+                for (String topic : topicsOf(shard)) {
+                    if (next.ownerOf(topic).equals(node)) {
+                        moving.put(topic, shard);
+                    }
+                }
+            }
+            overrides.putAll(moving);
+            shards.put(node, client);
+            ring = next;
+            joined = true;
+        } finally {
+            synchronized (creationLock) {
+                List<Runnable> waiting = parkedCreates;
+                parkedCreates = null;
+                waiting.forEach(Runnable::run);
+            }
+            if (!joined) {
+                client.close();
+            }
+        }
+        logger.log(Level.INFO, "Узел {0} добавлен в кластер, к переносу разделов: {1,number,#}",
+                new Object[]{node, moving.size()});
+
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : moving.entrySet()) {
+            if (!move(entry.getKey(), entry.getValue(), node)) {
+                failed.add(entry.getKey());
+            }
+        }
+        int moved = moving.size() - failed.size();
+        return failed.isEmpty()
+                ? "Узел " + node + " добавлен, перенесено разделов: " + moved
+                : "Ошибка: узел " + node + " добавлен, перенесено разделов: " + moved
+                        + ", остались на прежних узлах: " + failed;
+    }
+
+    private List<String> topicsOf(String shard) {
+        Object reply = shards.get(shard).send(new Message("list_topics", Map.of(), null)).join();
+        if (reply instanceof Message listing && listing.payload instanceof List<?> topics) {
+            return topics.stream().map(String::valueOf).toList();
+        }
+        throw new IllegalStateException("Узел " + shard + " не вернул список разделов: " + reply);
+    }
+
+    private boolean move(String topic, String source, String target) {
+        VotingClient from = shards.get(source);
+        VotingClient to = shards.get(target);
+        synchronized (lockFor(topic)) {
+            parked.put(topic, new ArrayList<>());
+        }
+        boolean created = false;
+        boolean moved = false;
+        try {
+            Object listing = from.send(new Message("export_topic", Map.of("topic", topic), null)).join();
+            if (!(listing instanceof Message polls) || !(polls.payload instanceof List<?> voteNames)) {
+                throw new IllegalStateException(String.valueOf(listing));
+            }
+            expectOk(to.createTopic(topic).join());
+            created = true;
+            for (Object voteName : voteNames) {
+                Object exported = from.send(new Message("export_vote",
+                        Map.of("topic", topic, "vote", String.valueOf(voteName)), null)).join();
+                if (!(exported instanceof Message poll) || !(poll.payload instanceof PollExport)) {
+                    throw new IllegalStateException(String.valueOf(exported));
+                }
+                expectOk(to.request("import_vote", Map.of(), poll.payload).join());
+            }
+            for (Feed feed : feeds.values()) {
+                if (feed.topic.equals(topic)) {
+                    synchronized (feed) {
+                        if (feed.upstream != null && !feed.closed) {
+                            from.unsubscribe(topic, feed.voteName);
+                            feed.upstream = feed.subscribeOn(to);
+                        }
+                    }
+                }
+            }
+            moved = true;
+            Reply dropped = from.request("drop_topic", Map.of("topic", topic), null).join();
+            if (dropped.isError()) {
+                logger.log(Level.WARNING, "Раздел \"{0}\" перенесен, но не удален с узла {1}: {2}",
+                        new Object[]{topic, source, dropped.text});
+            }
+            logger.log(Level.INFO, "Раздел \"{0}\" перенесен с узла {1} на {2}", new Object[]{topic, source, target});
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Раздел \"{0}\" не перенесен с узла {1}: {2}",
+                    new Object[]{topic, source, describe(e)});
+            if (created && !moved) {
+                to.request("drop_topic", Map.of("topic", topic), null);
+            }
+        } finally {
+            synchronized (lockFor(topic)) {
+                if (moved) {
+                    overrides.remove(topic);
+                }
+                parked.remove(topic).forEach(Runnable::run);
+            }
+        }
+        return moved;
+    }
+
+    private static void expectOk(Reply reply) {
+        if (reply.isError()) {
+            throw new IllegalStateException(reply.text);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public final class SnapshotFile {
+    private static final int MAGIC = 0x56534E50;
+    /**
+     * Version 2 adds each poll's open and close time to the index; version 3 ends each poll with its type
+     * and, for a ranked poll, its distinct rankings with their counts.
+     */
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final long WINDOW = 1L << 30;
+
+    private SnapshotFile() {
+    }
+
+    public static boolean isSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public static void write(Path file, List<String> users, Map<String, List<String>> topics, TallyEngine tallies)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = new Writer(FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.skip(HEADER_SIZE);
+
+            long usersOffset = out.position();
+            out.putInt(users.size());
+            for (String user : users) {
+                out.putString(user);
+            }
+
+            long topicsOffset = out.position();
+            out.putInt(topics.size());
+            for (var entry : topics.entrySet()) {
+                out.putString(entry.getKey());
+                List<String> votes = List.copyOf(entry.getValue());
+                out.putInt(votes.size());
+                for (String vote : votes) {
+                    out.putString(vote);
+                }
+            }
+
+            long dataOffset = out.position();
+            List<String> voteNames = new ArrayList<>();
+            List<Long> voteOffsets = new ArrayList<>();
+            List<long[]> schedules = new ArrayList<>();
+            tallies.forEach((voteName, tally) -> {
+                long[] counts = tally.snapshot();
+                long[] words = tally.voters().toWords();
+                String type = tally.type().label();
+                long[] rankings = tally.runoff() == null ? new long[0] : tally.runoff().toPairs();
+                long size = 4 + 8L * counts.length + 4 + 8L * words.length + Writer.stringSize(type)
+                        + 4 + 8L * rankings.length;
+                for (int i = 0; i < counts.length; i++) {
+                    size += Writer.stringSize(tally.option(i));
+                }
+                if (size > WINDOW) {
+                    throw new IllegalStateException("Голосование \"" + voteName + "\" не помещается в окно снимка");
+                }
+                long relative = out.position() - dataOffset;
+                if (relative % WINDOW + size > WINDOW) {
+                    out.skip(WINDOW - relative % WINDOW);
+                    relative = out.position() - dataOffset;
+                }
+                voteNames.add(voteName);
+                voteOffsets.add(relative);
+                schedules.add(new long[]{tally.opensAt(), tally.closesAt()});
+                out.putInt(counts.length);
+                for (int i = 0; i < counts.length; i++) {
+                    out.putString(tally.option(i));
+                }
+                for (long count : counts) {
+                    out.putLong(count);
+                }
+                out.putInt(words.length);
+                for (long word : words) {
+                    out.putLong(word);
+                }
+                out.putString(type);
+                out.putInt(rankings.length);
+                for (long value : rankings) {
+                    out.putLong(value);
+                }
+            });
+
+            long indexOffset = out.position();
+            out.putInt(voteNames.size());
+            for (int i = 0; i < voteNames.size(); i++) {
+                out.putString(voteNames.get(i));
+                out.putLong(voteOffsets.get(i));
+                out.putLong(schedules.get(i)[0]);
+                out.putLong(schedules.get(i)[1]);
+            }
+            long end = out.position();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putLong(usersOffset).putLong(topicsOffset).putLong(dataOffset).putLong(indexOffset).putLong(end);
+            header.flip();
+            out.finish(header);
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(tmp);
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Flushes a directory so a file just renamed into it survives a crash under its new name. Platforms that
+     * cannot open a directory as a channel make their renames durable on their own, so that failure is ignored.
+     */
+    static void syncDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    public static Reader open(Path file) throws IOException {
+        return new Reader(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buf.get(buf.position(), bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    public static class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private final int version;
+        private final long dataOffset;
+        private final long dataEnd;
+        private final AtomicReferenceArray<MappedByteBuffer> windows;
+        private final Map<String, Long> pending = new ConcurrentHashMap<>();
+        private final Map<String, long[]> schedules = new HashMap<>();
+        private final List<String> users = new ArrayList<>();
+        private final Map<String, List<String>> topics = new LinkedHashMap<>();
+
+        private Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            try {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                this.version = header.getInt() == MAGIC ? header.getInt() : -1;
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Неподдерживаемый формат снимка");
+                }
+                long usersOffset = header.getLong();
+                long topicsOffset = header.getLong();
+                this.dataOffset = header.getLong();
+                long indexOffset = header.getLong();
+                long end = header.getLong();
+                this.dataEnd = indexOffset;
+                this.windows = new AtomicReferenceArray<>((int) ((indexOffset - dataOffset + WINDOW - 1) / WINDOW));
+
+                ByteBuffer usersSection = section(usersOffset, topicsOffset);
+                for (int i = usersSection.getInt(); i > 0; i--) {
+                    users.add(getString(usersSection));
+                }
+
+                ByteBuffer topicsSection = section(topicsOffset, dataOffset);
+                for (int i = topicsSection.getInt(); i > 0; i--) {
+                    String topic = getString(topicsSection);
+                    List<String> votes = new ArrayList<>();
+                    for (int j = topicsSection.getInt(); j > 0; j--) {
+                        votes.add(getString(topicsSection));
+                    }
+                    topics.put(topic, votes);
+                }
+
+                ByteBuffer index = section(indexOffset, end);
+                for (int i = index.getInt(); i > 0; i--) {
+                    String voteName = getString(index);
+                    pending.put(voteName, index.getLong());
+                    if (version >= 2) {
+                        long opensAt = index.getLong();
+                        long closesAt = index.getLong();
+                        if (opensAt != 0 || closesAt != 0) {
+                            schedules.put(voteName, new long[]{opensAt, closesAt});
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private ByteBuffer section(long from, long to) throws IOException {
+            if (to - from > Integer.MAX_VALUE) {
+                throw new IOException("Раздел снимка превышает 2 ГБ");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        }
+
+        public List<String> users() {
+            return users;
+        }
+
+        public Map<String, List<String>> topics() {
+            return topics;
+        }
+
+        /**
+         * Close times of the scheduled polls, known without reading the polls themselves.
+         */
+        public Map<String, Long> closeTimes() {
+            Map<String, Long> closeTimes = new HashMap<>();
+            schedules.forEach((voteName, schedule) -> {
+                if (schedule[1] != 0) {
+                    closeTimes.put(voteName, schedule[1]);
+                }
+            });
+            return closeTimes;
+        }
+
+        public boolean contains(String voteName) {
+            return pending.containsKey(voteName);
+        }
+
+        public boolean forget(String voteName) {
+            return pending.remove(voteName) != null;
+        }
+
+        public int pendingCount() {
+            return pending.size();
+        }
+
+        public List<String> pendingNames() {
+            return new ArrayList<>(pending.keySet());
+        }
+
+        public VoteTally materialize(String voteName, TallyEngine engine) {
+            Long offset = pending.remove(voteName);
+            if (offset == null) {
+                return null;
+            }
+            ByteBuffer buf = window((int) (offset / WINDOW)).duplicate();
+            buf.position((int) (offset % WINDOW));
+
+            int optionCount = buf.getInt();
+            List<String> options = new ArrayList<>(optionCount);
+            for (int i = 0; i < optionCount; i++) {
+                options.add(getString(buf));
+            }
+            long[] counts = new long[optionCount];
+            buf.asLongBuffer().get(counts);
+            buf.position(buf.position() + 8 * optionCount);
+            long[] words = new long[buf.getInt()];
+            buf.asLongBuffer().get(words);
+            buf.position(buf.position() + 8 * words.length);
+            PollType type = PollType.PLURALITY;
+            long[] rankings = new long[0];
+            if (version >= 3) {
+                type = PollType.parse(getString(buf));
+                rankings = new long[buf.getInt()];
+                buf.asLongBuffer().get(rankings);
+            }
+
+            VoteTally tally = engine.newTally(options, type, VoterRegistry.fromWords(words));
+            for (int i = 0; i < optionCount; i++) {
+                tally.add(i, counts[i]);
+            }
+            tally.restoreRankings(rankings);
+            long[] schedule = schedules.get(voteName);
+            if (schedule != null) {
+                tally.schedule(schedule[0], schedule[1]);
+            }
+            return tally;
+        }
+
+        private MappedByteBuffer window(int i) {
+            MappedByteBuffer window = windows.get(i);
+            if (window == null) {
+                long from = dataOffset + i * WINDOW;
+                try {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW, dataEnd - from));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Не удалось отобразить окно снимка " + i, e);
+                }
+                if (!windows.compareAndSet(i, null, window)) {
+                    window = windows.get(i);
+                }
+            }
+            return window;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class Writer implements AutoCloseable {
+        private static final byte[] ZEROS = new byte[4096];
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private long flushed;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        static long stringSize(String s) {
+            return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void skip(long bytes) {
+            while (bytes > 0) {
+                ensure(1);
+                int chunk = (int) Math.min(Math.min(bytes, buffer.remaining()), ZEROS.length);
+                buffer.put(ZEROS, 0, chunk);
+                bytes -= chunk;
+            }
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            int written = 0;
+            while (written < bytes.length) {
+                ensure(1);
+                int chunk = Math.min(bytes.length - written, buffer.remaining());
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+            }
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    flushed += channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+
+        void finish(ByteBuffer header) throws IOException {
+            flush();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRoundTripMaterializesLazily() throws Exception {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        state.createVote("topic1", "vote1", List.of("Option1", "Option2")).join();
+        state.createVote("topic1", "vote2", List.of("A", "B", "C")).join();
+        state.vote("topic1", "vote1", "user1", "Option2").join();
+        state.vote("topic1", "vote2", "user1", "C").join();
+        state.vote("topic1", "vote2", "user2", "C").join();
+
+        Path file = dir.resolve("state.bin");
+        state.writeTo(file);
+        assertTrue(SnapshotFile.isSnapshot(file));
+
+        VotingState loaded = VotingState.readFrom(file);
+        assertEquals(2, loaded.pendingTallies());
+        assertEquals(List.of("vote1", "vote2"), loaded.votesInTopic("topic1"));
+
+        assertArrayEquals(new long[]{0, 0, 2}, loaded.tally("topic1", "vote2").snapshot());
+        assertEquals(1, loaded.pendingTallies());
+        assertEquals(MutationResult.ALREADY_VOTED, loaded.vote("topic1", "vote1", "user1", "Option1").join());
+        assertEquals(MutationResult.VOTE_EXISTS, loaded.createVote("topic1", "vote1", List.of("X")).join());
+
+        assertEquals(0, loaded.materializeAll());
+        assertEquals(0, loaded.pendingTallies());
+    }
+
+    @Test
+    void testDeletedPendingVoteIsNotMaterialized() throws Exception {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        state.createVote("topic1", "vote1", List.of("Option1")).join();
+        Path file = dir.resolve("state.bin");
+        state.writeTo(file);
+
+        VotingState loaded = VotingState.readFrom(file);
+        assertEquals(MutationResult.OK, loaded.deleteVote("topic1", "vote1").join());
+        assertNull(loaded.tally("topic1", "vote1"));
+        assertEquals(MutationResult.OK, loaded.createVote("topic1", "vote1", List.of("A")).join());
+        assertEquals("A", loaded.tally("topic1", "vote1").option(0));
+    }
+}
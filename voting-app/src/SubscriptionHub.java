@@ -0,0 +1,191 @@
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Live result feeds. Every tick each watched poll is snapshotted once and the changes are written to all of
+ * its subscribers, so the cost of a tick does not depend on how often viewers would otherwise poll.
+ * A subscriber whose channel is not writable is skipped and marked stale; once it drains it gets a full
+ * update instead of the deltas it missed, so a slow consumer never makes the server buffer without bound.
+ */
+public class SubscriptionHub {
+    private static final Logger logger = LoggerUtil.getLogger(SubscriptionHub.class.getName());
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    private final VotingState state;
+    private final Map<String, Feed> feeds = new ConcurrentHashMap<>();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    private ScheduledFuture<?> ticker;
+
+    public SubscriptionHub(VotingState state) {
+        this.state = state;
+    }
+
+    private static final class Subscriber {
+        final Channel channel;
+        volatile boolean stale = true;
+
+        Subscriber(Channel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final class Feed {
+        final String topic;
+        final String voteName;
+        final Map<Channel, Subscriber> subscribers = new ConcurrentHashMap<>();
+        VoteTally source;
+        long[] last;
+        int sequence;
+
+        Feed(String topic, String voteName) {
+            this.topic = topic;
+            this.voteName = voteName;
+        }
+
+        void publish() {
+            VoteTally tally = state.tally(topic, voteName);
+            if (tally != source) {
+                source = tally;
+                last = null;
+            }
+            if (tally == null) {
+                return;
+            }
+            long[] counts = tally.snapshot();
+            int[] changed = last == null ? null : changedIndexes(last, counts);
+            if (changed == null || changed.length > 0) {
+                sequence++;
+            }
+            TallyUpdate full = null;
+            TallyUpdate delta = null;
+            for (Subscriber subscriber : subscribers.values()) {
+                Channel channel = subscriber.channel;
+                if (!channel.isActive()) {
+                    subscribers.remove(channel, subscriber);
+                    continue;
+                }
+                boolean needsFull = subscriber.stale || changed == null;
+                if (!needsFull && changed.length == 0) {
+                    continue;
+                }
+                if (!channel.isWritable()) {
+                    subscriber.stale = true;
+                    dropped.increment();
+                    continue;
+                }
+                TallyUpdate update;
+                if (needsFull) {
+                    update = full != null ? full : (full = fullUpdate(tally, counts));
+                    subscriber.stale = false;
+                } else {
+                    update = delta != null ? delta : (delta = deltaUpdate(changed, counts));
+                }
+                channel.writeAndFlush(update, channel.voidPromise());
+                delivered.increment();
+            }
+            last = counts;
+        }
+
+        private TallyUpdate fullUpdate(VoteTally tally, long[] counts) {
+            String[] options = new String[counts.length];
+            int[] indexes = new int[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                options[i] = tally.option(i);
+                indexes[i] = i;
+            }
+            return new TallyUpdate(topic, voteName, sequence, options, indexes, counts);
+        }
+
+        private TallyUpdate deltaUpdate(int[] changed, long[] counts) {
+            long[] values = new long[changed.length];
+            for (int i = 0; i < changed.length; i++) {
+                values[i] = counts[changed[i]];
+            }
+            return new TallyUpdate(topic, voteName, sequence, null, changed, values);
+        }
+    }
+
+    private static int[] changedIndexes(long[] before, long[] after) {
+        int changed = 0;
+        for (int i = 0; i < after.length; i++) {
+            if (before[i] != after[i]) {
+                changed++;
+            }
+        }
+        int[] indexes = new int[changed];
+        for (int i = 0, j = 0; i < after.length; i++) {
+            if (before[i] != after[i]) {
+                indexes[j++] = i;
+            }
+        }
+        return indexes;
+    }
+
+    private static String key(String topic, String voteName) {
+        return topic + '\0' + voteName;
+    }
+
+    public void subscribe(Channel channel, String topic, String voteName) {
+        feeds.compute(key(topic, voteName), (key, feed) -> {
+            if (feed == null) {
+                feed = new Feed(topic, voteName);
+            }
+            feed.subscribers.putIfAbsent(channel, new Subscriber(channel));
+            return feed;
+        });
+    }
+
+    public boolean unsubscribe(Channel channel, String topic, String voteName) {
+        Feed feed = feeds.get(key(topic, voteName));
+        return feed != null && feed.subscribers.remove(channel) != null;
+    }
+
+    /**
+     * Runs one coalescing round. Must not be called concurrently with itself; the server drives it from a
+     * single event loop.
+     */
+    public void tick() {
+        for (Map.Entry<String, Feed> entry : feeds.entrySet()) {
+            Feed feed = entry.getValue();
+            if (!feed.subscribers.isEmpty()) {
+                try {
+                    feed.publish();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Ошибка рассылки обновлений голосования \"{0}\": {1}", new Object[]{feed.voteName, e.getMessage()});
+                }
+            }
+            feeds.computeIfPresent(entry.getKey(), (key, current) -> current.subscribers.isEmpty() ? null : current);
+        }
+    }
+
+    public void start(EventExecutor executor, long tickMillis) {
+        ticker = executor.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+        }
+    }
+
+    public int subscriberCount() {
+        int count = 0;
+        for (Feed feed : feeds.values()) {
+            count += feed.subscribers.size();
+        }
+        return count;
+    }
+
+    public int feedCount() {
+        return feeds.size();
+    }
+}
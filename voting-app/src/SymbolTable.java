@@ -0,0 +1,146 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Interns names into dense int ids, so the state refers to a topic, poll, option or user by an int and keeps
+ * one copy of each string. Ids live in an open-addressing table of ints instead of a map of boxed values.
+ * Lookups take no lock, whether they find the name or not: a slot is published with release semantics after
+ * its name, so a reader that finds the slot sees the name too, and a miss only means the name was not yet
+ * interned when the lookup began. Adding a name takes the lock, so the first ballot of every new user does.
+ */
+public class SymbolTable {
+    private static final int STRING_OVERHEAD_BYTES = 56;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private static final class Table {
+        final int[] slots;
+        final String[] names;
+
+        Table(int capacity, int nameCapacity) {
+            slots = new int[capacity];
+            names = new String[nameCapacity];
+        }
+    }
+
+    private volatile Table table = new Table(64, 32);
+    private volatile int size;
+    private long charBytes;
+
+    public int intern(String name) {
+        int id = idOf(name);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            id = find(table, name);
+            if (id >= 0) {
+                return id;
+            }
+            return add(name);
+        }
+    }
+
+    /**
+     * The id of {@code name}, or -1 if it was never interned; unknown names from requests are looked up
+     * with this, so they never grow the table.
+     */
+    public int idOf(String name) {
+        return find(table, name);
+    }
+
+    public String name(int id) {
+        String name = id >= 0 && id < table.names.length ? table.names[id] : null;
+        if (name == null && id >= 0 && id < size) {
+            synchronized (this) {
+                name = table.names[id];
+            }
+        }
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized List<String> names() {
+        return new ArrayList<>(Arrays.asList(table.names).subList(0, size));
+    }
+
+    public synchronized void replaceWith(List<String> loadedNames) {
+        Table fresh = new Table(64, 32);
+        table = fresh;
+        size = 0;
+        charBytes = 0;
+        for (String name : loadedNames) {
+            add(name);
+        }
+    }
+
+    /**
+     * Estimated heap bytes of the table and the interned strings.
+     */
+    public synchronized long footprintBytes() {
+        Table t = table;
+        return 4L * t.slots.length + 4L * t.names.length + (long) STRING_OVERHEAD_BYTES * size + charBytes;
+    }
+
+    private static int find(Table t, String name) {
+        int mask = t.slots.length - 1;
+        for (int i = hash(name) & mask; ; i = (i + 1) & mask) {
+            int slot = (int) SLOTS.getAcquire(t.slots, i);
+            if (slot == 0) {
+                return -1;
+            }
+            String candidate = slot - 1 < t.names.length ? t.names[slot - 1] : null;
+            if (candidate != null && candidate.equals(name)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    private int add(String name) {
+        Table t = table;
+        int id = size;
+        if (id == t.names.length || (id + 1) * 2 > t.slots.length) {
+            t = grow(t, id + 1);
+        }
+        t.names[id] = name;
+        int mask = t.slots.length - 1;
+        int i = hash(name) & mask;
+        while (t.slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        SLOTS.setRelease(t.slots, i, id + 1);
+        size = id + 1;
+        charBytes += 2L * name.length();
+        return id;
+    }
+
+    private Table grow(Table t, int needed) {
+        int nameCapacity = Math.max(t.names.length, Integer.highestOneBit(needed) * 2);
+        int capacity = t.slots.length;
+        while (needed * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table grown = new Table(capacity, nameCapacity);
+        System.arraycopy(t.names, 0, grown.names, 0, size);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hash(grown.names[id]) & mask;
+            while (grown.slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            grown.slots[i] = id + 1;
+        }
+        table = grown;
+        return grown;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
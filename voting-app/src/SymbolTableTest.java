@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SymbolTableTest {
+
+    @Test
+    void testInternKeepsIdsAcrossGrowth() {
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, symbols.intern("name-" + i));
+        }
+        assertEquals(10_000, symbols.size());
+        assertEquals(1234, symbols.idOf("name-1234"));
+        assertEquals("name-9999", symbols.name(9999));
+        assertEquals(-1, symbols.idOf("missing"));
+        assertEquals(10_000, symbols.size());
+        assertEquals(17, symbols.intern("name-17"));
+    }
+
+    @Test
+    void testTalliesShareOptionSymbolsAndStayCompact() {
+        SymbolTable symbols = new SymbolTable();
+        TallyEngine engine = new TallyEngine(symbols);
+        for (int i = 0; i < 20_000; i++) {
+            assertTrue(engine.create("poll-" + i, List.of("да", "нет", "да")));
+        }
+        assertFalse(engine.create("poll-7", List.of("да")));
+        assertEquals(20_002, symbols.size());
+
+        VoteTally tally = engine.get("poll-7");
+        assertEquals(List.of("да", "нет"), tally.options());
+        tally.increment(tally.indexOf("нет"));
+        tally.add(tally.indexOf("да"), 3);
+        assertArrayEquals(new long[]{3, 1}, tally.snapshot());
+        assertEquals(0, engine.get("poll-8").version());
+
+        assertTrue(engine.remove("poll-7"));
+        assertNull(engine.get("poll-7"));
+        assertEquals(19_999, engine.size());
+        assertTrue(engine.bytesPerPoll() < 200, "байт на голосование: " + engine.bytesPerPoll());
+    }
+
+    @Test
+    void testRemovedPollSlotsAreReusedFromZero() {
+        TallyEngine engine = new TallyEngine(new SymbolTable());
+        engine.create("old", List.of("да", "нет"));
+        VoteTally old = engine.get("old");
+        assertEquals(MutationResult.OK, old.cast(1, "да"));
+        long used = engine.slab().usedSlots();
+        long footprint = engine.slab().footprintBytes();
+
+        assertTrue(engine.remove("old"));
+        assertEquals(used, engine.slab().releasedSlots());
+        engine.create("new", List.of("за", "против"));
+        VoteTally fresh = engine.get("new");
+        assertEquals(used, engine.slab().usedSlots());
+        assertEquals(0, engine.slab().releasedSlots());
+        assertEquals(footprint, engine.slab().footprintBytes());
+        assertArrayEquals(new long[]{0, 0}, fresh.snapshot());
+        assertEquals(0, fresh.version());
+        old.withdraw(1, "да");
+        assertArrayEquals(new long[]{0, 0}, fresh.snapshot());
+    }
+}
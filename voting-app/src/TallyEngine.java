@@ -0,0 +1,257 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * The polls of a state, found by the symbol id of their name in arrays indexed by it, with their counts in
+ * one {@link TallySlab}. Polls of a snapshot that have not been asked for yet stay in the file until they are.
+ */
+public class TallyEngine {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    /** Estimated heap bytes of a {@link VoteTally} handle and its empty voter registry. */
+    private static final int HANDLE_BYTES = 40 + 48;
+
+    private final SymbolTable symbols;
+    private final TallySlab slab = new TallySlab();
+    private volatile AtomicReferenceArray<AtomicReferenceArray<VoteTally>> chunks = new AtomicReferenceArray<>(1);
+    private volatile SnapshotFile.Reader lazy;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public TallyEngine(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    public TallyEngine(SymbolTable symbols, SnapshotFile.Reader lazy) {
+        this.symbols = symbols;
+        this.lazy = lazy;
+        for (String voteName : lazy.pendingNames()) {
+            symbols.intern(voteName);
+        }
+    }
+
+    public VoteTally newTally(List<String> options, VoterRegistry voters) {
+        return newTally(options, PollType.PLURALITY, voters);
+    }
+
+    public VoteTally newTally(List<String> options, PollType type, VoterRegistry voters) {
+        return new VoteTally(slab, symbols, options, type, voters);
+    }
+
+    public boolean create(String voteName, List<String> options) {
+        return create(voteName, options, PollType.PLURALITY, 0, 0);
+    }
+
+    public boolean create(String voteName, List<String> options, PollType type, long opensAt, long closesAt) {
+        if (contains(voteName)) {
+            return false;
+        }
+        VoteTally tally = newTally(options, type, new VoterRegistry());
+        tally.schedule(opensAt, closesAt);
+        put(voteName, tally);
+        return true;
+    }
+
+    public void put(String voteName, VoteTally tally) {
+        int id = symbols.intern(voteName);
+        VoteTally previous = slot(id, true).getAndSet(id & (CHUNK_SIZE - 1), tally);
+        if (previous == null) {
+            count.incrementAndGet();
+        } else {
+            previous.release();
+        }
+    }
+
+    public VoteTally get(String voteName) {
+        int id = symbols.idOf(voteName);
+        if (id < 0) {
+            return null;
+        }
+        VoteTally tally = find(id);
+        SnapshotFile.Reader source = lazy;
+        if (tally == null && source != null && source.contains(voteName)) {
+            tally = materialize(id, voteName, source);
+        }
+        return tally;
+    }
+
+    /**
+     * The poll if it is loaded; never reads it from the snapshot.
+     */
+    public VoteTally peek(String voteName) {
+        int id = symbols.idOf(voteName);
+        return id < 0 ? null : find(id);
+    }
+
+    private VoteTally find(int id) {
+        AtomicReferenceArray<AtomicReferenceArray<VoteTally>> directory = chunks;
+        int chunkIndex = id >>> CHUNK_SHIFT;
+        AtomicReferenceArray<VoteTally> chunk = chunkIndex < directory.length() ? directory.get(chunkIndex) : null;
+        return chunk == null ? null : chunk.get(id & (CHUNK_SIZE - 1));
+    }
+
+    private VoteTally materialize(int id, String voteName, SnapshotFile.Reader source) {
+        synchronized (this) {
+            VoteTally tally = find(id);
+            if (tally == null) {
+                tally = source.materialize(voteName, this);
+                if (tally != null) {
+                    put(voteName, tally);
+                }
+            }
+            return tally;
+        }
+    }
+
+    public boolean contains(String voteName) {
+        int id = symbols.idOf(voteName);
+        return id >= 0 && find(id) != null || pendingInSnapshot(voteName);
+    }
+
+    public synchronized boolean remove(String voteName) {
+        SnapshotFile.Reader source = lazy;
+        boolean forgotten = source != null && source.forget(voteName);
+        int id = symbols.idOf(voteName);
+        VoteTally removed = id < 0 ? null : find(id);
+        if (removed != null) {
+            slot(id, false).set(id & (CHUNK_SIZE - 1), null);
+            removed.release();
+            count.decrementAndGet();
+        }
+        return removed != null || forgotten;
+    }
+
+    public void forEach(BiConsumer<String, VoteTally> action) {
+        materializeAll();
+        AtomicReferenceArray<AtomicReferenceArray<VoteTally>> directory = chunks;
+        for (int c = 0; c < directory.length(); c++) {
+            AtomicReferenceArray<VoteTally> chunk = directory.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                VoteTally tally = chunk.get(i);
+                if (tally != null) {
+                    action.accept(symbols.name((c << CHUNK_SHIFT) | i), tally);
+                }
+            }
+        }
+    }
+
+    /**
+     * Close times of the polls that have one, whether loaded or still waiting in the snapshot.
+     */
+    public Map<String, Long> closeTimes() {
+        Map<String, Long> closeTimes = new HashMap<>();
+        SnapshotFile.Reader source = lazy;
+        if (source != null) {
+            source.closeTimes().forEach((voteName, closesAt) -> {
+                if (source.contains(voteName)) {
+                    closeTimes.put(voteName, closesAt);
+                }
+            });
+        }
+        AtomicReferenceArray<AtomicReferenceArray<VoteTally>> directory = chunks;
+        for (int c = 0; c < directory.length(); c++) {
+            AtomicReferenceArray<VoteTally> chunk = directory.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                VoteTally tally = chunk.get(i);
+                if (tally != null && tally.closesAt() != 0) {
+                    closeTimes.put(symbols.name((c << CHUNK_SHIFT) | i), tally.closesAt());
+                }
+            }
+        }
+        return closeTimes;
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public int pendingCount() {
+        SnapshotFile.Reader source = lazy;
+        return source == null ? 0 : source.pendingCount();
+    }
+
+    public int materializeAll() {
+        SnapshotFile.Reader source = lazy;
+        if (source == null) {
+            return 0;
+        }
+        int materialized = 0;
+        for (String voteName : source.pendingNames()) {
+            if (get(voteName) != null) {
+                materialized++;
+            }
+        }
+        lazy = null;
+        source.close();
+        return materialized;
+    }
+
+    /**
+     * Estimated heap bytes per loaded poll: its handle, its slots in the slab and its share of the arrays
+     * that index polls by name. Voter registries are left out, as they grow with ballots rather than polls.
+     */
+    public long bytesPerPoll() {
+        int polls = count.get();
+        if (polls == 0) {
+            return 0;
+        }
+        long indexBytes = 4L * chunks.length() + (16 + 4L * CHUNK_SIZE) * chunkCount();
+        return (slab.footprintBytes() + indexBytes) / polls + HANDLE_BYTES;
+    }
+
+    public TallySlab slab() {
+        return slab;
+    }
+
+    private int chunkCount() {
+        AtomicReferenceArray<AtomicReferenceArray<VoteTally>> directory = chunks;
+        int allocated = 0;
+        for (int c = 0; c < directory.length(); c++) {
+            if (directory.get(c) != null) {
+                allocated++;
+            }
+        }
+        return allocated;
+    }
+
+    private boolean pendingInSnapshot(String voteName) {
+        SnapshotFile.Reader source = lazy;
+        return source != null && source.contains(voteName);
+    }
+
+    private AtomicReferenceArray<VoteTally> slot(int id, boolean create) {
+        int chunkIndex = id >>> CHUNK_SHIFT;
+        AtomicReferenceArray<AtomicReferenceArray<VoteTally>> directory = chunks;
+        AtomicReferenceArray<VoteTally> chunk = chunkIndex < directory.length() ? directory.get(chunkIndex) : null;
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (this) {
+            directory = chunks;
+            if (chunkIndex >= directory.length()) {
+                AtomicReferenceArray<AtomicReferenceArray<VoteTally>> grown =
+                        new AtomicReferenceArray<>(Math.max(chunkIndex + 1, directory.length() * 2));
+                for (int c = 0; c < directory.length(); c++) {
+                    grown.set(c, directory.get(c));
+                }
+                chunks = grown;
+                directory = grown;
+            }
+            chunk = directory.get(chunkIndex);
+            if (chunk == null) {
+                chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+                directory.set(chunkIndex, chunk);
+            }
+            return chunk;
+        }
+    }
+}
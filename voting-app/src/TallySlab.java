@@ -0,0 +1,179 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts and option ids of every poll in large primitive arrays. A poll owns consecutive slots rounded up to
+ * a whole cache line, so the counts of two polls do not share one: slot i holds the symbol id of option i in
+ * the int slab and its count in the long slab, so the collector sees a handful of arrays however many polls
+ * there are. Counts are updated atomically in place.
+ * <p>
+ * Readers tell whether they saw a poll's counts between ballots through striped stamps: a ballot bumps the
+ * started stamp of one stripe before its counts and the finished stamp after, and a reader checks that no
+ * stripe a ballot for that poll could have taken moved while it read. A poll's ballots spread over a small
+ * window of stripes picked by thread, each stripe on its own cache lines, so neither ballots for one poll
+ * nor ballots for polls next to each other in the slab bump a shared stamp.
+ * <p>
+ * Slots of deleted polls go to a free list by size and are handed to the next poll of that size; the
+ * catalog lock keeps ballots out of a poll while it is removed.
+ */
+public class TallySlab {
+    static final int CHUNK_SHIFT = 14;
+    static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    /** Slots in a cache line: the unit a poll's region is rounded up to. */
+    static final int LINE_SLOTS = 8;
+    static final int SNAPSHOT_ATTEMPTS = 64;
+    private static final int STRIPES = roundUpToPowerOfTwo(Math.max(16, 4 * Runtime.getRuntime().availableProcessors()));
+    private static final int STRIPE_WINDOW = Math.min(8, STRIPES);
+    /** Longs between two stripes: two cache lines, so the adjacent line prefetcher does not pair them either. */
+    private static final int STRIPE_STRIDE = 16;
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile long[][] counts = new long[1][];
+    private volatile int[][] options = new int[1][];
+    private final long[] stamps = new long[STRIPES * STRIPE_STRIDE];
+    private final Map<Integer, ArrayDeque<Integer>> free = new HashMap<>();
+    private int chunks;
+    private int next = CHUNK_SLOTS;
+    private volatile long usedSlots;
+    private volatile long releasedSlots;
+
+    private static int roundUpToPowerOfTwo(int n) {
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    static int regionSlots(int slots) {
+        return (slots + LINE_SLOTS - 1) & -LINE_SLOTS;
+    }
+
+    /**
+     * Reserves {@code slots} consecutive zeroed slots, rounded up to whole cache lines, and returns the first.
+     * Polls never straddle two chunks.
+     */
+    public synchronized int allocate(int slots) {
+        if (slots > CHUNK_SLOTS) {
+            throw new IllegalArgumentException("Слишком много вариантов ответа: " + slots);
+        }
+        int size = regionSlots(slots);
+        usedSlots += size;
+        ArrayDeque<Integer> reusable = free.get(size);
+        if (reusable != null && !reusable.isEmpty()) {
+            int slot = reusable.pop();
+            releasedSlots -= size;
+            long[] chunk = counts[slot >>> CHUNK_SHIFT];
+            for (int i = slot & (CHUNK_SLOTS - 1), end = i + size; i < end; i++) {
+                COUNTS.setVolatile(chunk, i, 0L);
+            }
+            return slot;
+        }
+        if (next + size > CHUNK_SLOTS) {
+            addChunk();
+        }
+        int slot = ((chunks - 1) << CHUNK_SHIFT) | next;
+        next += size;
+        return slot;
+    }
+
+    /**
+     * Gives back the region of a deleted poll allocated with the same {@code slots}.
+     */
+    public synchronized void release(int firstSlot, int slots) {
+        int size = regionSlots(slots);
+        free.computeIfAbsent(size, s -> new ArrayDeque<>()).push(firstSlot);
+        usedSlots -= size;
+        releasedSlots += size;
+    }
+
+    private void addChunk() {
+        if (chunks == counts.length) {
+            long[][] grownCounts = new long[chunks * 2][];
+            int[][] grownOptions = new int[chunks * 2][];
+            System.arraycopy(counts, 0, grownCounts, 0, chunks);
+            System.arraycopy(options, 0, grownOptions, 0, chunks);
+            options = grownOptions;
+            counts = grownCounts;
+        }
+        options[chunks] = new int[CHUNK_SLOTS];
+        counts[chunks] = new long[CHUNK_SLOTS];
+        chunks++;
+        next = 0;
+    }
+
+    public void setOption(int slot, int symbol) {
+        options[slot >>> CHUNK_SHIFT][slot & (CHUNK_SLOTS - 1)] = symbol;
+    }
+
+    public int option(int slot) {
+        return options[slot >>> CHUNK_SHIFT][slot & (CHUNK_SLOTS - 1)];
+    }
+
+    public void add(int slot, long delta) {
+        COUNTS.getAndAdd(counts[slot >>> CHUNK_SHIFT], slot & (CHUNK_SLOTS - 1), delta);
+    }
+
+    public long count(int slot) {
+        return (long) COUNTS.getVolatile(counts[slot >>> CHUNK_SHIFT], slot & (CHUNK_SLOTS - 1));
+    }
+
+    /**
+     * Marks the start of a ballot for the poll at {@code firstSlot}; pass the result to {@link #endWrite}.
+     */
+    public int beginWrite(int firstSlot) {
+        int stripe = (windowStart(firstSlot) + (int) Thread.currentThread().getId() % STRIPE_WINDOW) & (STRIPES - 1);
+        COUNTS.getAndAdd(stamps, stripe * STRIPE_STRIDE, 1L);
+        return stripe;
+    }
+
+    public void endWrite(int stripe) {
+        COUNTS.getAndAdd(stamps, stripe * STRIPE_STRIDE + 1, 1L);
+    }
+
+    /**
+     * Reads {@code slots} counts of the poll at {@code firstSlot} as they stood between two ballots, reading
+     * again while a ballot was being counted meanwhile. Under a steady stream of ballots it gives up after
+     * {@link #SNAPSHOT_ATTEMPTS} reads and returns the last, which may then mix in part of the ballots
+     * counted while it read.
+     */
+    public long[] snapshot(int firstSlot, int slots) {
+        long[] values = new long[slots];
+        long[] finished = new long[STRIPE_WINDOW];
+        int window = windowStart(firstSlot);
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            for (int j = 0; j < STRIPE_WINDOW; j++) {
+                finished[j] = (long) COUNTS.getVolatile(stamps, ((window + j) & (STRIPES - 1)) * STRIPE_STRIDE + 1);
+            }
+            for (int i = 0; i < slots; i++) {
+                values[i] = count(firstSlot + i);
+            }
+            boolean settled = true;
+            for (int j = 0; j < STRIPE_WINDOW && settled; j++) {
+                settled = (long) COUNTS.getVolatile(stamps, ((window + j) & (STRIPES - 1)) * STRIPE_STRIDE) == finished[j];
+            }
+            if (settled) {
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        return values;
+    }
+
+    private static int windowStart(int firstSlot) {
+        return (firstSlot / LINE_SLOTS) * 0x9E3779B9 >>> 16;
+    }
+
+    /** Slots held by loaded polls. */
+    public long usedSlots() {
+        return usedSlots;
+    }
+
+    /** Slots of deleted polls waiting to be reused. */
+    public long releasedSlots() {
+        return releasedSlots;
+    }
+
+    public synchronized long footprintBytes() {
+        return 12L * CHUNK_SLOTS * chunks + 8L * counts.length + 8L * stamps.length;
+    }
+}
@@ -0,0 +1,38 @@
+import java.io.Serializable;
+
+/**
+ * Pushed to subscribers of a poll. A full update carries every option with its name; a delta carries only
+ * the options whose counts changed since the previous tick, as absolute counts.
+ */
+public class TallyUpdate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public final String topic;
+    public final String voteName;
+    public final int sequence;
+    public final String[] options;
+    public final int[] indexes;
+    public final long[] counts;
+
+    public TallyUpdate(String topic, String voteName, int sequence, String[] options, int[] indexes, long[] counts) {
+        this.topic = topic;
+        this.voteName = voteName;
+        this.sequence = sequence;
+        this.options = options;
+        this.indexes = indexes;
+        this.counts = counts;
+    }
+
+    public boolean isFull() {
+        return options != null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Обновление голосования \"").append(voteName).append("\" #").append(sequence).append(':');
+        for (int i = 0; i < indexes.length; i++) {
+            sb.append(' ').append(options != null ? options[i] : "#" + indexes[i]).append('=').append(counts[i]);
+        }
+        return sb.toString();
+    }
+}
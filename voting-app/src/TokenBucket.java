@@ -0,0 +1,59 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as a single theoretical arrival time: the moment the bucket would be full again if
+ * nothing else were taken. Taking tokens moves that moment forward with one compare-and-set, so the bucket
+ * takes no lock however many threads share it. A request for more tokens than the bucket holds is let through
+ * only when the bucket is full and is charged in full, so the bucket stays empty for the refills it took.
+ */
+public class TokenBucket {
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final int burst;
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         tokens the bucket holds when full; at least one
+     */
+    public TokenBucket(int ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Скорость должна быть положительной: " + ratePerSecond);
+        }
+        this.burst = Math.max(1, burst);
+        this.nanosPerToken = Math.max(1, TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        this.capacityNanos = nanosPerToken * this.burst;
+    }
+
+    public boolean tryAcquire(int tokens, long nowNanos) {
+        long cost = nanosPerToken * tokens;
+        long limit = Math.max(cost, capacityNanos);
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, nowNanos) + cost;
+            if (next - nowNanos > limit) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * How long until {@code tokens} tokens could be taken, 0 if they can be taken now.
+     */
+    public long nanosUntil(int tokens, long nowNanos) {
+        long cost = nanosPerToken * tokens;
+        return Math.max(0, Math.max(fullAt.get(), nowNanos) + cost - nowNanos - Math.max(cost, capacityNanos));
+    }
+
+    /**
+     * True when the bucket is full, so dropping it and starting a new one later changes nothing.
+     */
+    public boolean isFull(long nowNanos) {
+        long current = fullAt.get();
+        return current == Long.MIN_VALUE || current - nowNanos <= 0;
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Topics and the polls in them. Topics and the polls of a topic are kept sorted by name, so a listing can be
+ * read in pages from a cursor or limited to a prefix, and every poll is indexed by name for constant-time
+ * membership checks. Readers need no lock; changes are made under the catalog lock of {@link VotingState}.
+ */
+public class TopicCatalog {
+    public static final class Topic {
+        public final String name;
+        private final NavigableMap<String, Boolean> polls = new ConcurrentSkipListMap<>();
+        private volatile int pollCount;
+        private volatile long version;
+
+        Topic(String name) {
+            this.name = name;
+        }
+
+        public int pollCount() {
+            return pollCount;
+        }
+
+        /**
+         * Bumped after every change to the polls of this topic; read it before rendering a listing of them.
+         */
+        public long version() {
+            return version;
+        }
+
+        public NavigableSet<String> polls() {
+            return Collections.unmodifiableNavigableSet(polls.navigableKeySet());
+        }
+
+        public NavigableSet<String> polls(String prefix, String after) {
+            return Collections.unmodifiableNavigableSet(range(polls, prefix, after).navigableKeySet());
+        }
+    }
+
+    private final NavigableMap<String, Topic> topics = new ConcurrentSkipListMap<>();
+    private final Map<String, Topic> pollIndex = new ConcurrentHashMap<>();
+
+    public Topic get(String topic) {
+        return topics.get(topic);
+    }
+
+    public boolean contains(String topic) {
+        return topics.containsKey(topic);
+    }
+
+    public boolean contains(String topic, String voteName) {
+        Topic owner = pollIndex.get(voteName);
+        return owner != null && owner.name.equals(topic);
+    }
+
+    public Topic topicOf(String voteName) {
+        return pollIndex.get(voteName);
+    }
+
+    public int size() {
+        return topics.size();
+    }
+
+    public NavigableSet<String> names() {
+        return Collections.unmodifiableNavigableSet(topics.navigableKeySet());
+    }
+
+    /**
+     * Names of the topics that start with {@code prefix} and sort after {@code after}; either may be null.
+     */
+    public NavigableSet<String> names(String prefix, String after) {
+        return Collections.unmodifiableNavigableSet(range(topics, prefix, after).navigableKeySet());
+    }
+
+    Topic create(String name) {
+        Topic topic = new Topic(name);
+        topics.put(name, topic);
+        return topic;
+    }
+
+    void addPoll(Topic topic, String voteName) {
+        topic.polls.put(voteName, Boolean.TRUE);
+        pollIndex.put(voteName, topic);
+        topic.pollCount++;
+        topic.version++;
+    }
+
+    void addPolls(String name, Collection<String> voteNames) {
+        Topic topic = create(name);
+        for (String voteName : voteNames) {
+            addPoll(topic, voteName);
+        }
+    }
+
+    void removePoll(Topic topic, String voteName) {
+        if (topic.polls.remove(voteName) != null) {
+            pollIndex.remove(voteName, topic);
+            topic.pollCount--;
+            topic.version++;
+        }
+    }
+
+    Topic remove(String name) {
+        Topic topic = topics.remove(name);
+        if (topic != null) {
+            for (String voteName : topic.polls.keySet()) {
+                pollIndex.remove(voteName, topic);
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * Topic names with their polls, in name order, for writing a snapshot.
+     */
+    public Map<String, List<String>> toMap() {
+        Map<String, List<String>> copy = new LinkedHashMap<>();
+        for (Topic topic : topics.values()) {
+            copy.put(topic.name, List.copyOf(topic.polls.keySet()));
+        }
+        return copy;
+    }
+
+    private static <V> NavigableMap<String, V> range(NavigableMap<String, V> names, String prefix, String after) {
+        String from = prefix == null ? "" : prefix;
+        boolean fromInclusive = true;
+        if (after != null && after.compareTo(from) >= 0) {
+            from = after;
+            fromInclusive = false;
+        }
+        String to = prefix == null ? null : prefixEnd(prefix);
+        if (to != null && from.compareTo(to) >= 0) {
+            return Collections.emptyNavigableMap();
+        }
+        return to == null ? names.tailMap(from, fromInclusive) : names.subMap(from, fromInclusive, to, false);
+    }
+
+    private static String prefixEnd(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,282 @@
+import io.netty.util.concurrent.EventExecutor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Vote rates of polls and topics in a fixed amount of memory, however many polls there are. Accepted votes
+ * are counted in count-min sketches, one per second for the last minute and one per minute for the last hour,
+ * kept in rings. The current second is counted in stripes, one per few threads, so votes on one poll from
+ * different event loops do not contend on its counters: a vote touches {@link #DEPTH} counters of its
+ * thread's stripe per key and, when its count there reaches a power of two, a slot of a small table of
+ * candidates for the hottest keys. The ticker adds the stripes of the second just finished into the ring,
+ * clears the slots about to be reused and rolls finished seconds into minutes. Counts are estimates: they may
+ * be too high, never too low, apart from votes that race with the ticker at a second boundary.
+ */
+public class TrendTracker {
+    static final int DEPTH = 4;
+    static final int WIDTH = 1024;
+    static final int SECONDS = 60;
+    static final int MINUTES = 60;
+    static final int CANDIDATES = 256;
+    static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    public static final int DEFAULT_TOP = 10;
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    /**
+     * One kind of key. Ring slot {@code i} holds second (or minute) {@code n} with {@code n % slots == i};
+     * two spare slots are kept so the one being cleared is never read or written.
+     */
+    static final class Family {
+        final int[][] seconds = new int[SECONDS + 2][DEPTH * WIDTH];
+        final int[][] minutes = new int[MINUTES + 2][DEPTH * WIDTH];
+        /** The current and the previous second of each stripe, by the parity of the second. */
+        final int[][][] stripes = new int[STRIPES][2][DEPTH * WIDTH];
+        final AtomicReferenceArray<String> candidates = new AtomicReferenceArray<>(CANDIDATES);
+
+        void record(String key, int stripe, int parity) {
+            int[] cells = stripes[stripe][parity];
+            int h = key.hashCode();
+            int local = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                local = Math.min(local, (int) CELLS.getAndAdd(cells, row * WIDTH + index(h, row), 1) + 1);
+            }
+            if (Integer.bitCount(local) != 1) {
+                return;
+            }
+            int c = mix(h) & (CANDIDATES - 1);
+            String holder = candidates.get(c);
+            if (holder == null) {
+                candidates.compareAndSet(c, null, key);
+            } else if (holder != key && !holder.equals(key) && local > estimate(cells, holder)) {
+                candidates.compareAndSet(c, holder, key);
+            }
+        }
+
+        /**
+         * Adds the stripes of a finished second into its ring slot and clears them for the second after next.
+         */
+        void fold(int parity, int[] target) {
+            for (int[][] stripe : stripes) {
+                int[] source = stripe[parity];
+                for (int i = 0; i < source.length; i++) {
+                    int count = (int) CELLS.getAndSet(source, i, 0);
+                    if (count != 0) {
+                        CELLS.setVolatile(target, i, (int) CELLS.getVolatile(target, i) + count);
+                    }
+                }
+            }
+        }
+
+        long sum(int[][] ring, String key, long last, int count) {
+            int h = key.hashCode();
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                int cell = row * WIDTH + index(h, row);
+                long total = 0;
+                for (long n = last - count + 1; n <= last; n++) {
+                    if (n >= 0) {
+                        total += (int) CELLS.getVolatile(ring[(int) (n % ring.length)], cell);
+                    }
+                }
+                min = Math.min(min, total);
+            }
+            return min;
+        }
+    }
+
+    /** Rates of one key: votes in the last full second, minute and hour. */
+    public record Rate(String key, long lastSecond, long lastMinute, long lastHour) {
+    }
+
+    final Family polls = new Family();
+    final Family topics = new Family();
+    /** Parity of the second votes are being counted in; the ticker flips it before folding the other. */
+    private volatile int parity;
+    /** The current second and minute, counted from the start; only the ticker writes them. */
+    private volatile long second;
+    private volatile long minute;
+    private ScheduledFuture<?> ticker;
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        return h ^ (h >>> 15);
+    }
+
+    private static int index(int h, int row) {
+        return mix(h * SEEDS[row] + row) & (WIDTH - 1);
+    }
+
+    private static long estimate(int[] cells, String key) {
+        int h = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, (int) CELLS.getVolatile(cells, row * WIDTH + index(h, row)));
+        }
+        return min;
+    }
+
+    /**
+     * Counts one accepted vote. Poll names are unique across topics, so a poll is keyed by its name alone.
+     */
+    public void record(String topic, String voteName) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        int current = parity;
+        polls.record(voteName, stripe, current);
+        topics.record(topic, stripe, current);
+    }
+
+    /**
+     * Moves to the next second: adds the stripes of the second just finished into the ring, when a minute has
+     * passed adds its seconds to the minute ring, then clears the slot after the new second. Seconds are rolled
+     * up into minutes one second late. A vote that read the old parity just before the switch is folded in with
+     * the second after next.
+     */
+    void tick() {
+        long next = second + 1;
+        parity = (int) (next & 1);
+        for (Family family : List.of(polls, topics)) {
+            family.fold((int) ((next - 1) & 1), family.seconds[(int) ((next - 1) % family.seconds.length)]);
+        }
+        long finished = next - 2;
+        if (finished >= 0 && (finished + 1) % SECONDS == 0) {
+            long finishedMinute = finished / SECONDS;
+            for (Family family : List.of(polls, topics)) {
+                int[] target = family.minutes[(int) (finishedMinute % family.minutes.length)];
+                clear(family.minutes[(int) ((finishedMinute + 1) % family.minutes.length)]);
+                for (long n = finished - SECONDS + 1; n <= finished; n++) {
+                    int[] source = family.seconds[(int) (n % family.seconds.length)];
+                    for (int i = 0; i < target.length; i++) {
+                        target[i] += (int) CELLS.getVolatile(source, i);
+                    }
+                }
+            }
+            minute = finishedMinute + 1;
+        }
+        for (Family family : List.of(polls, topics)) {
+            clear(family.seconds[(int) ((next + 1) % family.seconds.length)]);
+        }
+        second = next;
+        if (next % SECONDS == 0) {
+            dropColdCandidates();
+        }
+    }
+
+    private static void clear(int[] cells) {
+        for (int i = 0; i < cells.length; i++) {
+            CELLS.setVolatile(cells, i, 0);
+        }
+    }
+
+    private void dropColdCandidates() {
+        for (Family family : List.of(polls, topics)) {
+            for (int c = 0; c < CANDIDATES; c++) {
+                String key = family.candidates.get(c);
+                if (key != null && family.sum(family.seconds, key, second - 1, SECONDS) == 0) {
+                    family.candidates.compareAndSet(c, key, null);
+                }
+            }
+        }
+    }
+
+    public Rate pollRate(String voteName) {
+        return rate(polls, voteName);
+    }
+
+    public Rate topicRate(String topic) {
+        return rate(topics, topic);
+    }
+
+    /**
+     * The hour is the last 59 rolled-up minutes plus the seconds of the current minute not yet rolled up.
+     */
+    private Rate rate(Family family, String key) {
+        long now = second;
+        long rolledUp = minute;
+        long pending = family.sum(family.seconds, key, now - 1, (int) Math.min(SECONDS, now - rolledUp * SECONDS));
+        return new Rate(key, family.sum(family.seconds, key, now - 1, 1),
+                family.sum(family.seconds, key, now - 1, SECONDS),
+                family.sum(family.minutes, key, rolledUp - 1, MINUTES - 1) + pending);
+    }
+
+    public List<Rate> hottestPolls(int top) {
+        return hottest(polls, top);
+    }
+
+    public List<Rate> hottestTopics(int top) {
+        return hottest(topics, top);
+    }
+
+    /**
+     * The candidates ranked by their votes in the last minute, then in the last hour.
+     */
+    private List<Rate> hottest(Family family, int top) {
+        List<Rate> rates = new ArrayList<>();
+        for (int c = 0; c < CANDIDATES; c++) {
+            String key = family.candidates.get(c);
+            if (key != null) {
+                Rate rate = rate(family, key);
+                if (rate.lastMinute() > 0 || rate.lastHour() > 0) {
+                    rates.add(rate);
+                }
+            }
+        }
+        rates.sort(Comparator.comparingLong(Rate::lastMinute).thenComparingLong(Rate::lastHour).reversed()
+                .thenComparing(Rate::key));
+        return rates.size() > top ? rates.subList(0, top) : rates;
+    }
+
+    public String render(int top) {
+        StringBuilder sb = new StringBuilder("Популярные голосования (голосов за секунду / минуту / час):\n");
+        appendRates(sb, hottestPolls(top));
+        sb.append("Популярные разделы:\n");
+        appendRates(sb, hottestTopics(top));
+        return sb.toString();
+    }
+
+    public static String render(Rate rate) {
+        return "Голосование \"" + rate.key() + "\": " + line(rate);
+    }
+
+    private static void appendRates(StringBuilder sb, List<Rate> rates) {
+        if (rates.isEmpty()) {
+            sb.append("  нет голосов за последний час\n");
+        }
+        for (int i = 0; i < rates.size(); i++) {
+            Rate rate = rates.get(i);
+            sb.append(String.format(Locale.ROOT, "%2d. %s: ", i + 1, rate.key())).append(line(rate));
+        }
+    }
+
+    private static String line(Rate rate) {
+        return rate.lastSecond() + " / " + rate.lastMinute() + " / " + rate.lastHour() + "\n";
+    }
+
+    /**
+     * Estimated heap bytes of the sketches and candidate tables; fixed at construction.
+     */
+    public long footprintBytes() {
+        long sketches = 2L * (SECONDS + 2 + MINUTES + 2 + 2 * STRIPES) * (16 + 4L * DEPTH * WIDTH);
+        return sketches + 2L * (16 + 4L * CANDIDATES);
+    }
+
+    public void start(EventExecutor executor) {
+        ticker = executor.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrendTrackerTest {
+
+    @Test
+    void testHottestPollsAreRankedByLastMinute() {
+        TrendTracker trends = new TrendTracker();
+        long footprint = trends.footprintBytes();
+        for (int i = 0; i < 50_000; i++) {
+            trends.record("t" + (i % 100), "cold-" + i);
+        }
+        for (int i = 0; i < 900; i++) {
+            trends.record("sport", "final");
+        }
+        for (int i = 0; i < 500; i++) {
+            trends.record("sport", "semifinal");
+        }
+        trends.tick();
+
+        List<TrendTracker.Rate> hottest = trends.hottestPolls(2);
+        assertEquals(List.of("final", "semifinal"), hottest.stream().map(TrendTracker.Rate::key).toList());
+        assertTrue(hottest.get(0).lastSecond() >= 900);
+        assertTrue(hottest.get(0).lastMinute() < 900 + 500, "оценка " + hottest.get(0));
+        assertEquals("sport", trends.hottestTopics(1).get(0).key());
+        assertEquals(footprint, trends.footprintBytes());
+    }
+
+    @Test
+    void testVotesFromSeveralThreadsAreFoldedTogether() throws Exception {
+        TrendTracker trends = new TrendTracker();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    trends.record("news", "poll");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, trends.pollRate("poll").lastMinute());
+        trends.tick();
+        assertEquals(new TrendTracker.Rate("poll", 40_000, 40_000, 40_000), trends.pollRate("poll"));
+        assertEquals(List.of("poll"), trends.hottestPolls(1).stream().map(TrendTracker.Rate::key).toList());
+    }
+
+    @Test
+    void testSecondsRollIntoMinutesAndExpire() {
+        TrendTracker trends = new TrendTracker();
+        for (int i = 0; i < 30; i++) {
+            trends.record("news", "poll");
+        }
+        trends.tick();
+        assertEquals(new TrendTracker.Rate("poll", 30, 30, 30), trends.pollRate("poll"));
+
+        for (int i = 0; i < TrendTracker.SECONDS; i++) {
+            trends.tick();
+        }
+        TrendTracker.Rate rate = trends.pollRate("poll");
+        assertEquals(0, rate.lastSecond());
+        assertEquals(0, rate.lastMinute());
+        assertEquals(30, rate.lastHour());
+        assertEquals(30, trends.topicRate("news").lastHour());
+    }
+}
@@ -0,0 +1,450 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+public class VoteJournal implements MutationLog, AutoCloseable {
+    private static final Logger logger = LoggerUtil.getLogger(VoteJournal.class.getName());
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".bin";
+    private static final int RECORD_HEADER = 8;
+
+    private final JournalConfig config;
+    private final VotingState state;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Completes the futures of committed batches, in commit order, so the replies and bookkeeping chained on
+     * them do not hold up the next group commit on the writer thread.
+     */
+    private final ExecutorService completionExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-completion");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private FileChannel segment;
+    private long segmentSeq;
+    private long segmentBytes;
+    private long lastCheckpointNanos = System.nanoTime();
+    private Future<?> checkpointInProgress;
+
+    private record Pending(ByteBuf record, Path rebaseFrom, CompletableFuture<Void> durable) {
+    }
+
+    private VoteJournal(JournalConfig config, VotingState state, long nextSeq) throws IOException {
+        this.config = config;
+        this.state = state;
+        openSegment(nextSeq);
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static VoteJournal open(JournalConfig config) throws IOException {
+        Files.createDirectories(config.directory);
+        long checkpointSeq = latestCheckpoint(config.directory);
+        VotingState state = checkpointSeq > 0
+                ? loadCheckpoint(config.directory, checkpointSeq)
+                : VotingState.detached();
+        List<Long> segments = segmentsFrom(config.directory, checkpointSeq);
+        long replayed = 0;
+        for (long seq : segments) {
+            replayed += replaySegment(segmentPath(config.directory, seq), state, true);
+        }
+        long nextSeq = Math.max(checkpointSeq, segments.isEmpty() ? 0 : segments.get(segments.size() - 1)) + 1;
+        logger.log(Level.INFO, "Журнал восстановлен: контрольная точка {0,number,#}, сегментов {1,number,#}, записей {2,number,#}",
+                new Object[]{checkpointSeq, segments.size(), replayed});
+
+        VoteJournal journal = new VoteJournal(config, state, nextSeq);
+        state.attach(journal);
+        return journal;
+    }
+
+    public VotingState state() {
+        return state;
+    }
+
+    @Override
+    public CompletableFuture<Void> append(ByteBuf record) {
+        if (!running) {
+            record.release();
+            return CompletableFuture.failedFuture(new IllegalStateException("Журнал закрыт"));
+        }
+        return enqueue(new Pending(record, null, new CompletableFuture<>()));
+    }
+
+    @Override
+    public CompletableFuture<Void> rebase(Path snapshot) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Журнал закрыт"));
+        }
+        return enqueue(new Pending(null, snapshot, new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues the record, taking it back if the journal was closed meanwhile: the writer may already have
+     * drained the queue and stopped, and then nothing else would complete it.
+     */
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        queue.add(pending);
+        if (!running && queue.remove(pending)) {
+            refuse(pending);
+        }
+        return pending.durable;
+    }
+
+    private static void refuse(Pending pending) {
+        if (pending.record != null) {
+            pending.record.release();
+        }
+        pending.durable.completeExceptionally(new IllegalStateException("Журнал закрыт"));
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        long groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(config.groupCommitMillis);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending next = queue.poll(100, TimeUnit.MILLISECONDS);
+                long deadline = System.nanoTime() + groupCommitNanos;
+                while (next != null) {
+                    batch.add(next);
+                    if (next.rebaseFrom != null || batch.size() >= config.maxBatchRecords) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                }
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+                maybeCheckpoint();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+                batch.forEach(pending -> pending.durable.completeExceptionally(new IllegalStateException("Журнал закрыт")));
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Ошибка записи журнала: {0}", e.getMessage());
+                List<CompletableFuture<Void>> failed = new ArrayList<>(batch.size());
+                for (Pending pending : batch) {
+                    failed.add(pending.durable);
+                }
+                completionExecutor.execute(() -> failed.forEach(durable -> durable.completeExceptionally(e)));
+            } finally {
+                for (Pending pending : batch) {
+                    if (pending.record != null) {
+                        pending.record.release();
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) throws IOException {
+        Pending last = batch.get(batch.size() - 1);
+        int records = last.rebaseFrom != null ? batch.size() - 1 : batch.size();
+        if (segment == null) {
+            openSegment(segmentSeq + 1);
+        }
+        int size = 0;
+        for (int i = 0; i < records; i++) {
+            size += RECORD_HEADER + batch.get(i).record.readableBytes();
+        }
+        ByteBuf out = ByteBufAllocator.DEFAULT.directBuffer(size);
+        long committedBytes = segmentBytes;
+        try {
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < records; i++) {
+                ByteBuf record = batch.get(i).record;
+                crc.reset();
+                crc.update(record.nioBuffer());
+                out.writeInt(record.readableBytes());
+                out.writeInt((int) crc.getValue());
+                out.writeBytes(record, record.readerIndex(), record.readableBytes());
+            }
+            ByteBuffer nio = out.nioBuffer();
+            try {
+                while (nio.hasRemaining()) {
+                    segment.write(nio);
+                }
+                if (config.fsync) {
+                    segment.force(false);
+                }
+            } catch (IOException e) {
+                discardFrom(committedBytes);
+                throw e;
+            }
+            segmentBytes += size;
+        } finally {
+            out.release();
+        }
+        List<CompletableFuture<Void>> committed = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            committed.add(batch.get(i).durable);
+        }
+        completionExecutor.execute(() -> committed.forEach(durable -> durable.complete(null)));
+        if (last.rebaseFrom != null) {
+            rebaseOnto(last.rebaseFrom);
+            completionExecutor.execute(() -> last.durable.complete(null));
+        }
+    }
+
+    /**
+     * Cuts a batch that failed to be written or flushed off the segment, so the records after it are not
+     * appended behind a torn record that recovery would stop at, and the votes withdrawn because of the
+     * failure do not come back on replay. If the segment cannot be cut, later batches go to a new one.
+     */
+    private void discardFrom(long committedBytes) {
+        try {
+            segment.truncate(committedBytes);
+            segment.force(false);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Не удалось обрезать сегмент журнала {0}: {1}",
+                    new Object[]{segmentSeq, e.getMessage()});
+            try {
+                segment.close();
+            } catch (IOException ignored) {
+                // the segment is abandoned either way
+            }
+            segment = null;
+            try {
+                openSegment(segmentSeq + 1);
+            } catch (IOException next) {
+                logger.log(Level.SEVERE, "Не удалось открыть новый сегмент журнала: {0}", next.getMessage());
+            }
+        }
+    }
+
+    private void maybeCheckpoint() throws IOException {
+        if (checkpointInProgress != null && !checkpointInProgress.isDone()) {
+            return;
+        }
+        boolean intervalElapsed = System.nanoTime() - lastCheckpointNanos
+                >= TimeUnit.SECONDS.toNanos(config.checkpointIntervalSeconds);
+        if (segmentBytes == 0 || (!intervalElapsed && segmentBytes < config.maxSegmentBytes)) {
+            return;
+        }
+        long closedUpTo = segmentSeq + 1;
+        openSegment(closedUpTo);
+        lastCheckpointNanos = System.nanoTime();
+        checkpointInProgress = checkpointExecutor.submit(() -> writeCheckpoint(closedUpTo));
+    }
+
+    private void rebaseOnto(Path snapshot) throws IOException {
+        if (checkpointInProgress != null) {
+            try {
+                checkpointInProgress.get();
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Контрольная точка завершилась с ошибкой: {0}", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long seq = segmentSeq + 1;
+        openSegment(seq);
+        Path tmp = config.directory.resolve(CHECKPOINT_PREFIX + seq + ".tmp");
+        Files.copy(snapshot, tmp, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, checkpointPath(config.directory, seq), StandardCopyOption.ATOMIC_MOVE);
+        SnapshotFile.syncDirectory(config.directory);
+        truncateBefore(config.directory, seq);
+        lastCheckpointNanos = System.nanoTime();
+        logger.log(Level.INFO, "Журнал перестроен от снимка: {0}", snapshot);
+    }
+
+    private void openSegment(long seq) throws IOException {
+        if (segment != null) {
+            segment.force(true);
+            segment.close();
+        }
+        segment = FileChannel.open(segmentPath(config.directory, seq),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSeq = seq;
+        segmentBytes = segment.size();
+    }
+
+    private void writeCheckpoint(long seq) {
+        Path dir = config.directory;
+        try {
+            long baseSeq = latestCheckpoint(dir);
+            VotingState compacted = baseSeq > 0 ? loadCheckpoint(dir, baseSeq) : VotingState.detached();
+            for (long segmentSeq : segmentsFrom(dir, baseSeq)) {
+                if (segmentSeq < seq) {
+                    replaySegment(segmentPath(dir, segmentSeq), compacted, false);
+                }
+            }
+            compacted.writeTo(checkpointPath(dir, seq));
+            truncateBefore(dir, seq);
+            logger.log(Level.INFO, "Создана контрольная точка журнала: {0,number,#}", seq);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Ошибка создания контрольной точки: {0}", e.getMessage());
+        }
+    }
+
+    private static void truncateBefore(Path dir, long seq) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long fileSeq = sequenceOf(file, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if (fileSeq < 0) {
+                    fileSeq = sequenceOf(file, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+                }
+                if (fileSeq >= 0 && fileSeq < seq) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static long replaySegment(Path path, VotingState state, boolean repairTail) throws IOException {
+        long applied = 0;
+        OpenOption[] options = repairTail
+                ? new OpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new OpenOption[]{StandardOpenOption.READ};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            long size = channel.size();
+            ByteBuf data = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            CRC32 crc = new CRC32();
+            while (data.readableBytes() >= RECORD_HEADER) {
+                int start = data.readerIndex();
+                int length = data.readInt();
+                int checksum = data.readInt();
+                if (length <= 0 || length > data.readableBytes()) {
+                    data.readerIndex(start);
+                    break;
+                }
+                ByteBuf record = data.readSlice(length);
+                crc.reset();
+                crc.update(record.nioBuffer());
+                if ((int) crc.getValue() != checksum) {
+                    data.readerIndex(start);
+                    break;
+                }
+                JournalRecord.apply(record, state);
+                applied++;
+            }
+            if (data.isReadable() && repairTail) {
+                logger.log(Level.WARNING, "Обрезан повреждённый хвост журнала {0} с позиции {1,number,#}",
+                        new Object[]{path.getFileName(), data.readerIndex()});
+                channel.truncate(data.readerIndex());
+            }
+        }
+        return applied;
+    }
+
+    private static VotingState loadCheckpoint(Path dir, long seq) throws IOException {
+        return VotingState.readFrom(checkpointPath(dir, seq));
+    }
+
+    private static long latestCheckpoint(Path dir) throws IOException {
+        long latest = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                latest = Math.max(latest, sequenceOf(file, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX));
+            }
+        }
+        return latest;
+    }
+
+    private static List<Long> segmentsFrom(Path dir, long fromSeq) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long seq = sequenceOf(file, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if (seq >= fromSeq) {
+                    result.add(seq);
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private static long sequenceOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Path segmentPath(Path dir, long seq) {
+        return dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    private static Path checkpointPath(Path dir, long seq) {
+        return dir.resolve(String.format("%s%016d%s", CHECKPOINT_PREFIX, seq, CHECKPOINT_SUFFIX));
+    }
+
+    /**
+     * Waits for the queued records and a running checkpoint before closing the segment, even when interrupted;
+     * the interrupt is kept for the caller. Records queued after the writer stopped are refused.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Pending pending; (pending = queue.poll()) != null; ) {
+            refuse(pending);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        interrupted |= awaitShutdown(checkpointExecutor, deadline);
+        interrupted |= awaitShutdown(completionExecutor, deadline);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            segment.force(true);
+            segment.close();
+        }
+    }
+
+    /**
+     * Shuts the executor down and waits for it until the deadline; returns whether the wait was interrupted.
+     */
+    private static boolean awaitShutdown(ExecutorService executor, long deadline) {
+        executor.shutdown();
+        boolean interrupted = false;
+        while (!executor.isTerminated() && System.nanoTime() < deadline) {
+            try {
+                executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        return interrupted;
+    }
+}
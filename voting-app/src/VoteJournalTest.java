@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoteJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static void populate(VotingState state) {
+        state.createTopic("topic1").join();
+        state.createVote("topic1", "vote1", List.of("Option1", "Option2")).join();
+        state.vote("topic1", "vote1", "user1", "Option1").join();
+        state.vote("topic1", "vote1", "user2", "Option2").join();
+        state.vote("topic1", "vote1", "user3", "Option1").join();
+    }
+
+    private static List<Path> files(Path dir, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    @Test
+    void testRecoverFromJournal() throws Exception {
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            populate(journal.state());
+        }
+
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            VoteTally tally = journal.state().tally("topic1", "vote1");
+            assertArrayEquals(new long[]{2, 1}, tally.snapshot());
+            assertEquals(MutationResult.ALREADY_VOTED,
+                    journal.state().vote("topic1", "vote1", "user1", "Option2").join());
+        }
+    }
+
+    @Test
+    void testMovedTopicSurvivesRecoveryOnBothSides(@TempDir Path target) throws Exception {
+        try (VoteJournal source = VoteJournal.open(new JournalConfig(dir));
+             VoteJournal destination = VoteJournal.open(new JournalConfig(target))) {
+            populate(source.state());
+            destination.state().createTopic("topic1").join();
+            PollExport poll = source.state().exportVote("topic1", "vote1");
+            assertEquals(List.of("user1", "user2", "user3"), poll.voters().stream().sorted().toList());
+            assertEquals(MutationResult.OK, destination.state().importVote(poll).join());
+            assertEquals(MutationResult.VOTE_EXISTS, destination.state().importVote(poll).join());
+            assertEquals(MutationResult.OK, source.state().dropTopic("topic1").join());
+        }
+
+        try (VoteJournal source = VoteJournal.open(new JournalConfig(dir));
+             VoteJournal destination = VoteJournal.open(new JournalConfig(target))) {
+            assertNull(source.state().votesInTopic("topic1"));
+            assertNull(source.state().tally("topic1", "vote1"));
+            assertArrayEquals(new long[]{2, 1}, destination.state().tally("topic1", "vote1").snapshot());
+            assertEquals(MutationResult.ALREADY_VOTED,
+                    destination.state().vote("topic1", "vote1", "user2", "Option1").join());
+            assertEquals(MutationResult.OK, destination.state().vote("topic1", "vote1", "user4", "Option2").join());
+        }
+    }
+
+    @Test
+    void testOversizedPollIsRefusedBeforeItIsJournaled() throws Exception {
+        List<String> options = IntStream.rangeClosed(0, PollType.MAX_OPTIONS).mapToObj(i -> "o" + i).toList();
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            populate(journal.state());
+            assertEquals(MutationResult.INVALID_OPTION,
+                    journal.state().createVote("topic1", "huge", options).join());
+            assertEquals(MutationResult.OK,
+                    journal.state().createVote("topic1", "wide", options.subList(0, PollType.MAX_OPTIONS)).join());
+        }
+
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            assertNull(journal.state().tally("topic1", "huge"));
+            assertEquals(PollType.MAX_OPTIONS, journal.state().tally("topic1", "wide").options().size());
+            assertArrayEquals(new long[]{2, 1}, journal.state().tally("topic1", "vote1").snapshot());
+        }
+    }
+
+    @Test
+    void testVoteTheJournalRefusesIsWithdrawn() throws Exception {
+        VotingState state;
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            state = journal.state();
+            populate(state);
+        }
+        VoteTally tally = state.tally("topic1", "vote1");
+        long version = tally.version();
+        assertThrows(CompletionException.class, () -> state.vote("topic1", "vote1", "user4", "Option2").join());
+        BallotBatch batch = new BallotBatch(2);
+        batch.add("user5", "topic1", "vote1", "Option1");
+        batch.add("user1", "topic1", "vote1", "Option1");
+        assertThrows(CompletionException.class, () -> state.voteBatch(batch).join());
+
+        assertArrayEquals(new long[]{2, 1}, tally.snapshot());
+        assertEquals(3, tally.voters().size());
+        assertTrue(tally.version() > version);
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            assertArrayEquals(new long[]{2, 1}, journal.state().tally("topic1", "vote1").snapshot());
+            assertEquals(MutationResult.OK, journal.state().vote("topic1", "vote1", "user4", "Option2").join());
+        }
+    }
+
+    @Test
+    void testCommittedVotesCompleteOffTheWriterThread() throws Exception {
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            journal.state().createTopic("topic1").join();
+            journal.state().createVote("topic1", "vote1", List.of("Option1", "Option2")).join();
+            String thread = journal.state().vote("topic1", "vote1", "user1", "Option1")
+                    .thenApply(result -> Thread.currentThread().getName()).join();
+            assertNotEquals("journal-writer", thread);
+        }
+    }
+
+    @Test
+    void testTornTailIsTruncated() throws Exception {
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            populate(journal.state());
+        }
+        List<Path> segments = files(dir, "journal-");
+        Path last = segments.get(segments.size() - 1);
+        long intactSize = Files.size(last);
+        Files.write(last, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            assertArrayEquals(new long[]{2, 1}, journal.state().tally("topic1", "vote1").snapshot());
+        }
+        assertEquals(intactSize, Files.size(last));
+    }
+
+    @Test
+    void testCheckpointTruncatesJournal() throws Exception {
+        JournalConfig config = new JournalConfig(dir);
+        config.checkpointIntervalSeconds = 0;
+        try (VoteJournal journal = VoteJournal.open(config)) {
+            populate(journal.state());
+            for (int i = 0; i < 50 && files(dir, "checkpoint-").isEmpty(); i++) {
+                Thread.sleep(100);
+            }
+            journal.state().deleteVote("topic1", "vote1").join();
+            journal.state().createVote("topic1", "vote2", List.of("A", "B")).join();
+        }
+        assertFalse(files(dir, "checkpoint-").isEmpty());
+
+        try (VoteJournal journal = VoteJournal.open(new JournalConfig(dir))) {
+            assertNull(journal.state().tally("topic1", "vote1"));
+            assertNotNull(journal.state().tally("topic1", "vote2"));
+        }
+    }
+}
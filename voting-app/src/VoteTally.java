@@ -0,0 +1,345 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Handle of one poll. Options are symbol ids and counts are slots in the {@link TallySlab} of the state the
+ * poll belongs to; the handle itself only holds where they are, who has voted and when the poll is open.
+ * The counts are votes for a plurality poll, first choices for a ranked one and points for a weighted one;
+ * a ranked poll also keeps its ballots in an {@link InstantRunoff}. One more slot after the counts totals what
+ * withdrawn ballots took back, so that counts and withdrawals together version the results; ballots are
+ * stamped in the slab's stripes so a reader can tell whether it saw them between ballots.
+ */
+public class VoteTally {
+    /** The results of a closed poll as rendered at the given version of its counts. */
+    public record FrozenResult(long version, String text) {
+    }
+
+    static final int RESERVED_SLOTS = 1;
+
+    private final TallySlab slab;
+    private final SymbolTable symbols;
+    private final int firstSlot;
+    private final int optionCount;
+    private final VoterRegistry voters;
+    private final PollType type;
+    private final InstantRunoff runoff;
+    private long opensAt;
+    private long closesAt;
+    private volatile FrozenResult frozen;
+    /** Set under the catalog lock when the poll is removed and its slots may go to another poll. */
+    private volatile boolean released;
+
+    VoteTally(TallySlab slab, SymbolTable symbols, List<String> options, PollType type, VoterRegistry voters) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(options));
+        this.slab = slab;
+        this.symbols = symbols;
+        this.optionCount = distinct.size();
+        this.firstSlot = slab.allocate(optionCount + RESERVED_SLOTS);
+        for (int i = 0; i < optionCount; i++) {
+            slab.setOption(firstSlot + i, symbols.intern(distinct.get(i)));
+        }
+        this.voters = voters;
+        this.type = type;
+        this.runoff = type.kind() == PollType.Kind.RANKED ? new InstantRunoff(optionCount) : null;
+    }
+
+    public PollType type() {
+        return type;
+    }
+
+    /**
+     * The ranked ballots of a ranked poll; null for the other types.
+     */
+    public InstantRunoff runoff() {
+        return runoff;
+    }
+
+    public VoterRegistry voters() {
+        return voters;
+    }
+
+    /**
+     * Sets when the poll takes votes, in epoch milliseconds; 0 leaves that end open. Called before the
+     * handle is published.
+     */
+    void schedule(long opensAt, long closesAt) {
+        this.opensAt = opensAt;
+        this.closesAt = closesAt;
+    }
+
+    public long opensAt() {
+        return opensAt;
+    }
+
+    public long closesAt() {
+        return closesAt;
+    }
+
+    public boolean hasOpened(long nowMillis) {
+        return nowMillis >= opensAt;
+    }
+
+    public boolean isClosed(long nowMillis) {
+        return closesAt != 0 && nowMillis >= closesAt;
+    }
+
+    public int optionCount() {
+        return optionCount;
+    }
+
+    public String option(int optionIndex) {
+        return symbols.name(slab.option(firstSlot + optionIndex));
+    }
+
+    public List<String> options() {
+        List<String> options = new ArrayList<>(optionCount);
+        for (int i = 0; i < optionCount; i++) {
+            options.add(option(i));
+        }
+        return options;
+    }
+
+    public int indexOf(String option) {
+        int symbol = symbols.idOf(option);
+        if (symbol < 0) {
+            return -1;
+        }
+        for (int i = 0; i < optionCount; i++) {
+            if (slab.option(firstSlot + i) == symbol) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records the ballot of a user; the ballot is read according to the type of the poll.
+     */
+    public MutationResult cast(int userId, String ballot) {
+        if (voters.contains(userId)) {
+            return MutationResult.ALREADY_VOTED;
+        }
+        if (ballot == null) {
+            return MutationResult.INVALID_OPTION;
+        }
+        long choice = -1;
+        long[] points = null;
+        switch (type.kind()) {
+            case PLURALITY -> choice = indexOf(ballot);
+            case RANKED -> choice = ranking(ballot);
+            case WEIGHTED -> {
+                points = points(ballot);
+                choice = points == null ? -1 : 0;
+            }
+        }
+        if (choice < 0) {
+            return MutationResult.INVALID_OPTION;
+        }
+        if (!voters.add(userId)) {
+            return MutationResult.ALREADY_VOTED;
+        }
+        int stripe = slab.beginWrite(firstSlot);
+        switch (type.kind()) {
+            case PLURALITY -> increment((int) choice);
+            case RANKED -> {
+                runoff.add(choice, 1);
+                increment(InstantRunoff.firstChoice(choice));
+            }
+            case WEIGHTED -> {
+                for (int i = 0; i < optionCount; i++) {
+                    if (points[i] > 0) {
+                        add(i, points[i]);
+                    }
+                }
+            }
+        }
+        slab.endWrite(stripe);
+        return MutationResult.OK;
+    }
+
+    /**
+     * Takes back a ballot accepted by {@link #cast} that could not be logged, so that a server which will not
+     * replay it does not count it either. Called under the catalog lock; a poll removed meanwhile is left be,
+     * as its slots may already count another poll.
+     */
+    void withdraw(int userId, String ballot) {
+        if (released) {
+            return;
+        }
+        int stripe = slab.beginWrite(firstSlot);
+        switch (type.kind()) {
+            case PLURALITY -> {
+                add(indexOf(ballot), -1);
+                slab.add(withdrawnSlot(), 1);
+            }
+            case RANKED -> {
+                long choice = ranking(ballot);
+                runoff.add(choice, -1);
+                add(InstantRunoff.firstChoice(choice), -1);
+                slab.add(withdrawnSlot(), 1);
+            }
+            case WEIGHTED -> {
+                long[] points = points(ballot);
+                for (int i = 0; i < optionCount; i++) {
+                    if (points[i] > 0) {
+                        add(i, -points[i]);
+                        slab.add(withdrawnSlot(), points[i]);
+                    }
+                }
+            }
+        }
+        slab.endWrite(stripe);
+        voters.remove(userId);
+    }
+
+    /**
+     * Reads {@code B>A>C} into a packed ranking; -1 if an option is unknown or ranked twice.
+     */
+    private long ranking(String ballot) {
+        String[] places = ballot.split(">", -1);
+        if (places.length > optionCount) {
+            return -1;
+        }
+        int[] order = new int[places.length];
+        int seen = 0;
+        for (int place = 0; place < places.length; place++) {
+            int index = indexOf(places[place].trim());
+            if (index < 0 || (seen & 1 << index) != 0) {
+                return -1;
+            }
+            seen |= 1 << index;
+            order[place] = index;
+        }
+        return InstantRunoff.encode(order);
+    }
+
+    /**
+     * Reads {@code A=3,B=2} into points per option; null if an option is unknown or named twice, a value is
+     * not positive, or the ballot gives out more points than the poll allows.
+     */
+    private long[] points(String ballot) {
+        long[] points = new long[optionCount];
+        long given = 0;
+        for (String part : ballot.split(",")) {
+            int eq = part.lastIndexOf('=');
+            if (eq < 0) {
+                return null;
+            }
+            int index = indexOf(part.substring(0, eq).trim());
+            long value;
+            try {
+                value = Long.parseLong(part.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (index < 0 || points[index] != 0 || value <= 0 || value > type.points() - given) {
+                return null;
+            }
+            points[index] = value;
+            given += value;
+        }
+        return points;
+    }
+
+    /**
+     * Puts back the ranked ballots of a snapshot or a moved poll, as pairs of a ranking and its count; the
+     * first choices are restored with the other counts.
+     */
+    void restoreRankings(long[] pairs) {
+        if (runoff == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            runoff.add(pairs[i], pairs[i + 1]);
+        }
+    }
+
+    public void increment(int optionIndex) {
+        slab.add(firstSlot + optionIndex, 1);
+    }
+
+    public void add(int optionIndex, long count) {
+        slab.add(firstSlot + optionIndex, count);
+    }
+
+    void release() {
+        released = true;
+        slab.release(firstSlot, optionCount + RESERVED_SLOTS);
+    }
+
+    private int withdrawnSlot() {
+        return firstSlot + optionCount;
+    }
+
+    /**
+     * The weight of the ballots counted so far plus twice what was withdrawn, read between ballots: every
+     * ballot or withdrawal moves it up, so it versions everything a results view shows without a stamp of
+     * its own for ballots to contend on. A poll with no ballots is version 0.
+     */
+    public long version() {
+        long[] values = slab.snapshot(firstSlot, optionCount + RESERVED_SLOTS);
+        long version = 2 * values[optionCount];
+        for (int i = 0; i < optionCount; i++) {
+            version += values[i];
+        }
+        return version;
+    }
+
+    public String results(String voteName) {
+        StringBuilder sb = new StringBuilder("Результаты голосования \"" + voteName + "\":\n");
+        appendCounts(sb);
+        if (!type.isPlurality()) {
+            sb.append("Тип: ").append(type.describe()).append('\n');
+        }
+        if (opensAt != 0) {
+            sb.append("Открытие: ").append(PollCloser.format(opensAt)).append('\n');
+        }
+        if (closesAt != 0) {
+            sb.append("Закрытие: ").append(PollCloser.format(closesAt)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The results of a closed poll, rendered once and then served as is. A ballot accepted just before the
+     * close may land after the poll was frozen; the version check renders the results again in that case.
+     */
+    public String finalResults(String voteName) {
+        FrozenResult result = frozen;
+        long version = version();
+        if (result == null || result.version() != version) {
+            StringBuilder sb = new StringBuilder("Итоги голосования \"" + voteName + "\" (завершено ")
+                    .append(PollCloser.format(closesAt)).append("):\n");
+            appendCounts(sb);
+            result = new FrozenResult(version, sb.toString());
+            frozen = result;
+        }
+        return result.text();
+    }
+
+    public boolean isFrozen() {
+        return frozen != null;
+    }
+
+    private void appendCounts(StringBuilder sb) {
+        if (runoff != null) {
+            sb.append(runoff.render(options()));
+        } else {
+            String unit = type.kind() == PollType.Kind.WEIGHTED ? " баллов\n" : " голосов\n";
+            long[] counts = snapshot();
+            for (int i = 0; i < counts.length; i++) {
+                sb.append(option(i)).append(": ").append(counts[i]).append(unit);
+            }
+        }
+        sb.append("Проголосовало: ").append(voters.size())
+                .append(" (реестр участников: ").append(voters.memoryFootprint()).append(" байт)\n");
+    }
+
+    /**
+     * The counts as they stood between two ballots; see {@link TallySlab#snapshot}.
+     */
+    public long[] snapshot() {
+        return slab.snapshot(firstSlot, optionCount);
+    }
+}
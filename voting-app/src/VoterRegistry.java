@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+public class VoterRegistry {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int WORDS_PER_CHUNK = 1 << (CHUNK_SHIFT - 6);
+    private static final long CHUNK_BYTES = 16 + 8L * WORDS_PER_CHUNK;
+
+    private volatile AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(1);
+    private final LongAdder size = new LongAdder();
+    private int allocatedChunks;
+
+    public boolean add(int userId) {
+        AtomicLongArray chunk = chunk(userId >>> CHUNK_SHIFT, true);
+        int word = (userId >>> 6) & (WORDS_PER_CHUNK - 1);
+        long bit = 1L << userId;
+        long current;
+        do {
+            current = chunk.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+        } while (!chunk.compareAndSet(word, current, current | bit));
+        size.increment();
+        return true;
+    }
+
+    /**
+     * Takes a voter back out, for a ballot that was counted but could not be logged.
+     */
+    public boolean remove(int userId) {
+        AtomicLongArray chunk = chunk(userId >>> CHUNK_SHIFT, false);
+        if (chunk == null) {
+            return false;
+        }
+        int word = (userId >>> 6) & (WORDS_PER_CHUNK - 1);
+        long bit = 1L << userId;
+        long current;
+        do {
+            current = chunk.get(word);
+            if ((current & bit) == 0) {
+                return false;
+            }
+        } while (!chunk.compareAndSet(word, current, current & ~bit));
+        size.decrement();
+        return true;
+    }
+
+    public boolean contains(int userId) {
+        AtomicLongArray chunk = chunk(userId >>> CHUNK_SHIFT, false);
+        return chunk != null && (chunk.get((userId >>> 6) & (WORDS_PER_CHUNK - 1)) & (1L << userId)) != 0;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public void forEach(IntConsumer action) {
+        AtomicReferenceArray<AtomicLongArray> directory = chunks;
+        for (int i = 0; i < directory.length(); i++) {
+            AtomicLongArray chunk = directory.get(i);
+            if (chunk == null) {
+                continue;
+            }
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                long word = chunk.get(w);
+                while (word != 0) {
+                    action.accept((i << CHUNK_SHIFT) | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    public synchronized long memoryFootprint() {
+        return 16 + 4L * chunks.length() + CHUNK_BYTES * allocatedChunks;
+    }
+
+    private AtomicLongArray chunk(int chunkIndex, boolean create) {
+        AtomicReferenceArray<AtomicLongArray> directory = chunks;
+        AtomicLongArray chunk = chunkIndex < directory.length() ? directory.get(chunkIndex) : null;
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (this) {
+            directory = chunks;
+            if (chunkIndex >= directory.length()) {
+                int length = Math.max(chunkIndex + 1, directory.length() * 2);
+                AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<>(length);
+                for (int i = 0; i < directory.length(); i++) {
+                    grown.set(i, directory.get(i));
+                }
+                chunks = grown;
+                directory = grown;
+            }
+            chunk = directory.get(chunkIndex);
+            if (chunk == null) {
+                chunk = new AtomicLongArray(WORDS_PER_CHUNK);
+                directory.set(chunkIndex, chunk);
+                allocatedChunks++;
+            }
+            return chunk;
+        }
+    }
+
+    public synchronized long[] toWords() {
+        AtomicReferenceArray<AtomicLongArray> directory = chunks;
+        long[] words = new long[allocatedChunks * (WORDS_PER_CHUNK + 1)];
+        int pos = 0;
+        for (int i = 0; i < directory.length(); i++) {
+            AtomicLongArray chunk = directory.get(i);
+            if (chunk != null) {
+                words[pos++] = i;
+                for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                    words[pos++] = chunk.get(w);
+                }
+            }
+        }
+        return words;
+    }
+
+    public static VoterRegistry fromWords(long[] words) {
+        VoterRegistry registry = new VoterRegistry();
+        for (int pos = 0; pos + WORDS_PER_CHUNK < words.length; pos += WORDS_PER_CHUNK + 1) {
+            AtomicLongArray chunk = registry.chunk((int) words[pos], true);
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                long word = words[pos + 1 + w];
+                chunk.set(w, word);
+                registry.size.add(Long.bitCount(word));
+            }
+        }
+        return registry;
+    }
+}
@@ -3,44 +3,213 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.serialization.ClassResolvers;
-import io.netty.handler.codec.serialization.ObjectDecoder;
-import io.netty.handler.codec.serialization.ObjectEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+public class VotingClient implements AutoCloseable {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
 
-public class VotingClient {
     private final String host;
     private final int port;
-    public VotingClient(String host, int port) { this.host = host; this.port = port; }
+    private final WireFormat wireFormat;
+    private final int maxInFlight;
+    private final long requestTimeoutMillis;
+    private EventLoopGroup group;
+    private boolean ownsGroup;
+    private Channel channel;
+    private VotingClientHandler requests;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
 
-    public void start() throws Exception {
-        EventLoopGroup group = new NioEventLoopGroup();
+    private record Watch(LiveTally tally, Consumer<LiveTally> listener) {
+    }
+
+    public VotingClient(String host, int port) {
+        this(host, port, WireFormat.BINARY);
+    }
+
+    public VotingClient(String host, int port, WireFormat wireFormat) {
+        this(host, port, wireFormat, DEFAULT_MAX_IN_FLIGHT, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    public VotingClient(String host, int port, WireFormat wireFormat, int maxInFlight, long requestTimeoutMillis) {
+        if (wireFormat == WireFormat.AUTO) {
+            throw new IllegalArgumentException("Клиент должен явно выбрать формат протокола");
+        }
+        this.host = host;
+        this.port = port;
+        this.wireFormat = wireFormat;
+        this.maxInFlight = maxInFlight;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public Channel connect() throws InterruptedException {
+        return connect(new NioEventLoopGroup(1), true);
+    }
+
+    public Channel connect(EventLoopGroup sharedGroup) throws InterruptedException {
+        return connect(sharedGroup, false);
+    }
+
+    private Channel connect(EventLoopGroup group, boolean ownsGroup) throws InterruptedException {
+        this.group = group;
+        this.ownsGroup = ownsGroup;
+        requests = new VotingClientHandler(maxInFlight, requestTimeoutMillis);
+        requests.setUpdateListener(this::onUpdate);
         try {
             Bootstrap b = new Bootstrap();
             b.group(group)
                     .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
                     .handler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
                             ChannelPipeline p = ch.pipeline();
-                            p.addLast(new ObjectEncoder());
-                            p.addLast(new ObjectDecoder(1024 * 1024,
-                                    ClassResolvers.weakCachingConcurrentResolver(null)));
-                            p.addLast(new VotingClientHandler());
+                            p.addLast(new FlushConsolidationHandler(256, true));
+                            p.addLast(wireFormat.newCodec());
+                            p.addLast(requests);
                         }
                     });
 
-            ChannelFuture f = b.connect(host, port).sync();
-            Channel channel = f.channel();
-            System.out.println("Подключено к серверу: " + host + ":" + port);
+            channel = b.connect(host, port).sync().channel();
+            if (wireFormat == WireFormat.BINARY) {
+                channel.writeAndFlush(WireProtocol.handshake());
+            }
+            return channel;
+        } catch (InterruptedException | RuntimeException e) {
+            if (ownsGroup) {
+                group.shutdownGracefully();
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Object> send(Message message) {
+        if (requests == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Клиент не подключен к серверу"));
+        }
+        return requests.send(message);
+    }
+
+    public CompletableFuture<Reply> request(String type, Map<String, String> params, Object payload) {
+        return send(new Message(type, params, payload))
+                .thenApply(reply -> reply instanceof Reply r ? r : Reply.of(String.valueOf(reply)));
+    }
+
+    public CompletableFuture<Reply> login(String username) {
+        return request("login", Map.of("username", username), null);
+    }
+
+    public CompletableFuture<Reply> createTopic(String topic) {
+        return request("create_topic", Map.of("topic", topic), null);
+    }
+
+    public CompletableFuture<Reply> viewTopics() {
+        return request("view", Map.of(), null);
+    }
+
+    public CompletableFuture<Reply> viewTopic(String topic) {
+        return request("view", Map.of("topic", topic), null);
+    }
+
+    public CompletableFuture<Reply> createVote(String topic, String voteName, String description, List<String> options) {
+        return request("create_vote",
+                Map.of("topic", topic, "vote_name", voteName, "description", description), options);
+    }
+
+    public CompletableFuture<Reply> vote(String topic, String voteName, String option) {
+        return request("vote", Map.of("topic", topic, "vote", voteName, "option", option), null);
+    }
+
+    public CompletableFuture<Reply> viewVote(String topic, String voteName) {
+        return request("view_vote", Map.of("topic", topic, "vote", voteName), null);
+    }
+
+    public CompletableFuture<Reply> deleteVote(String topic, String voteName) {
+        return request("delete", Map.of("topic", topic, "vote", voteName), null);
+    }
 
+    public CompletableFuture<Reply> save(String filename) {
+        return request("save", Map.of("filename", filename), null);
+    }
+
+    public CompletableFuture<Reply> load(String filename) {
+        return request("load", Map.of("filename", filename), null);
+    }
+
+    /**
+     * Subscribes to pushed results of a poll. The listener runs on the connection's event loop with the
+     * client's current view each time an update arrives, so it must not block.
+     */
+    public CompletableFuture<Reply> subscribe(String topic, String voteName, Consumer<LiveTally> listener) {
+        String key = topic + '\0' + voteName;
+        watches.put(key, new Watch(new LiveTally(topic, voteName), listener));
+        return request("subscribe", Map.of("topic", topic, "vote", voteName), null).whenComplete((reply, error) -> {
+            if (error != null || reply.isError()) {
+                watches.remove(key);
+            }
+        });
+    }
+
+    public CompletableFuture<Reply> unsubscribe(String topic, String voteName) {
+        watches.remove(topic + '\0' + voteName);
+        return request("unsubscribe", Map.of("topic", topic, "vote", voteName), null);
+    }
+
+    private void onUpdate(TallyUpdate update) {
+        Watch watch = watches.get(update.topic + '\0' + update.voteName);
+        if (watch != null && watch.tally().apply(update)) {
+            watch.listener().accept(watch.tally());
+        }
+    }
+
+    public CompletableFuture<Reply> stats() {
+        return request("stats", Map.of(), null);
+    }
+
+    public CompletableFuture<BatchResult> voteBatch(BallotBatch batch) {
+        return send(new Message("vote_batch", Map.of(), batch)).thenApply(reply -> {
+            if (reply instanceof BatchResult result) {
+                return result;
+            }
+            throw new IllegalStateException(String.valueOf(reply));
+        });
+    }
+
+    public BallotBatcher batcher(int maxBallots, long maxDelayMillis) {
+        if (channel == null) {
+            throw new IllegalStateException("Клиент не подключен к серверу");
+        }
+        return new BallotBatcher(this, channel.eventLoop(), maxBallots, maxDelayMillis);
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            channel.close();
+        }
+        if (group != null && ownsGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    public void start() throws Exception {
+        connect();
+        System.out.println("Подключено к серверу: " + host + ":" + port);
+        List<CompletableFuture<?>> outstanding = new ArrayList<>();
+        String currentUser = null;
+        try {
             Scanner scanner = new Scanner(System.in);
-            while (true) {
+            while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
                 if (line.equalsIgnoreCase("exit")) {
                     break;
                 }
+                outstanding.removeIf(CompletableFuture::isDone);
 
                 String[] parts = line.split(" ");
                 String command = parts[0];
@@ -53,14 +222,41 @@ public class VotingClient {
                         params.put("topic", part.split("=", 2)[1]);
                     } else if (part.contains("-t=")) {
                         params.put("topic", part.split("=", 2)[1]);
+                    } else if (part.contains("-v=")) {
+                        params.put("vote", part.split("=", 2)[1]);
+                    } else if (part.contains("-o=")) {
+                        params.put("option", part.split("=", 2)[1]);
+                    } else if (part.contains("-a=")) {
+                        params.put("node", part.split("=", 2)[1]);
+                    } else if (part.contains("-p=")) {
+                        params.put("prefix", part.split("=", 2)[1]);
+                    } else if (part.contains("-c=")) {
+                        params.put("after", part.split("=", 2)[1]);
+                    } else if (part.contains("-l=")) {
+                        params.put("limit", part.split("=", 2)[1]);
+                    } else if (part.startsWith("-s=")) {
+                        params.put("opens", part.split("=", 2)[1]);
+                    } else if (part.startsWith("-e=")) {
+                        params.put("closes", part.split("=", 2)[1]);
+                    } else if (part.startsWith("-f=")) {
+                        params.put("format", part.split("=", 2)[1]);
+                    } else if (part.startsWith("-r=")) {
+                        params.put("scope", part.split("=", 2)[1]);
+                    } else if (part.startsWith("-k=")) {
+                        params.put("type", part.split("=", 2)[1]);
+                    } else if (part.startsWith("-w=")) {
+                        params.put("secret", part.split("=", 2)[1]);
                     }
                 }
 
-                switch (command) {
-                    case "login" -> channel.writeAndFlush(new Message("login", params, null));
+                CompletableFuture<?> reply = switch (command) {
+                    case "login" -> {
+                        currentUser = params.get("username");
+                        yield request("login", params, null);
+                    }
                     case "create" -> {
                         if (line.contains("create topic")) {
-                            channel.writeAndFlush(new Message("create_topic", params, null));
+                            yield request("create_topic", params, null);
                         } else if (line.contains("create vote")) {
                             System.out.print("Введите имя голосования: ");
                             String voteName = scanner.nextLine();
@@ -75,29 +271,78 @@ public class VotingClient {
                             }
                             params.put("vote_name", voteName);
                             params.put("description", description);
-                            channel.writeAndFlush(new Message("create_vote", params, options));
+                            yield request("create_vote", params, options);
+                        }
+                        yield null;
+                    }
+                    case "view" -> request("view", params, null);
+                    case "vote" -> request("vote", params, null);
+                    case "view_vote" -> request("view_vote", params, null);
+                    case "delete" -> request("delete", params, null);
+                    case "stats" -> request("stats", params, null);
+                    case "trending" -> request("trending", params, null);
+                    case "add_shard" -> request("add_shard", params, null);
+                    case "subscribe", "unsubscribe" -> {
+                        if (!params.containsKey("topic") || !params.containsKey("vote")) {
+                            yield request(command, params, null);
                         }
+                        yield command.equals("subscribe")
+                                ? subscribe(params.get("topic"), params.get("vote"),
+                                        tally -> System.out.println("Обновление: " + tally))
+                                : unsubscribe(params.get("topic"), params.get("vote"));
                     }
-                    case "view" -> channel.writeAndFlush(new Message("view", params, null));
                     case "save" -> {
                         System.out.print("Введите имя файла для сохранения: ");
-                        String filename = scanner.nextLine();
-                        params.put("filename", filename);
-                        channel.writeAndFlush(new Message("save", params, null));
+                        params.put("filename", scanner.nextLine());
+                        yield request("save", params, null);
                     }
                     case "load" -> {
                         System.out.print("Введите имя файла для загрузки: ");
-                        String filename = scanner.nextLine();
-                        params.put("filename", filename);
-                        channel.writeAndFlush(new Message("load", params, null));
+                        params.put("filename", scanner.nextLine());
+                        yield request("load", params, null);
                     }
-                    default -> System.out.println("Неизвестная команда");
+                    case "import" -> {
+                        System.out.print("Введите имя файла для импорта: ");
+                        params.put("filename", scanner.nextLine());
+                        yield request("import", params, null);
+                    }
+                    case "export" -> {
+                        System.out.print("Введите имя файла для экспорта: ");
+                        params.put("filename", scanner.nextLine());
+                        yield request("export", params, null);
+                    }
+                    case "vote_batch" -> {
+                        if (currentUser == null) {
+                            System.out.println("Ошибка: необходимо выполнить login");
+                            yield null;
+                        }
+                        // the server counts a batch from a user session for that user alone, so the console
+                        // takes one ballot per poll of the topic
+                        System.out.println("Введите голоса в формате \"голосование вариант\", пустая строка завершает ввод");
+                        List<CompletableFuture<MutationResult>> ballots = new ArrayList<>();
+                        try (BallotBatcher batcher = batcher(1000, 50)) {
+                            for (String ballot = scanner.nextLine(); !ballot.isBlank(); ballot = scanner.nextLine()) {
+                                String[] fields = ballot.trim().split(" ", 2);
+                                ballots.add(batcher.add(currentUser, params.get("topic"), fields[0],
+                                        fields.length > 1 ? fields[1] : null));
+                            }
+                        }
+                        yield CompletableFuture.allOf(ballots.toArray(CompletableFuture[]::new))
+                                .thenApply(v -> ballots.stream().map(CompletableFuture::join).toList());
+                    }
+                    default -> {
+                        System.out.println("Неизвестная команда");
+                        yield null;
+                    }
+                };
+                if (reply != null) {
+                    outstanding.add(reply.whenComplete((result, error) -> System.out.println("Ответ от сервера: "
+                            + (error != null ? "Ошибка: " + error.getMessage() : result))));
                 }
             }
-
-            channel.closeFuture().sync();
+            CompletableFuture.allOf(outstanding.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
         } finally {
-            group.shutdownGracefully();
+            close();
         }
     }
 }
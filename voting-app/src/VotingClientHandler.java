@@ -1,9 +1,173 @@
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class VotingClientHandler extends SimpleChannelInboundHandler<Object> {
+    private static final Logger logger = LoggerUtil.getLogger(VotingClientHandler.class.getName());
+
+    private final int maxInFlight;
+    private final long requestTimeoutMillis;
+
+    private final Map<Integer, PendingRequest> inFlight = new HashMap<>();
+    private final ArrayDeque<PendingRequest> waiting = new ArrayDeque<>();
+    private volatile ChannelHandlerContext ctx;
+    private volatile Consumer<TallyUpdate> updateListener;
+    private int nextRequestId;
+
+    public VotingClientHandler(int maxInFlight, long requestTimeoutMillis) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Лимит запросов в полёте должен быть положительным");
+        }
+        this.maxInFlight = maxInFlight;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    private static final class PendingRequest {
+        final Message message;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+        int requestId;
+        StringBuilder chunks;
+
+        PendingRequest(Message message) {
+            this.message = message;
+        }
+    }
+
+    public CompletableFuture<Object> send(Message message) {
+        ChannelHandlerContext context = ctx;
+        if (context == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Клиент не подключен к серверу"));
+        }
+        PendingRequest request = new PendingRequest(message);
+        context.executor().execute(() -> submit(request));
+        return request.future;
+    }
+
+    public void setUpdateListener(Consumer<TallyUpdate> updateListener) {
+        this.updateListener = updateListener;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    private void submit(PendingRequest request) {
+        if (!ctx.channel().isActive()) {
+            request.future.completeExceptionally(new ClosedChannelException());
+            return;
+        }
+        if (requestTimeoutMillis > 0) {
+            request.timeout = ctx.executor().schedule(() -> expire(request),
+                    requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (inFlight.size() < maxInFlight) {
+            dispatch(request);
+        } else {
+            waiting.add(request);
+        }
+    }
+
+    private void dispatch(PendingRequest request) {
+        do {
+            request.requestId = ++nextRequestId;
+        } while (request.requestId == 0 || inFlight.containsKey(request.requestId));
+        inFlight.put(request.requestId, request);
+
+        Message message = request.message;
+        ctx.writeAndFlush(new Message(message.type, message.params, message.payload, request.requestId))
+                .addListener(f -> {
+                    if (!f.isSuccess() && inFlight.remove(request.requestId, request)) {
+                        fail(request, f.cause());
+                        drain();
+                    }
+                });
+    }
+
+    private void drain() {
+        while (inFlight.size() < maxInFlight && !waiting.isEmpty()) {
+            dispatch(waiting.poll());
+        }
+    }
+
+    private void expire(PendingRequest request) {
+        if (inFlight.remove(request.requestId, request) || waiting.remove(request)) {
+            request.future.completeExceptionally(new TimeoutException(
+                    "Истекло время ожидания ответа на запрос " + request.message.type));
+            drain();
+        }
+    }
+
+    private static void fail(PendingRequest request, Throwable cause) {
+        if (request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+        request.future.completeExceptionally(cause);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof TallyUpdate update) {
+            Consumer<TallyUpdate> listener = updateListener;
+            if (listener != null) {
+                listener.accept(update);
+            }
+            return;
+        }
+        int requestId = msg instanceof Reply reply ? reply.requestId
+                : msg instanceof BatchResult result ? result.requestId
+                : msg instanceof Message message ? message.requestId
+                : 0;
+        if (msg instanceof Reply reply && reply.isPartial() && requestId != 0) {
+            PendingRequest request = inFlight.get(requestId);
+            if (request != null) {
+                if (request.chunks == null) {
+                    request.chunks = new StringBuilder();
+                }
+                request.chunks.append(reply.text);
+            }
+            return;
+        }
+        PendingRequest request = requestId == 0 ? null : inFlight.remove(requestId);
+        if (request == null) {
+            if (requestId == 0) {
+                System.out.println("Ответ от сервера: " + msg);
+            } else {
+                logger.log(Level.FINE, "Ответ на просроченный запрос {0,number,#} отброшен", requestId);
+            }
+            return;
+        }
+        if (request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+        if (request.chunks != null && msg instanceof Reply last) {
+            msg = new Reply(last.status, request.chunks.append(last.text).toString(), requestId);
+        }
+        request.future.complete(msg);
+        drain();
+    }
+
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
-        System.out.println("Ответ от сервера: " + msg);
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ClosedChannelException closed = new ClosedChannelException();
+        for (PendingRequest request : inFlight.values()) {
+            fail(request, closed);
+        }
+        for (PendingRequest request : waiting) {
+            fail(request, closed);
+        }
+        inFlight.clear();
+        waiting.clear();
+        super.channelInactive(ctx);
     }
 }
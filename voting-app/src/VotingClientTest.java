@@ -0,0 +1,67 @@
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VotingClientTest {
+
+    @Test
+    void testRepliesAreMatchedByRequestId() {
+        VotingClientHandler handler = new VotingClientHandler(16, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        CompletableFuture<Object> first = handler.send(new Message("view", Map.of(), null));
+        CompletableFuture<Object> second = handler.send(new Message("view", Map.of("topic", "topic1"), null));
+        channel.runPendingTasks();
+        Message firstSent = channel.readOutbound();
+        Message secondSent = channel.readOutbound();
+        assertNotEquals(0, firstSent.requestId);
+        assertNotEquals(firstSent.requestId, secondSent.requestId);
+
+        channel.writeInbound(Reply.of("второй", secondSent.requestId));
+        assertFalse(first.isDone());
+        assertEquals("второй", ((Reply) second.join()).text);
+        channel.writeInbound(Reply.of("Ошибка: первый", firstSent.requestId));
+        assertTrue(((Reply) first.join()).isError());
+    }
+
+    @Test
+    void testInFlightLimitQueuesRequests() {
+        VotingClientHandler handler = new VotingClientHandler(1, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        handler.send(new Message("view", Map.of(), null));
+        CompletableFuture<Object> queued = handler.send(new Message("view", Map.of(), null));
+        channel.runPendingTasks();
+        Message sent = channel.readOutbound();
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(Reply.of("ok", sent.requestId));
+        Message next = channel.readOutbound();
+        assertNotNull(next);
+        channel.writeInbound(Reply.of("ok", next.requestId));
+        assertEquals("ok", ((Reply) queued.join()).text);
+    }
+
+    @Test
+    void testRequestTimesOut() {
+        VotingClientHandler handler = new VotingClientHandler(16, 100);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        CompletableFuture<Object> reply = handler.send(new Message("view", Map.of(), null));
+        channel.runPendingTasks();
+        Message sent = channel.readOutbound();
+        channel.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        channel.runPendingTasks();
+
+        CompletionException e = assertThrows(CompletionException.class, reply::join);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        channel.writeInbound(Reply.of("поздно", sent.requestId));
+    }
+}
@@ -1,41 +1,119 @@
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.serialization.ClassResolvers;
-import io.netty.handler.codec.serialization.ObjectDecoder;
-import io.netty.handler.codec.serialization.ObjectEncoder;
+import io.netty.handler.timeout.IdleStateHandler;
+
+import java.util.List;
 
 public class VotingServer {
-    private final int port;
-    public VotingServer(int port) { this.port = port; }
+    private final ServerConfig config;
+
+    public VotingServer(int port) {
+        this(port, WireFormat.AUTO, null);
+    }
+
+    public VotingServer(int port, WireFormat wireFormat, JournalConfig journalConfig) {
+        this(configFor(port, wireFormat, journalConfig));
+    }
+
+    public VotingServer(ServerConfig config) {
+        config.validate();
+        this.config = config;
+    }
+
+    private static ServerConfig configFor(int port, WireFormat wireFormat, JournalConfig journalConfig) {
+        ServerConfig config = new ServerConfig();
+        config.port = port;
+        config.wireFormat = wireFormat;
+        config.journal = journalConfig;
+        return config;
+    }
 
     public void start() throws Exception {
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        boolean epoll = config.useEpoll();
+        if (config.acceptors > 1 && !epoll) {
+            throw new IllegalStateException("Несколько акцепторов требуют SO_REUSEPORT и транспорта epoll");
+        }
+        VoteJournal journal = config.journal != null ? VoteJournal.open(config.journal) : null;
+        VotingState state = journal != null ? journal.state() : new VotingState();
+        if (state.pendingTallies() > 0) {
+            IoExecutor.execute(state::materializeAll);
+        }
+        ReplicationLog replicationLog = null;
+        if (config.replicationPort >= 0) {
+            replicationLog = new ReplicationLog(journal != null ? journal : MutationLog.NONE, config.replicationBacklogBytes);
+            state.attach(replicationLog);
+        }
+        ReplicaFollower replica = config.replicateFrom != null ? new ReplicaFollower(config.replicateFrom, state) : null;
+        EventLoopGroup bossGroup = ServerConfig.newEventLoopGroup(epoll, Math.max(config.bossThreads, config.acceptors));
+        EventLoopGroup workerGroup = ServerConfig.newEventLoopGroup(epoll, config.workerThreads);
+        ServerMetrics metrics = new ServerMetrics();
+        SubscriptionHub subscriptions = new SubscriptionHub(state);
+        ResultCache results = new ResultCache(config.resultCacheSize);
+        SessionRegistry sessions = new SessionRegistry(config.proxySecret, config.operatorSecret);
+        metrics.bind(workerGroup, state, subscriptions, results, sessions);
+        ReplicationSource replication = replicationLog != null ? new ReplicationSource(state, replicationLog) : null;
+        metrics.bindReplication(replication, replica);
+        AdmissionControl admission = new AdmissionControl(config);
+        metrics.bindAdmission(admission);
+        subscriptions.start(workerGroup.next(), config.subscriptionTickMillis);
+        metrics.trends.start(workerGroup.next());
+        WireFormat wireFormat = config.wireFormat;
 
         try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+            if (config.metricsPort >= 0) {
+                metrics.startScrapeEndpoint(config.metricsPort);
+            }
+            if (replication != null) {
+                replication.bind(config.newBootstrap(bossGroup, workerGroup, epoll), config.replicationPort);
+            }
+            if (replica != null) {
+                replica.start();
+            }
+            ServerBootstrap b = config.newBootstrap(bossGroup, workerGroup, epoll)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         public void initChannel(SocketChannel ch) throws Exception {
+                            metrics.connectionOpened(ch);
                             ChannelPipeline p = ch.pipeline();
-                            p.addLast(new ObjectDecoder(1024 * 1024,
-                                    ClassResolvers.weakCachingConcurrentResolver(null)));
-                            p.addLast(new ObjectEncoder());
-                            p.addLast(new VotingServerHandler());
+                            if (config.sessionIdleSeconds > 0) {
+                                p.addLast(new IdleStateHandler(0, 0, config.sessionIdleSeconds));
+                            }
+                            p.addLast(WritabilityGate.INSTANCE);
+                            if (wireFormat == WireFormat.SERIALIZED) {
+                                p.addLast(wireFormat.newCodec());
+                            } else {
+                                p.addLast("protocol", new ProtocolSelector(wireFormat));
+                            }
+                            if (admission.isEnabled()) {
+                                p.addLast(new AdmissionHandler(admission, metrics));
+                            }
+                            p.addLast(new VotingServerHandler(state, metrics, subscriptions, results, sessions, replica,
+                                    config.bulkDir));
                         }
                     });
 
-            ChannelFuture f = b.bind(port).sync();
-            System.out.println("Сервер запущен на порту: " + port);
-            f.channel().closeFuture().sync();
+            List<Channel> acceptors = config.bind(b);
+            System.out.println("Сервер запущен на порту: " + config.port + " (протокол: " + wireFormat
+                    + ", транспорт: " + (epoll ? "epoll" : "nio") + ", акцепторов: " + acceptors.size()
+                    + (replica != null ? ", реплика " + config.replicateFrom : "") + ")");
+            for (Channel acceptor : acceptors) {
+                acceptor.closeFuture().sync();
+            }
         } finally {
+            metrics.stop();
+            if (replica != null) {
+                replica.stop();
+            }
+            if (replication != null) {
+                replication.close();
+            }
+            subscriptions.stop();
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            if (journal != null) {
+                journal.close();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,94 @@
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import java.io.*;
+import io.netty.handler.timeout.IdleStateEvent;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class VotingServerHandler extends SimpleChannelInboundHandler<Object> {
-    private static final Map<ChannelHandlerContext, String> userSessions = new HashMap<>();
-    private static final Set<String> loggedInUsers = new HashSet<>();
-    private static final Map<String, List<String>> topics = new HashMap<>();
-    private static final Map<String, Map<String, Integer>> votesMap = new HashMap<>();
+    private static final VotingState sharedState = new VotingState();
     private static final Logger logger = LoggerUtil.getLogger(VotingServerHandler.class.getName());
+    private static final Set<String> WRITES = Set.of(
+            "create_topic", "create_vote", "vote", "vote_batch", "delete", "load", "import_vote", "drop_topic", "import");
+    private static final int CACHED_LISTING_ENTRIES = 1000;
+
+    private final VotingState state;
+    private final ServerMetrics metrics;
+    private final SubscriptionHub subscriptions;
+    private final ResultCache results;
+    private final SessionRegistry sessions;
+    private final ReplicaFollower replica;
+    private final Path bulkDir;
+    private final ArrayDeque<CatalogListing> listings = new ArrayDeque<>();
+
+    public VotingServerHandler() {
+        this(sharedState);
+    }
+
+    public VotingServerHandler(VotingState state) {
+        this(state, new ServerMetrics());
+    }
+
+    public VotingServerHandler(VotingState state, ServerMetrics metrics) {
+        this(state, metrics, new SubscriptionHub(state), new ResultCache(ResultCache.DEFAULT_CAPACITY),
+                new SessionRegistry());
+    }
+
+    public VotingServerHandler(VotingState state, ServerMetrics metrics, SubscriptionHub subscriptions,
+                               ResultCache results, SessionRegistry sessions) {
+        this(state, metrics, subscriptions, results, sessions, null);
+    }
+
+    /**
+     * With a {@code replica}, this server is a read replica: writes are refused and replies that may be stale
+     * say how far behind the primary they are.
+     */
+    public VotingServerHandler(VotingState state, ServerMetrics metrics, SubscriptionHub subscriptions,
+                               ResultCache results, SessionRegistry sessions, ReplicaFollower replica) {
+        this(state, metrics, subscriptions, results, sessions, replica, null);
+    }
+
+    /**
+     * Imports and exports are confined to {@code bulkDir}; without one they are refused.
+     */
+    public VotingServerHandler(VotingState state, ServerMetrics metrics, SubscriptionHub subscriptions,
+                               ResultCache results, SessionRegistry sessions, ReplicaFollower replica, Path bulkDir) {
+        this.state = state;
+        this.metrics = metrics;
+        this.subscriptions = subscriptions;
+        this.results = results;
+        this.sessions = sessions;
+        this.replica = replica;
+        this.bulkDir = bulkDir;
+    }
+
+    private static boolean loggedIn(ChannelHandlerContext ctx) {
+        return SessionRegistry.sessionOf(ctx.channel()) != null;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        sessions.remove(ctx.channel());
+        listings.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            logger.log(Level.FINE, "Соединение {0} закрыто по неактивности", ctx.channel().remoteAddress());
+            if (loggedIn(ctx)) {
+                sessions.expired(ctx.channel());
+            }
+            ctx.close();
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
@@ -18,86 +97,180 @@ public class VotingServerHandler extends SimpleChannelInboundHandler<Object> {
             return;
         }
 
+        ServerMetrics.CommandStats stats = metrics.command(message.type);
+        stats.requests.increment();
+        message.receivedNanos = System.nanoTime();
+        if (replica != null && WRITES.contains(message.type)) {
+            reply(ctx, message, "Ошибка: реплика доступна только для чтения, изменения выполняются на основном сервере"
+                    + " (источник репликации " + replica.primary() + ")");
+            stats.handling.record(System.nanoTime() - message.receivedNanos);
+            return;
+        }
         switch (message.type) {
             case "login" -> handleLogin(ctx, message);
             case "create_topic" -> handleCreateTopic(ctx, message);
             case "view" -> handleViewTopics(ctx, message);
             case "create_vote" -> handleCreateVote(ctx, message);
             case "vote" -> handleVote(ctx, message);
+            case "vote_batch" -> handleVoteBatch(ctx, message);
             case "view_vote" -> handleViewVote(ctx, message);
             case "delete" -> handleDeleteVote(ctx, message);
             case "save" -> handleSave(ctx, message);
             case "load" -> handleLoad(ctx, message);
-            default -> ctx.writeAndFlush("Неизвестная команда: " + message.type);
+            case "subscribe" -> handleSubscribe(ctx, message);
+            case "unsubscribe" -> handleUnsubscribe(ctx, message);
+            case "stats" -> reply(ctx, message, metrics.render());
+            case "trending" -> handleTrending(ctx, message);
+            case "list_topics" -> handleListTopics(ctx, message);
+            case "export_topic" -> handleExportTopic(ctx, message);
+            case "export_vote" -> handleExportVote(ctx, message);
+            case "import_vote" -> handleImportVote(ctx, message);
+            case "drop_topic" -> handleDropTopic(ctx, message);
+            case "import" -> handleBulk(ctx, message, true);
+            case "export" -> handleBulk(ctx, message, false);
+            default -> {
+                stats.errors.increment();
+                reply(ctx, message, "Неизвестная команда: " + message.type);
+            }
         }
+        stats.handling.record(System.nanoTime() - message.receivedNanos);
     }
 
     private void handleLogin(ChannelHandlerContext ctx, Message message) {
         String username = message.params.get("username");
         if (username == null || username.isBlank()) {
-            ctx.writeAndFlush("Ошибка: имя пользователя не указано");
+            reply(ctx, message, "Ошибка: имя пользователя не указано");
+            return;
+        }
+        boolean proxy = Boolean.parseBoolean(message.params.get("proxy"));
+        if (proxy && !sessions.admitsProxy(message.params.get("secret"))) {
+            logger.log(Level.WARNING, "Отклонено подключение маршрутизатора с {0}: неверный секрет",
+                    ctx.channel().remoteAddress());
+            reply(ctx, message, "Ошибка: подключение маршрутизатора отклонено");
             return;
         }
-        userSessions.put(ctx, username);
-        loggedInUsers.add(username);
-        logger.info("Пользователь вошел: " + username);
-        ctx.writeAndFlush("Пользователь \"" + username + "\" вошел в систему");
+        String secret = message.params.get("secret");
+        boolean operator = !proxy && secret != null;
+        if (operator && !sessions.admitsOperator(secret)) {
+            logger.log(Level.WARNING, "Отклонен вход оператора {0} с {1}: неверный секрет",
+                    new Object[]{username, ctx.channel().remoteAddress()});
+            reply(ctx, message, "Ошибка: неверный секрет оператора");
+            return;
+        }
+        sessions.login(ctx.channel(), new Session(username, proxy, operator));
+        logger.log(Level.INFO, proxy ? "Подключен маршрутизатор: {0}" : "Пользователь вошел: {0}", username);
+        reply(ctx, message, "Пользователь \"" + username + "\" вошел в систему");
     }
 
     private void handleCreateTopic(ChannelHandlerContext ctx, Message message) {
-        if (!userSessions.containsKey(ctx)) {
-            ctx.writeAndFlush("Ошибка: необходимо выполнить login");
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
             return;
         }
         String topicName = message.params.get("topic");
         if (topicName == null || topicName.isBlank()) {
-            ctx.writeAndFlush("Ошибка: имя раздела не указано");
+            reply(ctx, message, "Ошибка: имя раздела не указано");
             return;
         }
-        synchronized (topics) {
-            if (topics.containsKey(topicName)) {
-                ctx.writeAndFlush("Ошибка: раздел с таким именем уже существует");
-            } else {
-                topics.put(topicName, new ArrayList<>());
-                logger.info("Создан новый раздел: " + topicName);
-                ctx.writeAndFlush("Раздел \"" + topicName + "\" успешно создан");
+        replyWhenDurable(ctx, message, state.createTopic(topicName), result -> {
+            if (result == MutationResult.TOPIC_EXISTS) {
+                return "Ошибка: раздел с таким именем уже существует";
             }
-        }
+            logger.log(Level.INFO, "Создан новый раздел: {0}", topicName);
+            return "Раздел \"" + topicName + "\" успешно создан";
+        });
     }
 
     private void handleViewTopics(ChannelHandlerContext ctx, Message message) {
-        if (!userSessions.containsKey(ctx)) {
-            ctx.writeAndFlush("Ошибка: необходимо выполнить login");
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
             return;
         }
 
         String topicFilter = message.params.get("topic");
+        String prefix = CatalogListing.param(message.params, "prefix");
+        String after = CatalogListing.param(message.params, "after");
+        int limit;
+        try {
+            limit = CatalogListing.limitOf(message.params);
+        } catch (IllegalArgumentException e) {
+            reply(ctx, message, e.getMessage());
+            return;
+        }
+        String key = "\0" + Objects.toString(prefix, "") + "\0" + Objects.toString(after, "") + "\0" + limit;
+        TopicCatalog catalog = state.catalog();
         if (topicFilter != null) {
-            List<String> votesInTopic = topics.get(topicFilter);
-            if (votesInTopic == null) {
-                ctx.writeAndFlush("Ошибка: раздел \"" + topicFilter + "\" не найден");
+            TopicCatalog.Topic topic = catalog.get(topicFilter);
+            if (topic == null) {
+                reply(ctx, message, "Ошибка: раздел \"" + topicFilter + "\" не найден");
+                return;
+            }
+            logger.log(Level.FINE, "Просмотр голосований в разделе: {0}", topicFilter);
+            long version = topic.version();
+            CatalogListing listing = new CatalogListing(message, "Голосования в разделе \"" + topicFilter + "\":\n",
+                    topic.polls(prefix, after).iterator(), vote -> "- " + vote + "\n", limit, topicFilter, prefix);
+            if (fitsInCache(limit, topic.pollCount())) {
+                reply(ctx, message, results.get("view\0" + topicFilter + key, topic, version, listing::renderAll));
             } else {
-                StringBuilder sb = new StringBuilder("Голосования в разделе \"" + topicFilter + "\":\n");
-                for (String vote : votesInTopic) {
-                    sb.append("- ").append(vote).append("\n");
-                }
-                logger.info("Просмотр голосований в разделе: " + topicFilter);
-                ctx.writeAndFlush(sb.toString());
+                stream(ctx, listing);
             }
         } else {
-            StringBuilder sb = new StringBuilder("Список разделов:\n");
-            for (var entry : topics.entrySet()) {
-                sb.append("- ").append(entry.getKey())
-                        .append(" (").append(entry.getValue().size()).append(" голосований)\n");
+            logger.fine("Просмотр всех разделов");
+            long version = state.catalogVersion();
+            CatalogListing listing = new CatalogListing(message, "Список разделов:\n",
+                    catalog.names(prefix, after).iterator(),
+                    name -> {
+                        TopicCatalog.Topic topic = catalog.get(name);
+                        return topic == null ? null : CatalogListing.topicLine(topic);
+                    }, limit, null, prefix);
+            if (fitsInCache(limit, catalog.size())) {
+                reply(ctx, message, results.get("view" + key, null, version, listing::renderAll));
+            } else {
+                stream(ctx, listing);
+            }
+        }
+    }
+
+    private static boolean fitsInCache(int limit, int entries) {
+        return (limit > 0 ? Math.min(limit, entries) : entries) <= CACHED_LISTING_ENTRIES;
+    }
+
+    /**
+     * Sends a listing chunk by chunk while the channel is writable and resumes when it drains; listings of
+     * one connection are sent one after another so their chunks never interleave.
+     */
+    private void stream(ChannelHandlerContext ctx, CatalogListing listing) {
+        listings.add(listing);
+        if (listings.size() == 1) {
+            pumpListings(ctx);
+        }
+    }
+
+    private void pumpListings(ChannelHandlerContext ctx) {
+        while (!listings.isEmpty() && ctx.channel().isWritable()) {
+            CatalogListing listing = listings.peek();
+            String chunk = listing.nextChunk(CatalogListing.CHUNK_CHARS);
+            if (listing.isDone()) {
+                listings.poll();
+                reply(ctx, listing.message, chunk);
+            } else {
+                ctx.writeAndFlush(listing.message.requestId == 0
+                        ? chunk : new Reply(Reply.STATUS_PARTIAL, chunk, listing.message.requestId));
             }
-            logger.info("Просмотр всех разделов");
-            ctx.writeAndFlush(sb.toString());
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            pumpListings(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     private void handleCreateVote(ChannelHandlerContext ctx, Message message) {
-        if (!userSessions.containsKey(ctx)) {
-            ctx.writeAndFlush("Ошибка: необходимо выполнить login");
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
             return;
         }
 
@@ -107,12 +280,12 @@ public class VotingServerHandler extends SimpleChannelInboundHandler<Object> {
         Object payload = message.payload;
 
         if (topic == null || voteName == null || description == null || payload == null) {
-            ctx.writeAndFlush("Ошибка: недостаточно параметров для создания голосования");
+            reply(ctx, message, "Ошибка: недостаточно параметров для создания голосования");
             return;
         }
 
         if (!(payload instanceof List<?> rawOptions)) {
-            ctx.writeAndFlush("Ошибка: ожидается список вариантов ответа");
+            reply(ctx, message, "Ошибка: ожидается список вариантов ответа");
             return;
         }
 
@@ -123,74 +296,143 @@ public class VotingServerHandler extends SimpleChannelInboundHandler<Object> {
             }
         }
 
-        synchronized (topics) {
-            if (!topics.containsKey(topic)) {
-                ctx.writeAndFlush("Ошибка: раздел \"" + topic + "\" не найден");
-                return;
-            }
+        PollType type;
+        try {
+            type = PollType.parse(message.params.get("type"));
+        } catch (IllegalArgumentException e) {
+            reply(ctx, message, e.getMessage());
+            return;
+        }
+        String typeError = type.check(options);
+        if (typeError != null) {
+            reply(ctx, message, typeError);
+            return;
+        }
 
-            if (votesMap.containsKey(voteName)) {
-                ctx.writeAndFlush("Ошибка: голосование с таким именем уже существует");
-                return;
-            }
+        long now = System.currentTimeMillis();
+        long opensAt;
+        long closesAt;
+        try {
+            String opens = CatalogListing.param(message.params, "opens");
+            String closes = CatalogListing.param(message.params, "closes");
+            opensAt = opens == null ? 0 : PollCloser.parseTime(opens, now);
+            closesAt = closes == null ? 0 : PollCloser.parseTime(closes, now);
+        } catch (IllegalArgumentException e) {
+            reply(ctx, message, e.getMessage());
+            return;
+        }
+        if (closesAt != 0 && (closesAt <= now || closesAt <= opensAt)) {
+            reply(ctx, message, "Ошибка: время закрытия должно быть позже текущего времени и времени открытия");
+            return;
+        }
 
-            topics.get(topic).add(voteName);
-            Map<String, Integer> voteData = new HashMap<>();
-            for (String option : options) {
-                voteData.put(option, 0);
+        replyWhenDurable(ctx, message, state.createVote(topic, voteName, options, type, opensAt, closesAt), result -> switch (result) {
+            case TOPIC_NOT_FOUND -> "Ошибка: раздел \"" + topic + "\" не найден";
+            case VOTE_EXISTS -> "Ошибка: голосование с таким именем уже существует";
+            default -> {
+                logger.log(Level.INFO, "Создано новое голосование \"{0}\" в разделе \"{1}\"", new Object[]{voteName, topic});
+                yield "Голосование \"" + voteName + "\" успешно создано в разделе \"" + topic + "\"";
             }
-            votesMap.put(voteName, voteData);
-            logger.info("Создано новое голосование \"" + voteName + "\" в разделе \"" + topic + "\"");
-            ctx.writeAndFlush("Голосование \"" + voteName + "\" успешно создано в разделе \"" + topic + "\"");
-        }
+        });
     }
 
     private void handleVote(ChannelHandlerContext ctx, Message message) {
-        if (!userSessions.containsKey(ctx)) {
-            ctx.writeAndFlush("Ошибка: необходимо выполнить login");
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
             return;
         }
 
         String topic = message.params.get("topic");
         String voteName = message.params.get("vote");
-        String username = userSessions.get(ctx);
+        Session session = SessionRegistry.sessionOf(ctx.channel());
+        String username = session.proxy && message.params.containsKey("username")
+                ? message.params.get("username") : session.username;
 
         if (topic == null || voteName == null) {
-            ctx.writeAndFlush("Ошибка: недостаточно параметров для голосования");
+            reply(ctx, message, "Ошибка: недостаточно параметров для голосования");
             return;
         }
 
-        synchronized (topics) {
-            if (!topics.containsKey(topic)) {
-                ctx.writeAndFlush("Ошибка: раздел \"" + topic + "\" не найден");
-                return;
+        String chosenOption = message.params.get("option");
+        CompletableFuture<MutationResult> voted =
+                state.voteAt(topic, voteName, username, chosenOption, System.currentTimeMillis());
+        replyWhenDurable(ctx, message, voted, result -> switch (result) {
+            case TOPIC_NOT_FOUND -> "Ошибка: раздел \"" + topic + "\" не найден";
+            case VOTE_NOT_FOUND -> "Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"";
+            case ALREADY_VOTED -> "Ошибка: вы уже проголосовали в этом голосовании";
+            case INVALID_OPTION -> invalidBallot(state.tally(topic, voteName));
+            case POLL_CLOSED -> "Ошибка: голосование \"" + voteName + "\" завершено, голоса больше не принимаются";
+            case POLL_NOT_OPEN -> "Ошибка: голосование \"" + voteName + "\" ещё не открыто";
+            default -> {
+                metrics.trends.record(topic, voteName);
+                yield "Ваш голос принят: " + chosenOption;
             }
+        });
+    }
 
-            if (!topics.get(topic).contains(voteName)) {
-                ctx.writeAndFlush("Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"");
-                return;
-            }
+    private static String invalidBallot(VoteTally tally) {
+        PollType type = tally == null ? PollType.PLURALITY : tally.type();
+        return switch (type.kind()) {
+            case PLURALITY -> "Ошибка: неверный вариант ответа";
+            case RANKED -> "Ошибка: неверный бюллетень, ожидаются различные варианты по убыванию предпочтения, например B>A>C";
+            case WEIGHTED -> "Ошибка: неверный бюллетень, ожидаются баллы по вариантам, например A=3,B=2, всего не больше "
+                    + type.points();
+        };
+    }
 
-            Map<String, Integer> votesForVote = votesMap.get(voteName);
-            if (votesForVote.containsKey(username)) {
-                ctx.writeAndFlush("Ошибка: вы уже проголосовали в этом голосовании");
-                return;
-            }
+    private void handleVoteBatch(ChannelHandlerContext ctx, Message message) {
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
+            return;
+        }
 
-            String chosenOption = message.params.get("option");
-            if (chosenOption == null || !votesForVote.containsKey(chosenOption)) {
-                ctx.writeAndFlush("Ошибка: неверный вариант ответа");
-                return;
+        if (!(message.payload instanceof BallotBatch received)) {
+            reply(ctx, message, "Ошибка: ожидается пакет бюллетеней");
+            return;
+        }
+        // only an authenticated gateway casts ballots for other users; anyone else votes as themselves
+        BallotBatch batch = proxied(ctx) ? received : received.asUser(SessionRegistry.sessionOf(ctx.channel()).username);
+
+        state.voteBatchAt(batch, System.currentTimeMillis()).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.log(Level.SEVERE, "Ошибка записи в журнал: {0}", error.getMessage());
+                reply(ctx, message, "Ошибка: изменение не удалось сохранить в журнал");
+            } else {
+                byte[] statuses = result.statuses();
+                for (int i = 0; i < statuses.length; i++) {
+                    if (statuses[i] == MutationResult.OK.ordinal()) {
+                        metrics.trends.record(batch.topic(i), batch.voteName(i));
+                    }
+                }
+                metrics.command(message.type).completion.record(System.nanoTime() - message.receivedNanos);
+                ctx.writeAndFlush(new BatchResult(statuses, message.requestId));
             }
+        });
+    }
 
-            votesForVote.put(chosenOption, votesForVote.get(chosenOption) + 1);
-            ctx.writeAndFlush("Ваш голос принят: " + chosenOption);
+    private void handleTrending(ChannelHandlerContext ctx, Message message) {
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
+            return;
+        }
+        String voteName = message.params.get("vote");
+        if (voteName != null) {
+            reply(ctx, message, TrendTracker.render(metrics.trends.pollRate(voteName)));
+            return;
         }
+        int top;
+        try {
+            top = CatalogListing.limitOf(message.params);
+        } catch (IllegalArgumentException e) {
+            reply(ctx, message, e.getMessage());
+            return;
+        }
+        reply(ctx, message, metrics.trends.render(top == 0 ? TrendTracker.DEFAULT_TOP : top));
     }
 
     private void handleViewVote(ChannelHandlerContext ctx, Message message) {
-        if (!userSessions.containsKey(ctx)) {
-            ctx.writeAndFlush("Ошибка: необходимо выполнить login");
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
             return;
         }
 
@@ -198,93 +440,293 @@ public class VotingServerHandler extends SimpleChannelInboundHandler<Object> {
         String voteName = message.params.get("vote");
 
         if (topic == null || voteName == null) {
-            ctx.writeAndFlush("Ошибка: недостаточно параметров для просмотра голосования");
+            reply(ctx, message, "Ошибка: недостаточно параметров для просмотра голосования");
             return;
         }
 
-        synchronized (topics) {
-            if (!topics.containsKey(topic) || !topics.get(topic).contains(voteName)) {
-                ctx.writeAndFlush("Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"");
-                return;
-            }
+        VoteTally tally = state.tally(topic, voteName);
+        if (tally == null) {
+            reply(ctx, message, "Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"");
+            return;
+        }
 
-            Map<String, Integer> votesForVote = votesMap.get(voteName);
-            if (votesForVote == null || votesForVote.isEmpty()) {
-                ctx.writeAndFlush("Нет голосов для голосования \"" + voteName + "\"");
-                return;
-            }
+        if (tally.optionCount() == 0) {
+            reply(ctx, message, "Нет голосов для голосования \"" + voteName + "\"");
+            return;
+        }
 
-            StringBuilder sb = new StringBuilder("Результаты голосования \"" + voteName + "\":\n");
-            for (var entry : votesForVote.entrySet()) {
-                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append(" голосов\n");
-            }
-            ctx.writeAndFlush(sb.toString());
+        if (tally.isClosed(System.currentTimeMillis())) {
+            reply(ctx, message, tally.finalResults(voteName));
+            return;
         }
+        reply(ctx, message, results.get("view_vote\0" + topic + "\0" + voteName, tally, tally.version(),
+                () -> tally.results(voteName)));
     }
 
-    private void handleDeleteVote(ChannelHandlerContext ctx, Message message) {
-        if (!userSessions.containsKey(ctx)) {
-            ctx.writeAndFlush("Ошибка: необходимо выполнить login");
+    private void handleSubscribe(ChannelHandlerContext ctx, Message message) {
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
             return;
         }
 
         String topic = message.params.get("topic");
         String voteName = message.params.get("vote");
+        if (topic == null || voteName == null) {
+            reply(ctx, message, "Ошибка: недостаточно параметров для подписки");
+            return;
+        }
+        if (state.tally(topic, voteName) == null) {
+            reply(ctx, message, "Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"");
+            return;
+        }
 
+        subscriptions.subscribe(ctx.channel(), topic, voteName);
+        reply(ctx, message, "Подписка на голосование \"" + voteName + "\" оформлена");
+    }
+
+    private void handleUnsubscribe(ChannelHandlerContext ctx, Message message) {
+        String topic = message.params.get("topic");
+        String voteName = message.params.get("vote");
         if (topic == null || voteName == null) {
-            ctx.writeAndFlush("Ошибка: недостаточно параметров для удаления голосования");
+            reply(ctx, message, "Ошибка: недостаточно параметров для отмены подписки");
+            return;
+        }
+        if (!subscriptions.unsubscribe(ctx.channel(), topic, voteName)) {
+            reply(ctx, message, "Ошибка: подписка на голосование \"" + voteName + "\" не найдена");
             return;
         }
+        reply(ctx, message, "Подписка на голосование \"" + voteName + "\" отменена");
+    }
 
-        synchronized (topics) {
-            if (!topics.containsKey(topic) || !topics.get(topic).contains(voteName)) {
-                ctx.writeAndFlush("Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"");
-                return;
+    private static boolean proxied(ChannelHandlerContext ctx) {
+        Session session = SessionRegistry.sessionOf(ctx.channel());
+        return session != null && session.proxy;
+    }
+
+    private void handleListTopics(ChannelHandlerContext ctx, Message message) {
+        if (!proxied(ctx)) {
+            reply(ctx, message, "Ошибка: команда доступна только маршрутизатору");
+            return;
+        }
+        replyWithPayload(ctx, message, List.copyOf(state.catalog().names()));
+    }
+
+    private void handleExportTopic(ChannelHandlerContext ctx, Message message) {
+        if (!proxied(ctx)) {
+            reply(ctx, message, "Ошибка: команда доступна только маршрутизатору");
+            return;
+        }
+        String topic = message.params.get("topic");
+        List<String> votesInTopic = topic == null ? null : state.votesInTopic(topic);
+        if (votesInTopic == null) {
+            reply(ctx, message, "Ошибка: раздел \"" + topic + "\" не найден");
+            return;
+        }
+        replyWithPayload(ctx, message, List.copyOf(votesInTopic));
+    }
+
+    private void handleExportVote(ChannelHandlerContext ctx, Message message) {
+        if (!proxied(ctx)) {
+            reply(ctx, message, "Ошибка: команда доступна только маршрутизатору");
+            return;
+        }
+        String topic = message.params.get("topic");
+        String voteName = message.params.get("vote");
+        PollExport poll = topic == null || voteName == null ? null : state.exportVote(topic, voteName);
+        if (poll == null) {
+            reply(ctx, message, "Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\"");
+            return;
+        }
+        replyWithPayload(ctx, message, poll);
+    }
+
+    private void handleImportVote(ChannelHandlerContext ctx, Message message) {
+        if (!proxied(ctx)) {
+            reply(ctx, message, "Ошибка: команда доступна только маршрутизатору");
+            return;
+        }
+        if (!(message.payload instanceof PollExport poll)) {
+            reply(ctx, message, "Ошибка: ожидается выгрузка голосования");
+            return;
+        }
+        replyWhenDurable(ctx, message, state.importVote(poll), result -> switch (result) {
+            case TOPIC_NOT_FOUND -> "Ошибка: раздел \"" + poll.topic() + "\" не найден";
+            case VOTE_EXISTS -> "Ошибка: голосование с таким именем уже существует";
+            default -> "Голосование \"" + poll.voteName() + "\" перенесено в раздел \"" + poll.topic() + "\"";
+        });
+    }
+
+    private void handleDropTopic(ChannelHandlerContext ctx, Message message) {
+        if (!proxied(ctx)) {
+            reply(ctx, message, "Ошибка: команда доступна только маршрутизатору");
+            return;
+        }
+        String topic = message.params.get("topic");
+        if (topic == null) {
+            reply(ctx, message, "Ошибка: имя раздела не указано");
+            return;
+        }
+        replyWhenDurable(ctx, message, state.dropTopic(topic), result -> {
+            if (result == MutationResult.TOPIC_NOT_FOUND) {
+                return "Ошибка: раздел \"" + topic + "\" не найден";
             }
+            logger.log(Level.INFO, "Раздел \"{0}\" передан другому узлу", topic);
+            return "Раздел \"" + topic + "\" удален с узла";
+        });
+    }
 
-            topics.get(topic).remove(voteName);
-            votesMap.remove(voteName);
-            ctx.writeAndFlush("Голосование \"" + voteName + "\" успешно удалено из раздела \"" + topic + "\"");
+    private void handleDeleteVote(ChannelHandlerContext ctx, Message message) {
+        if (!loggedIn(ctx)) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
+            return;
+        }
+
+        String topic = message.params.get("topic");
+        String voteName = message.params.get("vote");
+
+        if (topic == null || voteName == null) {
+            reply(ctx, message, "Ошибка: недостаточно параметров для удаления голосования");
+            return;
+        }
+
+        replyWhenDurable(ctx, message, state.deleteVote(topic, voteName), result -> result == MutationResult.VOTE_NOT_FOUND
+                ? "Ошибка: голосование \"" + voteName + "\" не найдено в разделе \"" + topic + "\""
+                : "Голосование \"" + voteName + "\" успешно удалено из раздела \"" + topic + "\"");
+    }
+
+    private void reply(ChannelHandlerContext ctx, Message message, ResultCache.Entry cached) {
+        if (replica != null && replica.isBehind()) {
+            reply(ctx, message, replica.lagNote() + cached.text);
+            return;
+        }
+        metrics.command(message.type).completion.record(System.nanoTime() - message.receivedNanos);
+        ctx.writeAndFlush(message.requestId == 0 ? cached.text : new CachedReply(cached, message.requestId));
+    }
+
+    private void reply(ChannelHandlerContext ctx, Message message, String text) {
+        ServerMetrics.CommandStats stats = metrics.command(message.type);
+        stats.completion.record(System.nanoTime() - message.receivedNanos);
+        if (text.startsWith("Ошибка")) {
+            stats.errors.increment();
         }
+        ctx.writeAndFlush(message.requestId == 0 ? text : Reply.of(text, message.requestId));
+    }
+
+    private void replyWithPayload(ChannelHandlerContext ctx, Message message, Object payload) {
+        metrics.command(message.type).completion.record(System.nanoTime() - message.receivedNanos);
+        ctx.writeAndFlush(new Message(message.type, Map.of(), payload, message.requestId));
+    }
+
+    private void replyWhenDurable(ChannelHandlerContext ctx, Message message, CompletableFuture<MutationResult> future,
+                                  Function<MutationResult, String> render) {
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.log(Level.SEVERE, "Ошибка записи в журнал: {0}", error.getMessage());
+                reply(ctx, message, "Ошибка: изменение не удалось сохранить в журнал");
+            } else {
+                reply(ctx, message, render.apply(result));
+            }
+        });
     }
 
     private void handleSave(ChannelHandlerContext ctx, Message message) {
         String filename = message.params.get("filename");
         if (filename == null || filename.isBlank()) {
-            ctx.writeAndFlush("Ошибка: имя файла не указано");
+            reply(ctx, message, "Ошибка: имя файла не указано");
             return;
         }
 
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename))) {
-            out.writeObject(topics);
-            out.writeObject(votesMap);
-            ctx.writeAndFlush("Данные успешно сохранены в файл: " + filename);
-            logger.info("Данные сохранены в файл: " + filename);
-        } catch (IOException e) {
-            ctx.writeAndFlush("Ошибка при сохранении данных: " + e.getMessage());
-            logger.severe("Ошибка при сохранении данных: " + e.getMessage());
-        }
+        IoExecutor.submit(() -> {
+            state.writeTo(Path.of(filename));
+            return null;
+        }).whenComplete((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                reply(ctx, message, "Ошибка при сохранении данных: " + cause.getMessage());
+                logger.log(Level.SEVERE, "Ошибка при сохранении данных: {0}", cause.getMessage());
+            } else {
+                reply(ctx, message, "Данные успешно сохранены в файл: " + filename);
+                logger.log(Level.INFO, "Данные сохранены в файл: {0}", filename);
+            }
+        });
     }
 
     private void handleLoad(ChannelHandlerContext ctx, Message message) {
         String filename = message.params.get("filename");
         if (filename == null || filename.isBlank()) {
-            ctx.writeAndFlush("Ошибка: имя файла не указано");
+            reply(ctx, message, "Ошибка: имя файла не указано");
             return;
         }
 
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename))) {
-            Map<String, List<String>> loadedTopics = (Map<String, List<String>>) in.readObject();
-            Map<String, Map<String, Integer>> loadedVotes = (Map<String, Map<String, Integer>>) in.readObject();
-            topics.clear();
-            votesMap.clear();
-            topics.putAll(loadedTopics);
-            votesMap.putAll(loadedVotes);
-            ctx.writeAndFlush("Данные успешно загружены из файла: " + filename);
-            logger.info("Данные загружены из файла: " + filename);
-        } catch (IOException | ClassNotFoundException e) {
-            ctx.writeAndFlush("Ошибка при загрузке данных: " + e.getMessage());
-            logger.severe("Ошибка при загрузке данных: " + e.getMessage());
+        Path source = Path.of(filename);
+        IoExecutor.submit(() -> VotingState.readFrom(source)).whenComplete((loaded, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                reply(ctx, message, "Ошибка при загрузке данных: " + cause.getMessage());
+                logger.log(Level.SEVERE, "Ошибка при загрузке данных: {0}", cause.getMessage());
+                return;
+            }
+            replyWhenDurable(ctx, message, state.replaceWith(loaded, source), result -> {
+                logger.log(Level.INFO, "Данные загружены из файла: {0} (отложено голосований: {1,number,#})",
+                        new Object[]{filename, state.pendingTallies()});
+                IoExecutor.execute(state::materializeAll);
+                return "Данные успешно загружены из файла: " + filename;
+            });
+        });
+    }
+
+    /**
+     * Streams records in or out on the bulk transfer thread; the reply comes when the whole file is done.
+     * Only operators run imports and exports, and only on files in the configured directory. A shard router
+     * checks its users the same way before it passes either on.
+     */
+    private void handleBulk(ChannelHandlerContext ctx, Message message, boolean isImport) {
+        Session session = SessionRegistry.sessionOf(ctx.channel());
+        if (session == null) {
+            reply(ctx, message, "Ошибка: необходимо выполнить login");
+            return;
         }
+        if (!session.operator && !session.proxy) {
+            reply(ctx, message, "Ошибка: импорт и экспорт доступны только оператору");
+            return;
+        }
+        if (bulkDir == null) {
+            reply(ctx, message, "Ошибка: каталог импорта и экспорта не задан (--bulk-dir)");
+            return;
+        }
+        String filename = message.params.get("filename");
+        if (filename == null || filename.isBlank()) {
+            reply(ctx, message, "Ошибка: имя файла не указано");
+            return;
+        }
+        String scope = message.params.get("scope");
+        if (scope != null && !scope.equals("results") && !scope.equals("voters")) {
+            reply(ctx, message, "Ошибка: неизвестный состав выгрузки \"" + scope + "\", ожидается results или voters");
+            return;
+        }
+        Path file = bulkDir.resolve(filename).normalize();
+        if (!file.startsWith(bulkDir) || file.equals(bulkDir)) {
+            reply(ctx, message, "Ошибка: файл должен находиться в каталоге импорта и экспорта");
+            return;
+        }
+        BulkFormat format;
+        try {
+            format = BulkFormat.of(message.params.get("format"), file);
+        } catch (IllegalArgumentException e) {
+            reply(ctx, message, e.getMessage());
+            return;
+        }
+
+        String action = isImport ? "импорте" : "экспорте";
+        (isImport ? BulkTransfer.importFrom(state, file, format)
+                : BulkTransfer.exportTo(state, file, format, "voters".equals(scope))).whenComplete((summary, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                reply(ctx, message, "Ошибка при " + action + " " + filename + ": " + cause.getMessage());
+                logger.log(Level.SEVERE, "Ошибка при {0} {1}: {2}", new Object[]{action, filename, cause.getMessage()});
+            } else {
+                reply(ctx, message, summary);
+            }
+        });
     }
 }
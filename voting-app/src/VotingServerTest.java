@@ -1,7 +1,11 @@
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -131,4 +135,326 @@ public class VotingServerHandlerTest {
         Object response = channel.readOutbound();
         assertEquals("Ошибка: голосование \"vote1\" не найдено в разделе \"topic1\"", response);
     }
+
+    @Test
+    void testVoterRegistryTracksEachUser() {
+        loginAs("registry_user1");
+        channel.writeInbound(new Message("create_topic", Map.of("topic", "registry_topic"), null));
+        channel.readOutbound();
+        channel.writeInbound(new Message("create_vote",
+                Map.of("topic", "registry_topic", "vote_name", "registry_vote", "description", "desc"),
+                List.of("Option1", "Option2")));
+        channel.readOutbound();
+
+        Message vote = new Message("vote",
+                Map.of("topic", "registry_topic", "vote", "registry_vote", "option", "Option1"), null);
+        channel.writeInbound(vote);
+        assertEquals("Ваш голос принят: Option1", channel.readOutbound());
+        channel.writeInbound(vote);
+        assertEquals("Ошибка: вы уже проголосовали в этом голосовании", channel.readOutbound());
+
+        loginAs("registry_user2");
+        channel.writeInbound(vote);
+        assertEquals("Ваш голос принят: Option1", channel.readOutbound());
+
+        channel.writeInbound(new Message("view_vote",
+                Map.of("topic", "registry_topic", "vote", "registry_vote"), null));
+        String result = channel.readOutbound();
+        assertTrue(result.contains("Option1: 2 голосов"));
+        assertTrue(result.contains("Проголосовало: 2"));
+    }
+
+    @Test
+    void testVoteBatchReportsPerBallotStatus() {
+        VotingState state = new VotingState();
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state),
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), new SessionRegistry("gateway-secret")));
+        channel.writeInbound(new Message("login",
+                Map.of("username", "batch_gateway", "proxy", "true", "secret", "gateway-secret"), null));
+        channel.readOutbound();
+        channel.writeInbound(new Message("create_topic", Map.of("topic", "batch_topic"), null));
+        channel.readOutbound();
+        channel.writeInbound(new Message("create_vote",
+                Map.of("topic", "batch_topic", "vote_name", "batch_vote", "description", "desc"),
+                List.of("Option1", "Option2")));
+        channel.readOutbound();
+
+        BallotBatch batch = new BallotBatch()
+                .add("batch_user1", "batch_topic", "batch_vote", "Option1")
+                .add("batch_user2", "batch_topic", "batch_vote", "Option2")
+                .add("batch_user1", "batch_topic", "batch_vote", "Option2")
+                .add("batch_user3", "batch_topic", "batch_vote", "Option3")
+                .add("batch_user3", "batch_topic", "missing_vote", "Option1")
+                .add("batch_user3", "missing_topic", "batch_vote", "Option1");
+        channel.writeInbound(new Message("vote_batch", Map.of(), batch));
+
+        BatchResult result = channel.readOutbound();
+        assertEquals(6, result.size());
+        assertEquals(MutationResult.OK, result.status(0));
+        assertEquals(MutationResult.OK, result.status(1));
+        assertEquals(MutationResult.ALREADY_VOTED, result.status(2));
+        assertEquals(MutationResult.INVALID_OPTION, result.status(3));
+        assertEquals(MutationResult.VOTE_NOT_FOUND, result.status(4));
+        assertEquals(MutationResult.TOPIC_NOT_FOUND, result.status(5));
+        assertEquals(2, result.accepted());
+    }
+
+    @Test
+    void testVoteBatchFromUserSessionVotesOnlyAsThatUser() {
+        VotingState state = new VotingState();
+        state.createTopic("batch_topic").join();
+        state.createVote("batch_topic", "poll1", List.of("Option1", "Option2")).join();
+        state.createVote("batch_topic", "poll2", List.of("Option1", "Option2")).join();
+        channel = new EmbeddedChannel(new VotingServerHandler(state));
+        loginAs("mallory");
+
+        BallotBatch batch = new BallotBatch()
+                .add("alice", "batch_topic", "poll1", "Option1")
+                .add("bob", "batch_topic", "poll1", "Option1")
+                .add("carol", "batch_topic", "poll2", "Option2");
+        channel.writeInbound(new Message("vote_batch", Map.of(), batch));
+
+        BatchResult result = channel.readOutbound();
+        assertEquals(MutationResult.OK, result.status(0));
+        assertEquals(MutationResult.ALREADY_VOTED, result.status(1));
+        assertEquals(MutationResult.OK, result.status(2));
+        assertEquals(MutationResult.ALREADY_VOTED, state.vote("batch_topic", "poll1", "mallory", "Option2").join());
+        assertEquals(MutationResult.OK, state.vote("batch_topic", "poll1", "alice", "Option2").join());
+    }
+
+    @Test
+    void testStatsCountsRequestsAndErrorsPerCommand() {
+        ServerMetrics metrics = new ServerMetrics();
+        channel = new EmbeddedChannel(new VotingServerHandler(new VotingState(), metrics));
+        loginAs("stats_user");
+        channel.writeInbound(new Message("login", Map.of(), null));
+        channel.readOutbound();
+        channel.writeInbound(new Message("stats", Map.of(), null));
+
+        String response = channel.readOutbound();
+        assertTrue(response.startsWith("Статистика сервера:"));
+        assertEquals(2, metrics.command("login").requests.sum());
+        assertEquals(1, metrics.command("login").errors.sum());
+        assertEquals(2, metrics.command("login").handling.snapshot().count());
+        assertEquals(1, metrics.command("stats").requests.sum());
+        assertTrue(metrics.scrape().contains("voting_requests_total{command=\"login\"} 2"));
+    }
+
+    @Test
+    void testSubscriptionPushesCoalescedDeltas() {
+        VotingState state = new VotingState();
+        SubscriptionHub hub = new SubscriptionHub(state);
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), hub,
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), new SessionRegistry()));
+        loginAs("watcher");
+        state.createTopic("live_topic").join();
+        state.createVote("live_topic", "live_vote", List.of("A", "B", "C")).join();
+
+        channel.writeInbound(new Message("subscribe", Map.of("topic", "live_topic", "vote", "live_vote"), null));
+        assertEquals("Подписка на голосование \"live_vote\" оформлена", channel.readOutbound());
+
+        hub.tick();
+        TallyUpdate full = channel.readOutbound();
+        assertArrayEquals(new String[]{"A", "B", "C"}, full.options);
+        assertArrayEquals(new long[]{0, 0, 0}, full.counts);
+
+        state.vote("live_topic", "live_vote", "u1", "B").join();
+        state.vote("live_topic", "live_vote", "u2", "B").join();
+        hub.tick();
+        TallyUpdate delta = channel.readOutbound();
+        assertNull(delta.options);
+        assertArrayEquals(new int[]{1}, delta.indexes);
+        assertArrayEquals(new long[]{2}, delta.counts);
+
+        hub.tick();
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(new Message("unsubscribe", Map.of("topic", "live_topic", "vote", "live_vote"), null));
+        channel.readOutbound();
+        state.vote("live_topic", "live_vote", "u3", "A").join();
+        hub.tick();
+        assertNull(channel.readOutbound());
+        assertEquals(0, hub.feedCount());
+    }
+
+    @Test
+    void testViewVoteServedFromCacheUntilVersionChanges() {
+        VotingState state = new VotingState();
+        ResultCache cache = new ResultCache(ResultCache.DEFAULT_CAPACITY);
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state), cache,
+                new SessionRegistry()));
+        loginAs("reader");
+        state.createTopic("cached_topic").join();
+        state.createVote("cached_topic", "cached_vote", List.of("A", "B")).join();
+        Message view = new Message("view_vote", Map.of("topic", "cached_topic", "vote", "cached_vote"), null);
+
+        channel.writeInbound(view);
+        String first = channel.readOutbound();
+        channel.writeInbound(view);
+        assertSame(first, channel.readOutbound());
+        assertEquals(1, cache.hits.sum());
+
+        state.vote("cached_topic", "cached_vote", "u1", "A").join();
+        channel.writeInbound(view);
+        String afterVote = channel.readOutbound();
+        assertTrue(afterVote.contains("A: 1 голосов"));
+        assertEquals(2, cache.misses.sum());
+
+        channel.writeInbound(new Message("view", Map.of(), null));
+        channel.readOutbound();
+        state.createTopic("another_topic").join();
+        channel.writeInbound(new Message("view", Map.of(), null));
+        assertTrue(((String) channel.readOutbound()).contains("another_topic"));
+    }
+
+    @Test
+    void testCacheEvictsEntriesNotHitSinceTheHandPassed() {
+        ResultCache cache = new ResultCache(2);
+        cache.get("a", null, 1, () -> "a");
+        cache.get("b", null, 1, () -> "b");
+        cache.get("a", null, 1, () -> "a");
+        cache.get("c", null, 1, () -> "c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions.sum());
+        cache.get("a", null, 1, () -> "a");
+        assertEquals(2, cache.hits.sum());
+        cache.get("b", null, 1, () -> "b");
+        assertEquals(4, cache.misses.sum());
+    }
+
+    @Test
+    void testSessionRemovedOnCloseAndIdle() {
+        SessionRegistry sessions = new SessionRegistry();
+        VotingState state = new VotingState();
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state),
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), sessions));
+        loginAs("kiosk");
+        assertEquals(1, sessions.size());
+        assertEquals("kiosk", SessionRegistry.sessionOf(channel).username);
+        loginAs("kiosk2");
+        assertEquals(1, sessions.size());
+        channel.close();
+        assertEquals(0, sessions.size());
+        assertEquals(0, sessions.footprintBytes());
+
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state),
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), sessions));
+        loginAs("idle");
+        channel.pipeline().fireUserEventTriggered(IdleStateEvent.ALL_IDLE_STATE_EVENT);
+        assertFalse(channel.isOpen());
+        assertEquals(0, sessions.size());
+        assertEquals(1, sessions.expired.sum());
+    }
+
+    @Test
+    void testProxyLoginNeedsTheSharedSecret() {
+        SessionRegistry sessions = new SessionRegistry("s3cret");
+        VotingState state = new VotingState();
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state),
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), sessions));
+        channel.writeInbound(new Message("login", Map.of("username", "router", "proxy", "true"), null));
+        assertEquals("Ошибка: подключение маршрутизатора отклонено", channel.readOutbound());
+        channel.writeInbound(new Message("login", Map.of("username", "router", "proxy", "true", "secret", "guess"), null));
+        assertEquals("Ошибка: подключение маршрутизатора отклонено", channel.readOutbound());
+        assertNull(SessionRegistry.sessionOf(channel));
+        assertEquals(2, sessions.proxyRejected.sum());
+
+        channel.writeInbound(new Message("login", Map.of("username", "router", "proxy", "true", "secret", "s3cret"), null));
+        assertEquals("Пользователь \"router\" вошел в систему", channel.readOutbound());
+        assertTrue(SessionRegistry.sessionOf(channel).proxy);
+
+        channel = new EmbeddedChannel(new VotingServerHandler(state));
+        channel.writeInbound(new Message("login", Map.of("username", "mallory", "proxy", "true", "secret", ""), null));
+        assertEquals("Ошибка: подключение маршрутизатора отклонено", channel.readOutbound());
+    }
+
+    @Test
+    void testBulkNeedsAnOperatorAndStaysInItsDirectory(@TempDir Path dir) throws Exception {
+        VotingState state = new VotingState();
+        state.createTopic("topic1").join();
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state),
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), new SessionRegistry(null, "op"), null, dir));
+        Message export = new Message("export", Map.of("filename", "results.ndjson"), null);
+        channel.writeInbound(export);
+        assertEquals("Ошибка: необходимо выполнить login", channel.readOutbound());
+        loginAs("user1");
+        channel.writeInbound(export);
+        assertEquals("Ошибка: импорт и экспорт доступны только оператору", channel.readOutbound());
+        channel.writeInbound(new Message("login", Map.of("username", "admin", "secret", "guess"), null));
+        assertEquals("Ошибка: неверный секрет оператора", channel.readOutbound());
+
+        channel.writeInbound(new Message("login", Map.of("username", "admin", "secret", "op"), null));
+        channel.readOutbound();
+        channel.writeInbound(new Message("import", Map.of("filename", "../../etc/passwd", "format", "csv"), null));
+        assertEquals("Ошибка: файл должен находиться в каталоге импорта и экспорта", channel.readOutbound());
+        channel.writeInbound(new Message("import", Map.of("filename", dir.getParent() + "/other.csv"), null));
+        assertEquals("Ошибка: файл должен находиться в каталоге импорта и экспорта", channel.readOutbound());
+
+        channel.writeInbound(export);
+        String reply = null;
+        for (int i = 0; i < 500 && reply == null; i++) {
+            Thread.sleep(10);
+            channel.runPendingTasks();
+            reply = channel.readOutbound();
+        }
+        assertNotNull(reply);
+        assertTrue(reply.startsWith("Экспорт в " + dir.resolve("results.ndjson")), reply);
+        assertTrue(Files.exists(dir.resolve("results.ndjson")));
+
+        // a server without an operator secret has no operators
+        channel = new EmbeddedChannel(new VotingServerHandler(state));
+        channel.writeInbound(new Message("login", Map.of("username", "admin", "secret", "op"), null));
+        assertEquals("Ошибка: неверный секрет оператора", channel.readOutbound());
+    }
+
+    @Test
+    void testViewPagesByCursorAndPrefix() {
+        VotingState state = new VotingState();
+        channel = new EmbeddedChannel(new VotingServerHandler(state));
+        loginAs("reader");
+        for (String topic : List.of("sport-ski", "news", "sport-run", "sport-box", "music")) {
+            state.createTopic(topic).join();
+        }
+        state.createVote("sport-run", "marathon", List.of("A", "B")).join();
+
+        channel.writeInbound(new Message("view", Map.of("prefix", "sport-", "limit", "2"), null));
+        assertEquals("Список разделов:\n- sport-box (0 голосований)\n- sport-run (1 голосований)\n"
+                + "Продолжение: view -p=sport- -l=2 -c=sport-run\n", channel.readOutbound());
+
+        channel.writeInbound(new Message("view", Map.of("prefix", "sport-", "after", "sport-run", "limit", "2"), null));
+        assertEquals("Список разделов:\n- sport-ski (0 голосований)\n", channel.readOutbound());
+
+        channel.writeInbound(new Message("view", Map.of("limit", "0"), null));
+        assertEquals("Ошибка: размер страницы должен быть положительным числом", channel.readOutbound());
+
+        state.deleteVote("sport-run", "marathon").join();
+        assertNull(state.tally("sport-run", "marathon"));
+        assertEquals(0, state.catalog().get("sport-run").pollCount());
+    }
+
+    @Test
+    void testLargeListingIsStreamedInChunks() {
+        VotingState state = new VotingState();
+        channel = new EmbeddedChannel(new VotingServerHandler(state));
+        loginAs("reader");
+        for (int i = 0; i < 5_000; i++) {
+            state.createTopic(String.format("topic-%05d", i)).join();
+        }
+
+        channel.writeInbound(new Message("view", Map.of(), null, 7));
+        StringBuilder listing = new StringBuilder();
+        int chunks = 0;
+        Reply reply;
+        do {
+            reply = channel.readOutbound();
+            assertEquals(7, reply.requestId);
+            assertTrue(reply.text.length() <= CatalogListing.CHUNK_CHARS + 64);
+            listing.append(reply.text);
+            chunks++;
+        } while (reply.isPartial());
+        assertTrue(chunks > 1, "частей: " + chunks);
+        assertEquals(5_001, listing.toString().split("\n").length);
+        assertTrue(listing.toString().endsWith("- topic-04999 (0 голосований)\n"));
+    }
 }
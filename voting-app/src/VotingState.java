@@ -0,0 +1,505 @@
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+public class VotingState {
+    /** Passed as the arrival time of a vote that is applied whatever the poll's schedule. */
+    static final long ANY_TIME = Long.MIN_VALUE;
+
+    /**
+     * Topic, poll and option names share one symbol table; user names have their own, so user ids stay dense
+     * for the voter bitmaps.
+     */
+    private record Data(SymbolTable symbols, TopicCatalog topics, TallyEngine tallies, SymbolTable users) {
+        Data() {
+            this(new SymbolTable());
+        }
+
+        Data(SymbolTable symbols) {
+            this(symbols, new TopicCatalog(), new TallyEngine(symbols), new SymbolTable());
+        }
+    }
+
+    /**
+     * Taken exclusively to create, remove or replace topics and polls, and shared by votes from the check of
+     * their poll until their record is appended, so the log never has a vote after the removal of the poll it
+     * was counted in.
+     */
+    private final StampedLock catalogLock = new StampedLock();
+    private final LatencyRecorder catalogLockWait = new LatencyRecorder();
+    private volatile Data data;
+    private volatile long catalogVersion;
+    private volatile MutationLog log = MutationLog.NONE;
+    private final PollCloser closer = new PollCloser(this);
+    /**
+     * Set once the state is the one being served. Snapshots being read and states rebuilt from the journal
+     * are not, and schedule no closes until they are attached.
+     */
+    private volatile boolean live;
+
+    public VotingState() {
+        this(new Data(), true);
+    }
+
+    private VotingState(Data data, boolean live) {
+        this.data = data;
+        this.live = live;
+    }
+
+    /**
+     * An empty state that schedules no closes until it is attached, for rebuilding one from the journal.
+     */
+    static VotingState detached() {
+        return new VotingState(new Data(), false);
+    }
+
+    /**
+     * Logs every later change to {@code log} and makes this the state being served, scheduling the closes
+     * of the polls it already has.
+     */
+    public void attach(MutationLog log) {
+        long stamp = lockCatalog();
+        try {
+            this.log = log;
+            if (!live) {
+                live = true;
+                scheduleCloses(data);
+            }
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    public TopicCatalog catalog() {
+        return data.topics;
+    }
+
+    /**
+     * Bumped after every change to the set of topics and polls; read it before rendering a listing so a
+     * concurrent change always leaves the listing with an older version than the state it missed.
+     */
+    public long catalogVersion() {
+        return catalogVersion;
+    }
+
+    /**
+     * Runs the action while no topic or poll is being created, removed or replaced and no vote is between
+     * being counted and being logged, so a log position read here matches a snapshot taken afterwards.
+     */
+    public <T> T atCatalogBoundary(Supplier<T> action) {
+        long stamp = lockCatalog();
+        try {
+            return action.get();
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    private long lockCatalog() {
+        long waitStarted = System.nanoTime();
+        long stamp = catalogLock.writeLock();
+        catalogLockWait.record(System.nanoTime() - waitStarted);
+        return stamp;
+    }
+
+    public List<String> votesInTopic(String topic) {
+        TopicCatalog.Topic entry = data.topics.get(topic);
+        return entry == null ? null : List.copyOf(entry.polls());
+    }
+
+    public VoteTally tally(String topic, String voteName) {
+        Data d = data;
+        return d.topics.contains(topic, voteName) ? d.tallies.get(voteName) : null;
+    }
+
+    public String userName(int userId) {
+        return data.users.name(userId);
+    }
+
+    public CompletableFuture<MutationResult> createTopic(String topic) {
+        long stamp = lockCatalog();
+        try {
+            Data d = data;
+            if (d.topics.contains(topic)) {
+                return MutationResult.TOPIC_EXISTS.done();
+            }
+            CompletableFuture<Void> durable = log.append(JournalRecord.createTopic(topic));
+            d.topics.create(d.symbols.name(d.symbols.intern(topic)));
+            catalogVersion++;
+            return whenDurable(durable);
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    public CompletableFuture<MutationResult> createVote(String topic, String voteName, List<String> options) {
+        return createVote(topic, voteName, options, 0, 0);
+    }
+
+    public CompletableFuture<MutationResult> createVote(String topic, String voteName, List<String> options,
+                                                        long opensAt, long closesAt) {
+        return createVote(topic, voteName, options, PollType.PLURALITY, opensAt, closesAt);
+    }
+
+    /**
+     * Creates a poll of the given type that takes votes from {@code opensAt} until {@code closesAt}, epoch
+     * milliseconds where 0 leaves that end open.
+     */
+    public CompletableFuture<MutationResult> createVote(String topic, String voteName, List<String> options,
+                                                        PollType type, long opensAt, long closesAt) {
+        long stamp = lockCatalog();
+        try {
+            Data d = data;
+            TopicCatalog.Topic entry = d.topics.get(topic);
+            if (entry == null) {
+                return MutationResult.TOPIC_NOT_FOUND.done();
+            }
+            if (d.tallies.contains(voteName)) {
+                return MutationResult.VOTE_EXISTS.done();
+            }
+            if (type.check(options) != null) {
+                return MutationResult.INVALID_OPTION.done();
+            }
+            CompletableFuture<Void> durable = log.append(
+                    JournalRecord.createVote(topic, voteName, options, type, opensAt, closesAt));
+            d.tallies.create(voteName, options, type, opensAt, closesAt);
+            d.topics.addPoll(entry, voteName);
+            scheduleClose(voteName, closesAt);
+            catalogVersion++;
+            return whenDurable(durable);
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    public CompletableFuture<MutationResult> vote(String topic, String voteName, String username, String option) {
+        return voteAt(topic, voteName, username, option, ANY_TIME);
+    }
+
+    /**
+     * A vote arriving at {@code nowMillis}, refused if the poll is not open then. Replayed and replicated
+     * votes go through {@link #vote} instead: they were accepted in time when they were first cast.
+     */
+    public CompletableFuture<MutationResult> voteAt(String topic, String voteName, String username, String option,
+                                                    long nowMillis) {
+        Data d;
+        VoteTally tally;
+        CompletableFuture<Void> durable;
+        long stamp = catalogLock.readLock();
+        try {
+            d = data;
+            if (!d.topics.contains(topic)) {
+                return MutationResult.TOPIC_NOT_FOUND.done();
+            }
+            tally = d.topics.contains(topic, voteName) ? d.tallies.get(voteName) : null;
+            MutationResult result = cast(d, tally, username, option, nowMillis);
+            if (result != MutationResult.OK) {
+                return result.done();
+            }
+            durable = log.append(JournalRecord.vote(topic, voteName, username, option));
+        } finally {
+            catalogLock.unlockRead(stamp);
+        }
+        return whenDurable(durable, () -> tally.withdraw(d.users.intern(username), option));
+    }
+
+    public CompletableFuture<BatchResult> voteBatch(BallotBatch batch) {
+        return voteBatchAt(batch, ANY_TIME);
+    }
+
+    public CompletableFuture<BatchResult> voteBatchAt(BallotBatch batch, long nowMillis) {
+        Data d;
+        byte[] statuses = new byte[batch.size()];
+        BallotBatch accepted = new BallotBatch(batch.size());
+        VoteTally[] counted = new VoteTally[batch.size()];
+        CompletableFuture<Void> durable;
+        long stamp = catalogLock.readLock();
+        try {
+            d = data;
+            String topic = null;
+            String voteName = null;
+            boolean topicExists = false;
+            VoteTally tally = null;
+            for (int i = 0; i < batch.size(); i++) {
+                if (!batch.topic(i).equals(topic) || !batch.voteName(i).equals(voteName)) {
+                    topic = batch.topic(i);
+                    voteName = batch.voteName(i);
+                    topicExists = d.topics.contains(topic);
+                    tally = d.topics.contains(topic, voteName) ? d.tallies.get(voteName) : null;
+                }
+                MutationResult result = !topicExists
+                        ? MutationResult.TOPIC_NOT_FOUND
+                        : cast(d, tally, batch.username(i), batch.option(i), nowMillis);
+                statuses[i] = (byte) result.ordinal();
+                if (result == MutationResult.OK) {
+                    counted[accepted.size()] = tally;
+                    accepted.add(batch.username(i), topic, voteName, batch.option(i));
+                }
+            }
+            if (accepted.isEmpty()) {
+                return CompletableFuture.completedFuture(new BatchResult(statuses));
+            }
+            durable = log.append(JournalRecord.voteBatch(accepted));
+        } finally {
+            catalogLock.unlockRead(stamp);
+        }
+        BatchResult result = new BatchResult(statuses);
+        return whenDurable(durable, () -> {
+            for (int i = 0; i < accepted.size(); i++) {
+                counted[i].withdraw(d.users.intern(accepted.username(i)), accepted.option(i));
+            }
+        }).thenApply(ok -> result);
+    }
+
+    private static MutationResult cast(Data d, VoteTally tally, String username, String option, long nowMillis) {
+        if (tally == null) {
+            return MutationResult.VOTE_NOT_FOUND;
+        }
+        if (nowMillis != ANY_TIME) {
+            if (tally.isClosed(nowMillis)) {
+                return MutationResult.POLL_CLOSED;
+            }
+            if (!tally.hasOpened(nowMillis)) {
+                return MutationResult.POLL_NOT_OPEN;
+            }
+        }
+        return tally.cast(d.users.intern(username), option);
+    }
+
+    public CompletableFuture<MutationResult> deleteVote(String topic, String voteName) {
+        long stamp = lockCatalog();
+        try {
+            Data d = data;
+            TopicCatalog.Topic entry = d.topics.get(topic);
+            if (entry == null || !d.topics.contains(topic, voteName)) {
+                return MutationResult.VOTE_NOT_FOUND.done();
+            }
+            CompletableFuture<Void> durable = log.append(JournalRecord.delete(topic, voteName));
+            d.topics.removePoll(entry, voteName);
+            d.tallies.remove(voteName);
+            catalogVersion++;
+            return whenDurable(durable);
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies a poll for moving it to another server; null if the poll does not exist. The caller has to keep
+     * votes away from the poll while it is exported, as the shard router does by holding the topic's requests.
+     */
+    public PollExport exportVote(String topic, String voteName) {
+        Data d = data;
+        VoteTally tally = tally(topic, voteName);
+        if (tally == null) {
+            return null;
+        }
+        List<String> voters = new ArrayList<>();
+        tally.voters().forEach(userId -> voters.add(d.users.name(userId)));
+        InstantRunoff runoff = tally.runoff();
+        return new PollExport(topic, voteName, tally.options(), tally.snapshot(), voters, tally.opensAt(),
+                tally.closesAt(), tally.type(), runoff == null ? new long[0] : runoff.toPairs());
+    }
+
+    public CompletableFuture<MutationResult> importVote(PollExport poll) {
+        long stamp = lockCatalog();
+        try {
+            Data d = data;
+            TopicCatalog.Topic entry = d.topics.get(poll.topic());
+            if (entry == null) {
+                return MutationResult.TOPIC_NOT_FOUND.done();
+            }
+            if (d.tallies.contains(poll.voteName())) {
+                return MutationResult.VOTE_EXISTS.done();
+            }
+            CompletableFuture<Void> durable = log.append(JournalRecord.importVote(poll));
+            VoterRegistry voters = new VoterRegistry();
+            for (String voter : poll.voters()) {
+                voters.add(d.users.intern(voter));
+            }
+            VoteTally tally = d.tallies.newTally(poll.options(), poll.type(), voters);
+            for (int i = 0; i < poll.counts().length; i++) {
+                tally.add(i, poll.counts()[i]);
+            }
+            tally.restoreRankings(poll.rankings());
+            tally.schedule(poll.opensAt(), poll.closesAt());
+            d.tallies.put(poll.voteName(), tally);
+            d.topics.addPoll(entry, poll.voteName());
+            scheduleClose(poll.voteName(), poll.closesAt());
+            catalogVersion++;
+            return whenDurable(durable);
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    public CompletableFuture<MutationResult> dropTopic(String topic) {
+        long stamp = lockCatalog();
+        try {
+            Data d = data;
+            if (!d.topics.contains(topic)) {
+                return MutationResult.TOPIC_NOT_FOUND.done();
+            }
+            CompletableFuture<Void> durable = log.append(JournalRecord.dropTopic(topic));
+            for (String voteName : d.topics.remove(topic).polls()) {
+                d.tallies.remove(voteName);
+            }
+            catalogVersion++;
+            return whenDurable(durable);
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    private static CompletableFuture<MutationResult> whenDurable(CompletableFuture<Void> durable) {
+        return durable == null ? MutationResult.OK.done() : durable.thenApply(v -> MutationResult.OK);
+    }
+
+    /**
+     * Like {@link #whenDurable(CompletableFuture)} for votes, which are counted before they are logged: if the
+     * log cannot take them they are withdrawn before the caller hears of the failure, so what the server
+     * counts stays what it would replay. The withdrawal shares the catalog lock, so it cannot reach into the
+     * slots of a poll removed in the meantime.
+     */
+    private CompletableFuture<MutationResult> whenDurable(CompletableFuture<Void> durable, Runnable withdraw) {
+        if (durable == null) {
+            return MutationResult.OK.done();
+        }
+        return durable.handle((v, error) -> {
+            if (error != null) {
+                long stamp = catalogLock.readLock();
+                try {
+                    withdraw.run();
+                } finally {
+                    catalogLock.unlockRead(stamp);
+                }
+                throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+            }
+            return MutationResult.OK;
+        });
+    }
+
+    public CompletableFuture<MutationResult> replaceWith(VotingState loaded, Path source) {
+        long stamp = lockCatalog();
+        try {
+            CompletableFuture<Void> durable = log.rebase(source);
+            data = loaded.data;
+            catalogVersion++;
+            if (live) {
+                scheduleCloses(loaded.data);
+            }
+            return whenDurable(durable);
+        } finally {
+            catalogLock.unlockWrite(stamp);
+        }
+    }
+
+    private void scheduleCloses(Data d) {
+        d.tallies.closeTimes().forEach(this::scheduleClose);
+    }
+
+    private void scheduleClose(String voteName, long closesAt) {
+        if (live && closesAt > System.currentTimeMillis()) {
+            closer.schedule(voteName, closesAt);
+        }
+    }
+
+    /**
+     * Renders the final results of a poll that has just closed, if it is loaded and still closes at
+     * {@code closesAt}. A poll left in the snapshot is frozen when it is first read instead.
+     */
+    boolean freeze(String voteName, long closesAt) {
+        VoteTally tally = data.tallies.peek(voteName);
+        if (tally == null || tally.closesAt() != closesAt) {
+            return false;
+        }
+        tally.finalResults(voteName);
+        return true;
+    }
+
+    public PollCloser closer() {
+        return closer;
+    }
+
+    public LatencyHistogram catalogLockWait() {
+        return catalogLockWait.snapshot();
+    }
+
+    /**
+     * One line on how compactly the catalog is stored: loaded polls, interned names, slab size and the
+     * estimated bytes per poll.
+     */
+    public String storageSummary() {
+        Data d = data;
+        return "Хранилище: голосований " + d.tallies.size() + ", символов " + d.symbols.size()
+                + ", пользователей " + d.users.size() + ", слабы " + d.tallies.slab().footprintBytes()
+                + " байт, ~" + bytesPerPoll() + " байт на голосование";
+    }
+
+    public long bytesPerPoll() {
+        Data d = data;
+        int polls = d.tallies.size();
+        return polls == 0 ? 0 : d.tallies.bytesPerPoll() + d.symbols.footprintBytes() / polls;
+    }
+
+    public int pendingTallies() {
+        return data.tallies.pendingCount();
+    }
+
+    public int materializeAll() {
+        return data.tallies.materializeAll();
+    }
+
+    public void writeTo(Path file) throws IOException {
+        Data d = data;
+        SnapshotFile.write(file, d.users.names(), d.topics.toMap(), d.tallies);
+    }
+
+    public static VotingState readFrom(Path file) throws IOException {
+        if (!SnapshotFile.isSnapshot(file)) {
+            return readLegacy(file.toFile());
+        }
+        SnapshotFile.Reader reader = SnapshotFile.open(file);
+        SymbolTable symbols = new SymbolTable();
+        Data d = new Data(symbols, new TopicCatalog(), new TallyEngine(symbols, reader), new SymbolTable());
+        d.users.replaceWith(reader.users());
+        reader.topics().forEach((topic, votes) -> d.topics.addPolls(topic, votes));
+        if (reader.pendingCount() == 0) {
+            d.tallies.materializeAll();
+        }
+        return new VotingState(d, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static VotingState readLegacy(File file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Map<String, List<String>> loadedTopics = (Map<String, List<String>>) in.readObject();
+            Map<String, Map<String, Integer>> loadedVotes = (Map<String, Map<String, Integer>>) in.readObject();
+            List<String> loadedUsers = List.of();
+            Map<String, long[]> loadedVoters = Map.of();
+            try {
+                loadedUsers = (List<String>) in.readObject();
+                loadedVoters = (Map<String, long[]>) in.readObject();
+            } catch (EOFException e) {
+                // файлы старого формата не содержат реестра участников
+            }
+            Data d = new Data();
+            d.users.replaceWith(loadedUsers);
+            loadedTopics.forEach((topic, votes) -> d.topics.addPolls(topic, votes));
+            for (var entry : loadedVotes.entrySet()) {
+                long[] voterWords = loadedVoters.get(entry.getKey());
+                VoteTally tally = d.tallies.newTally(List.copyOf(entry.getValue().keySet()),
+                        voterWords == null ? new VoterRegistry() : VoterRegistry.fromWords(voterWords));
+                entry.getValue().forEach((option, count) -> tally.add(tally.indexOf(option), count));
+                d.tallies.put(entry.getKey(), tally);
+            }
+            return new VotingState(d, false);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Неизвестный формат файла: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.serialization.ClassResolvers;
+import io.netty.handler.codec.serialization.ObjectDecoder;
+import io.netty.handler.codec.serialization.ObjectEncoder;
+
+public enum WireFormat {
+    AUTO,
+    BINARY,
+    SERIALIZED;
+
+    public static WireFormat parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Неизвестный формат протокола: " + value);
+        }
+    }
+
+    public ChannelHandler[] newCodec() {
+        return switch (this) {
+            case BINARY -> new ChannelHandler[]{new BinaryMessageDecoder(), new BinaryMessageEncoder()};
+            case SERIALIZED -> new ChannelHandler[]{
+                    new ObjectDecoder(1024 * 1024, ClassResolvers.weakCachingConcurrentResolver(null)),
+                    new ObjectEncoder()};
+            case AUTO -> throw new IllegalStateException("Формат AUTO определяется при подключении");
+        };
+    }
+}
@@ -0,0 +1,544 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+public final class WireProtocol {
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    public static final byte[] HANDSHAKE = {'V', 'B', 1};
+
+    public static final byte OP_LOGIN = 1;
+    public static final byte OP_CREATE_TOPIC = 2;
+    public static final byte OP_VIEW = 3;
+    public static final byte OP_CREATE_VOTE = 4;
+    public static final byte OP_VOTE = 5;
+    public static final byte OP_VIEW_VOTE = 6;
+    public static final byte OP_DELETE = 7;
+    public static final byte OP_SAVE = 8;
+    public static final byte OP_LOAD = 9;
+    public static final byte OP_VOTE_BATCH = 10;
+    public static final byte OP_STATS = 11;
+    public static final byte OP_SUBSCRIBE = 12;
+    public static final byte OP_UNSUBSCRIBE = 13;
+    public static final byte OP_LIST_TOPICS = 14;
+    public static final byte OP_EXPORT_TOPIC = 15;
+    public static final byte OP_EXPORT_VOTE = 16;
+    public static final byte OP_IMPORT_VOTE = 17;
+    public static final byte OP_DROP_TOPIC = 18;
+    public static final byte OP_TRENDING = 19;
+    public static final byte OP_IMPORT = 20;
+    public static final byte OP_EXPORT = 21;
+    public static final byte OP_TALLY_UPDATE = 0x7C;
+    public static final byte OP_BATCH_REPLY = 0x7D;
+    public static final byte OP_CUSTOM = 0x7E;
+    public static final byte OP_REPLY = 0x7F;
+
+    /**
+     * Set on the opcode byte when a varint request id follows it; frames without the flag are
+     * exactly what protocol version 1 peers send and expect.
+     */
+    public static final int FLAG_CORRELATED = 0x80;
+
+    public static final byte PAYLOAD_NONE = 0;
+    public static final byte PAYLOAD_STRING = 1;
+    public static final byte PAYLOAD_STRING_LIST = 2;
+    public static final byte PAYLOAD_BALLOTS = 3;
+    public static final byte PAYLOAD_POLL = 4;
+
+    private static final int BALLOT_NEW_TOPIC = 1;
+    private static final int BALLOT_NEW_VOTE = 2;
+
+    private static final String[] COMMANDS = {
+            null, "login", "create_topic", "view", "create_vote", "vote", "view_vote", "delete", "save", "load", "vote_batch", "stats",
+            "subscribe", "unsubscribe", "list_topics", "export_topic", "export_vote", "import_vote", "drop_topic",
+            "trending", "import", "export"
+    };
+
+    private static final String[] PARAM_KEYS = {
+            null, "username", "topic", "vote", "vote_name", "description", "option", "filename", "prefix", "after",
+            "limit", "opens", "closes", "format", "scope", "type"
+    };
+
+    private WireProtocol() {
+    }
+
+    public static ByteBuf handshake() {
+        return Unpooled.wrappedBuffer(HANDSHAKE);
+    }
+
+    public static byte opcodeOf(String type) {
+        for (int i = 1; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equals(type)) {
+                return (byte) i;
+            }
+        }
+        return OP_CUSTOM;
+    }
+
+    public static String commandOf(byte opcode) {
+        if (opcode <= 0 || opcode >= COMMANDS.length) {
+            throw new CorruptedFrameException("Неизвестный код команды: " + opcode);
+        }
+        return COMMANDS[opcode];
+    }
+
+    public static int paramKeyId(String key) {
+        for (int i = 1; i < PARAM_KEYS.length; i++) {
+            if (PARAM_KEYS[i].equals(key)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    public static String paramKey(int id) {
+        if (id <= 0 || id >= PARAM_KEYS.length) {
+            throw new CorruptedFrameException("Неизвестный код параметра: " + id);
+        }
+        return PARAM_KEYS[id];
+    }
+
+    public static int headerSize(int requestId) {
+        return requestId == 0 ? 1 : 1 + varintSize(requestId);
+    }
+
+    public static void writeHeader(ByteBuf buf, byte opcode, int requestId) {
+        if (requestId == 0) {
+            buf.writeByte(opcode);
+        } else {
+            buf.writeByte(opcode | FLAG_CORRELATED);
+            writeVarint(buf, requestId);
+        }
+    }
+
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeVarint(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    public static int readVarint(ByteBuf buf) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Некорректное varint-значение");
+    }
+
+    public static int varlongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeVarlong(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    public static long readVarlong(ByteBuf buf) {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Некорректное varint-значение");
+    }
+
+    /**
+     * Returns -1 when the buffer does not yet hold a complete varint; the reader index is left untouched.
+     */
+    public static int peekVarint(ByteBuf buf) {
+        int result = 0;
+        int index = buf.readerIndex();
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (index >= buf.writerIndex()) {
+                return -1;
+            }
+            byte b = buf.getByte(index++);
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Некорректное varint-значение");
+    }
+
+    public static int stringSize(String s) {
+        if (s == null) {
+            return 1;
+        }
+        int length = ByteBufUtil.utf8Bytes(s);
+        return varintSize(length + 1) + length;
+    }
+
+    public static void writeString(ByteBuf buf, String s) {
+        if (s == null) {
+            buf.writeByte(0);
+            return;
+        }
+        int length = ByteBufUtil.utf8Bytes(s);
+        writeVarint(buf, length + 1);
+        ByteBufUtil.reserveAndWriteUtf8(buf, s, length);
+    }
+
+    public static String readString(ByteBuf buf) {
+        int length = readVarint(buf) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buf.readableBytes()) {
+            throw new CorruptedFrameException("Длина строки выходит за пределы кадра");
+        }
+        String s = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return s;
+    }
+
+    public static int paramsSize(Map<String, String> params) {
+        if (params == null) {
+            return 1;
+        }
+        int size = varintSize(params.size());
+        for (var entry : params.entrySet()) {
+            int keyId = paramKeyId(entry.getKey());
+            size += 1 + (keyId == 0 ? stringSize(entry.getKey()) : 0) + stringSize(entry.getValue());
+        }
+        return size;
+    }
+
+    public static void writeParams(ByteBuf buf, Map<String, String> params) {
+        if (params == null) {
+            buf.writeByte(0);
+            return;
+        }
+        writeVarint(buf, params.size());
+        for (var entry : params.entrySet()) {
+            int keyId = paramKeyId(entry.getKey());
+            buf.writeByte(keyId);
+            if (keyId == 0) {
+                writeString(buf, entry.getKey());
+            }
+            writeString(buf, entry.getValue());
+        }
+    }
+
+    public static void readParams(ByteBuf buf, Map<String, String> params) {
+        int count = readVarint(buf);
+        for (int i = 0; i < count; i++) {
+            int keyId = buf.readUnsignedByte();
+            String key = keyId == 0 ? readString(buf) : paramKey(keyId);
+            params.put(key, readString(buf));
+        }
+    }
+
+    public static int payloadSize(Object payload) {
+        if (payload == null) {
+            return 1;
+        }
+        if (payload instanceof String s) {
+            return 1 + stringSize(s);
+        }
+        if (payload instanceof List<?> list) {
+            int size = 1 + varintSize(list.size());
+            for (Object o : list) {
+                size += stringSize(String.valueOf(o));
+            }
+            return size;
+        }
+        if (payload instanceof BallotBatch batch) {
+            return 1 + ballotsSize(batch);
+        }
+        if (payload instanceof PollExport poll) {
+            return 1 + pollSize(poll);
+        }
+        throw new IllegalArgumentException("Неподдерживаемый тип данных: " + payload.getClass().getName());
+    }
+
+    public static void writePayload(ByteBuf buf, Object payload) {
+        if (payload == null) {
+            buf.writeByte(PAYLOAD_NONE);
+        } else if (payload instanceof String s) {
+            buf.writeByte(PAYLOAD_STRING);
+            writeString(buf, s);
+        } else if (payload instanceof List<?> list) {
+            buf.writeByte(PAYLOAD_STRING_LIST);
+            writeVarint(buf, list.size());
+            for (Object o : list) {
+                writeString(buf, String.valueOf(o));
+            }
+        } else if (payload instanceof BallotBatch batch) {
+            buf.writeByte(PAYLOAD_BALLOTS);
+            writeBallots(buf, batch);
+        } else if (payload instanceof PollExport poll) {
+            buf.writeByte(PAYLOAD_POLL);
+            writePoll(buf, poll);
+        } else {
+            throw new IllegalArgumentException("Неподдерживаемый тип данных: " + payload.getClass().getName());
+        }
+    }
+
+    public static Object readPayload(ByteBuf buf) {
+        byte tag = buf.readByte();
+        switch (tag) {
+            case PAYLOAD_NONE -> {
+                return null;
+            }
+            case PAYLOAD_STRING -> {
+                return readString(buf);
+            }
+            case PAYLOAD_STRING_LIST -> {
+                int count = readVarint(buf);
+                if (count > buf.readableBytes()) {
+                    throw new CorruptedFrameException("Размер списка выходит за пределы кадра");
+                }
+                String[] items = new String[count];
+                for (int i = 0; i < count; i++) {
+                    items[i] = readString(buf);
+                    if (items[i] == null) {
+                        throw new CorruptedFrameException("Пустой элемент списка строк");
+                    }
+                }
+                return List.of(items);
+            }
+            case PAYLOAD_BALLOTS -> {
+                return readBallots(buf);
+            }
+            case PAYLOAD_POLL -> {
+                return readPoll(buf);
+            }
+            default -> throw new CorruptedFrameException("Неизвестный тип данных: " + tag);
+        }
+    }
+
+    /**
+     * Ballots are written with a flag byte each; topic and vote name are only repeated when they differ
+     * from the previous ballot, which keeps batches from a single poll close to one string per ballot.
+     */
+    public static int ballotsSize(BallotBatch batch) {
+        int size = varintSize(batch.size());
+        String topic = null;
+        String voteName = null;
+        for (int i = 0; i < batch.size(); i++) {
+            size += 1 + stringSize(batch.username(i)) + stringSize(batch.option(i));
+            if (i == 0 || !batch.topic(i).equals(topic)) {
+                topic = batch.topic(i);
+                size += stringSize(topic);
+            }
+            if (i == 0 || !batch.voteName(i).equals(voteName)) {
+                voteName = batch.voteName(i);
+                size += stringSize(voteName);
+            }
+        }
+        return size;
+    }
+
+    public static void writeBallots(ByteBuf buf, BallotBatch batch) {
+        writeVarint(buf, batch.size());
+        String topic = null;
+        String voteName = null;
+        for (int i = 0; i < batch.size(); i++) {
+            boolean newTopic = i == 0 || !batch.topic(i).equals(topic);
+            boolean newVote = i == 0 || !batch.voteName(i).equals(voteName);
+            buf.writeByte((newTopic ? BALLOT_NEW_TOPIC : 0) | (newVote ? BALLOT_NEW_VOTE : 0));
+            if (newTopic) {
+                topic = batch.topic(i);
+                writeString(buf, topic);
+            }
+            if (newVote) {
+                voteName = batch.voteName(i);
+                writeString(buf, voteName);
+            }
+            writeString(buf, batch.username(i));
+            writeString(buf, batch.option(i));
+        }
+    }
+
+    public static BallotBatch readBallots(ByteBuf buf) {
+        int count = readVarint(buf);
+        if (count > buf.readableBytes()) {
+            throw new CorruptedFrameException("Размер пакета выходит за пределы кадра");
+        }
+        BallotBatch batch = new BallotBatch(count);
+        String topic = null;
+        String voteName = null;
+        for (int i = 0; i < count; i++) {
+            int flags = buf.readUnsignedByte();
+            if ((flags & BALLOT_NEW_TOPIC) != 0) {
+                topic = readString(buf);
+            }
+            if ((flags & BALLOT_NEW_VOTE) != 0) {
+                voteName = readString(buf);
+            }
+            if (topic == null || voteName == null) {
+                throw new CorruptedFrameException("Бюллетень без раздела или голосования");
+            }
+            batch.add(readString(buf), topic, voteName, readString(buf));
+        }
+        return batch;
+    }
+
+    public static int pollSize(PollExport poll) {
+        int size = stringSize(poll.topic()) + stringSize(poll.voteName()) + varintSize(poll.options().size())
+                + varintSize(poll.voters().size());
+        for (int i = 0; i < poll.options().size(); i++) {
+            size += stringSize(poll.options().get(i)) + varlongSize(poll.counts()[i]);
+        }
+        for (String voter : poll.voters()) {
+            size += stringSize(voter);
+        }
+        size += varlongSize(poll.opensAt()) + varlongSize(poll.closesAt());
+        if (!poll.type().isPlurality()) {
+            size += stringSize(poll.type().label()) + varintSize(poll.rankings().length);
+            for (long value : poll.rankings()) {
+                size += varlongSize(value);
+            }
+        }
+        return size;
+    }
+
+    public static void writePoll(ByteBuf buf, PollExport poll) {
+        writeString(buf, poll.topic());
+        writeString(buf, poll.voteName());
+        writeVarint(buf, poll.options().size());
+        for (int i = 0; i < poll.options().size(); i++) {
+            writeString(buf, poll.options().get(i));
+            writeVarlong(buf, poll.counts()[i]);
+        }
+        writeVarint(buf, poll.voters().size());
+        for (String voter : poll.voters()) {
+            writeString(buf, voter);
+        }
+        writeVarlong(buf, poll.opensAt());
+        writeVarlong(buf, poll.closesAt());
+        if (!poll.type().isPlurality()) {
+            writeString(buf, poll.type().label());
+            writeVarint(buf, poll.rankings().length);
+            for (long value : poll.rankings()) {
+                writeVarlong(buf, value);
+            }
+        }
+    }
+
+    public static PollExport readPoll(ByteBuf buf) {
+        String topic = readString(buf);
+        String voteName = readString(buf);
+        int optionCount = readVarint(buf);
+        if (optionCount > buf.readableBytes()) {
+            throw new CorruptedFrameException("Число вариантов выходит за пределы кадра");
+        }
+        String[] options = new String[optionCount];
+        long[] counts = new long[optionCount];
+        for (int i = 0; i < optionCount; i++) {
+            options[i] = readString(buf);
+            counts[i] = readVarlong(buf);
+        }
+        int voterCount = readVarint(buf);
+        if (voterCount > buf.readableBytes()) {
+            throw new CorruptedFrameException("Число участников выходит за пределы кадра");
+        }
+        String[] voters = new String[voterCount];
+        for (int i = 0; i < voterCount; i++) {
+            voters[i] = readString(buf);
+        }
+        // the schedule ends the poll; polls written before there were schedules end with the voters
+        long opensAt = buf.isReadable() ? readVarlong(buf) : 0;
+        long closesAt = buf.isReadable() ? readVarlong(buf) : 0;
+        // ranked and weighted polls add their type, and ranked ones their rankings, after the schedule
+        if (!buf.isReadable()) {
+            return new PollExport(topic, voteName, List.of(options), counts, List.of(voters), opensAt, closesAt);
+        }
+        PollType type = PollType.parse(readString(buf));
+        int rankingValues = readVarint(buf);
+        if (rankingValues > buf.readableBytes()) {
+            throw new CorruptedFrameException("Число ранжирований выходит за пределы кадра");
+        }
+        long[] rankings = new long[rankingValues];
+        for (int i = 0; i < rankingValues; i++) {
+            rankings[i] = readVarlong(buf);
+        }
+        return new PollExport(topic, voteName, List.of(options), counts, List.of(voters), opensAt, closesAt, type,
+                rankings);
+    }
+
+    /**
+     * Option names travel only in full updates; deltas are (index, count) pairs against the last full one.
+     */
+    public static int tallyUpdateSize(TallyUpdate update) {
+        int size = stringSize(update.topic) + stringSize(update.voteName) + varintSize(update.sequence) + 1
+                + varintSize(update.indexes.length);
+        for (int i = 0; i < update.indexes.length; i++) {
+            size += varintSize(update.indexes[i]) + varlongSize(update.counts[i]);
+            if (update.options != null) {
+                size += stringSize(update.options[i]);
+            }
+        }
+        return size;
+    }
+
+    public static void writeTallyUpdate(ByteBuf buf, TallyUpdate update) {
+        writeString(buf, update.topic);
+        writeString(buf, update.voteName);
+        writeVarint(buf, update.sequence);
+        buf.writeByte(update.isFull() ? 1 : 0);
+        writeVarint(buf, update.indexes.length);
+        for (int i = 0; i < update.indexes.length; i++) {
+            writeVarint(buf, update.indexes[i]);
+            if (update.options != null) {
+                writeString(buf, update.options[i]);
+            }
+            writeVarlong(buf, update.counts[i]);
+        }
+    }
+
+    public static TallyUpdate readTallyUpdate(ByteBuf buf) {
+        String topic = readString(buf);
+        String voteName = readString(buf);
+        int sequence = readVarint(buf);
+        boolean full = buf.readByte() != 0;
+        int count = readVarint(buf);
+        if (count > buf.readableBytes()) {
+            throw new CorruptedFrameException("Размер обновления выходит за пределы кадра");
+        }
+        String[] options = full ? new String[count] : null;
+        int[] indexes = new int[count];
+        long[] counts = new long[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = readVarint(buf);
+            if (full) {
+                options[i] = readString(buf);
+            }
+            counts[i] = readVarlong(buf);
+        }
+        return new TallyUpdate(topic, voteName, sequence, options, indexes, counts);
+    }
+}
@@ -0,0 +1,21 @@
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Stops reading from a connection while its outbound buffer is above the high water mark, so a client
+ * that sends requests faster than it reads replies is throttled by TCP instead of growing server memory.
+ * A connection that {@link AdmissionHandler} has paused stays paused until the admission pause ends.
+ */
+@ChannelHandler.Sharable
+public class WritabilityGate extends ChannelInboundHandlerAdapter {
+    public static final WritabilityGate INSTANCE = new WritabilityGate();
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Channel channel = ctx.channel();
+        channel.config().setAutoRead(channel.isWritable() && !AdmissionHandler.isReadPaused(channel));
+        super.channelWritabilityChanged(ctx);
+    }
+}
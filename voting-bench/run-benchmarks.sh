@@ -0,0 +1,26 @@
+#!/bin/sh
+# Usage: LIB_DIR=<dir with netty and jmh jars> ./run-benchmarks.sh [results-dir] [extra JMH options]
+# No baseline is committed: record one on the reference machine with ./run-benchmarks.sh baseline, on at
+# least four cores so the -t 2 and -t 4 contention rows mean something, and compare later runs against it:
+#   java -Dfile.encoding=UTF-8 -cp out bench.CompareResults baseline results 10
+set -e
+cd "$(dirname "$0")"
+RESULTS=${1:-results}
+[ $# -gt 0 ] && shift
+CP=$(ls "${LIB_DIR:?LIB_DIR is not set}"/*.jar | tr '\n' ':')
+
+rm -rf out && mkdir -p out "$RESULTS"
+javac -encoding UTF-8 -d out -cp "$CP" $(ls ../voting-app/src/*.java | grep -v 'Test\.java$') \
+    src/*.java src/bench/*.java
+run() {
+    name=$1
+    shift
+    java -Dfile.encoding=UTF-8 -cp "out:$CP" org.openjdk.jmh.Main -prof gc -rf csv -rff "$RESULTS/$name.csv" "$@"
+}
+
+run handler-dispatch HandlerDispatchBenchmark "$@"
+run view-vote ViewVoteBenchmark "$@"
+run message-codec MessageCodecBenchmark "$@"
+for threads in 1 2 4; do
+    run "vote-contention-t$threads" VoteContentionBenchmark -t "$threads" "$@"
+done
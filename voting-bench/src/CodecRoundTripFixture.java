@@ -0,0 +1,54 @@
+import bench.Fixtures;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.List;
+import java.util.Map;
+
+public class CodecRoundTripFixture implements Fixtures.Codec {
+    private EmbeddedChannel encoder;
+    private EmbeddedChannel decoder;
+    private Object message;
+    private ByteBuf encoded;
+
+    @Override
+    public void setUp(String format, String kind) {
+        ChannelHandler[] codec = WireFormat.parse(format).newCodec();
+        decoder = new EmbeddedChannel(codec[0]);
+        encoder = new EmbeddedChannel(codec[1]);
+        message = switch (kind) {
+            case "vote" -> new Message("vote",
+                    Map.of("topic", "topic1", "vote", "vote1", "option", "Вариант 1"), null, 42);
+            case "create_vote" -> new Message("create_vote",
+                    Map.of("topic", "topic1", "vote_name", "vote1", "description", "описание голосования"),
+                    List.of("Вариант 1", "Вариант 2", "Вариант 3", "Вариант 4"), 42);
+            case "reply" -> Reply.of("Ваш голос принят: Вариант 1", 42);
+            default -> throw new IllegalArgumentException("Неизвестный тип сообщения: " + kind);
+        };
+        encoded = (ByteBuf) encode();
+    }
+
+    @Override
+    public Object encode() {
+        encoder.writeOutbound(message);
+        ByteBuf out = encoder.readOutbound();
+        if (encoded != null) {
+            out.release();
+        }
+        return out;
+    }
+
+    @Override
+    public Object decode() {
+        decoder.writeInbound(encoded.retainedDuplicate());
+        return decoder.readInbound();
+    }
+
+    @Override
+    public void tearDown() {
+        encoded.release();
+        encoder.finishAndReleaseAll();
+        decoder.finishAndReleaseAll();
+    }
+}
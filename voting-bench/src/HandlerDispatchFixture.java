@@ -0,0 +1,87 @@
+import bench.Fixtures;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class HandlerDispatchFixture implements Fixtures.Dispatch {
+    private static final String TOPIC = "bench_topic";
+    private static final String POLL = "bench_poll";
+    private static final String GATEWAY_SECRET = "bench";
+
+    private EmbeddedChannel channel;
+    private String command;
+    private List<String> options;
+    private Message fixed;
+    private long sequence;
+
+    @Override
+    public void setUp(String command, int optionCount) {
+        this.command = command;
+        VotingState state = new VotingState();
+        channel = new EmbeddedChannel(new VotingServerHandler(state, new ServerMetrics(), new SubscriptionHub(state),
+                new ResultCache(ResultCache.DEFAULT_CAPACITY), new SessionRegistry(GATEWAY_SECRET)));
+        options = new ArrayList<>();
+        for (int i = 0; i < optionCount; i++) {
+            options.add("Вариант " + i);
+        }
+        send(new Message("login", Map.of("username", "bench_admin"), null));
+        send(new Message("create_topic", Map.of("topic", TOPIC), null));
+        send(new Message("create_vote",
+                Map.of("topic", TOPIC, "vote_name", POLL, "description", "benchmark"), options));
+        for (int i = 0; i < 1000; i++) {
+            send(new Message("login", Map.of("username", "bench_voter" + i), null));
+            send(new Message("vote", Map.of("topic", TOPIC, "vote", POLL, "option", options.get(i % optionCount)), null));
+        }
+        send(new Message("login", Map.of("username", "bench_admin"), null));
+
+        fixed = switch (command) {
+            case "login" -> new Message("login", Map.of("username", "bench_admin"), null);
+            case "view" -> new Message("view", Map.of(), null);
+            case "view_topic" -> new Message("view", Map.of("topic", TOPIC), null);
+            case "view_vote" -> new Message("view_vote", Map.of("topic", TOPIC, "vote", POLL), null);
+            case "vote_duplicate" -> new Message("vote",
+                    Map.of("topic", TOPIC, "vote", POLL, "option", options.get(0)), null);
+            case "vote", "vote_batch", "create_vote" -> null;
+            default -> throw new IllegalArgumentException("Неизвестная команда: " + command);
+        };
+        if (fixed != null && fixed.type.equals("vote")) {
+            send(fixed);
+        }
+        if (command.equals("vote_batch")) {
+            // ballots of many users are taken only from a gateway session, as from a router
+            send(new Message("login", Map.of("username", "bench_gateway", "proxy", "true", "secret", GATEWAY_SECRET), null));
+        }
+    }
+
+    @Override
+    public Object dispatch() {
+        long n = sequence++;
+        return switch (command) {
+            case "vote" -> {
+                send(new Message("login", Map.of("username", "bench_user" + n), null));
+                yield send(new Message("vote",
+                        Map.of("topic", TOPIC, "vote", POLL, "option", options.get((int) (n % options.size()))), null));
+            }
+            case "vote_batch" -> {
+                BallotBatch batch = new BallotBatch(64);
+                for (int i = 0; i < 64; i++) {
+                    batch.add("bench_batch" + n + "_" + i, TOPIC, POLL, options.get(i % options.size()));
+                }
+                yield send(new Message("vote_batch", Map.of(), batch));
+            }
+            case "create_vote" -> send(new Message("create_vote",
+                    Map.of("topic", TOPIC, "vote_name", "bench_poll" + n, "description", "benchmark"), options));
+            default -> send(fixed);
+        };
+    }
+
+    private Object send(Message message) {
+        channel.writeInbound(message);
+        Object reply = channel.readOutbound();
+        ReferenceCountUtil.release(reply);
+        return reply;
+    }
+}
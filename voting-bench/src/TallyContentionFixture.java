@@ -0,0 +1,64 @@
+import bench.Fixtures;
+
+import java.util.List;
+
+/**
+ * Votes on one shared poll from a fixed pool of users. Every accepted ballot is withdrawn again right away,
+ * so a user can vote again on the next pass over the pool and the user table stays the same size however
+ * long the run; both halves go through the ballot stamps, as a real ballot and a failed log write would.
+ */
+public class TallyContentionFixture implements Fixtures.Tally {
+    private static final String TOPIC = "bench_topic";
+    private static final String POLL = "bench_poll";
+    private static final String WARMUP_POLL = "bench_users";
+    private static final List<String> OPTIONS = List.of("A", "B", "C", "D");
+    private static final int USERS_PER_THREAD = 4096;
+    private static final int USERS = 16 * USERS_PER_THREAD;
+
+    private VotingState state;
+    private VoteTally tally;
+    private String[] users;
+
+    @Override
+    public void setUp() {
+        state = new VotingState();
+        state.createTopic(TOPIC).join();
+        state.createVote(TOPIC, POLL, OPTIONS).join();
+        state.createVote(TOPIC, WARMUP_POLL, OPTIONS).join();
+        tally = state.tally(TOPIC, POLL);
+        users = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = "u" + i;
+            state.vote(TOPIC, WARMUP_POLL, users[i], OPTIONS.get(0)).join();
+        }
+        if (!users[USERS - 1].equals(state.userName(USERS - 1))) {
+            throw new IllegalStateException("Пользователи нагрузки получили неожиданные номера");
+        }
+    }
+
+    @Override
+    public Object castVote(int thread, long sequence) {
+        int user = user(thread, sequence);
+        String option = OPTIONS.get((int) (sequence & 3));
+        MutationResult result = state.vote(TOPIC, POLL, users[user], option).join();
+        if (result == MutationResult.OK) {
+            tally.withdraw(user, option);
+        }
+        return result;
+    }
+
+    @Override
+    public Object cast(int thread, long sequence) {
+        int user = user(thread, sequence);
+        String option = OPTIONS.get((int) (sequence & 3));
+        MutationResult result = tally.cast(user, option);
+        if (result == MutationResult.OK) {
+            tally.withdraw(user, option);
+        }
+        return result;
+    }
+
+    private static int user(int thread, long sequence) {
+        return (thread * USERS_PER_THREAD + (int) (sequence & (USERS_PER_THREAD - 1))) & (USERS - 1);
+    }
+}
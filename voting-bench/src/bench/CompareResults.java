@@ -0,0 +1,114 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Compares JMH CSV result files against a baseline directory. Scores and gc.alloc.rate.norm that move in
+ * the wrong direction by more than the threshold are reported, and the exit status is 1 if any did.
+ */
+public final class CompareResults {
+    private CompareResults() {
+    }
+
+    private record Row(String mode, double score, double error, String unit) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Использование: CompareResults <baseline-dir> <results-dir> [порог-%]");
+            System.exit(2);
+        }
+        Path baselineDir = Path.of(args[0]);
+        Path resultsDir = Path.of(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        int regressions = 0;
+        List<Path> baselines;
+        try (Stream<Path> files = Files.list(baselineDir)) {
+            baselines = files.filter(f -> f.toString().endsWith(".csv")).sorted().toList();
+        }
+        for (Path baselineFile : baselines) {
+            Path resultFile = resultsDir.resolve(baselineFile.getFileName());
+            if (!Files.exists(resultFile)) {
+                System.out.println("Нет результатов для " + baselineFile.getFileName());
+                continue;
+            }
+            Map<String, Row> baseline = read(baselineFile);
+            Map<String, Row> results = read(resultFile);
+            System.out.println("== " + baselineFile.getFileName());
+            for (var entry : baseline.entrySet()) {
+                Row before = entry.getValue();
+                Row after = results.get(entry.getKey());
+                if (after == null || !tracked(entry.getKey())) {
+                    continue;
+                }
+                boolean higherIsWorse = entry.getKey().contains(":") || !before.mode.equals("thrpt");
+                double change = before.score == 0 ? 0 : (after.score - before.score) / before.score * 100;
+                boolean regressed = (higherIsWorse ? change : -change) > threshold
+                        && Math.abs(after.score - before.score) > before.error + after.error;
+                if (regressed) {
+                    regressions++;
+                }
+                System.out.printf(Locale.ROOT, "%s %-90s %12.3f -> %12.3f %-10s %+7.1f%%%n",
+                        regressed ? "!!" : "  ", entry.getKey(), before.score, after.score, before.unit, change);
+            }
+        }
+        System.out.println(regressions == 0 ? "Регрессий не обнаружено" : "Регрессий: " + regressions);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static boolean tracked(String key) {
+        int metric = key.indexOf(':');
+        return metric < 0 || key.startsWith("gc.alloc.rate.norm", metric + 1)
+                || key.startsWith("·gc.alloc.rate.norm", metric + 1);
+    }
+
+    private static Map<String, Row> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        List<String> header = split(lines.get(0));
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> fields = split(line);
+            String benchmark = fields.get(0);
+            int metric = benchmark.indexOf(':');
+            StringBuilder key = new StringBuilder(metric < 0 ? benchmark : benchmark.substring(0, metric));
+            key.append(" t=").append(fields.get(2));
+            for (int i = 7; i < fields.size(); i++) {
+                key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+            }
+            if (metric >= 0) {
+                key.append(' ').append(benchmark.substring(metric));
+            }
+            rows.put(key.toString(), new Row(fields.get(1), parse(fields.get(4)), parse(fields.get(5)), fields.get(6)));
+        }
+        return rows;
+    }
+
+    private static double parse(String value) {
+        return value.isEmpty() || value.equals("NaN") ? 0 : Double.parseDouble(value);
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
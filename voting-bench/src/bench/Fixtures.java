@@ -0,0 +1,43 @@
+package bench;
+
+/**
+ * The application lives in the unnamed package, which named packages cannot import, while JMH refuses
+ * benchmarks outside a named package. Fixtures are therefore written next to the application classes and
+ * reached through the small interfaces below; the lookup happens once per trial and calls are monomorphic.
+ */
+public final class Fixtures {
+    private Fixtures() {
+    }
+
+    public interface Dispatch {
+        void setUp(String command, int options);
+
+        Object dispatch();
+    }
+
+    public interface Tally {
+        void setUp();
+
+        Object castVote(int thread, long sequence);
+
+        Object cast(int thread, long sequence);
+    }
+
+    public interface Codec {
+        void setUp(String format, String kind);
+
+        Object encode();
+
+        Object decode();
+
+        void tearDown();
+    }
+
+    public static <T> T load(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Не найдена нагрузка " + className, e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerDispatchBenchmark {
+
+    @Param({"login", "view", "view_topic", "view_vote", "vote", "vote_duplicate", "vote_batch", "create_vote"})
+    public String command;
+
+    private Fixtures.Dispatch fixture;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        fixture = Fixtures.load("HandlerDispatchFixture", Fixtures.Dispatch.class);
+        fixture.setUp(command, 4);
+    }
+
+    @Benchmark
+    public Object channelRead0() {
+        return fixture.dispatch();
+    }
+}
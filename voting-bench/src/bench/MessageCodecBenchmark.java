@@ -0,0 +1,43 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"binary", "serialized"})
+    public String format;
+
+    @Param({"vote", "create_vote", "reply"})
+    public String kind;
+
+    private Fixtures.Codec fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = Fixtures.load("CodecRoundTripFixture", Fixtures.Codec.class);
+        fixture.setUp(format, kind);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public Object encode() {
+        return fixture.encode();
+    }
+
+    @Benchmark
+    public Object decode() {
+        return fixture.decode();
+    }
+}
@@ -0,0 +1,30 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewVoteBenchmark {
+
+    @Param({"2", "8", "32", "128"})
+    public int options;
+
+    private Fixtures.Dispatch fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = Fixtures.load("HandlerDispatchFixture", Fixtures.Dispatch.class);
+        fixture.setUp("view_vote", options);
+    }
+
+    @Benchmark
+    public Object render() {
+        return fixture.dispatch();
+    }
+}
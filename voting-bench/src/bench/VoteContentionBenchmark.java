@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run with -t 1, -t 2, ... -t max to sweep contention; run-benchmarks.sh does this. castVote goes through the
+ * state, cast through the poll handle alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoteContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedPoll {
+        final AtomicInteger threads = new AtomicInteger();
+        Fixtures.Tally fixture;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            fixture = Fixtures.load("TallyContentionFixture", Fixtures.Tally.class);
+            fixture.setUp();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Voter {
+        int thread;
+        long sequence;
+
+        @Setup(Level.Trial)
+        public void setUp(SharedPoll poll) {
+            thread = poll.threads.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    public Object castVote(SharedPoll poll, Voter voter) {
+        return poll.fixture.castVote(voter.thread, voter.sequence++);
+    }
+
+    @Benchmark
+    public Object cast(SharedPoll poll, Voter voter) {
+        return poll.fixture.cast(voter.thread, voter.sequence++);
+    }
+}